@@ -0,0 +1,184 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.test.support;
+
+import com.jitlogic.zorka.common.tracedata.FressianTraceFormat;
+import com.jitlogic.zorka.common.tracedata.HelloRequest;
+import com.jitlogic.zorka.common.tracedata.TraceRecord;
+import com.jitlogic.zorka.common.zico.ZicoCommonUtil;
+import com.jitlogic.zorka.common.zico.ZicoConnector;
+import com.jitlogic.zorka.common.zico.ZicoPacket;
+import org.fressian.FressianReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal ZICO collector for tests: acknowledges all packets and counts received trace records.
+ * It can be told to break connection after receiving given number of data packets. It negotiates
+ * payload compression unless told to behave like old collector.
+ */
+public class TestZicoServer implements Runnable {
+
+    private ServerSocket serverSocket;
+
+    private volatile boolean running = true;
+
+    private AtomicInteger packets = new AtomicInteger(0), records = new AtomicInteger(0),
+            connections = new AtomicInteger(0);
+
+    private volatile int failAfter = -1;
+
+    private volatile boolean compression = true;
+
+
+    public TestZicoServer() throws IOException {
+        serverSocket = new ServerSocket(0);
+        Thread thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                Thread t = new Thread(new Handler(socket));
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        }
+    }
+
+
+    public void stop() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+
+    public int getPackets() {
+        return packets.get();
+    }
+
+
+    public int getRecords() {
+        return records.get();
+    }
+
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+
+    /**
+     * Server will break connection instead of acknowledging data packet after given number of packets.
+     */
+    public void setFailAfter(int failAfter) {
+        this.failAfter = failAfter;
+    }
+
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+
+    private class Handler extends ZicoConnector implements Runnable {
+
+        private Handler(Socket socket) throws IOException {
+            this.socket = socket;
+            this.addr = socket.getInetAddress();
+            this.port = socket.getPort();
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    ZicoPacket pkt = recv();
+                    if (pkt.getStatus() == ZicoPacket.ZICO_HELLO) {
+                        hello(pkt);
+                        continue;
+                    }
+                    if (pkt.getStatus() == ZicoPacket.ZICO_DATA) {
+                        if (failAfter >= 0 && packets.get() >= failAfter) {
+                            break;
+                        }
+                        records.addAndGet(count(pkt.getData()));
+                        packets.incrementAndGet();
+                    }
+                    send(ZicoPacket.ZICO_OK);
+                }
+            } catch (IOException e) {
+                // Client disconnected
+            }
+
+            try {
+                close();
+            } catch (IOException e) {
+            }
+        }
+
+        private void hello(ZicoPacket pkt) throws IOException {
+            List<Object> lst = ZicoCommonUtil.unpack(pkt.getData());
+            String codec = null;
+            if (compression && lst.size() > 0 && lst.get(0) instanceof HelloRequest) {
+                codec = negotiate(((HelloRequest) lst.get(0)).getCodecs());
+            }
+            if (codec != null) {
+                send(ZicoPacket.ZICO_OK, ZicoCommonUtil.pack(codec));
+            } else {
+                send(ZicoPacket.ZICO_OK);
+            }
+        }
+
+        private int count(byte[] data) throws IOException {
+            FressianReader reader = new FressianReader(new ByteArrayInputStream(data), FressianTraceFormat.READ_LOOKUP);
+            int n = 0;
+            try {
+                Object obj;
+                while (null != (obj = reader.readObject())) {
+                    if (obj instanceof TraceRecord) {
+                        n++;
+                    }
+                }
+            } catch (EOFException e) {
+            }
+            return n;
+        }
+    }
+}
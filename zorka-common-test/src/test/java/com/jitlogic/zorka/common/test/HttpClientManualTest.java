@@ -0,0 +1,108 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.test;
+
+import com.jitlogic.zorka.common.http.HttpBodyWriter;
+import com.jitlogic.zorka.common.http.HttpClient;
+import com.jitlogic.zorka.common.http.HttpRequest;
+import com.jitlogic.zorka.common.http.JdkHttpClient;
+import com.jitlogic.zorka.common.http.PooledHttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * Measures requests/second of HTTP clients against local server for small and large request bodies.
+ */
+public class HttpClientManualTest {
+
+    private static void run(String name, HttpClient client, String url, final byte[] body,
+                            boolean gzip, int count) throws Exception {
+        HttpBodyWriter writer = new HttpBodyWriter() {
+            @Override
+            public void write(OutputStream os) throws IOException {
+                os.write(body);
+            }
+        };
+
+        long t1 = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            new HttpRequest(client, url).method("POST").gzip(gzip).body(writer).go();
+        }
+
+        long t = System.nanoTime() - t1;
+
+        System.out.println(name + " (body=" + body.length + ", gzip=" + gzip + "): "
+                + (count * 1000000000L / t) + " req/s");
+    }
+
+
+    @Test
+    public void testHttpClientThroughput() throws Exception {
+        // Otherwise test server sends response headers and body in separate delayed packets
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                InputStream is = ex.getRequestBody();
+                byte[] b = new byte[65536];
+                while (is.read(b) >= 0) {
+                    // discard
+                }
+                byte[] resp = "OK".getBytes();
+                ex.sendResponseHeaders(200, resp.length);
+                ex.getResponseBody().write(resp);
+                ex.close();
+            }
+        });
+        server.start();
+
+        byte[] small = new byte[100], large = new byte[1024 * 1024];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) ('a' + (i * 7 + i / 13) % 26);
+        }
+        System.arraycopy(large, 0, small, 0, small.length);
+
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        PooledHttpClient pooled = new PooledHttpClient(4, 30000, 30000);
+        JdkHttpClient jdk = new JdkHttpClient();
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                run("jdk", jdk, url, small, false, 5000);
+                run("pooled", pooled, url, small, false, 5000);
+                run("jdk", jdk, url, large, false, 100);
+                run("pooled", pooled, url, large, false, 100);
+                run("jdk", jdk, url, large, true, 100);
+                run("pooled", pooled, url, large, true, 100);
+            }
+        } finally {
+            pooled.close();
+            server.stop(0);
+        }
+    }
+}
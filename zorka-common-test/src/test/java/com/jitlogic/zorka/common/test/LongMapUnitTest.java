@@ -0,0 +1,76 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.test;
+
+import com.jitlogic.zorka.common.util.LongMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongMapUnitTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongMap<String> map = new LongMap<String>(4);
+
+        assertNull(map.put(1L, "a"));
+        assertNull(map.put(-1L, "b"));
+        assertEquals("a", map.put(1L, "c"));
+
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(1L));
+        assertEquals("b", map.get(-1L));
+        assertNull(map.get(2L));
+
+        assertEquals("c", map.remove(1L));
+        assertNull(map.remove(1L));
+        assertEquals(1, map.size());
+    }
+
+
+    @Test
+    public void testRandomOperationsAgainstHashMap() {
+        LongMap<Long> map = new LongMap<Long>(4);
+        Map<Long, Long> ref = new HashMap<Long, Long>();
+        Random rand = new Random(1);
+
+        for (int i = 0; i < 100000; i++) {
+            long key = rand.nextInt(512) * 64L;
+            if (rand.nextBoolean()) {
+                assertEquals(ref.put(key, (long) i), map.put(key, (long) i));
+            } else {
+                assertEquals(ref.remove(key), map.remove(key));
+            }
+        }
+
+        assertEquals(ref.size(), map.size());
+
+        int n = 0;
+        for (int i = 0; i < map.slots(); i++) {
+            if (map.valueAt(i) != null) {
+                assertEquals(ref.get(map.keyAt(i)), map.valueAt(i));
+                n++;
+            }
+        }
+        assertEquals(ref.size(), n);
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.test;
+
+import com.jitlogic.zorka.common.http.HttpBodyWriter;
+import com.jitlogic.zorka.common.http.HttpRequest;
+import com.jitlogic.zorka.common.http.HttpResponse;
+import com.jitlogic.zorka.common.http.PooledHttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import com.jitlogic.zorka.common.test.support.TestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class PooledHttpClientUnitTest {
+
+    private HttpServer server;
+    private String url;
+
+    private List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private List<String> encodings = Collections.synchronizedList(new ArrayList<String>());
+    private List<Integer> ports = Collections.synchronizedList(new ArrayList<Integer>());
+
+    private PooledHttpClient client = new PooledHttpClient(4, 10000, 5000);
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                InputStream is = ex.getRequestBody();
+                encodings.add(ex.getRequestHeaders().getFirst("Transfer-Encoding"));
+                if ("gzip".equals(ex.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    is = new GZIPInputStream(is);
+                }
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                byte[] b = new byte[4096];
+                for (int n = is.read(b); n >= 0; n = is.read(b)) {
+                    bos.write(b, 0, n);
+                }
+                bodies.add(bos.toString("UTF-8"));
+                ports.add(ex.getRemoteAddress().getPort());
+                byte[] resp = (ex.getRequestMethod() + " " + ex.getRequestURI()).getBytes("UTF-8");
+                ex.sendResponseHeaders(200, resp.length);
+                ex.getResponseBody().write(resp);
+                ex.close();
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                ex.sendResponseHeaders(204, -1);
+                ex.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        client.close();
+        server.stop(0);
+    }
+
+
+    @Test
+    public void testSimpleGetRequest() throws Exception {
+        HttpResponse resp = new HttpRequest(client, url + "/echo").params("a", "1").go();
+
+        assertThat(resp.getResponseCode()).isEqualTo(200);
+        assertThat(resp.body()).isEqualTo("GET /echo?a=1");
+    }
+
+
+    @Test
+    public void testReuseConnectionForSubsequentRequests() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            HttpResponse resp = new HttpRequest(client, url + "/echo").method("POST").body("req" + i).go();
+            assertThat(resp.getResponseCode()).isEqualTo(200);
+        }
+
+        assertThat(bodies.get(9)).isEqualTo("req9");
+        assertThat(client.getConnects()).isEqualTo(1);
+        assertThat(client.getReuses()).isEqualTo(9);
+        assertThat(new HashSet<Integer>(ports).size()).isEqualTo(1);
+        assertThat(client.idle()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void testDoNotReuseConnectionsAfterIdleTimeout() throws Exception {
+        client = new PooledHttpClient(4, 0, 5000);
+
+        for (int i = 0; i < 3; i++) {
+            new HttpRequest(client, url + "/echo").go();
+        }
+
+        assertThat(client.getConnects()).isEqualTo(3);
+        assertThat(new HashSet<Integer>(ports).size()).isEqualTo(3);
+    }
+
+
+    @Test
+    public void testSendStreamingCompressedBody() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+
+        for (int i = 0; i < 2; i++) {
+            HttpResponse resp = new HttpRequest(client, url + "/echo").method("POST").gzip(true)
+                    .body(new HttpBodyWriter() {
+                        @Override
+                        public void write(OutputStream os) throws IOException {
+                            os.write(sb.toString().getBytes("UTF-8"));
+                        }
+                    }).go();
+            assertThat(resp.getResponseCode()).isEqualTo(200);
+        }
+
+        assertThat(encodings.get(0)).isEqualTo("chunked");
+        assertThat(bodies.get(0)).isEqualTo(sb.toString());
+        assertThat(bodies.get(1)).isEqualTo(sb.toString());
+        assertThat(client.getConnects()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void testSendCompressedStringBody() throws Exception {
+        new HttpRequest(client, url + "/echo").method("POST").gzip(true).body("some data").go();
+
+        assertThat(encodings.get(0)).isNull();
+        assertThat(bodies.get(0)).isEqualTo("some data");
+    }
+
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testPerRequestTimeout() throws Exception {
+        new HttpRequest(client, url + "/slow").timeout(100).go();
+    }
+
+
+    @Test
+    public void testRetryRequestWhenPooledConnectionClosedByServer() throws Exception {
+        // Test server closes connection after 204 response without announcing it
+        HttpResponse resp1 = new HttpRequest(client, url + "/slow").go();
+        HttpResponse resp2 = new HttpRequest(client, url + "/echo").go();
+
+        assertThat(resp1.getResponseCode()).isEqualTo(204);
+        assertThat(resp2.getResponseCode()).isEqualTo(200);
+        assertThat(client.getConnects()).isEqualTo(2);
+        assertThat(client.getRetries()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void testDoNotResendNonIdempotentRequestAfterItWasSent() throws Exception {
+        new HttpRequest(client, url + "/slow").go();
+
+        try {
+            new HttpRequest(client, url + "/echo").method("POST").body("data").go();
+            fail("POST should not be retried on a stale connection.");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertThat(client.getRetries()).isEqualTo(0);
+        assertThat(bodies.size()).isEqualTo(0);
+    }
+
+
+    @Test
+    public void testLimitNumberOfActiveConnections() throws Exception {
+        client = new PooledHttpClient(1, 4, 10000, 5000);
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new HttpRequest(client, url + "/slow").go();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+
+        try {
+            new HttpRequest(client, url + "/echo").timeout(100).go();
+            fail("Request should time out waiting for free connection.");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("free connection");
+        }
+
+        t.join();
+
+        assertThat(new HttpRequest(client, url + "/echo").go().getResponseCode()).isEqualTo(200);
+    }
+
+
+    /**
+     * Creates self-signed certificate for given host name and returns SSL context using it
+     * both as server key and as the only trusted certificate.
+     */
+    private SSLContext sslContext(String host) throws Exception {
+        File dir = new File("/tmp/zorka-unit-test/ssl");
+        TestUtil.rmrf(dir);
+        dir.mkdirs();
+        File ks = new File(dir, host + ".jks");
+
+        Process p = Runtime.getRuntime().exec(new String[]{
+                System.getProperty("java.home") + "/bin/keytool", "-genkeypair", "-keyalg", "RSA",
+                "-alias", "test", "-dname", "CN=" + host, "-ext", "SAN=dns:" + host, "-validity", "1",
+                "-keystore", ks.getPath(), "-storepass", "changeit", "-keypass", "changeit"});
+        assertThat(p.waitFor()).isEqualTo(0);
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream is = new FileInputStream(ks);
+        try {
+            keyStore.load(is, "changeit".toCharArray());
+        } finally {
+            is.close();
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "changeit".toCharArray());
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return ctx;
+    }
+
+
+    private HttpsServer httpsServer(SSLContext ctx) throws Exception {
+        HttpsServer srv = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+        srv.setHttpsConfigurator(new HttpsConfigurator(ctx));
+        srv.createContext("/hello", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                ex.sendResponseHeaders(204, -1);
+                ex.close();
+            }
+        });
+        srv.start();
+        return srv;
+    }
+
+
+    @Test
+    public void testHttpsWithMatchingHostName() throws Exception {
+        SSLContext ctx = sslContext("localhost");
+        HttpsServer srv = httpsServer(ctx);
+        client.setSslSocketFactory(ctx.getSocketFactory());
+
+        try {
+            assertThat(new HttpRequest(client, "https://localhost:" + srv.getAddress().getPort() + "/hello")
+                    .go().getResponseCode()).isEqualTo(204);
+        } finally {
+            srv.stop(0);
+        }
+    }
+
+
+    @Test
+    public void testHttpsRejectsCertificateForOtherHost() throws Exception {
+        SSLContext ctx = sslContext("wrong.example.com");
+        HttpsServer srv = httpsServer(ctx);
+        client.setSslSocketFactory(ctx.getSocketFactory());
+
+        try {
+            new HttpRequest(client, "https://localhost:" + srv.getAddress().getPort() + "/hello").go();
+            fail("Certificate issued for other host should be rejected.");
+        } catch (IOException e) {
+            // Expected: host name verification failure
+        } finally {
+            srv.stop(0);
+        }
+    }
+}
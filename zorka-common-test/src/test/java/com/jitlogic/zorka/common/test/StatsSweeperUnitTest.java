@@ -0,0 +1,117 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.test;
+
+import com.jitlogic.zorka.common.stats.MethodCallStatistic;
+import com.jitlogic.zorka.common.stats.MethodCallStatistics;
+import com.jitlogic.zorka.common.stats.StatsSweeper;
+import com.jitlogic.zorka.common.stats.TopMethodCallStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatsSweeperUnitTest {
+
+    private StatsSweeper sweeper;
+
+    @Before
+    public void setUp() {
+        sweeper = new StatsSweeper();
+        sweeper.setTtl(2);
+    }
+
+
+    @Test
+    public void testEvictIdleStatistics() {
+        MethodCallStatistics stats = new MethodCallStatistics();
+        sweeper.register(stats);
+
+        stats.getMethodCallStatistic("A").logCall(10);
+        stats.getMethodCallStatistic("B").logCall(10);
+
+        assertEquals(0, sweeper.runCycle());
+        assertEquals(0, sweeper.runCycle());
+        stats.getMethodCallStatistic("A").logCall(10);
+
+        assertEquals(1, sweeper.runCycle());
+        assertNotNull(stats.getStatistic("A"));
+        assertNull(stats.getStatistic("B"));
+        assertEquals(1L, sweeper.getEvictions());
+
+        sweeper.runCycle();
+        sweeper.runCycle();
+        assertEquals(0, stats.getStatisticNames().length);
+    }
+
+
+    @Test
+    public void testDoNotEvictPinnedOrRunningStatistics() {
+        MethodCallStatistics stats = new MethodCallStatistics();
+        sweeper.register(stats);
+
+        stats.getMethodCallStatistic("A").pin();
+        stats.getMethodCallStatistic("B").markEnter();
+        stats.getMethodCallStatistic("C").logCall(10);
+
+        for (int i = 0; i < 4; i++) {
+            sweeper.runCycle();
+        }
+
+        assertNotNull(stats.getStatistic("A"));
+        assertNotNull(stats.getStatistic("B"));
+        assertNull(stats.getStatistic("C"));
+
+        ((MethodCallStatistic) stats.getStatistic("B")).markExit();
+        sweeper.runCycle();
+        assertNull(stats.getStatistic("B"));
+    }
+
+
+    @Test
+    public void testIdleTopStatisticsAreFoldedIntoOther() {
+        TopMethodCallStatistics stats = new TopMethodCallStatistics(4);
+        sweeper.register(stats);
+
+        stats.getMethodCallStatistic("A").logCall(10);
+        stats.getMethodCallStatistic("B").logCall(20);
+
+        for (int i = 0; i < 4; i++) {
+            sweeper.runCycle();
+        }
+
+        assertNull(stats.getStatistic("A"));
+        assertEquals(2L, ((MethodCallStatistic) stats.getStatistic(TopMethodCallStatistics.OTHER)).getCalls());
+    }
+
+
+    @Test
+    public void testNoEvictionsWithoutTtl() {
+        MethodCallStatistics stats = new MethodCallStatistics();
+        sweeper.register(stats);
+        sweeper.setTtl(0);
+
+        stats.getMethodCallStatistic("A").logCall(10);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, sweeper.runCycle());
+        }
+
+        assertNotNull(stats.getStatistic("A"));
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.test;
+
+import com.jitlogic.zorka.common.stats.MethodCallStatistic;
+import com.jitlogic.zorka.common.stats.TopMethodCallStatistics;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TopMethodCallStatsUnitTest {
+
+    @Test
+    public void testKeepStatsUntilCapacityReached() {
+        TopMethodCallStatistics stats = new TopMethodCallStatistics(3);
+
+        stats.getMethodCallStatistic("A").logCall(10);
+        stats.getMethodCallStatistic("B").logCall(10);
+        stats.getMethodCallStatistic("A").logCall(10);
+
+        assertEquals(2, stats.getStatisticNames().length);
+        assertEquals(2L, ((MethodCallStatistic) stats.getStatistic("A")).getCalls());
+        assertEquals(0L, stats.getEvictions());
+        assertEquals(0L, stats.getMinHits());
+    }
+
+
+    @Test
+    public void testEvictLeastHitKeyIntoOtherBucket() {
+        TopMethodCallStatistics stats = new TopMethodCallStatistics(2);
+
+        for (int i = 0; i < 5; i++) {
+            stats.getMethodCallStatistic("A").logCall(10);
+        }
+        stats.getMethodCallStatistic("B").logCall(20);
+        stats.getMethodCallStatistic("B").logError(20);
+
+        TopMethodCallStatistics.TopStatistic c = (TopMethodCallStatistics.TopStatistic) stats.getMethodCallStatistic("C");
+        c.logCall(30);
+
+        assertNull(stats.getStatistic("B"));
+        assertEquals(1L, stats.getEvictions());
+        assertEquals(new HashSet<String>(Arrays.asList("A", "C", "OTHER")),
+                new HashSet<String>(Arrays.asList(stats.getStatisticNames())));
+
+        MethodCallStatistic other = (MethodCallStatistic) stats.getStatistic("OTHER");
+        assertEquals(2L, other.getCalls());
+        assertEquals(1L, other.getErrors());
+        assertEquals(40L, other.getTimeNs());
+
+        // C inherits hit count of evicted B as its error bound
+        assertEquals(3L, c.getHits());
+        assertEquals(2L, c.getHitsError());
+        assertEquals(1L, c.getCalls());
+    }
+
+
+    @Test
+    public void testExplicitOtherKeyGoesToOtherBucket() {
+        TopMethodCallStatistics stats = new TopMethodCallStatistics(1);
+
+        stats.getMethodCallStatistic("OTHER").logCall(10);
+
+        assertEquals(0, stats.getEvictions());
+        assertEquals(1L, ((MethodCallStatistic) stats.getStatistic("OTHER")).getCalls());
+        assertEquals(Arrays.asList("OTHER"), Arrays.asList(stats.getStatisticNames()));
+    }
+
+
+    @Test
+    public void testHeavyHittersSurviveLongTail() {
+        TopMethodCallStatistics stats = new TopMethodCallStatistics(16);
+        Random rand = new Random(42);
+        long calls = 0;
+
+        for (int i = 0; i < 100000; i++) {
+            // Every other call hits one of 4 heavy keys, remaining ones are (almost) unique.
+            String key = (i & 1) == 0 ? "HEAVY" + rand.nextInt(4) : "Q" + rand.nextInt(1000000);
+            stats.getMethodCallStatistic(key).logCall(1);
+            calls++;
+        }
+
+        Set<String> names = new HashSet<String>(Arrays.asList(stats.getStatisticNames()));
+
+        assertEquals(17, names.size());
+
+        long total = 0;
+        for (String name : names) {
+            total += ((MethodCallStatistic) stats.getStatistic(name)).getCalls();
+        }
+        assertEquals(calls, total);
+
+        for (int i = 0; i < 4; i++) {
+            TopMethodCallStatistics.TopStatistic st = (TopMethodCallStatistics.TopStatistic) stats.getStatistic("HEAVY" + i);
+            assertNotNull("HEAVY" + i + " should be tracked", st);
+            assertTrue(st.getHits() - st.getHitsError() <= st.getCalls() + st.getHitsError());
+            assertTrue(st.getHits() > stats.getMinHits());
+        }
+    }
+
+
+    @Test
+    public void testLateUpdatesOfEvictedStatGoToOtherBucket() {
+        TopMethodCallStatistics stats = new TopMethodCallStatistics(1);
+
+        MethodCallStatistic a = stats.getMethodCallStatistic("A");
+        a.logCall(10);
+        stats.getMethodCallStatistic("B").logCall(20);
+
+        // Caller still holding evicted statistic
+        a.logCall(30);
+        a.logError(40);
+
+        MethodCallStatistic other = (MethodCallStatistic) stats.getStatistic("OTHER");
+        assertEquals(3L, other.getCalls());
+        assertEquals(1L, other.getErrors());
+        assertEquals(80L, other.getTimeNs());
+        assertEquals(0L, a.getCalls());
+    }
+
+
+    @Test
+    public void testEvictRealMinimumAfterUnlockedHits() {
+        TopMethodCallStatistics stats = new TopMethodCallStatistics(3);
+
+        stats.getMethodCallStatistic("A");
+        stats.getMethodCallStatistic("B");
+        stats.getMethodCallStatistic("C");
+
+        // Hits incremented after keys were placed in heap
+        for (int i = 0; i < 5; i++) {
+            stats.getMethodCallStatistic("A");
+            stats.getMethodCallStatistic("C");
+        }
+
+        stats.getMethodCallStatistic("D");
+
+        assertNull(stats.getStatistic("B"));
+        assertNotNull(stats.getStatistic("A"));
+        assertNotNull(stats.getStatistic("C"));
+        assertEquals(2L, stats.getMinHits());
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.test;
+
+import com.jitlogic.zorka.common.test.support.TestUtil;
+import com.jitlogic.zorka.common.test.support.TestZicoServer;
+import com.jitlogic.zorka.common.tracedata.BlockTraceOutputStream;
+import com.jitlogic.zorka.common.tracedata.FressianTraceFormat;
+import com.jitlogic.zorka.common.tracedata.Symbol;
+import com.jitlogic.zorka.common.tracedata.TraceRecord;
+import com.jitlogic.zorka.common.zico.ZicoBulkLoader;
+import com.jitlogic.zorka.common.zico.ZicoDataLoader;
+import org.fressian.FressianWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ZicoBulkLoaderUnitTest {
+
+    private File dir = new File("/tmp/zorka-unit-test/bulk");
+
+    private TestZicoServer server;
+
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtil.rmrf(dir.getPath());
+        dir.mkdirs();
+        server = new TestZicoServer();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+
+    private File traceFile(String name, int nrecs) throws Exception {
+        File f = new File(dir, name);
+        OutputStream os = new FileOutputStream(f);
+        os.write(new byte[]{'Z', 'T', 'R', 'C'});
+        FressianWriter writer = new FressianWriter(os, FressianTraceFormat.WRITE_LOOKUP);
+        writeRecords(writer, nrecs);
+        writer.close();
+        return f;
+    }
+
+
+    private void writeRecords(FressianWriter writer, int nrecs) throws Exception {
+        writer.writeObject(new Symbol(1, "some.Class"));
+        writer.writeObject(new Symbol(2, "someMethod"));
+        writer.writeObject(new Symbol(3, "()V"));
+        for (int i = 0; i < nrecs; i++) {
+            TraceRecord tr = new TraceRecord();
+            tr.setClassId(1);
+            tr.setMethodId(2);
+            tr.setSignatureId(3);
+            tr.setTime(1000 + i);
+            tr.setCalls(1);
+            writer.writeObject(tr);
+        }
+    }
+
+
+    private File blockTraceFile(String name, int nblocks, int nrecs) throws Exception {
+        File f = new File(dir, name);
+        BlockTraceOutputStream os = new BlockTraceOutputStream(new FileOutputStream(f),
+                BlockTraceOutputStream.CODEC_LZ4, 4096);
+        for (int b = 0; b < nblocks; b++) {
+            // Each block is decodable on its own
+            FressianWriter writer = new FressianWriter(os, FressianTraceFormat.WRITE_LOOKUP);
+            writeRecords(writer, nrecs);
+            os.endBlock();
+        }
+        os.close();
+        return f;
+    }
+
+
+    @Test
+    public void testLoadMultipleFilesInParallel() throws Exception {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 4; i++) {
+            files.add(traceFile("trace" + i + ".trc", 500));
+        }
+
+        ZicoBulkLoader loader = new ZicoBulkLoader("127.0.0.1", server.getPort(), "test", "", 2);
+        loader.setPacketSize(1024);
+        loader.setWindow(4);
+
+        assertTrue(loader.load(files));
+
+        assertEquals(2000, server.getRecords());
+        assertEquals(2000L, loader.getRecords());
+        assertEquals(4, loader.getFilesLoaded());
+        assertTrue(server.getPackets() > 4);
+        assertTrue(loader.getMBps() > 0.0);
+        assertTrue(loader.getRecordsPerSec() > 0.0);
+
+        // Second run skips files already loaded (without connecting to collector)
+        int connections = server.getConnections();
+        loader = new ZicoBulkLoader("127.0.0.1", server.getPort(), "test", "", 2);
+        assertTrue(loader.load(files));
+        assertEquals(4, loader.getFilesSkipped());
+        assertEquals(2000, server.getRecords());
+        assertEquals(connections, server.getConnections());
+    }
+
+
+    @Test
+    public void testLoadBlockRangesOfOneFileInParallel() throws Exception {
+        File f = blockTraceFile("trace.ztr", 10, 50);
+
+        ZicoBulkLoader loader = new ZicoBulkLoader("127.0.0.1", server.getPort(), "test", "", 3);
+        loader.setPacketSize(1024);
+        loader.setBlockRange(2);
+
+        assertTrue(loader.load(Collections.singletonList(f)));
+
+        assertEquals(500, server.getRecords());
+        assertEquals(500L, loader.getRecords());
+        assertEquals(1, loader.getFilesLoaded());
+        assertEquals(5, server.getConnections());
+        for (int b = 0; b < 10; b += 2) {
+            assertTrue(ZicoDataLoader.isDone(ZicoBulkLoader.checkpointFile(f, b)));
+        }
+
+        loader = new ZicoBulkLoader("127.0.0.1", server.getPort(), "test", "", 3);
+        loader.setBlockRange(2);
+        assertTrue(loader.load(Collections.singletonList(f)));
+        assertEquals(1, loader.getFilesSkipped());
+        assertEquals(500, server.getRecords());
+        assertEquals(5, server.getConnections());
+    }
+
+
+    @Test
+    public void testResumeInterruptedLoad() throws Exception {
+        File f = traceFile("trace.trc", 1000);
+        File ckpt = ZicoBulkLoader.checkpointFile(f);
+
+        server.setFailAfter(3);
+
+        ZicoDataLoader loader = new ZicoDataLoader("127.0.0.1", server.getPort(), "test", "");
+        loader.setPacketSize(1024);
+        loader.setWindow(2);
+
+        try {
+            loader.load(f, ckpt);
+            fail("Load should have been interrupted.");
+        } catch (Exception e) {
+            // Collector broke connection
+        }
+        loader.close();
+
+        assertTrue(ckpt.exists());
+        int loaded = server.getRecords();
+        assertEquals(loaded, loader.getRecords());
+        assertTrue(loaded > 0 && loaded < 1000);
+
+        server.setFailAfter(-1);
+
+        loader = new ZicoDataLoader("127.0.0.1", server.getPort(), "test", "");
+        loader.setPacketSize(1024);
+        assertTrue(loader.load(f, ckpt));
+        loader.close();
+
+        assertEquals(1000, server.getRecords());
+        assertEquals(1000 - loaded, loader.getRecords());
+    }
+
+
+    @Test
+    public void testTruncatedFileIsNotMarkedDone() throws Exception {
+        File f = traceFile("trace.trc", 1000);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        ZicoBulkLoader loader = new ZicoBulkLoader("127.0.0.1", server.getPort(), "test", "", 1);
+        loader.setPacketSize(1024);
+        loader.setWindow(1);
+        assertFalse(loader.load(Collections.singletonList(f)));
+
+        assertEquals(1, loader.getFilesFailed());
+        assertEquals("false", TestUtil.loadProps(ZicoBulkLoader.checkpointFile(f).getPath()).getProperty("done"));
+    }
+
+
+    @Test
+    public void testCorruptCheckpointCountsAsFailure() throws Exception {
+        File f = traceFile("trace.trc", 100);
+        OutputStream os = new FileOutputStream(ZicoBulkLoader.checkpointFile(f));
+        os.write("records=garbage\n".getBytes());
+        os.close();
+
+        ZicoBulkLoader loader = new ZicoBulkLoader("127.0.0.1", server.getPort(), "test", "", 1);
+        assertFalse(loader.load(Collections.singletonList(f)));
+
+        assertEquals(1, loader.getFilesFailed());
+        assertEquals(0, loader.getFilesLoaded());
+    }
+}
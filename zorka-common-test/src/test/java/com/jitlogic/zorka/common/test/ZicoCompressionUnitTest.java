@@ -0,0 +1,204 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.test;
+
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.common.test.support.TestUtil;
+import com.jitlogic.zorka.common.test.support.TestZicoServer;
+import com.jitlogic.zorka.common.tracedata.FressianTraceFormat;
+import com.jitlogic.zorka.common.tracedata.HelloRequest;
+import com.jitlogic.zorka.common.tracedata.Symbol;
+import com.jitlogic.zorka.common.tracedata.TraceRecord;
+import com.jitlogic.zorka.common.zico.ZicoCommonUtil;
+import com.jitlogic.zorka.common.zico.ZicoConnector;
+import com.jitlogic.zorka.common.zico.ZicoDataLoader;
+import com.jitlogic.zorka.common.zico.ZicoException;
+import com.jitlogic.zorka.common.zico.ZicoPacket;
+import org.fressian.FressianWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class ZicoCompressionUnitTest {
+
+    private File dir = new File("/tmp/zorka-unit-test/compress");
+
+    private TestZicoServer server;
+
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtil.rmrf(dir.getPath());
+        dir.mkdirs();
+        server = new TestZicoServer();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+
+    private File traceFile(int nrecs) throws Exception {
+        File f = new File(dir, "trace.trc");
+        OutputStream os = new FileOutputStream(f);
+        os.write(new byte[]{'Z', 'T', 'R', 'C'});
+        FressianWriter writer = new FressianWriter(os, FressianTraceFormat.WRITE_LOOKUP);
+        writer.writeObject(new Symbol(1, "some.Class"));
+        writer.writeObject(new Symbol(2, "someMethod"));
+        writer.writeObject(new Symbol(3, "()V"));
+        for (int i = 0; i < nrecs; i++) {
+            TraceRecord tr = new TraceRecord();
+            tr.setClassId(1);
+            tr.setMethodId(2);
+            tr.setSignatureId(3);
+            tr.setTime(1000 + i % 10);
+            tr.setCalls(1);
+            writer.writeObject(tr);
+        }
+        writer.close();
+        return f;
+    }
+
+
+    private ZicoDataLoader load(String codecs, int nrecs) throws Exception {
+        ZicoDataLoader loader = new ZicoDataLoader("127.0.0.1", server.getPort(), "test", "", codecs);
+        loader.setPacketSize(16384);
+        loader.load(traceFile(nrecs), new File(dir, "trace.zld"));
+        loader.close();
+        return loader;
+    }
+
+
+    @Test
+    public void testLz4CompressedLoad() throws Exception {
+        long pkts = AgentDiagnostics.get(AgentDiagnostics.ZICO_PACKETS_COMPRESSED);
+        long raw = AgentDiagnostics.get(AgentDiagnostics.ZICO_BYTES_RAW);
+        long comp = AgentDiagnostics.get(AgentDiagnostics.ZICO_BYTES_COMPRESSED);
+
+        ZicoDataLoader loader = load("lz4,deflate", 5000);
+
+        assertEquals(ZicoPacket.ZICO_LZ4, loader.getCodec());
+        assertEquals(5000, server.getRecords());
+
+        pkts = AgentDiagnostics.get(AgentDiagnostics.ZICO_PACKETS_COMPRESSED) - pkts;
+        raw = AgentDiagnostics.get(AgentDiagnostics.ZICO_BYTES_RAW) - raw;
+        comp = AgentDiagnostics.get(AgentDiagnostics.ZICO_BYTES_COMPRESSED) - comp;
+
+        assertEquals((long) server.getPackets(), pkts);
+        assertTrue("Should compress repetitive data at least 2x", comp * 2 < raw);
+    }
+
+
+    @Test
+    public void testDeflateCompressedLoad() throws Exception {
+        ZicoDataLoader loader = load("zstd, deflate", 5000);
+
+        assertEquals(ZicoPacket.ZICO_DEFLATE, loader.getCodec());
+        assertEquals(5000, server.getRecords());
+    }
+
+
+    @Test
+    public void testUncompressedLoadWithOldCollector() throws Exception {
+        server.setCompression(false);
+        long pkts = AgentDiagnostics.get(AgentDiagnostics.ZICO_PACKETS_COMPRESSED);
+
+        ZicoDataLoader loader = load("lz4", 5000);
+
+        assertEquals(0, loader.getCodec());
+        assertEquals(5000, server.getRecords());
+        assertEquals(pkts, AgentDiagnostics.get(AgentDiagnostics.ZICO_PACKETS_COMPRESSED));
+    }
+
+
+    @Test
+    public void testNegotiateCodec() {
+        assertEquals("lz4", ZicoConnector.negotiate("LZ4,deflate"));
+        assertEquals("deflate", ZicoConnector.negotiate("zstd,deflate"));
+        assertNull(ZicoConnector.negotiate("zstd"));
+        assertNull(ZicoConnector.negotiate(null));
+    }
+
+
+    @Test
+    public void testHelloRequestEncodingCompatibility() {
+        HelloRequest h1 = (HelloRequest) ZicoCommonUtil.unpack(
+                ZicoCommonUtil.pack(new HelloRequest(1, "test", "pass"))).get(0);
+        assertNull(h1.getCodecs());
+
+        HelloRequest h2 = (HelloRequest) ZicoCommonUtil.unpack(
+                ZicoCommonUtil.pack(new HelloRequest(1, "test", "pass", "lz4"))).get(0);
+        assertEquals("lz4", h2.getCodecs());
+        assertEquals("pass", h2.getAuth());
+    }
+
+
+    private static class StreamConnector extends ZicoConnector {
+        StreamConnector(byte[] data) {
+            in = new ByteArrayInputStream(data);
+        }
+
+        ZicoPacket recvPacket() throws Exception {
+            return recv();
+        }
+    }
+
+
+    private int recvWithRawLength(int codec, int rawLen) throws Exception {
+        byte[] data = new byte[16];
+        ByteBuffer.wrap(data).putInt(rawLen);
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteBuffer pkt = ByteBuffer.allocate(4 + ZicoConnector.HEADER_LENGTH + data.length);
+        for (int b : ZicoConnector.ZICO_MAGIC) {
+            pkt.put((byte) b);
+        }
+        pkt.putShort((short) (ZicoPacket.ZICO_DATA | codec));
+        pkt.putInt(data.length);
+        pkt.putLong(crc.getValue());
+        pkt.put(data);
+
+        try {
+            new StreamConnector(pkt.array()).recvPacket();
+        } catch (ZicoException e) {
+            return e.getStatus();
+        }
+
+        return ZicoPacket.ZICO_OK;
+    }
+
+
+    @Test
+    public void testRejectInvalidUncompressedLength() throws Exception {
+        assertEquals(ZicoPacket.ZICO_BAD_REQUEST, recvWithRawLength(ZicoPacket.ZICO_LZ4, -1));
+        assertEquals(ZicoPacket.ZICO_BAD_REQUEST, recvWithRawLength(ZicoPacket.ZICO_DEFLATE, Integer.MAX_VALUE));
+    }
+}
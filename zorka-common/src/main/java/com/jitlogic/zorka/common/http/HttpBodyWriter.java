@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes request body directly to connection output stream. Bodies written this way
+ * are sent using chunked transfer encoding, so their size does not have to be known
+ * in advance.
+ */
+public interface HttpBodyWriter {
+
+    /**
+     * Writes request body. Implementations should not close passed stream.
+     *
+     * @param os output stream (already compressed if request has gzip enabled)
+     */
+    void write(OutputStream os) throws IOException;
+}
@@ -32,6 +32,10 @@ public class HttpRequest extends HttpMessage<HttpRequest> {
     String url;
     String method = "GET";
 
+    HttpBodyWriter bodyWriter;
+    boolean gzip;
+    int timeout;
+
     public HttpRequest(HttpClient client, String url) throws IOException {
         this.client = client;
         this.url = url;
@@ -62,6 +66,44 @@ public class HttpRequest extends HttpMessage<HttpRequest> {
         return method;
     }
 
+    /**
+     * Sets streaming request body. Body writer is called when request is sent.
+     *
+     * @param bodyWriter callback writing request body
+     */
+    public HttpRequest body(HttpBodyWriter bodyWriter) {
+        this.bodyWriter = bodyWriter;
+        return this;
+    }
+
+    public HttpBodyWriter bodyWriter() {
+        return bodyWriter;
+    }
+
+    /**
+     * Enables or disables compression of request body (Content-Encoding: gzip).
+     */
+    public HttpRequest gzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    public boolean gzip() {
+        return gzip;
+    }
+
+    /**
+     * Sets connect and read timeout for this request (milliseconds, 0 means client default).
+     */
+    public HttpRequest timeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public int timeout() {
+        return timeout;
+    }
+
     /**
      * Returns request URL
      */
@@ -69,6 +111,28 @@ public class HttpRequest extends HttpMessage<HttpRequest> {
         return url;
     }
 
+    /**
+     * Returns request URL with query string built from request parameters.
+     */
+    public String fullUrl() {
+        if (params.isEmpty()) {
+            return url;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(url);
+        sb.append('?');
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            sb.append(e.getKey());
+            sb.append('=');
+            sb.append(e.getValue());
+            sb.append('&');
+        }
+        sb.deleteCharAt(sb.length()-1);
+
+        return sb.toString();
+    }
+
 
     /**
      * Executes request. Returns reply object containing reply data.
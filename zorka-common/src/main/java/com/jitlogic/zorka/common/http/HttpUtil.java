@@ -20,7 +20,24 @@ import java.io.IOException;
 
 public class HttpUtil {
 
-    private static HttpClient client = new JdkHttpClient();
+    private static volatile HttpClient client = new JdkHttpClient();
+
+
+    /**
+     * Returns HTTP client shared by agent components sending data over HTTP.
+     */
+    public static HttpClient getClient() {
+        return client;
+    }
+
+
+    /**
+     * Replaces shared HTTP client (eg. with PooledHttpClient, depending on agent configuration).
+     */
+    public static void setClient(HttpClient client) {
+        HttpUtil.client = client;
+    }
+
 
     public static HttpRequest GET(String url, String...params) throws IOException {
         return new HttpRequest(client, url).params(params).method("GET");
@@ -30,6 +47,10 @@ public class HttpUtil {
         return new HttpRequest(client, url).body(body).method("POST");
     }
 
+    public static HttpRequest POST(String url, HttpBodyWriter body) throws IOException {
+        return new HttpRequest(client, url).body(body).method("POST");
+    }
+
 
 
 }
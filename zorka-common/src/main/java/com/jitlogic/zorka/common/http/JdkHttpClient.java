@@ -19,50 +19,59 @@ package com.jitlogic.zorka.common.http;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 public class JdkHttpClient implements HttpClient {
 
     public HttpResponse execute(HttpRequest req) throws IOException {
 
-        StringBuilder sb = new StringBuilder();
-        sb.append(req.url());
-
-        if (!req.params.isEmpty()) {
-            sb.append('?');
-            for (Map.Entry<String, String> e : req.params.entrySet()) {
-                sb.append(e.getKey());
-                sb.append('=');
-                sb.append(e.getValue());
-                sb.append('&');
-            }
-            sb.deleteCharAt(sb.length()-1);
-        }
-
-        URL url = new URL(sb.toString());
+        URL url = new URL(req.fullUrl());
 
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
         conn.setRequestMethod(req.method);
 
+        if (req.timeout > 0) {
+            conn.setConnectTimeout(req.timeout);
+            conn.setReadTimeout(req.timeout);
+        }
+
         for (Map.Entry<String,List<String>> e : req.headers.entrySet()) {
             for (String v : e.getValue()) {
                 conn.addRequestProperty(e.getKey(), v);
             }
         }
 
+        if (req.gzip) {
+            conn.setRequestProperty("Content-Encoding", "gzip");
+        }
+
         conn.setDoOutput(true);
 
-        if (req.body != null) {
-            conn.getOutputStream().write(req.body.getBytes());
-            conn.getOutputStream().close();
+        if (req.bodyWriter != null) {
+            conn.setChunkedStreamingMode(8192);
+            OutputStream os = conn.getOutputStream();
+            if (req.gzip) {
+                os = new GZIPOutputStream(os, 8192);
+            }
+            req.bodyWriter.write(os);
+            os.close();
+        } else if (req.body != null) {
+            OutputStream os = conn.getOutputStream();
+            if (req.gzip) {
+                os = new GZIPOutputStream(os, 8192);
+            }
+            os.write(req.body.getBytes());
+            os.close();
         }
 
         BufferedReader rdr = new BufferedReader(new InputStreamReader(conn.getInputStream()));
 
-        sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder();
         String line;
 
         while ((line = rdr.readLine()) != null) {
@@ -0,0 +1,636 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.http;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP/1.1 client keeping persistent connections in a bounded pool. Unlike JdkHttpClient
+ * it gives full control over connection reuse and supports streaming (chunked) request
+ * bodies written by HttpBodyWriter callbacks.
+ *
+ * At most maxConnections requests are executed concurrently (callers wait up to request
+ * timeout for a free connection). Idle connections are kept per destination (protocol, host
+ * and port). At most maxIdle connections per destination are kept, connections idle longer
+ * than idleTimeout are closed. Requests with replayable bodies (no body or string body) are
+ * retried once on a fresh connection if pooled connection turns out to be closed by server,
+ * but only if request method is idempotent or request could not be sent at all (so requests
+ * that might have been processed by server are never sent twice).
+ *
+ * HTTPS connections verify that server certificate matches requested host name (the same way
+ * HttpsURLConnection does) and send host name via SNI.
+ */
+public class PooledHttpClient implements HttpClient {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<String>(
+            Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"));
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+
+    /**
+     * Limits number of concurrently executed requests (active connections).
+     */
+    private final Semaphore active;
+
+    /**
+     * Maximum number of idle connections kept per destination.
+     */
+    private int maxIdle;
+
+    /**
+     * Idle connections are closed after this time (milliseconds).
+     */
+    private long idleTimeout;
+
+    /**
+     * Default connect and read timeout (milliseconds).
+     */
+    private int timeout;
+
+    private volatile SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+
+    private final Map<String, LinkedList<Connection>> pool = new HashMap<String, LinkedList<Connection>>();
+
+    private final AtomicLong requests = new AtomicLong(), connects = new AtomicLong(),
+            reuses = new AtomicLong(), retries = new AtomicLong();
+
+
+    /**
+     * Persistent connection along with its buffered streams.
+     */
+    private static class Connection {
+
+        private Socket socket;
+
+        private InputStream is;
+
+        private OutputStream os;
+
+        private long lastUsed;
+
+        /**
+         * Set when current request has been completely written to connection.
+         */
+        private boolean sent;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.is = new BufferedInputStream(socket.getInputStream(), 8192);
+            this.os = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing interesting here
+            }
+        }
+    }
+
+
+    /**
+     * Output stream sending data as HTTP chunks. Closing it terminates body
+     * but leaves underlying connection open.
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+
+        private OutputStream os;
+
+        private byte[] buf = new byte[8192];
+
+        private int pos;
+
+        private boolean closed;
+
+        private ChunkedOutputStream(OutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (pos == buf.length) {
+                flushChunk();
+            }
+            buf[pos++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= buf.length) {
+                flushChunk();
+                writeChunk(b, off, len);
+            } else {
+                if (pos + len > buf.length) {
+                    flushChunk();
+                }
+                System.arraycopy(b, off, buf, pos, len);
+                pos += len;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (pos > 0) {
+                writeChunk(buf, 0, pos);
+                pos = 0;
+            }
+        }
+
+        private void writeChunk(byte[] b, int off, int len) throws IOException {
+            os.write(ascii(Integer.toHexString(len)));
+            os.write(CRLF);
+            os.write(b, off, len);
+            os.write(CRLF);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                flushChunk();
+                os.write(LAST_CHUNK);
+                closed = true;
+            }
+        }
+    }
+
+
+    /**
+     * Creates pooled HTTP client with default limit of active connections.
+     *
+     * @param maxIdle     maximum number of idle connections kept per destination
+     * @param idleTimeout idle connections are closed after this time (milliseconds)
+     * @param timeout     default connect and read timeout (milliseconds)
+     */
+    public PooledHttpClient(int maxIdle, long idleTimeout, int timeout) {
+        this(DEFAULT_MAX_CONNECTIONS, maxIdle, idleTimeout, timeout);
+    }
+
+
+    /**
+     * Creates pooled HTTP client.
+     *
+     * @param maxConnections maximum number of concurrently executed requests
+     * @param maxIdle        maximum number of idle connections kept per destination
+     * @param idleTimeout    idle connections are closed after this time (milliseconds)
+     * @param timeout        default connect and read timeout (milliseconds)
+     */
+    public PooledHttpClient(int maxConnections, int maxIdle, long idleTimeout, int timeout) {
+        this.active = new Semaphore(maxConnections, true);
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+        this.timeout = timeout;
+    }
+
+
+    @Override
+    public HttpResponse execute(HttpRequest req) throws IOException {
+        URL url = new URL(req.fullUrl());
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + port(url);
+        int tmo = req.timeout > 0 ? req.timeout : timeout;
+
+        requests.incrementAndGet();
+
+        try {
+            if (!active.tryAcquire(tmo > 0 ? tmo : Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for free connection to " + key);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for free connection to " + key);
+        }
+
+        try {
+            Connection conn = acquire(key);
+
+            if (conn != null) {
+                reuses.incrementAndGet();
+                try {
+                    return execute(key, conn, url, req, tmo);
+                } catch (IOException e) {
+                    conn.close();
+                    if (!replayable(req, conn)) {
+                        throw e;
+                    }
+                    retries.incrementAndGet();
+                }
+            }
+
+            conn = connect(url, tmo);
+
+            try {
+                return execute(key, conn, url, req, tmo);
+            } catch (IOException e) {
+                conn.close();
+                throw e;
+            }
+        } finally {
+            active.release();
+        }
+    }
+
+
+    /**
+     * Checks if failed request can be safely sent again. Streaming bodies cannot be replayed at all,
+     * other requests are replayed only if they are idempotent or have not been sent completely.
+     */
+    private static boolean replayable(HttpRequest req, Connection conn) {
+        return req.bodyWriter == null && (!conn.sent || IDEMPOTENT_METHODS.contains(req.method));
+    }
+
+
+    private HttpResponse execute(String key, Connection conn, URL url, HttpRequest req, int tmo) throws IOException {
+        conn.socket.setSoTimeout(tmo);
+
+        conn.sent = false;
+        send(conn.os, url, req);
+        conn.sent = true;
+
+        HttpResponse resp = new HttpResponse();
+        boolean keepAlive = receive(conn.is, req, resp);
+
+        if (keepAlive) {
+            release(key, conn);
+        } else {
+            conn.close();
+        }
+
+        return resp;
+    }
+
+
+    private void send(OutputStream os, URL url, HttpRequest req) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+
+        sb.append(req.method).append(' ');
+        sb.append(url.getFile().length() > 0 ? url.getFile() : "/");
+        sb.append(" HTTP/1.1\r\nHost: ").append(url.getHost());
+        if (url.getPort() != -1) {
+            sb.append(':').append(url.getPort());
+        }
+        sb.append("\r\n");
+
+        for (Map.Entry<String, List<String>> e : req.headers.entrySet()) {
+            for (String v : e.getValue()) {
+                sb.append(e.getKey()).append(": ").append(v).append("\r\n");
+            }
+        }
+
+        if (req.gzip && (req.body != null || req.bodyWriter != null)) {
+            sb.append("Content-Encoding: gzip\r\n");
+        }
+
+        byte[] body = null;
+
+        if (req.bodyWriter != null) {
+            sb.append("Transfer-Encoding: chunked\r\n");
+        } else if (req.body != null) {
+            body = req.body.getBytes("UTF-8");
+            if (req.gzip) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(body.length / 4 + 64);
+                GZIPOutputStream gos = new GZIPOutputStream(bos);
+                gos.write(body);
+                gos.close();
+                body = bos.toByteArray();
+            }
+            sb.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+
+        sb.append("\r\n");
+
+        os.write(ascii(sb.toString()));
+
+        if (req.bodyWriter != null) {
+            OutputStream cos = new ChunkedOutputStream(os);
+            if (req.gzip) {
+                cos = new GZIPOutputStream(cos, 8192);
+            }
+            req.bodyWriter.write(cos);
+            cos.close();
+        } else if (body != null) {
+            os.write(body);
+        }
+
+        os.flush();
+    }
+
+
+    /**
+     * Reads response from connection.
+     *
+     * @return true if connection can be reused
+     */
+    private boolean receive(InputStream is, HttpRequest req, HttpResponse resp) throws IOException {
+        String status = readLine(is);
+
+        if (status == null) {
+            throw new EOFException("Connection closed by server.");
+        }
+
+        String[] s = status.split(" ", 3);
+
+        if (s.length < 2 || !s[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid HTTP response: " + status);
+        }
+
+        resp.setResponseCode(Integer.parseInt(s[1]));
+        resp.setResponseMessage(s.length > 2 ? s[2] : "");
+
+        boolean keepAlive = !"HTTP/1.0".equals(s[0]);
+
+        for (String line = readLine(is); line != null && line.length() > 0; line = readLine(is)) {
+            int ix = line.indexOf(':');
+            if (ix > 0) {
+                resp.headers(line.substring(0, ix).trim(), line.substring(ix + 1).trim());
+            }
+        }
+
+        String conn = header(resp, "Connection");
+        if ("close".equalsIgnoreCase(conn)) {
+            keepAlive = false;
+        } else if ("keep-alive".equalsIgnoreCase(conn)) {
+            keepAlive = true;
+        }
+
+        int code = resp.getResponseCode();
+        byte[] body;
+
+        if ("HEAD".equals(req.method) || code == 204 || code == 304 || code / 100 == 1) {
+            body = new byte[0];
+        } else if ("chunked".equalsIgnoreCase(header(resp, "Transfer-Encoding"))) {
+            body = readChunked(is);
+        } else if (header(resp, "Content-Length") != null) {
+            body = readFully(is, Integer.parseInt(header(resp, "Content-Length")));
+        } else {
+            body = readFully(is, -1);
+            keepAlive = false;
+        }
+
+        if ("gzip".equalsIgnoreCase(header(resp, "Content-Encoding"))) {
+            body = readFully(new GZIPInputStream(new ByteArrayInputStream(body)), -1);
+        }
+
+        resp.body(new String(body, "UTF-8"));
+
+        return keepAlive;
+    }
+
+
+    private static String header(HttpResponse resp, String name) {
+        for (Map.Entry<String, List<String>> e : resp.headers.entrySet()) {
+            if (name.equalsIgnoreCase(e.getKey()) && !e.getValue().isEmpty()) {
+                return e.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+
+    private static String readLine(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+
+        for (int b = is.read(); b != '\n'; b = is.read()) {
+            if (b == -1) {
+                return sb.length() > 0 ? sb.toString() : null;
+            }
+            if (b != '\r') {
+                sb.append((char) b);
+            }
+        }
+
+        return sb.toString();
+    }
+
+
+    private static byte[] readChunked(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        while (true) {
+            String line = readLine(is);
+            if (line == null) {
+                throw new EOFException("Unexpected end of chunked response.");
+            }
+            int ix = line.indexOf(';');
+            int len = Integer.parseInt((ix >= 0 ? line.substring(0, ix) : line).trim(), 16);
+            if (len == 0) {
+                break;
+            }
+            bos.write(readFully(is, len));
+            readLine(is);
+        }
+
+        // Skip trailers
+        for (String line = readLine(is); line != null && line.length() > 0; line = readLine(is)) {
+            // nothing here
+        }
+
+        return bos.toByteArray();
+    }
+
+
+    /**
+     * Reads exactly len bytes from input stream (or everything until end of stream if len is -1).
+     */
+    private static byte[] readFully(InputStream is, int len) throws IOException {
+        if (len >= 0) {
+            byte[] b = new byte[len];
+            for (int pos = 0; pos < len; ) {
+                int n = is.read(b, pos, len - pos);
+                if (n < 0) {
+                    throw new EOFException("Unexpected end of response body.");
+                }
+                pos += n;
+            }
+            return b;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] b = new byte[4096];
+        for (int n = is.read(b); n >= 0; n = is.read(b)) {
+            bos.write(b, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+
+    private Connection connect(URL url, int tmo) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(url.getHost(), port(url)), tmo);
+            if ("https".equals(url.getProtocol())) {
+                socket.setSoTimeout(tmo);
+                socket = secure(socket, url.getHost(), port(url));
+            }
+            connects.incrementAndGet();
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Wraps connected socket with TLS and performs handshake with host name verification.
+     */
+    private Socket secure(Socket socket, String host, int port) throws IOException {
+        SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+
+        try {
+            SSLParameters params = ssl.getSSLParameters();
+            params.setEndpointIdentificationAlgorithm("HTTPS");
+            if (!isIpAddress(host)) {
+                params.setServerNames(Collections.<SNIServerName>singletonList(new SNIHostName(host)));
+            }
+            ssl.setSSLParameters(params);
+            ssl.startHandshake();
+        } catch (IOException e) {
+            ssl.close();
+            throw e;
+        }
+
+        return ssl;
+    }
+
+
+    /**
+     * SNI must not be used with IP address literals.
+     */
+    private static boolean isIpAddress(String host) {
+        return host.indexOf(':') >= 0 || host.matches("[0-9.]+");
+    }
+
+
+    /**
+     * Sets socket factory used for HTTPS connections (eg. with custom trust store).
+     */
+    public void setSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+
+    private synchronized Connection acquire(String key) {
+        LinkedList<Connection> conns = pool.get(key);
+
+        if (conns != null) {
+            long t = System.currentTimeMillis();
+            while (!conns.isEmpty()) {
+                Connection conn = conns.removeLast();
+                if (t - conn.lastUsed < idleTimeout) {
+                    return conn;
+                }
+                conn.close();
+            }
+        }
+
+        return null;
+    }
+
+
+    private synchronized void release(String key, Connection conn) {
+        LinkedList<Connection> conns = pool.get(key);
+
+        if (conns == null) {
+            conns = new LinkedList<Connection>();
+            pool.put(key, conns);
+        }
+
+        if (conns.size() < maxIdle) {
+            conn.lastUsed = System.currentTimeMillis();
+            conns.addLast(conn);
+        } else {
+            conn.close();
+        }
+    }
+
+
+    /**
+     * Closes all idle connections.
+     */
+    public synchronized void close() {
+        for (LinkedList<Connection> conns : pool.values()) {
+            for (Connection conn : conns) {
+                conn.close();
+            }
+        }
+        pool.clear();
+    }
+
+
+    /**
+     * Returns number of idle connections in pool.
+     */
+    public synchronized int idle() {
+        int n = 0;
+        for (LinkedList<Connection> conns : pool.values()) {
+            n += conns.size();
+        }
+        return n;
+    }
+
+
+    private static int port(URL url) {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+
+    private static byte[] ascii(String s) {
+        try {
+            return s.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+
+    public long getReuses() {
+        return reuses.get();
+    }
+
+
+    public long getRetries() {
+        return retries.get();
+    }
+}
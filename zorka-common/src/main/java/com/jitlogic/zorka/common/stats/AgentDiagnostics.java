@@ -58,6 +58,32 @@ public class AgentDiagnostics {
     public static final int ZICO_PACKETS_DROPPED = 32;  // Packets dropped due to queue overflow
     public static final int ZICO_PACKETS_LOST = 33;     // Packets lost due to communication errors
     public static final int ZICO_RECONNECTS = 34;       // ZICO reconnects
+    public static final int TRACES_SAMPLED_OUT = 35;    // Traces not recorded due to sampling
+    public static final int TRACER_AUTO_EXCLUDES = 36;  // Methods excluded by tracer tuner
+    public static final int RETRANSFORMED_CLASSES = 37; // Classes retransformed after configuration changes
+    public static final int RETRANSFORM_TIME = 38;      // Time spent on retransforming classes
+    public static final int PROFILER_SAMPLES = 39;      // Stack samples collected by sampling profiler
+    public static final int PROFILER_TIME = 40;         // Time spent on collecting stack samples
+    public static final int PROFILER_SKIPPED = 41;      // Sampling cycles skipped due to overhead limit
+    public static final int EXCEPTION_STACK_HITS = 42;  // Exception stacks found in stack trace cache
+    public static final int EXCEPTION_STACK_MISSES = 43; // Exception stacks symbolized from scratch
+    public static final int SYSLOG_WRITES = 44;         // Network writes (datagrams or TCP writes) by syslog trappers
+    public static final int SYSLOG_RECONNECTS = 45;     // Syslog TCP reconnects
+    public static final int ZABBIX_ACTIVE_SENT = 46;    // Active check results processed by zabbix server
+    public static final int ZABBIX_ACTIVE_FAILED = 47;  // Active check results rejected by zabbix server
+    public static final int ZABBIX_DISCOVERY_HITS = 48; // Discovery results returned from cache
+    public static final int ZABBIX_DISCOVERY_MISSES = 49; // Discovery results computed from scratch
+    public static final int ZORKA_STATS_EVICTED = 50;   // Statistics folded into OTHER bucket by top-K containers
+    public static final int ZORKA_STATS_IDLE_EVICTED = 51; // Idle statistics removed by stats sweeper
+    public static final int ZICO_PACKETS_SPILLED = 52;  // ZICO packets stored in spill queue
+    public static final int ZICO_PACKETS_REPLAYED = 53; // ZICO packets replayed from spill queue
+    public static final int ZICO_PACKETS_COMPRESSED = 54; // ZICO packets sent with compressed payload
+    public static final int ZICO_BYTES_RAW = 55;        // Uncompressed size of compressed ZICO payloads
+    public static final int ZICO_BYTES_COMPRESSED = 56; // Compressed size of compressed ZICO payloads
+    public static final int ZICO_COMPRESS_TIME = 57;    // Time spent on compressing ZICO payloads
+    public static final int SPY_TIME = 58;              // Estimated time spent in spy submitter on application threads
+    public static final int TRACER_TIME = 59;           // Estimated time spent in tracer probes on application threads
+    public static final int OVERHEAD_DEGRADES = 60;     // Agent functionality degradations due to overhead
 
 
     private static final String[] counterNames = {
@@ -96,10 +122,37 @@ public class AgentDiagnostics {
             "ZicoPacketsDropped",   // ZICO_PACKETS_DROPPED = 33
             "ZicoPacketsLost",      // ZICO_PACKETS_LOST    = 34
             "ZicoReconnects",       // ZICO_RECONNECTS      = 35;
+            "TracesSampledOut",     // TRACES_SAMPLED_OUT   = 36
+            "TracerAutoExcludes",   // TRACER_AUTO_EXCLUDES = 37
+            "RetransformedClasses", // RETRANSFORMED_CLASSES = 38
+            "RetransformTime",      // RETRANSFORM_TIME     = 39
+            "ProfilerSamples",      // PROFILER_SAMPLES     = 40
+            "ProfilerTime",         // PROFILER_TIME        = 41
+            "ProfilerSkipped",      // PROFILER_SKIPPED     = 42
+            "ExceptionStackHits",   // EXCEPTION_STACK_HITS = 43
+            "ExceptionStackMisses", // EXCEPTION_STACK_MISSES = 44
+            "SyslogWrites",         // SYSLOG_WRITES        = 45
+            "SyslogReconnects",     // SYSLOG_RECONNECTS    = 46
+            "ZabbixActiveSent",     // ZABBIX_ACTIVE_SENT   = 47
+            "ZabbixActiveFailed",   // ZABBIX_ACTIVE_FAILED = 48
+            "ZabbixDiscoveryHits",  // ZABBIX_DISCOVERY_HITS = 49
+            "ZabbixDiscoveryMisses", // ZABBIX_DISCOVERY_MISSES = 50
+            "ZorkaStatsEvicted",    // ZORKA_STATS_EVICTED  = 51
+            "ZorkaStatsIdleEvicted", // ZORKA_STATS_IDLE_EVICTED = 52
+            "ZicoPacketsSpilled",   // ZICO_PACKETS_SPILLED = 53
+            "ZicoPacketsReplayed",  // ZICO_PACKETS_REPLAYED = 54
+            "ZicoPacketsCompressed", // ZICO_PACKETS_COMPRESSED = 55
+            "ZicoBytesRaw",         // ZICO_BYTES_RAW       = 56
+            "ZicoBytesCompressed",  // ZICO_BYTES_COMPRESSED = 57
+            "ZicoCompressTime",     // ZICO_COMPRESS_TIME   = 58
+            "SpyTime",              // SPY_TIME             = 59
+            "TracerTime",           // TRACER_TIME          = 60
+            "OverheadDegrades",     // OVERHEAD_DEGRADES    = 61
     };
 
 
-    private static Set<Integer> timeCounters = ZorkaUtil.set(AGENT_TIME, ZABBIX_TIME, NAGIOS_TIME, PMON_TIME);
+    private static Set<Integer> timeCounters = ZorkaUtil.set(AGENT_TIME, ZABBIX_TIME, NAGIOS_TIME, PMON_TIME, RETRANSFORM_TIME,
+            PROFILER_TIME, ZICO_COMPRESS_TIME, SPY_TIME, TRACER_TIME);
 
 
     private static AtomicLong[] counters;
@@ -116,6 +169,13 @@ public class AgentDiagnostics {
     }
 
 
+    public static void inc(boolean cond, int counter, long delta) {
+        if (cond) {
+            counters[counter].addAndGet(delta);
+        }
+    }
+
+
     public static void inc(int counter, long delta) {
         counters[counter].addAndGet(delta);
     }
@@ -55,6 +55,16 @@ public class MethodCallStatistic implements ZorkaStat {
      */
     private AtomicReference<MethodSlaStatistics> sla;
 
+    /**
+     * Stats sweeper tick of last update.
+     */
+    private volatile long lastTick = StatsSweeper.tick();
+
+    /**
+     * Pinned statistics are never removed by stats sweeper.
+     */
+    private volatile boolean pinned;
+
     /**
      * Standard constructor.
      *
@@ -238,6 +248,7 @@ public class MethodCallStatistic implements ZorkaStat {
      * Marks method entry. This is used for contention monitoring.
      */
     public void markEnter() {
+        touch();
         setMax(maxThreads, curThreads.incrementAndGet());
     }
 
@@ -336,6 +347,7 @@ public class MethodCallStatistic implements ZorkaStat {
      * @param time execution time
      */
     public void logCall(long time) {
+        touch();
         this.calls.incrementAndGet();
         this.time.addAndGet(time);
         this.setMax(maxTime, time);
@@ -364,6 +376,7 @@ public class MethodCallStatistic implements ZorkaStat {
      * @param time execution time
      */
     public void logError(long time) {
+        touch();
         this.errors.incrementAndGet();
         this.calls.incrementAndGet();
         this.time.addAndGet(time);
@@ -387,6 +400,82 @@ public class MethodCallStatistic implements ZorkaStat {
     }
 
 
+    /**
+     * Records current stats sweeper tick as time of last update.
+     */
+    private void touch() {
+        long t = StatsSweeper.tick();
+        if (lastTick != t) {
+            lastTick = t;
+        }
+    }
+
+
+    public long getLastTick() {
+        return lastTick;
+    }
+
+
+    /**
+     * Returns true if statistic can be removed by stats sweeper: it is not pinned, has not been
+     * updated since given tick and no thread is currently executing monitored method.
+     *
+     * @param minTick minimum tick of last update
+     */
+    public boolean isIdle(long minTick) {
+        return !pinned && lastTick < minTick && curThreads.get() == 0;
+    }
+
+
+    /**
+     * Marks statistic as referenced directly (eg. by a collector or mbean attribute),
+     * so it will never be removed by stats sweeper.
+     */
+    public void pin() {
+        pinned = true;
+    }
+
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+
+    /**
+     * Adds summary data of other statistic to this one. Maximum values are merged
+     * and SLA statistics are not merged.
+     *
+     * @param st statistic to be merged
+     */
+    public void merge(MethodCallStatistic st) {
+        this.calls.addAndGet(st.calls.get());
+        this.errors.addAndGet(st.errors.get());
+        this.time.addAndGet(st.time.get());
+        this.setMax(maxTime, st.maxTime.get());
+        this.setMax(maxThreads, st.maxThreads.get());
+        this.throughput.addAndGet(st.throughput.get());
+        this.setMax(maxThroughput, st.maxThroughput.get());
+    }
+
+
+    /**
+     * Moves summary data of this statistic to other one (counters of this statistic are reset).
+     * Unlike merge(), it can be repeated safely: each update is moved exactly once, so updates
+     * logged concurrently with (or after) first call can be moved by subsequent calls.
+     *
+     * @param st target statistic
+     */
+    public void drainTo(MethodCallStatistic st) {
+        st.calls.addAndGet(calls.getAndSet(0));
+        st.errors.addAndGet(errors.getAndSet(0));
+        st.time.addAndGet(time.getAndSet(0));
+        st.setMax(st.maxTime, maxTime.get());
+        st.setMax(st.maxThreads, maxThreads.get());
+        st.throughput.addAndGet(throughput.getAndSet(0));
+        st.setMax(st.maxThroughput, maxThroughput.get());
+    }
+
+
     @Override
     public String toString() {
         return "(calls=" + getCalls()
@@ -24,12 +24,12 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  * @author rafal.lewczuk@jitlogic.com
  */
-public class MethodCallStatistics implements ZorkaStats {
+public class MethodCallStatistics implements ZorkaStats, StatsSweeper.Sweepable {
 
     /**
      * Map of method call statistics objects.
      */
-    private ConcurrentHashMap<String, MethodCallStatistic> stats = new ConcurrentHashMap<String, MethodCallStatistic>();
+    protected ConcurrentHashMap<String, MethodCallStatistic> stats = new ConcurrentHashMap<String, MethodCallStatistic>();
 
     @Override
     public ZorkaStat getStatistic(String statisticName) {
@@ -70,6 +70,30 @@ public class MethodCallStatistics implements ZorkaStats {
     }
 
 
+    @Override
+    public int sweep(long minTick) {
+        int n = 0;
+
+        for (MethodCallStatistic st : stats.values()) {
+            if (st.isIdle(minTick) && stats.remove(st.getName(), st)) {
+                evicted(st);
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+
+    /**
+     * Called after idle statistic has been removed by sweep().
+     *
+     * @param st removed statistic
+     */
+    protected void evicted(MethodCallStatistic st) {
+    }
+
+
     @Override
     public String toString() {
         return stats.toString();
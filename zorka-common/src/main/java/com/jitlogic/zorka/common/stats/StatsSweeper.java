@@ -0,0 +1,158 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.stats;
+
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes statistics that have not been updated for a long time. Sweeper maintains a coarse
+ * clock (tick) advanced on each sweep cycle; statistics record tick of their last update (which
+ * costs a single volatile read on update path) and registered containers drop entries idle for
+ * more than configured number of ticks. Containers are held via weak references, so registering
+ * them does not prevent garbage collection.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class StatsSweeper implements Runnable {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(StatsSweeper.class);
+
+    /**
+     * Objects maintaining collections of statistics that can be swept.
+     */
+    public interface Sweepable {
+
+        /**
+         * Removes entries not updated since given tick.
+         *
+         * @param minTick entries with last update tick lower than this will be removed
+         * @return number of removed entries
+         */
+        int sweep(long minTick);
+    }
+
+
+    private static StatsSweeper instance = new StatsSweeper();
+
+    public static StatsSweeper instance() {
+        return instance;
+    }
+
+    /**
+     * Current tick.
+     */
+    private static volatile long tick = 1;
+
+    /**
+     * Returns current tick. This is cheap and can be called on statistic update path.
+     */
+    public static long tick() {
+        return tick;
+    }
+
+
+    /**
+     * Number of ticks after which idle entries will be removed (0 - never).
+     */
+    private volatile long ttl;
+
+    private final Map<Sweepable, Boolean> sweepables = new WeakHashMap<Sweepable, Boolean>();
+
+    private final AtomicLong evictions = new AtomicLong(0);
+
+
+    /**
+     * Sets maximum idle time of statistics.
+     *
+     * @param ttl number of sweeper cycles after which idle entries are removed (0 - never)
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+
+    public long getTtl() {
+        return ttl;
+    }
+
+
+    public void register(Sweepable sweepable) {
+        synchronized (sweepables) {
+            sweepables.put(sweepable, Boolean.TRUE);
+        }
+    }
+
+
+    @Override
+    public void run() {
+        try {
+            runCycle();
+        } catch (Throwable e) {
+            log.error(ZorkaLogger.ZAG_ERRORS, "Error running stats sweeper cycle", e);
+        }
+    }
+
+
+    /**
+     * Advances tick and removes idle entries from all registered containers.
+     *
+     * @return number of removed entries
+     */
+    public int runCycle() {
+        long t = ++tick;
+
+        if (ttl <= 0 || t <= ttl) {
+            return 0;
+        }
+
+        List<Sweepable> lst;
+
+        synchronized (sweepables) {
+            lst = new ArrayList<Sweepable>(sweepables.keySet());
+        }
+
+        int n = 0;
+
+        for (Sweepable s : lst) {
+            n += s.sweep(t - ttl);
+        }
+
+        if (n > 0) {
+            evictions.addAndGet(n);
+            AgentDiagnostics.inc(AgentDiagnostics.ZORKA_STATS_IDLE_EVICTED, n);
+            log.debug(ZorkaLogger.ZAG_DEBUG, "Evicted " + n + " idle statistics.");
+        }
+
+        return n;
+    }
+
+
+    /**
+     * Returns total number of evicted entries.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,368 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups statistics for multiple monitored methods, but keeps at most fixed number of them.
+ * Keys are tracked using Space-Saving algorithm: when a new key arrives and container is full,
+ * key with the lowest hit count is evicted, its statistic is folded into OTHER bucket and the
+ * new key inherits its hit count (which becomes the upper bound of estimation error). This way
+ * the heaviest keys retain full statistics while the long tail of rare keys (eg. unparameterized
+ * SQL or URIs containing IDs) is aggregated and does not grow heap without bound.
+ *
+ * Tracked keys are kept in a min-heap ordered by hit count snapshots. Hit counters are incremented
+ * without locking, so snapshots can only lag behind; heap top is refreshed lazily until its snapshot
+ * is current, which makes it the real minimum. Updates logged to a statistic after it has been
+ * evicted are moved to OTHER bucket as well.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class TopMethodCallStatistics extends MethodCallStatistics {
+
+    /**
+     * Name of the bucket aggregating evicted (and explicitly submitted as OTHER) statistics.
+     */
+    public static final String OTHER = "OTHER";
+
+    /**
+     * Maximum number of tracked keys (not counting OTHER bucket).
+     */
+    private final int capacity;
+
+    /**
+     * Aggregated statistics of evicted keys.
+     */
+    private final MethodCallStatistic other = new MethodCallStatistic(OTHER);
+
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * Min-heap of tracked statistics (guarded by this).
+     */
+    private TopStatistic[] heap = new TopStatistic[16];
+
+    private int heapSize;
+
+
+    /**
+     * Creates top-K statistics container.
+     *
+     * @param capacity maximum number of tracked keys
+     */
+    public TopMethodCallStatistics(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+
+    @Override
+    public ZorkaStat getStatistic(String statisticName) {
+        return OTHER.equals(statisticName) ? other : stats.get(statisticName);
+    }
+
+
+    @Override
+    public String[] getStatisticNames() {
+        String[] names = super.getStatisticNames();
+
+        if (other.getCalls() == 0 && evictions.get() == 0) {
+            return names;
+        }
+
+        String[] rslt = new String[names.length + 1];
+        System.arraycopy(names, 0, rslt, 0, names.length);
+        rslt[names.length] = OTHER;
+
+        return rslt;
+    }
+
+
+    /**
+     * Returns named statistic. If there is no such statistic, a new one is registered,
+     * possibly evicting statistic with the lowest hit count.
+     *
+     * @param name statistic (method) name
+     * @return method call statistic
+     */
+    @Override
+    public MethodCallStatistic getMethodCallStatistic(String name) {
+        TopStatistic st = (TopStatistic) stats.get(name);
+
+        if (st != null) {
+            st.hits.incrementAndGet();
+            return st;
+        }
+
+        return OTHER.equals(name) ? other : admit(name);
+    }
+
+
+    private synchronized MethodCallStatistic admit(String name) {
+        TopStatistic st = (TopStatistic) stats.get(name);
+
+        if (st != null) {
+            st.hits.incrementAndGet();
+            return st;
+        }
+
+        long minHits = 0;
+
+        if (stats.size() >= capacity) {
+            TopStatistic min = peekMin();
+            removeMin();
+
+            stats.remove(min.getName());
+            fold(min);
+            minHits = min.getHits();
+            evictions.incrementAndGet();
+            AgentDiagnostics.inc(AgentDiagnostics.ZORKA_STATS_EVICTED);
+        }
+
+        st = new TopStatistic(name, minHits + 1, minHits);
+        stats.put(name, st);
+        offer(st);
+        AgentDiagnostics.inc(AgentDiagnostics.ZORKA_STATS_CREATED);
+
+        return st;
+    }
+
+
+    /**
+     * Idle statistics removed by sweeper are folded into OTHER bucket, so totals are retained.
+     * They are dropped from heap lazily (when they reach its top or heap is rebuilt).
+     */
+    @Override
+    protected void evicted(MethodCallStatistic st) {
+        fold((TopStatistic) st);
+    }
+
+
+    private void fold(TopStatistic st) {
+        st.folded = other;
+        st.drainTo(other);
+    }
+
+
+    /**
+     * Returns tracked statistic with the lowest hit count (heap must not be empty).
+     */
+    private TopStatistic peekMin() {
+        while (true) {
+            TopStatistic top = heap[0];
+            if (stats.get(top.getName()) != top) {
+                removeMin();
+            } else if (top.heapHits != top.getHits()) {
+                top.heapHits = top.getHits();
+                siftDown(0);
+            } else {
+                return top;
+            }
+        }
+    }
+
+
+    private void offer(TopStatistic st) {
+        if (heapSize >= 2 * capacity) {
+            rebuild();
+        }
+
+        if (heapSize == heap.length) {
+            TopStatistic[] h = new TopStatistic[heap.length * 2];
+            System.arraycopy(heap, 0, h, 0, heapSize);
+            heap = h;
+        }
+
+        st.heapHits = st.getHits();
+
+        int i = heapSize++;
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (heap[p].heapHits <= st.heapHits) {
+                break;
+            }
+            heap[i] = heap[p];
+            i = p;
+        }
+        heap[i] = st;
+    }
+
+
+    private void removeMin() {
+        heap[0] = heap[--heapSize];
+        heap[heapSize] = null;
+        if (heapSize > 0) {
+            siftDown(0);
+        }
+    }
+
+
+    private void siftDown(int i) {
+        TopStatistic st = heap[i];
+
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= heapSize) {
+                break;
+            }
+            if (c + 1 < heapSize && heap[c + 1].heapHits < heap[c].heapHits) {
+                c++;
+            }
+            if (st.heapHits <= heap[c].heapHits) {
+                break;
+            }
+            heap[i] = heap[c];
+            i = c;
+        }
+
+        heap[i] = st;
+    }
+
+
+    /**
+     * Rebuilds heap from tracked statistics, dropping ones removed by sweeper.
+     */
+    private void rebuild() {
+        for (int i = 0; i < heapSize; i++) {
+            heap[i] = null;
+        }
+
+        heapSize = 0;
+
+        for (MethodCallStatistic s : stats.values()) {
+            TopStatistic st = (TopStatistic) s;
+            st.heapHits = st.getHits();
+            heap[heapSize++] = st;
+        }
+
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Returns number of statistics folded into OTHER bucket so far.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+
+    /**
+     * Returns the lowest hit count among tracked keys. No key outside of tracked set
+     * could have been hit more times than this (zero if container is not full yet).
+     */
+    public synchronized long getMinHits() {
+        return stats.size() < capacity ? 0 : peekMin().getHits();
+    }
+
+
+    @Override
+    public String toString() {
+        return stats.toString() + "+" + OTHER + other;
+    }
+
+
+    /**
+     * Method call statistic with Space-Saving hit counter and its error bound.
+     */
+    public static class TopStatistic extends MethodCallStatistic {
+
+        private final AtomicLong hits;
+
+        private final long hitsError;
+
+        /**
+         * Hit count snapshot used to order heap (guarded by container).
+         */
+        private long heapHits;
+
+        /**
+         * Bucket this statistic has been folded into after eviction (or null if still tracked).
+         */
+        private volatile MethodCallStatistic folded;
+
+        public TopStatistic(String name, long hits, long hitsError) {
+            super(name);
+            this.hits = new AtomicLong(hits);
+            this.hitsError = hitsError;
+        }
+
+
+        @Override
+        public void logCall(long time) {
+            super.logCall(time);
+            refold();
+        }
+
+
+        @Override
+        public void logCall(long time, long throughput) {
+            super.logCall(time, throughput);
+            refold();
+        }
+
+
+        @Override
+        public void logError(long time) {
+            super.logError(time);
+            refold();
+        }
+
+
+        @Override
+        public void logError(long time, long throughput) {
+            super.logError(time, throughput);
+            refold();
+        }
+
+
+        /**
+         * Moves updates logged by threads that obtained this statistic before it was evicted.
+         */
+        private void refold() {
+            MethodCallStatistic f = folded;
+            if (f != null) {
+                drainTo(f);
+            }
+        }
+
+
+        /**
+         * Returns estimated number of hits of this key (since container creation). It overestimates
+         * real number of hits by at most getHitsError().
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+
+        /**
+         * Returns upper bound of getHits() estimation error (number of hits inherited from evicted key).
+         */
+        public long getHitsError() {
+            return hitsError;
+        }
+    }
+}
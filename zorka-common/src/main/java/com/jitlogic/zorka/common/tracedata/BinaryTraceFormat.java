@@ -0,0 +1,91 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.tracedata;
+
+/**
+ * Constants of compact binary trace format. This is an alternative to Fressian format
+ * trading self-description for size and speed: stream consists of records prefixed with
+ * a single type byte, all integers are written as (zig-zag) varints, symbols are always
+ * referenced by IDs and trace records carry bitmask of optional fields actually present.
+ * Objects that have no dedicated encoding (metrics, performance data etc.) are embedded
+ * as length-prefixed Fressian blobs, so format remains complete.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class BinaryTraceFormat {
+
+    /**
+     * Stream header: 'Z', 'T', 'B', version. Written after every writer reset.
+     */
+    public static final int HEADER = 'Z';
+
+    public static final int VERSION = 1;
+
+    /**
+     * Symbol: varint ID, string.
+     */
+    public static final int SYMBOL = 0x01;
+
+    /**
+     * Trace: recursively encoded trace record tree.
+     */
+    public static final int TRACE = 0x02;
+
+    /**
+     * Any other object: varint length, Fressian encoded data.
+     */
+    public static final int FRESSIAN = 0x03;
+
+    /**
+     * Exception stack trace: varint ID, varint length, stack elements. Exceptions refer to it by ID.
+     */
+    public static final int STACK = 0x04;
+
+
+    /* Trace record optional field mask. */
+
+    public static final int F_MARKER = 0x01;
+    public static final int F_EXCEPTION = 0x02;
+    public static final int F_ATTRS = 0x04;
+    public static final int F_ERRORS = 0x08;
+    public static final int F_CALLS = 0x10;
+    public static final int F_FLAGS = 0x20;
+    public static final int F_CHILDREN = 0x40;
+
+    /**
+     * Record time is written as difference between parent time and record time.
+     */
+    public static final int F_TIME_REL = 0x80;
+
+
+    /* Attribute value types. */
+
+    public static final int A_NULL = 0x00;
+    public static final int A_LONG = 0x01;
+    public static final int A_DOUBLE = 0x02;
+    public static final int A_STRING = 0x03;
+    public static final int A_TRUE = 0x04;
+    public static final int A_FALSE = 0x05;
+    public static final int A_FRESSIAN = 0x06;
+
+    /* Exception marker types. */
+
+    public static final int E_NONE = 0x00;
+    public static final int E_EXCEPTION = 0x01;
+
+}
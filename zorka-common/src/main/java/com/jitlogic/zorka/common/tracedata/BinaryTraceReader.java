@@ -0,0 +1,255 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.tracedata;
+
+import org.fressian.FressianReader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.jitlogic.zorka.common.tracedata.BinaryTraceFormat.*;
+
+/**
+ * Reads trace data written by BinaryTraceWriter. Trace records are created using
+ * trace record builder configured in FressianTraceFormat, so clients that extend
+ * trace records (eg. zorka-viewer) can use both formats the same way.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class BinaryTraceReader {
+
+    private InputStream is;
+
+    private Map<Integer, SymbolicStackElement[]> stacks = new HashMap<Integer, SymbolicStackElement[]>();
+
+
+    public BinaryTraceReader(InputStream is) {
+        this.is = is instanceof BufferedInputStream ? is : new BufferedInputStream(is);
+    }
+
+
+    /**
+     * Reads next object from stream.
+     *
+     * @return Symbol, TraceRecord or any other object written by BinaryTraceWriter; null at the end of stream
+     * @throws IOException if stream is malformed or truncated
+     */
+    public Object readObject() throws IOException {
+        while (true) {
+            int type = is.read();
+            switch (type) {
+                case -1:
+                    return null;
+                case HEADER:
+                    if (readByte() != 'T' || readByte() != 'B') {
+                        throw new IOException("Invalid binary trace stream header.");
+                    }
+                    int version = readByte();
+                    if (version != VERSION) {
+                        throw new IOException("Unsupported binary trace format version: " + version);
+                    }
+                    break;
+                case SYMBOL:
+                    return new Symbol(readVarInt(), readString());
+                case TRACE:
+                    return readRecord(null);
+                case FRESSIAN:
+                    return readBlob();
+                case STACK: {
+                    SymbolicStack s = new SymbolicStack(readVarInt(), readStack());
+                    stacks.put(s.getId(), s.getElements());
+                    return s;
+                }
+                default:
+                    throw new IOException("Invalid record type: " + type);
+            }
+        }
+    }
+
+
+    private TraceRecord readRecord(TraceRecord parent) throws IOException {
+        TraceRecord tr = FressianTraceFormat.getTraceRecordBuilder().get();
+
+        int mask = readVarInt();
+
+        tr.setClassId(readVarInt());
+        tr.setMethodId(readVarInt());
+        tr.setSignatureId(readVarInt());
+
+        long t = readVarLong();
+        tr.setTime(0 != (mask & F_TIME_REL) ? parent.getTime() - t : unzigzag(t));
+
+        tr.setFlags(0 != (mask & F_FLAGS) ? readVarInt() : 0);
+        tr.setCalls(0 != (mask & F_CALLS) ? unzigzag(readVarLong()) : 1);
+        tr.setErrors(0 != (mask & F_ERRORS) ? unzigzag(readVarLong()) : 0);
+
+        if (0 != (mask & F_MARKER)) {
+            TraceMarker m = new TraceMarker(readVarInt(), unzigzag(readVarLong()));
+            m.setMinimumTime(unzigzag(readVarLong()));
+            m.setFlags(readVarInt());
+            tr.setMarker(m);
+        }
+
+        if (0 != (mask & F_EXCEPTION)) {
+            tr.setException(readException());
+        }
+
+        if (0 != (mask & F_ATTRS)) {
+            for (int i = readVarInt(); i > 0; i--) {
+                int key = readVarInt();
+                tr.setAttr(key, readAttr());
+            }
+        }
+
+        if (0 != (mask & F_CHILDREN)) {
+            int n = readVarInt();
+            List<TraceRecord> children = new ArrayList<TraceRecord>(n);
+            for (int i = 0; i < n; i++) {
+                TraceRecord c = readRecord(tr);
+                c.setParent(tr);
+                children.add(c);
+            }
+            tr.setChildren(children);
+        }
+
+        return tr;
+    }
+
+
+    private SymbolicException readException() throws IOException {
+        int classId = readVarInt();
+        String message = readString();
+
+        int stackId = readVarInt();
+        SymbolicStackElement[] stack = stackId == 0 ? readStack() : stacks.get(stackId);
+
+        if (stack == null) {
+            throw new IOException("Unknown stack trace ID: " + stackId);
+        }
+
+        SymbolicException cause = readByte() == E_EXCEPTION ? readException() : null;
+
+        return new SymbolicException(classId, message, stack, cause);
+    }
+
+
+    private SymbolicStackElement[] readStack() throws IOException {
+        SymbolicStackElement[] stack = new SymbolicStackElement[readVarInt()];
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = new SymbolicStackElement(readVarInt(), readVarInt(), readVarInt(), (int) unzigzag(readVarLong()));
+        }
+        return stack;
+    }
+
+
+    private Object readAttr() throws IOException {
+        int type = readByte();
+        switch (type) {
+            case A_NULL:
+                return null;
+            case A_LONG:
+                return unzigzag(readVarLong());
+            case A_DOUBLE:
+                return Double.longBitsToDouble(readFixedLong());
+            case A_STRING:
+                return readString();
+            case A_TRUE:
+                return Boolean.TRUE;
+            case A_FALSE:
+                return Boolean.FALSE;
+            case A_FRESSIAN:
+                return readBlob();
+            default:
+                throw new IOException("Invalid attribute type: " + type);
+        }
+    }
+
+
+    private Object readBlob() throws IOException {
+        byte[] b = readBytes(readVarInt());
+        return new FressianReader(new ByteArrayInputStream(b), FressianTraceFormat.READ_LOOKUP).readObject();
+    }
+
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+
+    private int readByte() throws IOException {
+        int b = is.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of binary trace stream.");
+        }
+        return b;
+    }
+
+
+    private byte[] readBytes(int len) throws IOException {
+        byte[] b = new byte[len];
+        for (int off = 0; off < len; ) {
+            int n = is.read(b, off, len - off);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of binary trace stream.");
+            }
+            off += n;
+        }
+        return b;
+    }
+
+
+    private int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+
+    private long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint in binary trace stream.");
+    }
+
+
+    private long readFixedLong() throws IOException {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | readByte();
+        }
+        return v;
+    }
+
+
+    private String readString() throws IOException {
+        int len = readVarInt();
+        return len == 0 ? null : new String(readBytes(len - 1), "UTF-8");
+    }
+
+}
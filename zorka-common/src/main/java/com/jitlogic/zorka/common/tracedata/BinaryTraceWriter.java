@@ -0,0 +1,382 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.tracedata;
+
+import com.jitlogic.zorka.common.util.BitVector;
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+import org.fressian.FressianWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import static com.jitlogic.zorka.common.tracedata.BinaryTraceFormat.*;
+
+/**
+ * Serializes trace data in compact binary format (see BinaryTraceFormat). Each written object
+ * (along with symbols and metrics it refers to) is encoded into internal buffer and then passed
+ * to output stream in a single write.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class BinaryTraceWriter implements MetadataChecker, TraceWriter {
+
+    private static ZorkaLog log = ZorkaLogger.getLog(BinaryTraceWriter.class);
+
+    private SymbolRegistry symbols;
+
+    private MetricsRegistry metrics;
+
+    BitVector symbolsSent = new BitVector(), metricsSent = new BitVector(16), templatesSent = new BitVector(16),
+        stacksSent = new BitVector(16);
+
+    private TraceStreamOutput output;
+
+    private OutputStream os;
+
+    private byte[] buf = new byte[4096];
+
+    private int pos;
+
+
+    public BinaryTraceWriter(SymbolRegistry symbols, MetricsRegistry metrics) {
+        this.symbols = symbols;
+        this.metrics = metrics;
+    }
+
+
+    @Override
+    public void write(SymbolicRecord record) throws IOException {
+        checkOutput();
+
+        record.traverse(this);
+
+        if (record instanceof TraceRecord) {
+            writeByte(TRACE);
+            writeRecord((TraceRecord) record, -1);
+        } else {
+            writeFressian(record);
+        }
+
+        flush();
+    }
+
+
+    @Override
+    public void setOutput(TraceStreamOutput output) {
+        this.output = output;
+    }
+
+
+    @Override
+    public void reset() {
+        os = output.getOutputStream();
+        pos = 0;
+        symbolsSent.reset();
+        metricsSent.reset();
+        templatesSent.reset();
+        stacksSent.reset();
+        writeByte(HEADER);
+        writeByte('T');
+        writeByte('B');
+        writeByte(VERSION);
+    }
+
+
+    @Override
+    public void softReset() {
+        // Binary format does not keep any stream state besides sent symbols and metrics.
+    }
+
+
+    private void checkOutput() {
+        if (os == null) {
+            reset();
+        }
+    }
+
+
+    private void flush() throws IOException {
+        if (pos > 0) {
+            os.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+
+    @Override
+    public int checkSymbol(int id, Object parent) throws IOException {
+        checkOutput();
+        if (!symbolsSent.get(id)) {
+            String sym = symbols.symbolName(id);
+            log.debug(ZorkaLogger.ZTR_SYMBOL_ENRICHMENT, "Enriching output stream with symbol '%s', id=%s", sym, id);
+            writeByte(SYMBOL);
+            writeVarInt(id);
+            writeString(sym);
+            symbolsSent.set(id);
+        }
+        return id;
+    }
+
+
+    @Override
+    public void checkMetric(int id) throws IOException {
+        checkOutput();
+        if (!metricsSent.get(id)) {
+            Metric metric = metrics.getMetric(id);
+            log.debug(ZorkaLogger.ZTR_SYMBOL_ENRICHMENT, "Enriching output stream with metric '" + metric + "', id=" + id);
+            checkTemplate(metric.getTemplateId());
+            writeFressian(metric);
+            metricsSent.set(id);
+        }
+    }
+
+
+    @Override
+    public boolean checkStack(int stackId, SymbolicStackElement[] stack) throws IOException {
+        checkOutput();
+        if (!stacksSent.get(stackId)) {
+            for (SymbolicStackElement se : stack) {
+                se.traverse(this);
+            }
+            writeByte(STACK);
+            writeVarInt(stackId);
+            writeStack(stack);
+            stacksSent.set(stackId);
+        }
+        return true;
+    }
+
+
+    public void checkTemplate(int id) throws IOException {
+        checkOutput();
+        if (!templatesSent.get(id)) {
+            MetricTemplate template = metrics.getTemplate(id);
+            log.debug(ZorkaLogger.ZTR_SYMBOL_ENRICHMENT, "Enriching output stream with metric '" + template + "', id=" + id);
+            writeFressian(template);
+            templatesSent.set(id);
+        }
+    }
+
+
+    private void writeRecord(TraceRecord tr, long parentTime) throws IOException {
+        TraceMarker marker = tr.hasFlag(TraceRecord.TRACE_BEGIN) ? tr.getMarker() : null;
+        Object exception = tr.getException();
+        Map<Integer, Object> attrs = tr.getAttrs();
+        List<TraceRecord> children = tr.getChildren();
+        long time = tr.getTime();
+
+        int mask = 0;
+
+        if (marker != null) {
+            mask |= F_MARKER;
+        }
+        if (exception instanceof SymbolicException) {
+            mask |= F_EXCEPTION;
+        }
+        if (attrs != null && attrs.size() > 0) {
+            mask |= F_ATTRS;
+        }
+        if (tr.getErrors() != 0) {
+            mask |= F_ERRORS;
+        }
+        if (tr.getCalls() != 1) {
+            mask |= F_CALLS;
+        }
+        if (tr.getFlags() != 0) {
+            mask |= F_FLAGS;
+        }
+        if (children != null && children.size() > 0) {
+            mask |= F_CHILDREN;
+        }
+        if (parentTime >= time && parentTime - time < time) {
+            mask |= F_TIME_REL;
+        }
+
+        writeVarInt(mask);
+        writeVarInt(tr.getClassId());
+        writeVarInt(tr.getMethodId());
+        writeVarInt(tr.getSignatureId());
+        writeVarLong(0 != (mask & F_TIME_REL) ? parentTime - time : zigzag(time));
+
+        if (0 != (mask & F_FLAGS)) {
+            writeVarInt(tr.getFlags());
+        }
+        if (0 != (mask & F_CALLS)) {
+            writeVarLong(zigzag(tr.getCalls()));
+        }
+        if (0 != (mask & F_ERRORS)) {
+            writeVarLong(zigzag(tr.getErrors()));
+        }
+        if (0 != (mask & F_MARKER)) {
+            writeVarInt(marker.getTraceId());
+            writeVarLong(zigzag(marker.getClock()));
+            writeVarLong(zigzag(marker.getMinimumTime()));
+            writeVarInt(marker.getFlags());
+        }
+        if (0 != (mask & F_EXCEPTION)) {
+            writeException((SymbolicException) exception);
+        }
+        if (0 != (mask & F_ATTRS)) {
+            writeVarInt(attrs.size());
+            for (Map.Entry<Integer, Object> e : attrs.entrySet()) {
+                writeVarInt(e.getKey());
+                writeAttr(e.getValue());
+            }
+        }
+        if (0 != (mask & F_CHILDREN)) {
+            writeVarInt(children.size());
+            for (TraceRecord child : children) {
+                writeRecord(child, time);
+            }
+        }
+    }
+
+
+    private void writeException(SymbolicException e) throws IOException {
+        writeVarInt(e.getClassId());
+        writeString(e.getMessage());
+
+        writeVarInt(e.getStackId());
+        if (e.getStackId() == 0) {
+            writeStack(e.getStackTrace());
+        }
+
+        if (e.getCause() != null) {
+            writeByte(E_EXCEPTION);
+            writeException(e.getCause());
+        } else {
+            writeByte(E_NONE);
+        }
+    }
+
+
+    private void writeStack(SymbolicStackElement[] stack) {
+        writeVarInt(stack.length);
+        for (SymbolicStackElement se : stack) {
+            writeVarInt(se.getClassId());
+            writeVarInt(se.getMethodId());
+            writeVarInt(se.getFileId());
+            writeVarLong(zigzag(se.getLineNum()));
+        }
+    }
+
+
+    private void writeAttr(Object v) throws IOException {
+        if (v == null) {
+            writeByte(A_NULL);
+        } else if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            writeByte(A_LONG);
+            writeVarLong(zigzag(((Number) v).longValue()));
+        } else if (v instanceof Double) {
+            writeByte(A_DOUBLE);
+            writeFixedLong(Double.doubleToLongBits((Double) v));
+        } else if (v instanceof String) {
+            writeByte(A_STRING);
+            writeString((String) v);
+        } else if (v instanceof Boolean) {
+            writeByte((Boolean) v ? A_TRUE : A_FALSE);
+        } else {
+            writeByte(A_FRESSIAN);
+            writeBlob(v);
+        }
+    }
+
+
+    private void writeFressian(Object obj) throws IOException {
+        writeByte(FRESSIAN);
+        writeBlob(obj);
+    }
+
+
+    private void writeBlob(Object obj) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        new FressianWriter(bos, FressianTraceFormat.WRITE_LOOKUP).writeObject(obj);
+        byte[] b = bos.toByteArray();
+        writeVarInt(b.length);
+        writeBytes(b, 0, b.length);
+    }
+
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            byte[] b = new byte[Math.max(buf.length * 2, pos + n)];
+            System.arraycopy(buf, 0, b, 0, pos);
+            buf = b;
+        }
+    }
+
+
+    private void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+
+    private void writeBytes(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, buf, pos, len);
+        pos += len;
+    }
+
+
+    private void writeVarInt(int v) {
+        writeVarLong(v & 0xffffffffL);
+    }
+
+
+    private void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7fL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+
+    private void writeFixedLong(long v) {
+        ensure(8);
+        for (int i = 56; i >= 0; i -= 8) {
+            buf[pos++] = (byte) (v >>> i);
+        }
+    }
+
+
+    /**
+     * Writes string as varint length + 1 (0 means null) followed by UTF-8 encoded data.
+     */
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeByte(0);
+        } else {
+            byte[] b = s.getBytes("UTF-8");
+            writeVarInt(b.length + 1);
+            writeBytes(b, 0, b.length);
+        }
+    }
+
+}
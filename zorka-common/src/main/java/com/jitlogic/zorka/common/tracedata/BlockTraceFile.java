@@ -0,0 +1,269 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.tracedata;
+
+import com.jitlogic.zorka.common.util.LZ4Codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.jitlogic.zorka.common.tracedata.BlockTraceOutputStream.*;
+
+/**
+ * Reads block structured trace files written via BlockTraceOutputStream. Block headers are
+ * scanned when file is opened (without reading block data), so clients can select blocks
+ * by time and decompress them independently (and in parallel). As trace writers are reset
+ * at block boundaries, each block can be decoded with fresh trace reader.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class BlockTraceFile {
+
+    /**
+     * Block descriptor (as read from block header).
+     */
+    public static class Block {
+        private final long offset;
+        private final int codec, rawSize, size, crc;
+        private final long firstClock, lastClock;
+
+        private Block(long offset, int codec, int rawSize, int size, long firstClock, long lastClock, int crc) {
+            this.offset = offset;
+            this.codec = codec;
+            this.rawSize = rawSize;
+            this.size = size;
+            this.firstClock = firstClock;
+            this.lastClock = lastClock;
+            this.crc = crc;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getCodec() {
+            return codec;
+        }
+
+        public int getRawSize() {
+            return rawSize;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getFirstClock() {
+            return firstClock;
+        }
+
+        public long getLastClock() {
+            return lastClock;
+        }
+
+        @Override
+        public String toString() {
+            return "Block(offset=" + offset + ", codec=" + codec + ", size=" + size + "/" + rawSize
+                    + ", clock=" + firstClock + ".." + lastClock + ")";
+        }
+    }
+
+
+    private RandomAccessFile file;
+
+    private List<Block> blocks = new ArrayList<Block>();
+
+
+    public BlockTraceFile(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+
+        try {
+            byte[] magic = new byte[4];
+            file.readFully(magic);
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != ZTRB_MAGIC[i]) {
+                    throw new IOException("Not a block trace file: " + path);
+                }
+            }
+            scan();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Scans block headers. Truncated last block (eg. file still being written) is ignored.
+     */
+    private void scan() throws IOException {
+        long offset = 4, length = file.length();
+
+        while (offset + HEADER_SIZE <= length) {
+            file.seek(offset);
+            int codec = file.readByte();
+            int rawSize = file.readInt(), size = file.readInt();
+            long firstClock = file.readLong(), lastClock = file.readLong();
+            int crc = file.readInt();
+
+            if (offset + HEADER_SIZE + size > length) {
+                break;
+            }
+
+            blocks.add(new Block(offset + HEADER_SIZE, codec, rawSize, size, firstClock, lastClock, crc));
+            offset += HEADER_SIZE + size;
+        }
+    }
+
+
+    public List<Block> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+
+    /**
+     * Returns blocks that (possibly) contain records from given time range. Blocks with no
+     * timestamps (eg. containing only metadata) are always returned.
+     *
+     * @param from beginning of time range (wall clock time, milliseconds)
+     * @param to   end of time range (wall clock time, milliseconds)
+     * @return list of blocks
+     */
+    public List<Block> find(long from, long to) {
+        List<Block> rslt = new ArrayList<Block>();
+        for (Block b : blocks) {
+            if (b.firstClock == 0 || (b.lastClock >= from && b.firstClock <= to)) {
+                rslt.add(b);
+            }
+        }
+        return rslt;
+    }
+
+
+    /**
+     * Reads and decompresses single block. Only reading raw data is serialized,
+     * so this method can be called from multiple threads.
+     *
+     * @param block block descriptor
+     * @return uncompressed block data
+     * @throws IOException if block cannot be read, is malformed or its checksum does not match
+     */
+    public byte[] read(Block block) throws IOException {
+        byte[] data = new byte[block.size];
+
+        synchronized (this) {
+            file.seek(block.offset);
+            file.readFully(data);
+        }
+
+        byte[] raw;
+
+        switch (block.codec) {
+            case CODEC_NONE:
+                raw = data;
+                break;
+            case CODEC_DEFLATE: {
+                raw = new byte[block.rawSize];
+                Inflater inflater = new Inflater(true);
+                try {
+                    // Extra byte is needed by inflater in nowrap mode
+                    byte[] input = new byte[data.length + 1];
+                    System.arraycopy(data, 0, input, 0, data.length);
+                    inflater.setInput(input);
+                    if (inflater.inflate(raw) != raw.length) {
+                        throw new IOException("Truncated block at offset " + block.offset);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Malformed block at offset " + block.offset + ": " + e.getMessage());
+                } finally {
+                    inflater.end();
+                }
+                break;
+            }
+            case CODEC_LZ4:
+                raw = new byte[block.rawSize];
+                if (LZ4Codec.decompress(data, 0, data.length, raw, 0, raw.length) != raw.length) {
+                    throw new IOException("Truncated block at offset " + block.offset);
+                }
+                break;
+            default:
+                throw new IOException("Unknown codec " + block.codec + " in block at offset " + block.offset);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+
+        if ((int) crc.getValue() != block.crc) {
+            throw new IOException("Checksum mismatch in block at offset " + block.offset);
+        }
+
+        return raw;
+    }
+
+
+    /**
+     * Reads and decompresses multiple blocks in parallel.
+     *
+     * @param selected block descriptors
+     * @param executor executor used to decompress blocks
+     * @return uncompressed data (in the same order as block descriptors)
+     */
+    public List<byte[]> read(List<Block> selected, ExecutorService executor) throws IOException {
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(selected.size());
+
+        for (final Block b : selected) {
+            futures.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return read(b);
+                }
+            }));
+        }
+
+        List<byte[]> rslt = new ArrayList<byte[]>(selected.size());
+
+        try {
+            for (Future<byte[]> f : futures) {
+                rslt.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while reading blocks.");
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            throw c instanceof IOException ? (IOException) c : new IOException("Error reading block: " + c);
+        }
+
+        return rslt;
+    }
+
+
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.tracedata;
+
+import com.jitlogic.zorka.common.util.LZ4Codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes trace data as a sequence of independently compressed blocks. Data is buffered in memory
+ * until block is closed by endBlock() (trace output decides on block boundaries, so blocks always
+ * contain whole records). Each block is preceded by a fixed size header:
+ *
+ * <pre>
+ *   codec (byte), uncompressed size (int), compressed size (int),
+ *   first clock (long), last clock (long), CRC32 of uncompressed data (int)
+ * </pre>
+ *
+ * All numbers are big endian. Clocks are wall clock times of records marked in the block (or 0
+ * if no record has been marked), so readers can seek by time without decompressing data.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class BlockTraceOutputStream extends OutputStream {
+
+    /**
+     * Block file signature (magic bytes)
+     */
+    public static final byte[] ZTRB_MAGIC = new byte[]{'Z', 'T', 'R', 'B'};
+
+    public static final int HEADER_SIZE = 29;
+
+    public static final int CODEC_NONE = 0;
+    public static final int CODEC_DEFLATE = 1;
+    public static final int CODEC_LZ4 = 2;
+
+    private OutputStream os;
+
+    private int codec;
+
+    private byte[] buf;
+
+    private int pos;
+
+    private byte[] cbuf = new byte[0];
+
+    private byte[] hdr = new byte[HEADER_SIZE];
+
+    private long firstClock, lastClock;
+
+    private Deflater deflater;
+
+    private CRC32 crc = new CRC32();
+
+
+    /**
+     * Creates block output stream. File signature is written immediately.
+     *
+     * @param os        underlying (file) output stream
+     * @param codec     compression codec (CODEC_NONE, CODEC_DEFLATE, CODEC_LZ4)
+     * @param blockSize initial size of block buffer (buffer will grow if block gets bigger)
+     */
+    public BlockTraceOutputStream(OutputStream os, int codec, int blockSize) throws IOException {
+        this.os = os;
+        this.codec = codec;
+        this.buf = new byte[blockSize];
+
+        if (codec == CODEC_DEFLATE) {
+            deflater = new Deflater(6, true);
+        }
+
+        os.write(ZTRB_MAGIC);
+    }
+
+
+    /**
+     * Parses codec name as used in configuration.
+     *
+     * @param name codec name: none, deflate or lz4
+     * @return codec ID
+     */
+    public static int codec(String name) {
+        if ("deflate".equalsIgnoreCase(name)) {
+            return CODEC_DEFLATE;
+        } else if ("lz4".equalsIgnoreCase(name)) {
+            return CODEC_LZ4;
+        } else {
+            return CODEC_NONE;
+        }
+    }
+
+
+    /**
+     * Marks current block as containing data with given timestamp.
+     *
+     * @param clock wall clock time (milliseconds since epoch)
+     */
+    public void mark(long clock) {
+        if (clock != 0) {
+            if (firstClock == 0 || clock < firstClock) {
+                firstClock = clock;
+            }
+            if (clock > lastClock) {
+                lastClock = clock;
+            }
+        }
+    }
+
+
+    /**
+     * Returns amount of (uncompressed) data in current block.
+     */
+    public int size() {
+        return pos;
+    }
+
+
+    @Override
+    public void write(int b) {
+        if (pos == buf.length) {
+            grow(1);
+        }
+        buf[pos++] = (byte) b;
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (pos + len > buf.length) {
+            grow(len);
+        }
+        System.arraycopy(b, off, buf, pos, len);
+        pos += len;
+    }
+
+
+    private void grow(int len) {
+        byte[] b = new byte[Math.max(buf.length * 2, pos + len)];
+        System.arraycopy(buf, 0, b, 0, pos);
+        buf = b;
+    }
+
+
+    /**
+     * Compresses and writes current block (if not empty).
+     */
+    public void endBlock() throws IOException {
+        if (pos == 0) {
+            return;
+        }
+
+        crc.reset();
+        crc.update(buf, 0, pos);
+
+        byte[] data;
+        int len;
+
+        switch (codec) {
+            case CODEC_DEFLATE:
+                ensureCBuf(pos + (pos >> 8) + 64);
+                deflater.reset();
+                deflater.setInput(buf, 0, pos);
+                deflater.finish();
+                len = 0;
+                while (!deflater.finished()) {
+                    if (len == cbuf.length) {
+                        ensureCBuf(cbuf.length * 2);
+                    }
+                    len += deflater.deflate(cbuf, len, cbuf.length - len);
+                }
+                data = cbuf;
+                break;
+            case CODEC_LZ4:
+                ensureCBuf(LZ4Codec.maxCompressedLength(pos));
+                len = LZ4Codec.compress(buf, 0, pos, cbuf, 0);
+                data = cbuf;
+                break;
+            default:
+                len = pos;
+                data = buf;
+                break;
+        }
+
+        hdr[0] = (byte) codec;
+        putInt(hdr, 1, pos);
+        putInt(hdr, 5, len);
+        putLong(hdr, 9, firstClock);
+        putLong(hdr, 17, lastClock);
+        putInt(hdr, 25, (int) crc.getValue());
+
+        os.write(hdr);
+        os.write(data, 0, len);
+
+        pos = 0;
+        firstClock = 0;
+        lastClock = 0;
+    }
+
+
+    private void ensureCBuf(int len) {
+        if (cbuf.length < len) {
+            byte[] b = new byte[len];
+            System.arraycopy(cbuf, 0, b, 0, cbuf.length);
+            cbuf = b;
+        }
+    }
+
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+
+    private static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+
+
+    /**
+     * Flushes underlying stream. Note that current block is not written until endBlock() is called.
+     */
+    @Override
+    public void flush() throws IOException {
+        os.flush();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        endBlock();
+        if (deflater != null) {
+            deflater.end();
+        }
+        os.close();
+    }
+}
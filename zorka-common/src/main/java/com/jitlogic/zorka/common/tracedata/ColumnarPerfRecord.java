@@ -0,0 +1,313 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.common.tracedata;
+
+import com.jitlogic.zorka.common.util.ZorkaUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar variant of PerfRecord. Samples are sorted into integer and floating point
+ * categories, each stored as parallel primitive arrays of metric IDs and values. Dynamic
+ * attributes are stored as columns (one per attribute symbol) of indexes to a dictionary
+ * of attribute values. Samples are numbered as follows: long samples first, then double
+ * samples. Attribute value index 0 means that sample has no such attribute.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class ColumnarPerfRecord implements SymbolicRecord {
+
+    private long clock;
+
+    private int scannerId;
+
+    private int[] longIds;
+
+    private long[] longVals;
+
+    private int[] doubleIds;
+
+    private double[] doubleVals;
+
+    /**
+     * Attribute column keys (symbol IDs).
+     */
+    private int[] attrKeys;
+
+    /**
+     * Attribute columns: (dictionary index + 1) for each sample or 0 if sample has no such attribute.
+     */
+    private List<int[]> attrVals;
+
+    /**
+     * Attribute values dictionary.
+     */
+    private List<String> dict;
+
+
+    public ColumnarPerfRecord(long clock, int scannerId, int[] longIds, long[] longVals,
+                              int[] doubleIds, double[] doubleVals,
+                              int[] attrKeys, List<int[]> attrVals, List<String> dict) {
+        this.clock = clock;
+        this.scannerId = scannerId;
+        this.longIds = longIds;
+        this.longVals = longVals;
+        this.doubleIds = doubleIds;
+        this.doubleVals = doubleVals;
+        this.attrKeys = attrKeys;
+        this.attrVals = attrVals;
+        this.dict = dict;
+    }
+
+
+    @Override
+    public void traverse(MetadataChecker checker) throws IOException {
+        scannerId = checker.checkSymbol(scannerId, this);
+
+        for (int id : longIds) {
+            checker.checkMetric(id);
+        }
+
+        for (int id : doubleIds) {
+            checker.checkMetric(id);
+        }
+
+        for (int i = 0; i < attrKeys.length; i++) {
+            attrKeys[i] = checker.checkSymbol(attrKeys[i], this);
+        }
+    }
+
+
+    public int size() {
+        return longIds.length + doubleIds.length;
+    }
+
+
+    /**
+     * Returns dynamic attributes of a sample.
+     *
+     * @param idx sample index (long samples first, then double samples)
+     * @return attribute map (symbol ID -> value) or null if sample has no attributes
+     */
+    public Map<Integer, String> getAttrs(int idx) {
+        Map<Integer, String> attrs = null;
+
+        for (int i = 0; i < attrKeys.length; i++) {
+            int v = attrVals.get(i)[idx];
+            if (v != 0) {
+                if (attrs == null) {
+                    attrs = new HashMap<Integer, String>();
+                }
+                attrs.put(attrKeys[i], dict.get(v - 1));
+            }
+        }
+
+        return attrs;
+    }
+
+
+    /**
+     * Converts record to list of (old style) performance samples.
+     */
+    public List<PerfSample> toPerfSamples() {
+        List<PerfSample> samples = new ArrayList<PerfSample>(size());
+
+        for (int i = 0; i < longIds.length; i++) {
+            samples.add(new PerfSample(longIds[i], longVals[i], getAttrs(i)));
+        }
+
+        for (int i = 0; i < doubleIds.length; i++) {
+            samples.add(new PerfSample(doubleIds[i], doubleVals[i], getAttrs(longIds.length + i)));
+        }
+
+        return samples;
+    }
+
+
+    /**
+     * Converts record to old style performance record, so it can be handled by outputs that
+     * process individual samples.
+     *
+     * @param metrics metrics registry used to resolve metrics of samples (can be null)
+     * @return performance record
+     */
+    public PerfRecord toPerfRecord(MetricsRegistry metrics) {
+        List<PerfSample> samples = toPerfSamples();
+
+        if (metrics != null) {
+            for (PerfSample s : samples) {
+                s.setMetric(metrics.getMetric(s.getMetricId()));
+            }
+        }
+
+        return new PerfRecord(clock, scannerId, samples);
+    }
+
+
+    public long getClock() {
+        return clock;
+    }
+
+
+    public int getScannerId() {
+        return scannerId;
+    }
+
+
+    public int[] getLongIds() {
+        return longIds;
+    }
+
+
+    public long[] getLongVals() {
+        return longVals;
+    }
+
+
+    public int[] getDoubleIds() {
+        return doubleIds;
+    }
+
+
+    public double[] getDoubleVals() {
+        return doubleVals;
+    }
+
+
+    public int[] getAttrKeys() {
+        return attrKeys;
+    }
+
+
+    public List<int[]> getAttrVals() {
+        return attrVals;
+    }
+
+
+    public List<String> getDict() {
+        return dict;
+    }
+
+
+    /**
+     * Collects samples directly into primitive arrays (without creating PerfSample objects).
+     * Call add() for every sample and then addAttr() for each of its dynamic attributes.
+     */
+    public static class Builder {
+
+        private int nLongs, nDoubles;
+
+        private int[] longIds = new int[64], doubleIds = new int[16];
+        private long[] longVals = new long[64];
+        private double[] doubleVals = new double[16];
+
+        /**
+         * Attribute values of samples as (sample, column, dictionary index + 1) triples. Samples are
+         * referenced by index (long samples) or by -(index + 1) (double samples).
+         */
+        private int[] attrs = new int[64];
+        private int nAttrs;
+
+        private boolean lastDouble;
+
+        private Map<Integer, Integer> keyCols = new HashMap<Integer, Integer>();
+        private List<Integer> keys = new ArrayList<Integer>();
+
+        private Map<String, Integer> dictIdx = new HashMap<String, Integer>();
+        private List<String> dict = new ArrayList<String>();
+
+
+        public void add(int metricId, Number val) {
+            if (val instanceof Double || val instanceof Float) {
+                if (nDoubles == doubleIds.length) {
+                    doubleIds = ZorkaUtil.clipArray(doubleIds, nDoubles * 2);
+                    doubleVals = ZorkaUtil.clipArray(doubleVals, nDoubles * 2);
+                }
+                doubleIds[nDoubles] = metricId;
+                doubleVals[nDoubles] = val.doubleValue();
+                nDoubles++;
+                lastDouble = true;
+            } else {
+                if (nLongs == longIds.length) {
+                    longIds = ZorkaUtil.clipArray(longIds, nLongs * 2);
+                    longVals = ZorkaUtil.clipArray(longVals, nLongs * 2);
+                }
+                longIds[nLongs] = metricId;
+                longVals[nLongs] = val.longValue();
+                nLongs++;
+                lastDouble = false;
+            }
+        }
+
+
+        /**
+         * Adds dynamic attribute to most recently added sample.
+         */
+        public void addAttr(int keyId, String value) {
+            Integer col = keyCols.get(keyId);
+            if (col == null) {
+                col = keys.size();
+                keys.add(keyId);
+                keyCols.put(keyId, col);
+            }
+
+            Integer idx = dictIdx.get(value);
+            if (idx == null) {
+                idx = dict.size();
+                dict.add(value);
+                dictIdx.put(value, idx);
+            }
+
+            if (nAttrs + 3 > attrs.length) {
+                attrs = ZorkaUtil.clipArray(attrs, attrs.length * 2);
+            }
+
+            attrs[nAttrs++] = lastDouble ? -nDoubles : nLongs - 1;
+            attrs[nAttrs++] = col;
+            attrs[nAttrs++] = idx + 1;
+        }
+
+
+        public int size() {
+            return nLongs + nDoubles;
+        }
+
+
+        public ColumnarPerfRecord build(long clock, int scannerId) {
+            int n = nLongs + nDoubles;
+            List<int[]> cols = new ArrayList<int[]>(keys.size());
+
+            for (int i = 0; i < keys.size(); i++) {
+                cols.add(new int[n]);
+            }
+
+            for (int i = 0; i < nAttrs; i += 3) {
+                int s = attrs[i] >= 0 ? attrs[i] : nLongs - attrs[i] - 1;
+                cols.get(attrs[i + 1])[s] = attrs[i + 2];
+            }
+
+            return new ColumnarPerfRecord(clock, scannerId,
+                    ZorkaUtil.clipArray(longIds, nLongs), ZorkaUtil.clipArray(longVals, nLongs),
+                    ZorkaUtil.clipArray(doubleIds, nDoubles), ZorkaUtil.clipArray(doubleVals, nDoubles),
+                    ZorkaUtil.intArray(keys), cols, dict);
+        }
+    }
+}
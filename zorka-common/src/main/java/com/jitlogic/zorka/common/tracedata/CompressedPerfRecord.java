@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.common.tracedata;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Performance data record compressed by PerfDataCodec. Values can only be decoded
+ * by a codec instance that has seen all preceding records of the same stream.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class CompressedPerfRecord implements SymbolicRecord {
+
+    private int scannerId;
+
+    /**
+     * Encoded clock, metric IDs and values.
+     */
+    private byte[] data;
+
+    private int[] attrKeys;
+
+    private List<int[]> attrVals;
+
+    private List<String> dict;
+
+
+    public CompressedPerfRecord(int scannerId, byte[] data, int[] attrKeys, List<int[]> attrVals, List<String> dict) {
+        this.scannerId = scannerId;
+        this.data = data;
+        this.attrKeys = attrKeys;
+        this.attrVals = attrVals;
+        this.dict = dict;
+    }
+
+
+    @Override
+    public void traverse(MetadataChecker checker) throws IOException {
+        scannerId = checker.checkSymbol(scannerId, this);
+        for (int i = 0; i < attrKeys.length; i++) {
+            attrKeys[i] = checker.checkSymbol(attrKeys[i], this);
+        }
+    }
+
+
+    public int getScannerId() {
+        return scannerId;
+    }
+
+
+    public byte[] getData() {
+        return data;
+    }
+
+
+    public int[] getAttrKeys() {
+        return attrKeys;
+    }
+
+
+    public List<int[]> getAttrVals() {
+        return attrVals;
+    }
+
+
+    public List<String> getDict() {
+        return dict;
+    }
+}
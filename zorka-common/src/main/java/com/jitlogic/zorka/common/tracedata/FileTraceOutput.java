@@ -70,6 +70,23 @@ public class FileTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
      */
     private OutputStream stream;
 
+    /**
+     * Block codec (see BlockTraceOutputStream) or NO_BLOCKS if file is written as a single stream.
+     */
+    private int blockCodec;
+
+    /**
+     * Uncompressed block size (in block mode)
+     */
+    private int blockSize;
+
+    /**
+     * Block output stream (in block mode, null otherwise)
+     */
+    private BlockTraceOutputStream blockStream;
+
+    public static final int NO_BLOCKS = -1;
+
     /**
      * Creates file output for tracer.
      *
@@ -80,6 +97,23 @@ public class FileTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
      * @param compress        enable compressions
      */
     public FileTraceOutput(TraceWriter traceWriter, File path, int maxArchiveFiles, long maxFileSize, boolean compress) {
+        this(traceWriter, path, maxArchiveFiles, maxFileSize, compress, NO_BLOCKS, 0);
+    }
+
+
+    /**
+     * Creates file output for tracer.
+     *
+     * @param traceWriter     trace writer
+     * @param path            path to output file
+     * @param maxArchiveFiles max number of archived files
+     * @param maxFileSize     max file size
+     * @param compress        enable compressions (single stream mode only)
+     * @param blockCodec      block codec (see BlockTraceOutputStream) or NO_BLOCKS for single stream mode
+     * @param blockSize       uncompressed block size
+     */
+    public FileTraceOutput(TraceWriter traceWriter, File path, int maxArchiveFiles, long maxFileSize, boolean compress,
+                           int blockCodec, int blockSize) {
         super("file-output");
 
         this.traceWriter = traceWriter;
@@ -87,6 +121,8 @@ public class FileTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
         this.maxArchiveFiles = maxArchiveFiles;
         this.maxFileSize = maxFileSize;
         this.compress = compress;
+        this.blockCodec = blockCodec;
+        this.blockSize = blockSize;
 
         traceWriter.setOutput(this);
     }
@@ -102,7 +138,20 @@ public class FileTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
     protected void process(List<SymbolicRecord> objs) {
         try {
             for (SymbolicRecord obj : objs) {
+                if (blockStream != null) {
+                    blockStream.mark(clock(obj));
+                }
                 traceWriter.write(obj);
+                if (blockStream != null && blockStream.size() >= blockSize) {
+                    // Each block is decodable on its own, so trace writer state must not span blocks
+                    blockStream.endBlock();
+                    traceWriter.reset();
+                }
+            }
+            if (blockStream != null && blockStream.size() > 0) {
+                // Do not keep partial block in memory until more data arrives
+                blockStream.endBlock();
+                traceWriter.reset();
             }
             stream.flush();
             if (fileStream.getChannel().position() >= maxFileSize) {
@@ -116,6 +165,20 @@ public class FileTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
     }
 
 
+    private static long clock(SymbolicRecord obj) {
+        if (obj instanceof TraceRecord) {
+            return ((TraceRecord) obj).getClock();
+        } else if (obj instanceof PerfRecord) {
+            return ((PerfRecord) obj).getClock();
+        } else if (obj instanceof ColumnarPerfRecord) {
+            return ((ColumnarPerfRecord) obj).getClock();
+        } else if (obj instanceof ProfileRecord) {
+            return ((ProfileRecord) obj).getClock();
+        }
+        return 0;
+    }
+
+
     /**
      * Rotates and reopens trace file.
      */
@@ -166,7 +229,11 @@ public class FileTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
         try {
             fileStream = new FileOutputStream(path);
 
-            if (compress) {
+            if (blockCodec != NO_BLOCKS) {
+                log.info(ZorkaLogger.ZSP_SUBMIT, "Opening block trace file (codec=" + blockCodec + ").");
+                blockStream = new BlockTraceOutputStream(new BufferedOutputStream(fileStream, 65536), blockCodec, blockSize);
+                stream = blockStream;
+            } else if (compress) {
                 log.info(ZorkaLogger.ZSP_SUBMIT, "Opening compressed trace file.");
                 fileStream.write(ZTRZ_MAGIC);
                 stream = new BufferedOutputStream(new DeflaterOutputStream(fileStream, new Deflater(6, true), 65536));
@@ -198,6 +265,7 @@ public class FileTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
         try {
             stream.close();
             stream = null;
+            blockStream = null;
         } catch (IOException e) {
             log.error(ZorkaLogger.ZSP_SUBMIT, "Error closing output stream.", e);
         }
@@ -47,6 +47,11 @@ public class FressianTraceFormat {
     public static final String PERFSAMPLE_TAG = "com.jitlogic.zorka.PerfSample_v1";
     public static final String HELLO_TAG = "com.jitlogic.zorka.HelloRequest_v1";
     public static final String TAGGED_TAG = "com.jitlogic.zorka.TaggedValue_v1";
+    public static final String PROFILE_TAG = "com.jitlogic.zorka.ProfileRecord_v1";
+    public static final String COLPERFRECORD_TAG = "com.jitlogic.zorka.ColumnarPerfRecord_v1";
+    public static final String COMPPERFRECORD_TAG = "com.jitlogic.zorka.CompressedPerfRecord_v1";
+    public static final String STACK_TAG = "com.jitlogic.zorka.SymbolicStack_v1";
+    public static final String EXCEPTION_REF_TAG = "com.jitlogic.zorka.SymbolicException_v2";
 
 
     /**
@@ -345,6 +350,73 @@ public class FressianTraceFormat {
     };
 
 
+    /**
+     * SymbolicException write handler (stack trace written as reference if possible)
+     */
+    public static final WriteHandler EXCEPTION_REF_WH = new WriteHandler() {
+        @Override
+        public void write(Writer w, Object instance) throws IOException {
+            SymbolicException e = (SymbolicException) instance;
+
+            if (e.getStackId() == 0) {
+                EXCEPTION_WH.write(w, instance);
+                return;
+            }
+
+            w.writeTag(EXCEPTION_REF_TAG, 4);
+
+            w.writeInt(e.getClassId());
+            w.writeString(e.getMessage());
+            w.writeInt(e.getStackId());
+            w.writeObject(e.getCause());
+        }
+    };
+
+
+    /**
+     * SymbolicException (with stack trace reference) read handler
+     */
+    public static final ReadHandler EXCEPTION_REF_RH = new ReadHandler() {
+        @Override
+        public Object read(Reader r, Object tag, int componentCount) throws IOException {
+            return new SymbolicException(
+                    (int) r.readInt(),
+                    (String) r.readObject(),
+                    (int) r.readInt(),
+                    (SymbolicException) r.readObject());
+        }
+    };
+
+
+    /**
+     * SymbolicStack write handler
+     */
+    public static final WriteHandler STACK_WH = new WriteHandler() {
+        @Override
+        public void write(Writer w, Object instance) throws IOException {
+            SymbolicStack s = (SymbolicStack) instance;
+
+            w.writeTag(STACK_TAG, 2);
+
+            w.writeInt(s.getId());
+            w.writeObject(Arrays.asList(s.getElements()));
+        }
+    };
+
+
+    /**
+     * SymbolicStack read handler
+     */
+    public static final ReadHandler STACK_RH = new ReadHandler() {
+        @Override
+        public Object read(Reader r, Object tag, int componentCount) throws IOException {
+            return new SymbolicStack(
+                    (int) r.readInt(),
+                    ((List<SymbolicStackElement>) r.readObject()).toArray(new SymbolicStackElement[0]));
+        }
+    };
+
+
     /**
      * Exception StackElement write handler
      */
@@ -402,6 +474,74 @@ public class FressianTraceFormat {
     };
 
 
+    /**
+     * Performance data ColumnarPerfRecord write handler
+     */
+    public static final WriteHandler COLPERFRECORD_WH = new WriteHandler() {
+        @Override
+        public void write(Writer w, Object instance) throws IOException {
+            ColumnarPerfRecord pr = (ColumnarPerfRecord) instance;
+
+            w.writeTag(COLPERFRECORD_TAG, 9);
+
+            w.writeInt(pr.getClock());
+            w.writeInt(pr.getScannerId());
+            w.writeObject(pr.getLongIds());
+            w.writeObject(pr.getLongVals());
+            w.writeObject(pr.getDoubleIds());
+            w.writeObject(pr.getDoubleVals());
+            w.writeObject(pr.getAttrKeys());
+            w.writeList(pr.getAttrVals());
+            w.writeList(pr.getDict());
+        }
+    };
+
+
+    /**
+     * Performance data ColumnarPerfRecord read handler
+     */
+    public static final ReadHandler COLPERFRECORD_RH = new ReadHandler() {
+        @Override
+        public Object read(Reader r, Object tag, int componentCount) throws IOException {
+            return new ColumnarPerfRecord(r.readInt(), (int) r.readInt(),
+                    (int[]) r.readObject(), (long[]) r.readObject(),
+                    (int[]) r.readObject(), (double[]) r.readObject(),
+                    (int[]) r.readObject(), (List<int[]>) r.readObject(), (List<String>) r.readObject());
+        }
+    };
+
+
+    /**
+     * Performance data CompressedPerfRecord write handler
+     */
+    public static final WriteHandler COMPPERFRECORD_WH = new WriteHandler() {
+        @Override
+        public void write(Writer w, Object instance) throws IOException {
+            CompressedPerfRecord pr = (CompressedPerfRecord) instance;
+
+            w.writeTag(COMPPERFRECORD_TAG, 5);
+
+            w.writeInt(pr.getScannerId());
+            w.writeBytes(pr.getData());
+            w.writeObject(pr.getAttrKeys());
+            w.writeList(pr.getAttrVals());
+            w.writeList(pr.getDict());
+        }
+    };
+
+
+    /**
+     * Performance data CompressedPerfRecord read handler (record has to be decoded using PerfDataCodec, see readLookup())
+     */
+    public static final ReadHandler COMPPERFRECORD_RH = new ReadHandler() {
+        @Override
+        public Object read(Reader r, Object tag, int componentCount) throws IOException {
+            return new CompressedPerfRecord((int) r.readInt(), (byte[]) r.readObject(),
+                    (int[]) r.readObject(), (List<int[]>) r.readObject(), (List<String>) r.readObject());
+        }
+    };
+
+
     /**
      * Performance data PerfSample read handler
      */
@@ -436,7 +576,8 @@ public class FressianTraceFormat {
     public static final ReadHandler HELLO_RH = new ReadHandler() {
         @Override
         public Object read(Reader r, Object tag, int componentCount) throws IOException {
-            return new HelloRequest(r.readInt(), (String) r.readObject(), (String) r.readObject());
+            return new HelloRequest(r.readInt(), (String) r.readObject(), (String) r.readObject(),
+                    componentCount > 3 ? (String) r.readObject() : null);
         }
     };
 
@@ -446,10 +587,14 @@ public class FressianTraceFormat {
         public void write(Writer w, Object instance) throws IOException {
             HelloRequest hello = (HelloRequest) instance;
 
-            w.writeTag(HELLO_TAG, 3);
+            // Codecs are written only when offered, so HELLO stays the same for collectors without compression.
+            w.writeTag(HELLO_TAG, hello.getCodecs() != null ? 4 : 3);
             w.writeInt(hello.getTstamp());
             w.writeObject(hello.getHostname());
             w.writeObject(hello.getAuth());
+            if (hello.getCodecs() != null) {
+                w.writeObject(hello.getCodecs());
+            }
         }
     };
 
@@ -477,6 +622,40 @@ public class FressianTraceFormat {
     };
 
 
+    /**
+     * Sampling profiler ProfileRecord write handler
+     */
+    public static final WriteHandler PROFILE_WH = new WriteHandler() {
+        @Override
+        public void write(Writer w, Object instance) throws IOException {
+            ProfileRecord pr = (ProfileRecord) instance;
+
+            w.writeTag(PROFILE_TAG, 8);
+            w.writeInt(pr.getClock());
+            w.writeInt(pr.getProfileId());
+            w.writeInt(pr.getSamples());
+            w.writeObject(pr.getClassIds());
+            w.writeObject(pr.getMethodIds());
+            w.writeObject(pr.getParents());
+            w.writeObject(pr.getCounts());
+            w.writeObject(pr.getSelfCounts());
+        }
+    };
+
+
+    /**
+     * Sampling profiler ProfileRecord read handler
+     */
+    public static final ReadHandler PROFILE_RH = new ReadHandler() {
+        @Override
+        public Object read(Reader r, Object tag, int componentCount) throws IOException {
+            return new ProfileRecord(r.readInt(), (int) r.readInt(), (int) r.readInt(),
+                    (int[]) r.readObject(), (int[]) r.readObject(), (int[]) r.readObject(),
+                    (int[]) r.readObject(), (int[]) r.readObject());
+        }
+    };
+
+
     /**
      * Lookup object grouping all write handlers
      */
@@ -500,7 +679,11 @@ public class FressianTraceFormat {
                                             PerfRecord.class, ZorkaUtil.<String, WriteHandler>constMap(PERFRECORD_TAG, PERFRECORD_WH),
                                             PerfSample.class, ZorkaUtil.<String, WriteHandler>constMap(PERFSAMPLE_TAG, PERFSAMPLE_WH),
                                             HelloRequest.class, ZorkaUtil.<String, WriteHandler>constMap(HELLO_TAG, HELLO_WH),
-                                            TaggedValue.class, ZorkaUtil.<String, WriteHandler>constMap(TAGGED_TAG, TAGGED_WH)
+                                            TaggedValue.class, ZorkaUtil.<String, WriteHandler>constMap(TAGGED_TAG, TAGGED_WH),
+                                            ProfileRecord.class, ZorkaUtil.<String, WriteHandler>constMap(PROFILE_TAG, PROFILE_WH),
+                                            ColumnarPerfRecord.class, ZorkaUtil.<String, WriteHandler>constMap(COLPERFRECORD_TAG, COLPERFRECORD_WH),
+                                            CompressedPerfRecord.class, ZorkaUtil.<String, WriteHandler>constMap(COMPPERFRECORD_TAG, COMPPERFRECORD_WH),
+                                            SymbolicStack.class, ZorkaUtil.<String, WriteHandler>constMap(STACK_TAG, STACK_WH)
                                     ))),
 
                     // Null handler for other types
@@ -513,6 +696,18 @@ public class FressianTraceFormat {
             );
 
 
+    /**
+     * Lookup object grouping all write handlers, writes exception stack traces as references
+     * to SymbolicStack objects (that must be written before).
+     */
+    public static final ILookup<Class, Map<String, WriteHandler>> STACK_REF_WRITE_LOOKUP =
+            new ChainedLookup<Class, Map<String, WriteHandler>>(
+                    new MapLookup<Class, Map<String, WriteHandler>>(
+                            ZorkaUtil.<Class, Map<String, WriteHandler>>constMap(
+                                    SymbolicException.class, ZorkaUtil.<String, WriteHandler>constMap(EXCEPTION_REF_TAG, EXCEPTION_REF_WH))),
+                    WRITE_LOOKUP);
+
+
     /**
      * Lookup object grouping all read handlers
      */
@@ -529,6 +724,33 @@ public class FressianTraceFormat {
                             PERFRECORD_TAG, PERFRECORD_RH,
                             PERFSAMPLE_TAG, PERFSAMPLE_RH,
                             HELLO_TAG, HELLO_RH,
-                            TAGGED_TAG, TAGGED_RH
+                            TAGGED_TAG, TAGGED_RH,
+                            PROFILE_TAG, PROFILE_RH,
+                            COLPERFRECORD_TAG, COLPERFRECORD_RH,
+                            COMPPERFRECORD_TAG, COMPPERFRECORD_RH,
+                            STACK_TAG, STACK_RH,
+                            EXCEPTION_REF_TAG, EXCEPTION_REF_RH
                     ));
+
+
+    /**
+     * Returns lookup object grouping all read handlers, that decodes compressed performance records
+     * into ColumnarPerfRecord objects. As decoding is stateful, each stream needs its own lookup (codec).
+     *
+     * @param codec performance data codec (used only for this stream)
+     * @return lookup object
+     */
+    public static ILookup<Object, ReadHandler> readLookup(final PerfDataCodec codec) {
+        ReadHandler handler = new ReadHandler() {
+            @Override
+            public Object read(Reader r, Object tag, int componentCount) throws IOException {
+                return codec.decode((CompressedPerfRecord) COMPPERFRECORD_RH.read(r, tag, componentCount));
+            }
+        };
+
+        return new ChainedLookup<Object, ReadHandler>(
+                new MapLookup<Object, ReadHandler>(
+                        ZorkaUtil.<Object, ReadHandler>constMap(COMPPERFRECORD_TAG, handler)),
+                READ_LOOKUP);
+    }
 }
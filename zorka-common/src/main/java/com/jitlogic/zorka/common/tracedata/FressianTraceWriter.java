@@ -20,9 +20,12 @@ import com.jitlogic.zorka.common.util.ZorkaLog;
 import com.jitlogic.zorka.common.util.ZorkaLogger;
 import org.fressian.FressianWriter;
 import org.fressian.Writer;
+import org.fressian.handlers.ILookup;
+import org.fressian.handlers.WriteHandler;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
 
 
 /**
@@ -39,7 +42,8 @@ public class FressianTraceWriter implements MetadataChecker, TraceWriter {
 
     private MetricsRegistry metrics;
 
-    BitVector symbolsSent = new BitVector(), metricsSent = new BitVector(16), templatesSent = new BitVector(16);
+    BitVector symbolsSent = new BitVector(), metricsSent = new BitVector(16), templatesSent = new BitVector(16),
+        stacksSent = new BitVector(16);
 
     private TraceStreamOutput output;
 
@@ -47,16 +51,51 @@ public class FressianTraceWriter implements MetadataChecker, TraceWriter {
 
     private Writer writer;
 
+    /**
+     * Performance data compressor (null if performance data is written uncompressed).
+     */
+    private PerfDataCodec perfCodec;
+
+    /**
+     * If true, cached exception stack traces are sent once and then referred to by ID.
+     */
+    private boolean stackRefs;
+
     public FressianTraceWriter(SymbolRegistry symbols, MetricsRegistry metrics) {
         this.symbols = symbols;
         this.metrics = metrics;
     }
 
 
+    public FressianTraceWriter(SymbolRegistry symbols, MetricsRegistry metrics, boolean compressPerfData) {
+        this(symbols, metrics);
+        if (compressPerfData) {
+            perfCodec = new PerfDataCodec();
+        }
+    }
+
+
+    public FressianTraceWriter(SymbolRegistry symbols, MetricsRegistry metrics, boolean compressPerfData,
+                               boolean stackRefs) {
+        this(symbols, metrics, compressPerfData);
+        this.stackRefs = stackRefs;
+    }
+
+
     @Override
     public void write(SymbolicRecord record) throws IOException {
         checkOutput();
+
+        if (perfCodec != null && record instanceof PerfRecord) {
+            record = PerfDataCodec.toColumnar((PerfRecord) record);
+        }
+
         record.traverse(this);
+
+        if (perfCodec != null && record instanceof ColumnarPerfRecord) {
+            record = perfCodec.encode((ColumnarPerfRecord) record);
+        }
+
         writer.writeObject(record);
     }
 
@@ -68,7 +107,12 @@ public class FressianTraceWriter implements MetadataChecker, TraceWriter {
 
 
     public void softReset() {
-        writer = new FressianWriter(os, FressianTraceFormat.WRITE_LOOKUP);
+        writer = new FressianWriter(os, lookup());
+    }
+
+
+    private ILookup<Class, Map<String, WriteHandler>> lookup() {
+        return stackRefs ? FressianTraceFormat.STACK_REF_WRITE_LOOKUP : FressianTraceFormat.WRITE_LOOKUP;
     }
 
 
@@ -77,7 +121,11 @@ public class FressianTraceWriter implements MetadataChecker, TraceWriter {
         symbolsSent.reset();
         metricsSent.reset();
         templatesSent.reset();
-        this.writer = new FressianWriter(os, FressianTraceFormat.WRITE_LOOKUP);
+        stacksSent.reset();
+        if (perfCodec != null) {
+            perfCodec.reset();
+        }
+        this.writer = new FressianWriter(os, lookup());
     }
 
 
@@ -114,6 +162,22 @@ public class FressianTraceWriter implements MetadataChecker, TraceWriter {
     }
 
 
+    @Override
+    public boolean checkStack(int stackId, SymbolicStackElement[] stack) throws IOException {
+        if (!stackRefs) {
+            return false;
+        }
+        checkOutput();
+        if (!stacksSent.get(stackId)) {
+            SymbolicStack s = new SymbolicStack(stackId, stack);
+            s.traverse(this);
+            writer.writeObject(s);
+            stacksSent.set(stackId);
+        }
+        return true;
+    }
+
+
     public void checkTemplate(int id) throws IOException {
         checkOutput();
         if (!templatesSent.get(id)) {
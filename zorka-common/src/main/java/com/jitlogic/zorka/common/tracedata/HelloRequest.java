@@ -26,10 +26,20 @@ public class HelloRequest {
 
     private String auth;
 
+    /**
+     * Payload compression codecs offered by client (comma separated, in order of preference) or null.
+     */
+    private String codecs;
+
     public HelloRequest(long tstamp, String hostname, String auth) {
+        this(tstamp, hostname, auth, null);
+    }
+
+    public HelloRequest(long tstamp, String hostname, String auth, String codecs) {
         this.tstamp = tstamp;
         this.hostname = hostname;
         this.auth = auth;
+        this.codecs = codecs;
     }
 
     public long getTstamp() {
@@ -56,6 +66,14 @@ public class HelloRequest {
         this.auth = auth;
     }
 
+    public String getCodecs() {
+        return codecs;
+    }
+
+    public void setCodecs(String codecs) {
+        this.codecs = codecs;
+    }
+
     @Override
     public String toString() {
         return "HelloRecord(" + tstamp + ", " + hostname + ")";
@@ -35,4 +35,11 @@ public interface MetadataChecker {
      * Method called for every metric found in trace data.
      */
     void checkMetric(int metricId) throws IOException;
+
+    /**
+     * Method called for every cached exception stack trace found in trace data.
+     *
+     * @return true if stack trace will be referred to by ID, false if it has to be written in full
+     */
+    boolean checkStack(int stackId, SymbolicStackElement[] stack) throws IOException;
 }
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.common.tracedata;
+
+import com.jitlogic.zorka.common.util.ZorkaUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stateful compressor for performance data. Encodes timestamps as delta-of-delta, long values
+ * as zig-zag varint deltas against previous value of the same metric and double values as XOR
+ * against previous value of the same metric (with zero bytes on both ends stripped). The same
+ * class is used on both ends: writer calls encode(), reader calls decode(). State must be reset
+ * (reset()) whenever output stream changes. First record encoded after reset carries a marker
+ * that resets decoder state as well.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class PerfDataCodec {
+
+    /**
+     * Marks first record after encoder state has been reset.
+     */
+    public static final int RESET = 0x01;
+
+    private long lastClock, lastDelta;
+
+    private long[] lastLongs = new long[256];
+
+    private long[] lastDoubles = new long[256];
+
+    private boolean fresh = true;
+
+
+    public void reset() {
+        lastClock = 0;
+        lastDelta = 0;
+        lastLongs = new long[256];
+        lastDoubles = new long[256];
+        fresh = true;
+    }
+
+
+    /**
+     * Encodes columnar performance record.
+     *
+     * @param rec performance record
+     * @return compressed record
+     */
+    public CompressedPerfRecord encode(ColumnarPerfRecord rec) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(16 + rec.size() * 3);
+
+        os.write(fresh ? RESET : 0);
+        fresh = false;
+
+        long delta = rec.getClock() - lastClock;
+        writeVarLong(os, zigzag(delta - lastDelta));
+        lastDelta = delta;
+        lastClock = rec.getClock();
+
+        int[] ids = rec.getLongIds();
+        long[] lvals = rec.getLongVals();
+        writeVarLong(os, ids.length);
+        int lastId = 0;
+
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            writeVarLong(os, zigzag(id - lastId));
+            lastId = id;
+            if (id >= lastLongs.length) {
+                lastLongs = ZorkaUtil.clipArray(lastLongs, Math.max(id + 1, lastLongs.length * 2));
+            }
+            writeVarLong(os, zigzag(lvals[i] - lastLongs[id]));
+            lastLongs[id] = lvals[i];
+        }
+
+        ids = rec.getDoubleIds();
+        double[] dvals = rec.getDoubleVals();
+        writeVarLong(os, ids.length);
+        lastId = 0;
+
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            writeVarLong(os, zigzag(id - lastId));
+            lastId = id;
+            if (id >= lastDoubles.length) {
+                lastDoubles = ZorkaUtil.clipArray(lastDoubles, Math.max(id + 1, lastDoubles.length * 2));
+            }
+            long bits = Double.doubleToRawLongBits(dvals[i]);
+            writeXor(os, bits ^ lastDoubles[id]);
+            lastDoubles[id] = bits;
+        }
+
+        return new CompressedPerfRecord(rec.getScannerId(), os.toByteArray(),
+                rec.getAttrKeys(), rec.getAttrVals(), rec.getDict());
+    }
+
+
+    /**
+     * Decodes compressed performance record.
+     *
+     * @param rec compressed record
+     * @return columnar performance record
+     */
+    public ColumnarPerfRecord decode(CompressedPerfRecord rec) {
+        byte[] data = rec.getData();
+        int[] pos = {0};
+
+        if ((data[pos[0]++] & RESET) != 0) {
+            reset();
+        }
+
+        long delta = lastDelta + unzigzag(readVarLong(data, pos));
+        long clock = lastClock + delta;
+        lastDelta = delta;
+        lastClock = clock;
+
+        int n = (int) readVarLong(data, pos);
+        int[] longIds = new int[n];
+        long[] longVals = new long[n];
+        int lastId = 0;
+
+        for (int i = 0; i < n; i++) {
+            int id = lastId + (int) unzigzag(readVarLong(data, pos));
+            lastId = id;
+            if (id >= lastLongs.length) {
+                lastLongs = ZorkaUtil.clipArray(lastLongs, Math.max(id + 1, lastLongs.length * 2));
+            }
+            longIds[i] = id;
+            longVals[i] = lastLongs[id] + unzigzag(readVarLong(data, pos));
+            lastLongs[id] = longVals[i];
+        }
+
+        n = (int) readVarLong(data, pos);
+        int[] doubleIds = new int[n];
+        double[] doubleVals = new double[n];
+        lastId = 0;
+
+        for (int i = 0; i < n; i++) {
+            int id = lastId + (int) unzigzag(readVarLong(data, pos));
+            lastId = id;
+            if (id >= lastDoubles.length) {
+                lastDoubles = ZorkaUtil.clipArray(lastDoubles, Math.max(id + 1, lastDoubles.length * 2));
+            }
+            long bits = readXor(data, pos) ^ lastDoubles[id];
+            doubleIds[i] = id;
+            doubleVals[i] = Double.longBitsToDouble(bits);
+            lastDoubles[id] = bits;
+        }
+
+        return new ColumnarPerfRecord(clock, rec.getScannerId(), longIds, longVals, doubleIds, doubleVals,
+                rec.getAttrKeys(), rec.getAttrVals(), rec.getDict());
+    }
+
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+
+    private static void writeVarLong(ByteArrayOutputStream os, long v) {
+        while ((v & ~0x7FL) != 0) {
+            os.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        os.write((int) v);
+    }
+
+
+    private static long readVarLong(byte[] data, int[] pos) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos[0]++];
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+    }
+
+
+    /**
+     * Writes XOR of two doubles: single zero byte if values are equal, otherwise control byte
+     * (0x80 | leading zero bytes << 3 | trailing zero bytes) followed by remaining bytes.
+     */
+    private static void writeXor(ByteArrayOutputStream os, long x) {
+        if (x == 0) {
+            os.write(0);
+            return;
+        }
+
+        int lz = Long.numberOfLeadingZeros(x) >>> 3, tz = Long.numberOfTrailingZeros(x) >>> 3;
+        os.write(0x80 | (lz << 3) | tz);
+
+        for (int i = 7 - lz; i >= tz; i--) {
+            os.write((int) (x >>> (i * 8)));
+        }
+    }
+
+
+    private static long readXor(byte[] data, int[] pos) {
+        int c = data[pos[0]++] & 0xFF;
+
+        if (c == 0) {
+            return 0;
+        }
+
+        int lz = (c >>> 3) & 0x07, tz = c & 0x07;
+        long x = 0;
+
+        for (int i = 7 - lz; i >= tz; i--) {
+            x |= (long) (data[pos[0]++] & 0xFF) << (i * 8);
+        }
+
+        return x;
+    }
+
+
+    /**
+     * Converts old style performance record into columnar form (so it can be compressed).
+     */
+    public static ColumnarPerfRecord toColumnar(PerfRecord rec) {
+        ColumnarPerfRecord.Builder b = new ColumnarPerfRecord.Builder();
+        List<PerfSample> samples = rec.getSamples();
+
+        for (PerfSample s : samples) {
+            b.add(s.getMetricId(), s.getValue());
+            if (s.getAttrs() != null) {
+                for (Map.Entry<Integer, String> e : s.getAttrs().entrySet()) {
+                    b.addAttr(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        return b.build(rec.getClock(), rec.getScannerId());
+    }
+}
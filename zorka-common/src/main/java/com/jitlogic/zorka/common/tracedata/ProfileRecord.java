@@ -0,0 +1,161 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.common.tracedata;
+
+import java.io.IOException;
+
+/**
+ * Aggregated result of sampling profiler: calling-context tree collected over a single
+ * profiling interval. Tree is stored in flattened form as a set of primitive arrays
+ * indexed by node number. Node 0 is (artificial) root, parent of every node has lower
+ * index than node itself.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class ProfileRecord implements SymbolicRecord {
+
+    /**
+     * Time of profile submission (milliseconds since Epoch).
+     */
+    private long clock;
+
+    /**
+     * Profile name (symbol ID).
+     */
+    private int profileId;
+
+    /**
+     * Number of collected stack samples.
+     */
+    private int samples;
+
+    /**
+     * Node class and method IDs (symbols).
+     */
+    private int[] classIds, methodIds;
+
+    /**
+     * Parent node indexes (-1 for root node).
+     */
+    private int[] parents;
+
+    /**
+     * Number of samples passing through node (total) and ending in node (self).
+     */
+    private int[] counts, selfCounts;
+
+
+    public ProfileRecord(long clock, int profileId, int samples, int[] classIds, int[] methodIds,
+                         int[] parents, int[] counts, int[] selfCounts) {
+        this.clock = clock;
+        this.profileId = profileId;
+        this.samples = samples;
+        this.classIds = classIds;
+        this.methodIds = methodIds;
+        this.parents = parents;
+        this.counts = counts;
+        this.selfCounts = selfCounts;
+    }
+
+
+    @Override
+    public void traverse(MetadataChecker checker) throws IOException {
+        profileId = checker.checkSymbol(profileId, this);
+        for (int i = 1; i < classIds.length; i++) {
+            classIds[i] = checker.checkSymbol(classIds[i], this);
+            methodIds[i] = checker.checkSymbol(methodIds[i], this);
+        }
+    }
+
+
+    /**
+     * Exports profile as collapsed stacks (as accepted by flame graph tools): one line per
+     * unique stack with frames separated by semicolons (outermost first) followed by number
+     * of samples.
+     *
+     * @param symbols symbol registry used to resolve class and method names
+     * @return collapsed stacks text
+     */
+    public String toCollapsedStacks(SymbolRegistry symbols) {
+        StringBuilder sb = new StringBuilder();
+        String[] paths = new String[classIds.length];
+
+        for (int i = 1; i < classIds.length; i++) {
+            String frame = symbols.symbolName(classIds[i]) + "." + symbols.symbolName(methodIds[i]);
+            paths[i] = parents[i] > 0 ? paths[parents[i]] + ";" + frame : frame;
+            if (selfCounts[i] > 0) {
+                sb.append(paths[i]);
+                sb.append(' ');
+                sb.append(selfCounts[i]);
+                sb.append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+
+    public int size() {
+        return classIds.length;
+    }
+
+
+    public long getClock() {
+        return clock;
+    }
+
+
+    public int getProfileId() {
+        return profileId;
+    }
+
+
+    public int getSamples() {
+        return samples;
+    }
+
+
+    public int[] getClassIds() {
+        return classIds;
+    }
+
+
+    public int[] getMethodIds() {
+        return methodIds;
+    }
+
+
+    public int[] getParents() {
+        return parents;
+    }
+
+
+    public int[] getCounts() {
+        return counts;
+    }
+
+
+    public int[] getSelfCounts() {
+        return selfCounts;
+    }
+
+
+    @Override
+    public String toString() {
+        return "ProfileRecord(id=" + profileId + ", samples=" + samples + ", nodes=" + classIds.length + ")";
+    }
+}
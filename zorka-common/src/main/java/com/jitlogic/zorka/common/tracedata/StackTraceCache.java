@@ -0,0 +1,164 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.tracedata;
+
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded cache of symbolized exception stack traces. Error storms tend to throw the same
+ * exception from the same place over and over again, so symbolized stacks are reused instead
+ * of looking up symbols for every frame each time. Each cached stack gets unique ID, so trace
+ * writers can send it once and refer to it by ID afterwards.
+ *
+ * Cache is direct mapped (stack hash selects a slot, newer stack replaces older one), so
+ * lookups need no locking. Stacks are truncated to configured maximum depth (top frames are
+ * retained) regardless of whether caching is enabled.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class StackTraceCache {
+
+    private static final SymbolicStackElement[] EMPTY = new SymbolicStackElement[0];
+
+    /**
+     * Cached stack.
+     */
+    static class Entry {
+        final int hash;
+        final int id;
+        final SymbolRegistry symbols;
+        final StackTraceElement[] orig;
+        final SymbolicStackElement[] stack;
+
+        Entry(int hash, int id, SymbolRegistry symbols, StackTraceElement[] orig, SymbolicStackElement[] stack) {
+            this.hash = hash;
+            this.id = id;
+            this.symbols = symbols;
+            this.orig = orig;
+            this.stack = stack;
+        }
+    }
+
+    private static final Entry EMPTY_ENTRY = new Entry(0, 0, null, new StackTraceElement[0], EMPTY);
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    private final int maxDepth;
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+
+    /**
+     * Creates stack trace cache.
+     *
+     * @param size     number of cached stacks (rounded up to power of 2), 0 disables caching
+     * @param maxDepth maximum number of captured stack frames, 0 means no limit
+     */
+    public StackTraceCache(int size, int maxDepth) {
+        int n = 0;
+        if (size > 0) {
+            n = 1;
+            while (n < size) {
+                n <<= 1;
+            }
+        }
+        this.entries = new Entry[n];
+        this.mask = n - 1;
+        this.maxDepth = maxDepth;
+    }
+
+
+    public int size() {
+        return entries.length;
+    }
+
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+
+    /**
+     * Returns symbolized version of stack trace.
+     *
+     * @param orig    original stack trace
+     * @param symbols symbol registry
+     * @return cache entry (with ID 0 if caching is disabled)
+     */
+    Entry symbolize(StackTraceElement[] orig, SymbolRegistry symbols) {
+
+        if (orig == null || orig.length == 0) {
+            return EMPTY_ENTRY;
+        }
+
+        int len = maxDepth > 0 ? Math.min(maxDepth, orig.length) : orig.length;
+
+        if (entries.length == 0) {
+            return new Entry(0, 0, symbols, orig, symbolize(orig, len, symbols));
+        }
+
+        int hash = len;
+        for (int i = 0; i < len; i++) {
+            hash = 31 * hash + orig[i].hashCode();
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        Entry e = entries[slot];
+
+        if (e != null && e.hash == hash && e.symbols == symbols && matches(e.orig, orig, len)) {
+            AgentDiagnostics.inc(AgentDiagnostics.EXCEPTION_STACK_HITS);
+            return e;
+        }
+
+        AgentDiagnostics.inc(AgentDiagnostics.EXCEPTION_STACK_MISSES);
+
+        StackTraceElement[] copy = new StackTraceElement[len];
+        System.arraycopy(orig, 0, copy, 0, len);
+
+        e = new Entry(hash, nextId.getAndIncrement(), symbols, copy, symbolize(orig, len, symbols));
+        entries[slot] = e;
+
+        return e;
+    }
+
+
+    private static boolean matches(StackTraceElement[] cached, StackTraceElement[] orig, int len) {
+        if (cached.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (!cached[i].equals(orig[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static SymbolicStackElement[] symbolize(StackTraceElement[] orig, int len, SymbolRegistry symbols) {
+        SymbolicStackElement[] stack = new SymbolicStackElement[len];
+        for (int i = 0; i < len; i++) {
+            stack[i] = new SymbolicStackElement(orig[i], symbols);
+        }
+        return stack;
+    }
+}
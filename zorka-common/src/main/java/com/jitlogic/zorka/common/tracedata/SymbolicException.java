@@ -20,6 +20,7 @@ import com.jitlogic.zorka.common.util.ZorkaUtil;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Map;
 
 /**
  * Represents exception in symbolic form (suitable to be saved into trace file
@@ -30,6 +31,21 @@ import java.io.Serializable;
  */
 public class SymbolicException implements SymbolicRecord, Serializable {
 
+    /**
+     * Cache used to symbolize stack traces of local exceptions (caching is disabled by default).
+     */
+    private static volatile StackTraceCache stackCache = new StackTraceCache(0, 0);
+
+
+    public static StackTraceCache getStackCache() {
+        return stackCache;
+    }
+
+
+    public static void setStackCache(StackTraceCache cache) {
+        stackCache = cache;
+    }
+
 
     /**
      * Exception class name symbol ID
@@ -49,6 +65,12 @@ public class SymbolicException implements SymbolicRecord, Serializable {
     private SymbolicStackElement[] stackTrace;
 
 
+    /**
+     * Stack trace ID (assigned by stack trace cache, 0 if stack trace is not cached).
+     */
+    private int stackId;
+
+
     /**
      * Cause (inner exception)
      */
@@ -69,6 +91,24 @@ public class SymbolicException implements SymbolicRecord, Serializable {
     }
 
 
+    /**
+     * Creates new symbolic exception object referring to stack trace by ID. Stack trace itself
+     * has to be filled in by resolveStacks() after reading.
+     *
+     * @param classId class ID
+     * @param message error message
+     * @param stackId stack trace ID
+     * @param cause   cause (inner exception)
+     */
+    public SymbolicException(int classId, String message, int stackId, SymbolicException cause) {
+        this.classId = classId;
+        this.message = message;
+        this.stackTrace = new SymbolicStackElement[0];
+        this.stackId = stackId;
+        this.cause = cause;
+    }
+
+
     /**
      * Creates new symbolic exception object from local throwable object.
      *
@@ -95,15 +135,29 @@ public class SymbolicException implements SymbolicRecord, Serializable {
         this.classId = symbols.symbolId(exception.getClass().getName());
         this.message = exception.getMessage();
 
-        StackTraceElement[] orig = exception.getStackTrace();
+        StackTraceCache.Entry e = stackCache.symbolize(exception.getStackTrace(), symbols);
 
-        if (orig != null && orig.length > 0) {
-            stackTrace = new SymbolicStackElement[orig.length];
-            for (int i = 0; i < orig.length; i++) {
-                stackTrace[i] = new SymbolicStackElement(orig[i], symbols);
+        // Cached stacks are shared between exceptions, so they must never be modified
+        this.stackTrace = e.stack;
+        this.stackId = e.id;
+    }
+
+
+    /**
+     * Fills in stack traces of exceptions (and their causes) read in stack reference form.
+     *
+     * @param stacks stack traces read so far (stack ID -> elements)
+     */
+    public void resolveStacks(Map<Integer, SymbolicStackElement[]> stacks) {
+        if (stackId != 0 && stackTrace.length == 0) {
+            SymbolicStackElement[] st = stacks.get(stackId);
+            if (st != null) {
+                stackTrace = st;
             }
-        } else {
-            stackTrace = new SymbolicStackElement[0];
+        }
+
+        if (cause != null) {
+            cause.resolveStacks(stacks);
         }
     }
 
@@ -164,12 +218,19 @@ public class SymbolicException implements SymbolicRecord, Serializable {
     }
 
 
+    public int getStackId() {
+        return stackId;
+    }
+
+
     @Override
     public void traverse(MetadataChecker checker) throws IOException {
         classId = checker.checkSymbol(classId, this);
 
-        for (SymbolicStackElement el : stackTrace) {
-            el.traverse(checker);
+        if (stackId == 0 || !checker.checkStack(stackId, stackTrace)) {
+            for (SymbolicStackElement el : stackTrace) {
+                el.traverse(checker);
+            }
         }
 
         if (cause != null) {
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.tracedata;
+
+import java.io.IOException;
+
+/**
+ * Symbolized exception stack trace sent to output once and then referred to by ID
+ * (see StackTraceCache).
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class SymbolicStack implements SymbolicRecord {
+
+    private int id;
+
+    private SymbolicStackElement[] elements;
+
+
+    public SymbolicStack(int id, SymbolicStackElement[] elements) {
+        this.id = id;
+        this.elements = elements;
+    }
+
+
+    public int getId() {
+        return id;
+    }
+
+
+    public SymbolicStackElement[] getElements() {
+        return elements;
+    }
+
+
+    @Override
+    public void traverse(MetadataChecker checker) throws IOException {
+        for (SymbolicStackElement el : elements) {
+            el.traverse(checker);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "SymbolicStack(" + id + ", " + elements.length + " frames)";
+    }
+}
@@ -57,6 +57,12 @@ public class TraceMarker implements SymbolicRecord, Serializable {
      */
     public static final int DROP_TRACE = 0x20;
 
+    /**
+     * Trace has not been sampled. Only top level record is kept and it will be submitted only if
+     * it ended with error or took more time than sampler threshold.
+     */
+    public static final int SAMPLED_OUT = 0x40;
+
     /**
      * Trace error mark. This flag is used indicate that this trace ended with error condition (eg. HTTP/500).
      */
@@ -0,0 +1,237 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure java implementation of LZ4 block compression format. It trades compression ratio
+ * for speed: single pass greedy matching using hash table of 4-byte sequences, no entropy
+ * coding. Compressed data is compatible with LZ4 block format (not frame format).
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class LZ4Codec {
+
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * Last match must start at least this many bytes before end of block.
+     */
+    private static final int MF_LIMIT = 12;
+
+    /**
+     * Last bytes of a block are always encoded as literals.
+     */
+    private static final int LAST_LITERALS = 5;
+
+    private static final int MAX_DISTANCE = 65535;
+
+    private static final int HASH_BITS = 12;
+
+
+    /**
+     * Returns maximum size of compressed data (for incompressible input).
+     *
+     * @param len uncompressed data length
+     * @return size of output buffer that is always sufficient
+     */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+    }
+
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+
+    private static int writeLength(byte[] dst, int op, int len) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+
+    /**
+     * Compresses data.
+     *
+     * @param src    source buffer
+     * @param srcOff offset of data in source buffer
+     * @param srcLen length of data in source buffer
+     * @param dst    destination buffer (at least maxCompressedLength(srcLen) bytes starting from dstOff)
+     * @param dstOff offset in destination buffer
+     * @return compressed data length
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int end = srcOff + srcLen, mfLimit = end - MF_LIMIT, matchLimit = end - LAST_LITERALS;
+        int ip = srcOff, anchor = srcOff, op = dstOff;
+
+        while (ip < mfLimit) {
+            int seq = readInt(src, ip), h = hash(seq), ref = table[h];
+            table[h] = ip;
+
+            if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                ip++;
+                continue;
+            }
+
+            while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+
+            int mlen = MIN_MATCH;
+            while (ip + mlen < matchLimit && src[ip + mlen] == src[ref + mlen]) {
+                mlen++;
+            }
+
+            int lit = ip - anchor, ml = mlen - MIN_MATCH;
+            int tokenPos = op++;
+            dst[tokenPos] = (byte) ((Math.min(lit, 15) << 4) | Math.min(ml, 15));
+            if (lit >= 15) {
+                op = writeLength(dst, op, lit - 15);
+            }
+            System.arraycopy(src, anchor, dst, op, lit);
+            op += lit;
+
+            int off = ip - ref;
+            dst[op++] = (byte) off;
+            dst[op++] = (byte) (off >>> 8);
+
+            if (ml >= 15) {
+                op = writeLength(dst, op, ml - 15);
+            }
+
+            ip += mlen;
+            anchor = ip;
+
+            if (ip - 2 < mfLimit) {
+                table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+
+        int lit = end - anchor;
+        dst[op++] = (byte) (Math.min(lit, 15) << 4);
+        if (lit >= 15) {
+            op = writeLength(dst, op, lit - 15);
+        }
+        System.arraycopy(src, anchor, dst, op, lit);
+        op += lit;
+
+        return op - dstOff;
+    }
+
+
+    /**
+     * Decompresses data.
+     *
+     * @param src    source buffer
+     * @param srcOff offset of compressed data in source buffer
+     * @param srcLen length of compressed data
+     * @param dst    destination buffer
+     * @param dstOff offset in destination buffer
+     * @param dstLen maximum number of bytes that can be written to destination buffer
+     * @return decompressed data length
+     * @throws IOException if compressed data is malformed
+     */
+    public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        int ip = srcOff, end = srcOff + srcLen, op = dstOff, oend = dstOff + dstLen;
+
+        while (ip < end) {
+            int token = src[ip++] & 0xff;
+
+            int lit = token >>> 4;
+            if (lit == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("Malformed LZ4 data: truncated literal length.");
+                    }
+                    b = src[ip++] & 0xff;
+                    lit += b;
+                } while (b == 255);
+            }
+
+            if (ip + lit > end || op + lit > oend) {
+                throw new IOException("Malformed LZ4 data: literals out of bounds.");
+            }
+
+            System.arraycopy(src, ip, dst, op, lit);
+            ip += lit;
+            op += lit;
+
+            if (ip == end) {
+                break;
+            }
+
+            if (ip + 2 > end) {
+                throw new IOException("Malformed LZ4 data: truncated match offset.");
+            }
+
+            int off = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+            ip += 2;
+
+            if (off == 0 || op - off < dstOff) {
+                throw new IOException("Malformed LZ4 data: invalid match offset.");
+            }
+
+            int mlen = token & 0x0f;
+            if (mlen == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("Malformed LZ4 data: truncated match length.");
+                    }
+                    b = src[ip++] & 0xff;
+                    mlen += b;
+                } while (b == 255);
+            }
+            mlen += MIN_MATCH;
+
+            if (op + mlen > oend) {
+                throw new IOException("Malformed LZ4 data: match out of bounds.");
+            }
+
+            int ref = op - off;
+            if (off >= mlen) {
+                System.arraycopy(dst, ref, dst, op, mlen);
+                op += mlen;
+            } else {
+                for (int i = 0; i < mlen; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        }
+
+        return op - dstOff;
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.util;
+
+/**
+ * Simple open addressing hash map with primitive long keys. It is meant to be kept and reused
+ * over long periods of time (eg. between monitoring cycles), so it does not allocate anything
+ * unless it has to grow. Null values are not allowed. This class is not thread safe.
+ *
+ * @param <V> value type
+ */
+public class LongMap<V> {
+
+    private long[] keys;
+
+    private Object[] vals;
+
+    private int size, mask;
+
+
+    /**
+     * Creates new map.
+     *
+     * @param capacity expected number of entries
+     */
+    public LongMap(int capacity) {
+        int n = 16;
+        while (n < capacity * 2) {
+            n <<= 1;
+        }
+        keys = new long[n];
+        vals = new Object[n];
+        mask = n - 1;
+    }
+
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+
+    private int slot(long key) {
+        int i = hash(key) & mask;
+        while (vals[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V) vals[slot(key)];
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V val) {
+        if (val == null) {
+            throw new IllegalArgumentException("Null values are not allowed.");
+        }
+
+        int i = slot(key);
+        V old = (V) vals[i];
+
+        keys[i] = key;
+        vals[i] = val;
+
+        if (old == null && ++size * 2 > vals.length) {
+            resize(vals.length * 2);
+        }
+
+        return old;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        V old = (V) vals[i];
+
+        if (old == null) {
+            return null;
+        }
+
+        vals[i] = null;
+        size--;
+
+        // Shift back entries following removed one, so lookups do not stop at the hole.
+        for (int j = (i + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+            int k = hash(keys[j]) & mask;
+            if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+                continue;
+            }
+            keys[i] = keys[j];
+            vals[i] = vals[j];
+            vals[j] = null;
+            i = j;
+        }
+
+        return old;
+    }
+
+
+    private void resize(int n) {
+        long[] oldKeys = keys;
+        Object[] oldVals = vals;
+
+        keys = new long[n];
+        vals = new Object[n];
+        mask = n - 1;
+
+        for (int i = 0; i < oldVals.length; i++) {
+            if (oldVals[i] != null) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                vals[j] = oldVals[i];
+            }
+        }
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns number of slots. Use it along with keyAt() and valueAt() to iterate over map without allocations.
+     */
+    public int slots() {
+        return vals.length;
+    }
+
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+
+    /**
+     * Returns value stored in given slot (or null if slot is empty).
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) vals[slot];
+    }
+
+
+    public void clear() {
+        for (int i = 0; i < vals.length; i++) {
+            vals[i] = null;
+        }
+        size = 0;
+    }
+}
@@ -246,6 +246,22 @@ public abstract class ZorkaConfig {
     }
 
 
+    public Double doubleCfg(String key, Double defval) {
+        String s = properties.getProperty(key);
+
+        try {
+            if (s != null) {
+                return Double.parseDouble(s.trim());
+            } else {
+                return defval;
+            }
+        } catch (NumberFormatException e) {
+            markError("Cannot parse key '" + key + "' -> '" + s + "'. Returning default value of " + defval + ".", e);
+            return defval;
+        }
+    }
+
+
     public Boolean boolCfg(String key, Boolean defval) {
         String s = properties.getProperty(key);
 
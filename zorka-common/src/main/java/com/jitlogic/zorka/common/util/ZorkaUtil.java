@@ -563,6 +563,39 @@ public class ZorkaUtil {
     }
 
 
+    /**
+     * Clips or extends array of ints. If passed length is less than length of original array,
+     * only so many elements of original array will be copied. If passed length is more than length of original
+     * array, new elements will be filled with zeros. If passed length is the same as length of original
+     * array, it is equivalent to copyArray() method.
+     *
+     * @param src source array
+     * @param len target length
+     * @return shortened/cloned/enlarged array
+     */
+    public static int[] clipArray(int[] src, int len) {
+        if (src == null) {
+            return null;
+        }
+
+        if (len < 0) {
+            len = src.length + len > 0 ? src.length + len : 0;
+        }
+
+        int[] dst = new int[len];
+
+        if (len > src.length) {
+            len = src.length;
+        }
+
+        if (len > 0) {
+            System.arraycopy(src, 0, dst, 0, len);
+        }
+
+        return dst;
+    }
+
+
     public static int[] intArray(List<Integer> l) {
         int[] a = new int[l.size()];
 
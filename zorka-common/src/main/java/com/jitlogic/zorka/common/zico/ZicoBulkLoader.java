@@ -0,0 +1,350 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.common.zico;
+
+import com.jitlogic.zorka.common.tracedata.BlockTraceFile;
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads multiple trace files to remote collector over several parallel connections. Each file is
+ * loaded over its own connection (as symbols are defined per file), packets are pipelined and progress
+ * of each file is saved in checkpoint file (trace file path + ".zld"), so interrupted load can be resumed
+ * simply by running it again. Block structured trace files are split into fixed ranges of blocks that are
+ * loaded over separate connections (each range has its own checkpoint file).
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class ZicoBulkLoader {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(ZicoBulkLoader.class);
+
+    public static final String CHECKPOINT_SUFFIX = ".zld";
+
+    private String addr, hostname, auth;
+
+    /**
+     * Offered payload compression codecs (or null)
+     */
+    private String codecs;
+
+    private int port;
+
+    /**
+     * Number of parallel connections
+     */
+    private int threads;
+
+    /**
+     * Maximum packet size and maximum number of unacknowledged packets (per connection)
+     */
+    private int packetSize = 8 * 1048576, window = 4;
+
+    /**
+     * Number of blocks of block structured trace file loaded over single connection
+     */
+    private int blockRange = 64;
+
+    /**
+     * Records and bytes submitted by finished loaders.
+     */
+    private AtomicLong records = new AtomicLong(0), bytes = new AtomicLong(0);
+
+    private AtomicInteger filesLoaded = new AtomicInteger(0), filesSkipped = new AtomicInteger(0),
+            filesFailed = new AtomicInteger(0);
+
+    /**
+     * Loaders currently running (used to compute progress)
+     */
+    private final Set<ZicoDataLoader> active = new HashSet<ZicoDataLoader>();
+
+    private volatile long tstart, tstop;
+
+
+    /**
+     * Creates bulk loader.
+     *
+     * @param addr     hostname or IP address of ZICO collector server
+     * @param port     collector port number
+     * @param hostname hostname advertised to collector server (data will be submitted as this name);
+     * @param auth     client passphrase (if collector is working in secure mode)
+     * @param threads  number of parallel connections
+     */
+    public ZicoBulkLoader(String addr, int port, String hostname, String auth, int threads) {
+        this.addr = addr;
+        this.port = port;
+        this.hostname = hostname;
+        this.auth = auth;
+        this.threads = Math.max(1, threads);
+    }
+
+
+    public static File checkpointFile(File file) {
+        return new File(file.getPath() + CHECKPOINT_SUFFIX);
+    }
+
+
+    /**
+     * Returns checkpoint file of block range (starting at given block) of block structured trace file.
+     */
+    public static File checkpointFile(File file, int fromBlock) {
+        return new File(file.getPath() + "." + fromBlock + CHECKPOINT_SUFFIX);
+    }
+
+
+    /**
+     * Tracks block ranges of a single trace file, so file is accounted for when all its ranges are finished.
+     */
+    private class FileLoad {
+        private final AtomicInteger pending;
+        private volatile boolean loaded, failed;
+
+        private FileLoad(int ranges) {
+            pending = new AtomicInteger(ranges);
+        }
+
+        private void finished(boolean loaded, boolean failed) {
+            this.loaded |= loaded;
+            this.failed |= failed;
+            if (pending.decrementAndGet() == 0) {
+                if (this.failed) {
+                    filesFailed.incrementAndGet();
+                } else if (this.loaded) {
+                    filesLoaded.incrementAndGet();
+                } else {
+                    filesSkipped.incrementAndGet();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Loads trace files and waits until all of them are submitted (or failed).
+     *
+     * @param files trace files
+     * @return true if all files have been loaded successfully
+     */
+    public boolean load(List<File> files) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int failed = filesFailed.get();
+
+        tstart = System.nanoTime();
+        tstop = 0;
+
+        for (final File file : files) {
+            int nblocks = countBlocks(file);
+
+            if (nblocks > 0) {
+                final FileLoad fl = new FileLoad((nblocks + blockRange - 1) / blockRange);
+                for (int b = 0; b < nblocks; b += blockRange) {
+                    final int from = b, to = b + blockRange;
+                    executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadFile(file, from, to, checkpointFile(file, from), fl);
+                        }
+                    });
+                }
+            } else {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadFile(file, 0, -1, checkpointFile(file), new FileLoad(1));
+                    }
+                });
+            }
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        tstop = System.nanoTime();
+
+        log.info(ZorkaLogger.ZCL_STORE, "Bulk load finished: " + this);
+
+        return failed == filesFailed.get();
+    }
+
+
+    /**
+     * Returns number of blocks of block structured trace file (or 0 if file is not block structured).
+     */
+    private static int countBlocks(File file) {
+        try {
+            if (ZicoDataLoader.isBlockFile(file)) {
+                BlockTraceFile bf = new BlockTraceFile(file);
+                try {
+                    return bf.getBlocks().size();
+                } finally {
+                    bf.close();
+                }
+            }
+        } catch (IOException e) {
+            log.debug(ZorkaLogger.ZCL_STORE, "Cannot scan blocks of " + file + ": " + e);
+        }
+        return 0;
+    }
+
+
+    private void loadFile(File file, int fromBlock, int toBlock, File checkpoint, FileLoad fl) {
+        ZicoDataLoader loader = null;
+        boolean loaded = false, failed = false;
+
+        try {
+            // Do not bother collector with files loaded before
+            if (ZicoDataLoader.isDone(checkpoint)) {
+                fl.finished(false, false);
+                return;
+            }
+
+            loader = new ZicoDataLoader(addr, port, hostname, auth, codecs);
+            loader.setPacketSize(packetSize);
+            loader.setWindow(window);
+
+            synchronized (active) {
+                active.add(loader);
+            }
+
+            loaded = loader.load(file, fromBlock, toBlock, checkpoint);
+        } catch (Exception e) {
+            log.error(ZorkaLogger.ZCL_STORE, "Error loading " + file + " (will resume from checkpoint next time)", e);
+            failed = true;
+        } finally {
+            if (loader != null) {
+                synchronized (active) {
+                    active.remove(loader);
+                    records.addAndGet(loader.getRecords());
+                    bytes.addAndGet(loader.getBytes());
+                }
+                try {
+                    loader.close();
+                } catch (IOException e) {
+                    log.debug(ZorkaLogger.ZCL_STORE, "Error closing connection: " + e);
+                }
+            }
+        }
+
+        fl.finished(loaded, failed);
+    }
+
+
+    public void setPacketSize(int packetSize) {
+        this.packetSize = packetSize;
+    }
+
+
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+
+    public void setBlockRange(int blockRange) {
+        this.blockRange = Math.max(1, blockRange);
+    }
+
+
+    public void setCompression(String codecs) {
+        this.codecs = codecs;
+    }
+
+
+    /**
+     * Returns number of records acknowledged by collector so far (including loads in progress).
+     */
+    public long getRecords() {
+        synchronized (active) {
+            long r = records.get();
+            for (ZicoDataLoader l : active) {
+                r += l.getRecords();
+            }
+            return r;
+        }
+    }
+
+
+    /**
+     * Returns number of bytes acknowledged by collector so far (including loads in progress).
+     */
+    public long getBytes() {
+        synchronized (active) {
+            long b = bytes.get();
+            for (ZicoDataLoader l : active) {
+                b += l.getBytes();
+            }
+            return b;
+        }
+    }
+
+
+    public int getFilesLoaded() {
+        return filesLoaded.get();
+    }
+
+
+    public int getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+
+    public int getFilesFailed() {
+        return filesFailed.get();
+    }
+
+
+    private double seconds() {
+        long t0 = tstart, t1 = tstop != 0 ? tstop : System.nanoTime();
+        return t0 != 0 ? (t1 - t0) / 1000000000.0 : 0.0;
+    }
+
+
+    /**
+     * Returns load throughput (megabytes per second).
+     */
+    public double getMBps() {
+        double t = seconds();
+        return t > 0 ? getBytes() / 1048576.0 / t : 0.0;
+    }
+
+
+    /**
+     * Returns load throughput (records per second).
+     */
+    public double getRecordsPerSec() {
+        double t = seconds();
+        return t > 0 ? getRecords() / t : 0.0;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("files=%d (skipped=%d, failed=%d), records=%d, bytes=%d, %.2f MB/s, %.1f records/s",
+                getFilesLoaded(), getFilesSkipped(), getFilesFailed(), getRecords(), getBytes(),
+                getMBps(), getRecordsPerSec());
+    }
+}
@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.List;
 
 import static com.jitlogic.zorka.common.zico.ZicoPacket.*;
 
@@ -101,11 +102,33 @@ public class ZicoClientConnector extends ZicoConnector {
      * @throws IOException if connection breaks, client authentication error or other error occurs
      */
     public void hello(String hostname, String auth) throws IOException {
+        hello(hostname, auth, null);
+    }
+
+
+    /**
+     * Sends HELLO packet offering payload compression and awaits reply. Collector replies with name of
+     * chosen codec (collectors not supporting compression reply with empty packet, so data will be sent
+     * uncompressed).
+     *
+     * @param hostname client name (as advertised to collector server), will appear in host list;
+     * @param auth     client pass phrase (only if server is working in secure mode);
+     * @param codecs   offered codecs (comma separated, in order of preference) or null
+     * @throws IOException if connection breaks, client authentication error or other error occurs
+     */
+    public void hello(String hostname, String auth, String codecs) throws IOException {
+        codec = 0;
         send(ZICO_HELLO, ZicoCommonUtil.pack(
-                new HelloRequest(System.currentTimeMillis(), hostname, auth)));
+                new HelloRequest(System.currentTimeMillis(), hostname, auth, codecs)));
         ZicoPacket pkt = recv();
         switch (pkt.getStatus()) {
             case ZICO_OK:
+                if (codecs != null && pkt.getData() != null && pkt.getData().length > 0) {
+                    List<Object> rslt = ZicoCommonUtil.unpack(pkt.getData());
+                    if (rslt.size() > 0 && rslt.get(0) instanceof String) {
+                        codec = codec((String) rslt.get(0));
+                    }
+                }
                 return;
             case ZICO_AUTH_ERROR:
                 throw new ZicoException(ZICO_AUTH_ERROR, "Authentication error.");
@@ -16,11 +16,17 @@
 package com.jitlogic.zorka.common.zico;
 
 
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.common.util.LZ4Codec;
+
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 
 /**
@@ -34,6 +40,10 @@ import java.util.zip.CRC32;
  * - payload length (4 bytes) -> payload length;
  * - checksum (4 bytes) -> CRC32 of message content;
  * - message content -> to be decoded by other layers (might be zero length);
+ * <p/>
+ * If payload compression has been negotiated in HELLO exchange, message type can have one of
+ * ZICO_DEFLATE or ZICO_LZ4 flags set. In such case message content consists of uncompressed length
+ * (4 bytes) followed by compressed data. Checksum is computed over transmitted content.
  */
 public abstract class ZicoConnector implements Closeable {
 
@@ -47,6 +57,16 @@ public abstract class ZicoConnector implements Closeable {
      */
     public final static int[] ZICO_MAGIC = {0x21, 0xC0, 0xBA, 0xBE};
 
+    /**
+     * Payloads smaller than this are never compressed.
+     */
+    public final static int MIN_COMPRESS_SIZE = 256;
+
+    /**
+     * Maximum accepted uncompressed length of compressed payload.
+     */
+    public final static int MAX_UNCOMPRESSED_SIZE = 64 * 1024 * 1024;
+
 
     protected InetAddress addr;
     protected int port;
@@ -55,6 +75,13 @@ public abstract class ZicoConnector implements Closeable {
     protected InputStream in;
     protected OutputStream out;
 
+    /**
+     * Compression codec used for sent packets (ZICO_DEFLATE, ZICO_LZ4 or 0 if none).
+     */
+    protected int codec;
+
+    private Deflater deflater;
+
     // TODO implement recv with timeout
 
 
@@ -107,6 +134,11 @@ public abstract class ZicoConnector implements Closeable {
             throw new ZicoException(ZicoPacket.ZICO_CRC_ERROR, "CRC error occured.");
         }
 
+        if ((type & ZicoPacket.ZICO_CODEC_MASK) != 0) {
+            d = decompress(type & ZicoPacket.ZICO_CODEC_MASK, d);
+            type &= ~ZicoPacket.ZICO_CODEC_MASK;
+        }
+
         return new ZicoPacket(type, d);
     }
 
@@ -119,6 +151,20 @@ public abstract class ZicoConnector implements Closeable {
      * @throws IOException when network error occurs.
      */
     public void send(int type, byte... data) throws IOException {
+
+        if (codec != 0 && data.length >= MIN_COMPRESS_SIZE) {
+            long t0 = System.nanoTime();
+            byte[] cdata = compress(codec, data);
+            AgentDiagnostics.inc(AgentDiagnostics.ZICO_COMPRESS_TIME, System.nanoTime() - t0);
+            if (cdata.length < data.length) {
+                AgentDiagnostics.inc(AgentDiagnostics.ZICO_PACKETS_COMPRESSED);
+                AgentDiagnostics.inc(AgentDiagnostics.ZICO_BYTES_RAW, data.length);
+                AgentDiagnostics.inc(AgentDiagnostics.ZICO_BYTES_COMPRESSED, cdata.length);
+                type |= codec;
+                data = cdata;
+            }
+        }
+
         CRC32 crc = new CRC32();
         crc.update(data);
 
@@ -139,6 +185,125 @@ public abstract class ZicoConnector implements Closeable {
     }
 
 
+    private byte[] compress(int codec, byte[] data) {
+        byte[] buf;
+        int len;
+
+        if (codec == ZicoPacket.ZICO_LZ4) {
+            buf = new byte[LZ4Codec.maxCompressedLength(data.length) + 4];
+            len = 4 + LZ4Codec.compress(data, 0, data.length, buf, 4);
+        } else {
+            if (deflater == null) {
+                deflater = new Deflater(6, true);
+            }
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            buf = new byte[data.length + (data.length >> 8) + 68];
+            len = 4;
+            while (!deflater.finished() && len < buf.length) {
+                len += deflater.deflate(buf, len, buf.length - len);
+            }
+            if (!deflater.finished()) {
+                return data;
+            }
+        }
+
+        ByteBuffer.wrap(buf).putInt(data.length);
+
+        byte[] rslt = new byte[len];
+        System.arraycopy(buf, 0, rslt, 0, len);
+        return rslt;
+    }
+
+
+    private static byte[] decompress(int codec, byte[] data) throws IOException {
+        if (data.length < 4) {
+            throw new ZicoException(ZicoPacket.ZICO_BAD_REQUEST, "Malformed compressed payload.");
+        }
+
+        int rawLen = ByteBuffer.wrap(data).getInt();
+
+        if (rawLen < 0 || rawLen > MAX_UNCOMPRESSED_SIZE) {
+            throw new ZicoException(ZicoPacket.ZICO_BAD_REQUEST, "Invalid uncompressed payload length: " + rawLen);
+        }
+
+        byte[] raw = new byte[rawLen];
+
+        switch (codec) {
+            case ZicoPacket.ZICO_LZ4:
+                if (LZ4Codec.decompress(data, 4, data.length - 4, raw, 0, rawLen) != rawLen) {
+                    throw new ZicoException(ZicoPacket.ZICO_BAD_REQUEST, "Truncated compressed payload.");
+                }
+                return raw;
+            case ZicoPacket.ZICO_DEFLATE: {
+                Inflater inflater = new Inflater(true);
+                try {
+                    // Extra byte is needed by inflater in nowrap mode
+                    byte[] input = new byte[data.length - 3];
+                    System.arraycopy(data, 4, input, 0, data.length - 4);
+                    inflater.setInput(input);
+                    if (inflater.inflate(raw) != rawLen) {
+                        throw new ZicoException(ZicoPacket.ZICO_BAD_REQUEST, "Truncated compressed payload.");
+                    }
+                } catch (DataFormatException e) {
+                    throw new ZicoException(ZicoPacket.ZICO_BAD_REQUEST, "Malformed compressed payload: " + e.getMessage());
+                } finally {
+                    inflater.end();
+                }
+                return raw;
+            }
+            default:
+                throw new ZicoException(ZicoPacket.ZICO_BAD_REQUEST, "Unsupported payload codec: " + codec);
+        }
+    }
+
+
+    /**
+     * Returns codec flag for given codec name.
+     *
+     * @param name codec name (deflate, lz4)
+     * @return ZICO_DEFLATE, ZICO_LZ4 or 0 if name is not recognized
+     */
+    public static int codec(String name) {
+        if ("deflate".equalsIgnoreCase(name)) {
+            return ZicoPacket.ZICO_DEFLATE;
+        } else if ("lz4".equalsIgnoreCase(name)) {
+            return ZicoPacket.ZICO_LZ4;
+        } else {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Chooses payload codec (server side of HELLO exchange).
+     *
+     * @param offered codecs offered by client (comma separated, in order of preference), can be null
+     * @return name of first supported codec or null if none is supported
+     */
+    public static String negotiate(String offered) {
+        if (offered != null) {
+            for (String name : offered.split(",")) {
+                if (codec(name.trim()) != 0) {
+                    return name.trim().toLowerCase();
+                }
+            }
+        }
+        return null;
+    }
+
+
+    public int getCodec() {
+        return codec;
+    }
+
+
+    public void setCodec(int codec) {
+        this.codec = codec;
+    }
+
+
     /**
      * Closes ZICO connection.
      *
@@ -146,6 +311,10 @@ public abstract class ZicoConnector implements Closeable {
      */
     @Override
     public void close() throws IOException {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
         if (socket != null) {
             in.close();
             in = null;
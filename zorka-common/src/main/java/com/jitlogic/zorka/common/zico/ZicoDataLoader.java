@@ -15,12 +15,18 @@
  */
 package com.jitlogic.zorka.common.zico;
 
+import com.jitlogic.zorka.common.tracedata.BlockTraceFile;
+import com.jitlogic.zorka.common.tracedata.BlockTraceOutputStream;
 import com.jitlogic.zorka.common.tracedata.FressianTraceFormat;
 import com.jitlogic.zorka.common.tracedata.TraceRecord;
 import org.fressian.FressianReader;
 import org.fressian.FressianWriter;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -43,9 +49,32 @@ public class ZicoDataLoader {
      */
     private int packetSize = 8 * 1048576;
 
-    private int records = 0;
+    /**
+     * Maximum number of packets sent without waiting for acknowledgement.
+     */
+    private int window = 1;
+
+    /**
+     * Number of records and bytes acknowledged by collector.
+     */
+    private volatile int records = 0;
 
-    private long bytes = 0;
+    private volatile long bytes = 0;
+
+    /**
+     * Packets sent but not acknowledged yet: {records, bytes}
+     */
+    private LinkedList<long[]> inflight = new LinkedList<long[]>();
+
+    /**
+     * Checkpoint file of currently loaded trace file (or null)
+     */
+    private File checkpoint;
+
+    /**
+     * Number of trace records of currently loaded file acknowledged by collector.
+     */
+    private long acked;
 
     /**
      * Creates new loader object
@@ -57,9 +86,19 @@ public class ZicoDataLoader {
      * @throws IOException if connection breaks or collector login fails;
      */
     public ZicoDataLoader(String addr, int port, String hostname, String auth) throws IOException {
+        this(addr, port, hostname, auth, null);
+    }
+
+    /**
+     * Creates new loader object with payload compression (if supported by collector).
+     *
+     * @param codecs offered compression codecs (comma separated, in order of preference) or null
+     * @throws IOException if connection breaks or collector login fails;
+     */
+    public ZicoDataLoader(String addr, int port, String hostname, String auth, String codecs) throws IOException {
         conn = new ZicoClientConnector(addr, port);
         conn.connect();
-        conn.hello(hostname, auth);
+        conn.hello(hostname, auth, codecs);
     }
 
     /**
@@ -79,6 +118,11 @@ public class ZicoDataLoader {
             throw new IOException("Invalid header (invalid file type).");
         }
 
+        if (hdr[3] == 'B') {
+            fis.close();
+            throw new IOException("Block trace file cannot be read as a single stream (use BlockTraceFile).");
+        }
+
         if (hdr[3] == 'Z') {
             InputStream is = new BufferedInputStream(new InflaterInputStream(fis, new Inflater(true), 65536));
             return is;
@@ -90,6 +134,23 @@ public class ZicoDataLoader {
     }
 
 
+    /**
+     * Returns true if given file is block structured trace file (see BlockTraceOutputStream).
+     */
+    public static boolean isBlockFile(File file) throws IOException {
+        byte[] hdr = new byte[4];
+        InputStream is = new FileInputStream(file);
+        try {
+            if (is.read(hdr) != hdr.length) {
+                return false;
+            }
+        } finally {
+            is.close();
+        }
+        return Arrays.equals(hdr, BlockTraceOutputStream.ZTRB_MAGIC);
+    }
+
+
     /**
      * Opens trace file at specified location and submits its content to collector server.
      *
@@ -115,6 +176,131 @@ public class ZicoDataLoader {
     }
 
 
+    /**
+     * Opens trace file and submits its content to collector server. Progress is saved in checkpoint file
+     * after each acknowledged packet, so interrupted load can be resumed: trace records already acknowledged
+     * are skipped (but symbols and other non-trace objects are sent again, as new session needs them).
+     *
+     * @param file       trace file
+     * @param checkpoint checkpoint file
+     * @return true if file has been loaded, false if it has been loaded before (according to checkpoint)
+     * @throws IOException if file is malformed, connection breaks or server-side error occurs;
+     */
+    public boolean load(File file, File checkpoint) throws IOException {
+        return load(file, 0, -1, checkpoint);
+    }
+
+
+    /**
+     * Submits range of blocks of block structured trace file (or whole file if it is not block structured).
+     * As each block is decodable on its own, ranges of one file can be loaded over separate connections.
+     *
+     * @param file       trace file
+     * @param fromBlock  index of first block
+     * @param toBlock    index past last block (or -1 for all remaining blocks)
+     * @param checkpoint checkpoint file (of given block range)
+     * @return true if data has been loaded, false if it has been loaded before (according to checkpoint)
+     * @throws IOException if file is malformed, connection breaks or server-side error occurs;
+     */
+    public boolean load(File file, int fromBlock, int toBlock, File checkpoint) throws IOException {
+        Properties props = loadCheckpoint(checkpoint);
+
+        if ("true".equals(props.getProperty("done"))) {
+            return false;
+        }
+
+        this.checkpoint = checkpoint;
+        this.acked = Long.parseLong(props.getProperty("records", "0"));
+
+        try {
+            if (isBlockFile(file)) {
+                loadBlocks(file, fromBlock, toBlock);
+            } else {
+                InputStream is = open(file);
+                try {
+                    load(is, acked);
+                } finally {
+                    is.close();
+                }
+            }
+        } finally {
+            this.checkpoint = null;
+        }
+
+        saveCheckpoint(checkpoint, acked, true);
+
+        return true;
+    }
+
+
+    private void loadBlocks(File file, int fromBlock, int toBlock) throws IOException {
+        BlockTraceFile bf = new BlockTraceFile(file);
+        try {
+            List<BlockTraceFile.Block> blocks = bf.getBlocks();
+            int to = toBlock < 0 ? blocks.size() : Math.min(toBlock, blocks.size());
+            long skip = acked;
+
+            inflight.clear();
+
+            for (int i = fromBlock; i < to; i++) {
+                skip = submit(new ByteArrayInputStream(bf.read(blocks.get(i))), skip);
+            }
+
+            while (!inflight.isEmpty()) {
+                ack();
+            }
+        } finally {
+            bf.close();
+        }
+    }
+
+
+    private static Properties loadCheckpoint(File checkpoint) throws IOException {
+        Properties props = new Properties();
+
+        if (checkpoint.exists()) {
+            InputStream is = new FileInputStream(checkpoint);
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+        }
+
+        return props;
+    }
+
+
+    /**
+     * Returns true if checkpoint file marks its trace file (or block range) as completely loaded.
+     */
+    public static boolean isDone(File checkpoint) throws IOException {
+        return "true".equals(loadCheckpoint(checkpoint).getProperty("done"));
+    }
+
+
+    private static void saveCheckpoint(File checkpoint, long records, boolean done) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("records", "" + records);
+        props.setProperty("done", "" + done);
+
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            props.store(os, null);
+        } finally {
+            os.close();
+        }
+
+        if (!tmp.renameTo(checkpoint)) {
+            checkpoint.delete();
+            if (!tmp.renameTo(checkpoint)) {
+                throw new IOException("Cannot write checkpoint file: " + checkpoint);
+            }
+        }
+    }
+
+
     /**
      * Parses trace data and submits it to remote collector.
      *
@@ -122,34 +308,139 @@ public class ZicoDataLoader {
      * @throws IOException if connection breaks or server-side data processing error occurs;
      */
     public void load(InputStream is) throws IOException {
+        load(is, 0);
+    }
+
+
+    /**
+     * Parses trace data and submits it to remote collector. Up to window packets are sent
+     * before waiting for acknowledgements.
+     *
+     * @param is   input stream representing trace file content.
+     * @param skip number of trace records to skip (already submitted)
+     * @throws IOException if connection breaks or server-side data processing error occurs;
+     */
+    public void load(InputStream is, long skip) throws IOException {
+        inflight.clear();
+
+        submit(is, skip);
+
+        while (!inflight.isEmpty()) {
+            ack();
+        }
+    }
+
+
+    /**
+     * Parses trace data and sends it to collector (without waiting for outstanding acknowledgements).
+     *
+     * @return number of trace records still to be skipped
+     */
+    private long submit(InputStream is, long skip) throws IOException {
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is);
+        }
+
         FressianReader reader = new FressianReader(is, FressianTraceFormat.READ_LOOKUP);
 
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         FressianWriter writer = new FressianWriter(os, FressianTraceFormat.WRITE_LOOKUP);
 
         Object obj;
+        int nrecs = 0;
 
-        while (null != (obj = reader.readObject())) {
-            writer.writeObject(obj);
+        // Only clean end of stream (between records) ends trace file, truncated record is an error
+        while (!atEnd(is) && null != (obj = reader.readObject())) {
 
             if (obj instanceof TraceRecord) {
-                records++;
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                nrecs++;
             }
 
+            writer.writeObject(obj);
+
             if (obj instanceof TraceRecord && os.size() > packetSize) {
-                conn.send(ZicoPacket.ZICO_DATA, os.toByteArray());
-                ZicoPacket rslt = conn.recv();
-                if (rslt.getStatus() != ZicoPacket.ZICO_OK) {
-                    throw new ZicoException(rslt.getStatus(), "Error submitting data.");
-                }
-                bytes += os.size();
+                send(os.toByteArray(), nrecs);
                 os = new ByteArrayOutputStream();
                 writer = new FressianWriter(os, FressianTraceFormat.WRITE_LOOKUP);
-                //System.out.print(".");
+                nrecs = 0;
             }
         }
+
+        if (nrecs > 0) {
+            send(os.toByteArray(), nrecs);
+        }
+
+        return skip;
+    }
+
+
+    private static boolean atEnd(InputStream is) throws IOException {
+        is.mark(1);
+        if (is.read() == -1) {
+            return true;
+        }
+        is.reset();
+        return false;
+    }
+
+
+    private void send(byte[] data, int nrecs) throws IOException {
+        conn.send(ZicoPacket.ZICO_DATA, data);
+        inflight.add(new long[]{nrecs, data.length});
+
+        while (inflight.size() >= window) {
+            ack();
+        }
+    }
+
+
+    private void ack() throws IOException {
+        ZicoPacket rslt = conn.recv();
+        if (rslt.getStatus() != ZicoPacket.ZICO_OK) {
+            throw new ZicoException(rslt.getStatus(), "Error submitting data.");
+        }
+
+        long[] pkt = inflight.removeFirst();
+        records += (int) pkt[0];
+        bytes += pkt[1];
+        acked += pkt[0];
+
+        if (checkpoint != null) {
+            saveCheckpoint(checkpoint, acked, false);
+        }
+    }
+
+
+    /**
+     * Closes connection to collector.
+     */
+    public void close() throws IOException {
+        conn.close();
+    }
+
+
+    /**
+     * Returns payload codec negotiated with collector (ZicoPacket.ZICO_DEFLATE, ZICO_LZ4 or 0 if none)
+     */
+    public int getCodec() {
+        return conn.getCodec();
+    }
+
+
+    public void setPacketSize(int packetSize) {
+        this.packetSize = packetSize;
     }
 
+
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+
     public int getRecords() {
         return records;
     }
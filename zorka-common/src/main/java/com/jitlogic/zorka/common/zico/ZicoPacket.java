@@ -77,6 +77,21 @@ public class ZicoPacket {
      */
     public final static int ZICO_HELLO = 0x0010;
 
+    /**
+     * Packet type flag: payload is compressed with deflate (only after it has been negotiated in HELLO exchange).
+     */
+    public final static int ZICO_DEFLATE = 0x0100;
+
+    /**
+     * Packet type flag: payload is compressed with LZ4 (only after it has been negotiated in HELLO exchange).
+     */
+    public final static int ZICO_LZ4 = 0x0200;
+
+    /**
+     * Mask of payload compression flags
+     */
+    public final static int ZICO_CODEC_MASK = 0x0f00;
+
     /**
      * Status code or error code. Status field works both as packet type and status (error) code.
      */
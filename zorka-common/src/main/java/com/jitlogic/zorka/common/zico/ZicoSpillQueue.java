@@ -0,0 +1,378 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.common.zico;
+
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent FIFO queue of encoded ZICO packets. Packets are stored in memory-mapped segment files
+ * of fixed size, total size of all segments is bounded. It is used by ZicoTraceOutput to keep data
+ * while collector is unreachable and replay it (in order) when connection is restored.
+ *
+ * Segment file starts with a header (magic, read position) followed by records: length (int),
+ * CRC32 of data (int) and data. Length is written as last, so a record becomes visible only
+ * when it is complete. When queue is opened, all segments are scanned and the first record that
+ * is incomplete or has invalid checksum marks the end of segment (so partially written segments
+ * left by crashed process are recovered up to last valid record).
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class ZicoSpillQueue {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(ZicoSpillQueue.class);
+
+    private static final int MAGIC = 0x5a53504c; // "ZSPL"
+
+    /** Segment header: magic, reserved, read position, reserved */
+    private static final int HDR_SIZE = 16;
+
+    private static final int READ_POS = 8;
+
+    /** Record header: length, checksum */
+    private static final int REC_HDR = 8;
+
+    private static final String SUFFIX = ".spill";
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    private final long maxSize;
+
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+    private long nextSeq;
+
+    private int count;
+
+    private long size;
+
+
+    /**
+     * Opens spill queue. Segments found in given directory are recovered.
+     *
+     * @param dir         directory segment files will be stored in
+     * @param segmentSize size of single segment file
+     * @param maxSize     maximum summary size of all segment files
+     * @throws IOException if directory cannot be created or segments cannot be opened
+     */
+    public ZicoSpillQueue(File dir, int segmentSize, long maxSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = Math.max(segmentSize, 4096);
+        this.maxSize = maxSize;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create spill directory: " + dir);
+        }
+
+        recover();
+    }
+
+
+    private void recover() throws IOException {
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.matches("^[0-9a-f]{16}\\" + SUFFIX + "$");
+            }
+        });
+
+        Arrays.sort(names);
+
+        for (String name : names) {
+            long seq = Long.parseLong(name.substring(0, 16), 16);
+            Segment seg = new Segment(new File(dir, name), 0);
+
+            if (!seg.recover()) {
+                log.warn(ZorkaLogger.ZCL_STORE, "Discarding invalid spill segment: " + seg.file);
+                seg.delete();
+            } else if (seg.count == 0) {
+                seg.delete();
+            } else {
+                segments.add(seg);
+                count += seg.count;
+                size += seg.capacity;
+            }
+
+            nextSeq = seq + 1;
+        }
+
+        if (count > 0) {
+            log.info(ZorkaLogger.ZCL_STORE, "Recovered " + count + " spilled packets from " + dir);
+        }
+    }
+
+
+    /**
+     * Appends packet at the end of queue.
+     *
+     * @param data encoded packet
+     * @return true if packet has been stored, false if queue is full
+     */
+    public synchronized boolean offer(byte[] data) throws IOException {
+        Segment seg = segments.isEmpty() ? null : segments.getLast();
+
+        if (seg == null || !seg.fits(data.length)) {
+            int capacity = Math.max(segmentSize, HDR_SIZE + REC_HDR + data.length + 4);
+            if (size + capacity > maxSize) {
+                return false;
+            }
+            seg = new Segment(new File(dir, String.format("%016x", nextSeq) + SUFFIX), capacity);
+            nextSeq++;
+            segments.add(seg);
+            size += capacity;
+        }
+
+        seg.append(data);
+        count++;
+
+        return true;
+    }
+
+
+    /**
+     * Returns packet from the head of queue (without removing it).
+     *
+     * @return encoded packet or null if queue is empty
+     */
+    public synchronized byte[] peek() {
+        return segments.isEmpty() ? null : segments.getFirst().peek();
+    }
+
+
+    /**
+     * Removes packet from the head of queue (after it has been successfully replayed).
+     */
+    public synchronized void remove() {
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        Segment seg = segments.getFirst();
+        seg.remove();
+        count--;
+
+        if (seg.count == 0) {
+            segments.removeFirst();
+            size -= seg.capacity;
+            seg.delete();
+        }
+    }
+
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+
+    /**
+     * Returns number of packets in queue.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+
+    /**
+     * Returns summary size of segment files (bytes).
+     */
+    public synchronized long getDiskSize() {
+        return size;
+    }
+
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Flushes all segments to disk and closes them. Unsent packets will be recovered when queue is reopened.
+     */
+    public synchronized void close() {
+        for (Segment seg : segments) {
+            seg.close();
+        }
+        segments.clear();
+        count = 0;
+        size = 0;
+    }
+
+
+    private static class Segment {
+
+        private final File file;
+
+        private int capacity;
+
+        private RandomAccessFile raf;
+
+        private MappedByteBuffer buf;
+
+        /** Position of first unread record and position of end of data */
+        private int readPos = HDR_SIZE, writePos = HDR_SIZE;
+
+        /** Number of unread records */
+        private int count;
+
+        private CRC32 crc = new CRC32();
+
+
+        /**
+         * Opens segment file. If capacity is greater than zero, new segment file is created.
+         */
+        private Segment(File file, int capacity) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+
+            if (capacity > 0) {
+                raf.setLength(capacity);
+            }
+
+            this.capacity = (int) raf.length();
+            this.buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+
+            if (capacity > 0) {
+                buf.putInt(0, MAGIC);
+                buf.putInt(READ_POS, HDR_SIZE);
+            }
+        }
+
+
+        /**
+         * Scans segment for valid records.
+         *
+         * @return false if segment is not a valid spill segment
+         */
+        private boolean recover() {
+            if (capacity < HDR_SIZE || buf.getInt(0) != MAGIC) {
+                return false;
+            }
+
+            int rpos = buf.getInt(READ_POS);
+            int pos = HDR_SIZE;
+
+            while (pos + REC_HDR <= capacity) {
+                int len = buf.getInt(pos);
+                if (len <= 0 || len > capacity - pos - REC_HDR || checksum(pos + REC_HDR, len) != buf.getInt(pos + 4)) {
+                    break;
+                }
+                if (pos >= rpos) {
+                    count++;
+                }
+                pos += REC_HDR + len;
+            }
+
+            writePos = pos;
+            readPos = Math.max(HDR_SIZE, Math.min(rpos, pos));
+
+            if (pos + 4 <= capacity) {
+                // Clear remains of partially written record
+                buf.putInt(pos, 0);
+            }
+
+            return true;
+        }
+
+
+        private int checksum(int pos, int len) {
+            crc.reset();
+            for (int i = 0; i < len; i++) {
+                crc.update(buf.get(pos + i));
+            }
+            return (int) crc.getValue();
+        }
+
+
+        private boolean fits(int len) {
+            return writePos + REC_HDR + len <= capacity;
+        }
+
+
+        private void append(byte[] data) {
+            int pos = writePos, end = pos + REC_HDR + data.length;
+
+            if (end + 4 <= capacity) {
+                buf.putInt(end, 0);
+            }
+
+            buf.position(pos + REC_HDR);
+            buf.put(data);
+
+            crc.reset();
+            crc.update(data);
+            buf.putInt(pos + 4, (int) crc.getValue());
+            buf.putInt(pos, data.length);
+
+            writePos = end;
+            count++;
+        }
+
+
+        private byte[] peek() {
+            if (count == 0) {
+                return null;
+            }
+            byte[] data = new byte[buf.getInt(readPos)];
+            buf.position(readPos + REC_HDR);
+            buf.get(data);
+            return data;
+        }
+
+
+        private void remove() {
+            readPos += REC_HDR + buf.getInt(readPos);
+            buf.putInt(READ_POS, readPos);
+            count--;
+        }
+
+
+        private void close() {
+            try {
+                buf.force();
+                raf.close();
+            } catch (IOException e) {
+                log.error(ZorkaLogger.ZCL_STORE, "Error closing spill segment " + file, e);
+            }
+        }
+
+
+        private void delete() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.error(ZorkaLogger.ZCL_STORE, "Error closing spill segment " + file, e);
+            }
+            buf = null;
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
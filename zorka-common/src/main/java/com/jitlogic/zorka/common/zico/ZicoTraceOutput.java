@@ -82,6 +82,37 @@ public class ZicoTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
      */
     private long packetSize;
 
+    /**
+     * Payload compression codecs offered to collector (or null if compression is disabled)
+     */
+    private String codecs;
+
+    /**
+     * Spill queue (optional). If configured, packets are stored here when collector is unreachable
+     * instead of retrying in output thread.
+     */
+    private ZicoSpillQueue spill;
+
+    /**
+     * Current reconnect wait time and time of next reconnect attempt (used in spill mode)
+     */
+    private long spillRetryTime, nextAttempt;
+
+    /**
+     * Spill and replay statistics
+     */
+    private volatile long spilledPackets, replayedPackets, replayedBytes, replayTime;
+
+    /**
+     * Maximum wait time between reconnect attempts (in spill mode)
+     */
+    private static final long MAX_RETRY_TIME = 60000;
+
+    /**
+     * Maximum number of packets replayed in one go (so incoming records are not dropped while replaying)
+     */
+    private static final int REPLAY_BATCH = 16;
+
     /**
      * Creates trace output object.
      *
@@ -100,6 +131,20 @@ public class ZicoTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
      */
     public ZicoTraceOutput(TraceWriter writer, String addr, int port, String hostname, String auth,
                            int qlen, long packetSize, int retries, long retryTime, long retryTimeExp, int timeout) throws IOException {
+        this(writer, addr, port, hostname, auth, qlen, packetSize, retries, retryTime, retryTimeExp, timeout, null);
+    }
+
+
+    /**
+     * Creates trace output object with spill queue. When collector is unreachable, packets are stored in
+     * spill queue and replayed (in order) after connection is restored.
+     *
+     * @param spill spill queue (or null if packets should be retransmitted from memory as usual)
+     * @throws IOException when connection to remote server cannot be established;
+     */
+    public ZicoTraceOutput(TraceWriter writer, String addr, int port, String hostname, String auth,
+                           int qlen, long packetSize, int retries, long retryTime, long retryTimeExp, int timeout,
+                           ZicoSpillQueue spill) throws IOException {
         super("zico-output", qlen, 1);
 
         this.hostname = hostname;
@@ -109,6 +154,8 @@ public class ZicoTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
         this.retryTime = retryTime;
         this.retryTimeExp = retryTimeExp;
         this.packetSize = packetSize;
+        this.spill = spill;
+        this.spillRetryTime = retryTime;
 
         conn = new ZicoClientConnector(addr, port, timeout);
 
@@ -118,7 +165,7 @@ public class ZicoTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
 
         log.info(ZorkaLogger.ZAG_CONFIG, "Configured tracer output: host=" + hostname + ", retries=" + retries
             + ", retryTime=" + retryTime + ", packetSize=" + packetSize + ", addr=" + addr + ", port=" + port
-            + ", timeout=" + timeout);
+            + ", timeout=" + timeout + (spill != null ? ", spill=" + spill.getMaxSize() : ""));
     }
 
 
@@ -144,8 +191,35 @@ public class ZicoTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
     }
 
 
+    @Override
+    public void runCycle() {
+        if (spill == null) {
+            super.runCycle();
+            return;
+        }
+
+        try {
+            SymbolicRecord rec = submitQueue.poll(retryTime, TimeUnit.MILLISECONDS);
+            if (rec != null) {
+                List<SymbolicRecord> lst = new ArrayList<SymbolicRecord>();
+                lst.add(rec);
+                process(lst);
+            } else if (!spill.isEmpty() && System.currentTimeMillis() >= nextAttempt) {
+                replay();
+            }
+        } catch (InterruptedException e) {
+            log.warn(ZorkaLogger.ZCL_STORE, "Interrupted while waiting for trace records.");
+        }
+    }
+
+
     @Override
     protected void process(List<SymbolicRecord> records) {
+        if (spill != null) {
+            processSpill(records);
+            return;
+        }
+
         long rt = retryTime;
 
         List<SymbolicRecord> packet = new ArrayList<SymbolicRecord>();
@@ -209,6 +283,170 @@ public class ZicoTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
     }
 
 
+    /**
+     * Sends packet if collector is reachable and nothing is waiting in spill queue. Otherwise packet
+     * is stored in spill queue.
+     */
+    private void processSpill(List<SymbolicRecord> records) {
+        List<SymbolicRecord> packet = new ArrayList<SymbolicRecord>();
+        packet.addAll(records);
+
+        if (!spill.isEmpty() && System.currentTimeMillis() >= nextAttempt) {
+            replay();
+        }
+
+        if (spill.isEmpty() && System.currentTimeMillis() >= nextAttempt) {
+            try {
+                if (!conn.isOpen()) {
+                    open();
+                }
+                send(encode(packet, false));
+                AgentDiagnostics.inc(AgentDiagnostics.ZICO_PACKETS_SENT);
+                spillRetryTime = retryTime;
+                return;
+            } catch (Exception e) {
+                disconnected(e);
+            }
+        }
+
+        // Spilled packets must be self-contained as they can be replayed over a new connection.
+        try {
+            byte[] data = encode(packet, true);
+            if (spill.offer(data)) {
+                spilledPackets++;
+                AgentDiagnostics.inc(AgentDiagnostics.ZICO_PACKETS_SPILLED);
+                return;
+            }
+            log.error(ZorkaLogger.ZCL_STORE, "Spill queue is full. Trace will be lost.");
+        } catch (IOException e) {
+            log.error(ZorkaLogger.ZCL_STORE, "Error writing to spill queue. Trace will be lost.", e);
+        }
+
+        AgentDiagnostics.inc(AgentDiagnostics.ZICO_PACKETS_LOST);
+    }
+
+
+    /**
+     * Replays packets from spill queue (in order). Packet is removed from queue only after it has been
+     * acknowledged by collector.
+     */
+    private void replay() {
+        if (!conn.isOpen()) {
+            open();
+        }
+
+        long t0 = System.nanoTime();
+
+        try {
+            for (int i = 0; i < REPLAY_BATCH; i++) {
+                byte[] data = spill.peek();
+                if (data == null) {
+                    break;
+                }
+                send(data);
+                spill.remove();
+                replayedPackets++;
+                replayedBytes += data.length;
+                AgentDiagnostics.inc(AgentDiagnostics.ZICO_PACKETS_REPLAYED);
+            }
+            spillRetryTime = retryTime;
+        } catch (Exception e) {
+            disconnected(e);
+        } finally {
+            replayTime += System.nanoTime() - t0;
+        }
+    }
+
+
+    private byte[] encode(List<SymbolicRecord> packet, boolean selfContained) throws IOException {
+        os.reset();
+
+        if (selfContained) {
+            writer.reset();
+        } else {
+            writer.softReset();
+        }
+
+        for (SymbolicRecord rec : packet) {
+            writer.write(rec);
+        }
+
+        while (os.size() < packetSize && submitQueue.size() > 0) {
+            SymbolicRecord rec = submitQueue.poll();
+            if (rec == null) {
+                break;
+            }
+            packet.add(rec);
+            writer.write(rec);
+        }
+
+        return os.toByteArray();
+    }
+
+
+    private void send(byte[] data) throws IOException {
+        if (!conn.isOpen()) {
+            throw new IOException("Not connected to " + conn.getAddr() + ":" + conn.getPort());
+        }
+        log.debug(ZorkaLogger.ZTR_TRACER_DBG, "Sending ZICO packet: len=" + data.length);
+        conn.send(ZicoPacket.ZICO_DATA, data);
+        ZicoPacket rslt = conn.recv();
+        log.debug(ZorkaLogger.ZTR_TRACER_DBG, "Received response: status=" + rslt.getStatus());
+        if (rslt.getStatus() != ZicoPacket.ZICO_OK) {
+            throw new ZicoException(rslt.getStatus(), "Error submitting data.");
+        }
+    }
+
+
+    private void disconnected(Exception e) {
+        log.error(ZorkaLogger.ZCL_STORE, "Error sending trace record: " + e + ". Will reconnect in "
+                + spillRetryTime + "ms, spilling packets until then.");
+        this.close();
+        AgentDiagnostics.inc(AgentDiagnostics.ZICO_RECONNECTS);
+        nextAttempt = System.currentTimeMillis() + spillRetryTime;
+        spillRetryTime = Math.min(spillRetryTime * retryTimeExp, MAX_RETRY_TIME);
+    }
+
+
+    /**
+     * Enables payload compression (if collector supports it). Takes effect on next connection.
+     *
+     * @param codecs comma separated list of codecs (lz4, deflate) in order of preference, or null
+     */
+    public void setCompression(String codecs) {
+        this.codecs = codecs;
+    }
+
+
+    public ZicoSpillQueue getSpillQueue() {
+        return spill;
+    }
+
+
+    public long getSpilledPackets() {
+        return spilledPackets;
+    }
+
+
+    public long getReplayedPackets() {
+        return replayedPackets;
+    }
+
+
+    public long getReplayedBytes() {
+        return replayedBytes;
+    }
+
+
+    /**
+     * Returns average replay throughput (bytes per second).
+     */
+    public double getReplayThroughput() {
+        long t = replayTime;
+        return t > 0 ? replayedBytes * 1000000000.0 / t : 0.0;
+    }
+
+
     @Override
     public void open() {
         log.info(ZorkaLogger.ZSP_CONFIG, "Starting network tracer output: " + hostname
@@ -216,7 +454,7 @@ public class ZicoTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implements
         try {
             writer.reset();
             conn.connect();
-            conn.hello(hostname, auth);
+            conn.hello(hostname, auth, codecs);
         } catch (Exception e) {
             log.error(ZorkaLogger.ZCL_STORE, "Error connecting " + conn.getAddr() + ":" + conn.getPort()
                     + ": " + e.getMessage() + "       (will reconnect later)");
@@ -97,7 +97,9 @@ public class AgentConfig extends ZorkaConfig {
             String hostname = stringCfg("zorka.hostname", "zorka");
             int syslogFacility = SyslogLib.getFacility(stringCfg("zorka.syslog.facility", "F_LOCAL0"));
 
-            SyslogTrapper syslog = new SyslogTrapper(server, hostname, syslogFacility, true);
+            String protocol = stringCfg("zorka.syslog.protocol", SyslogTrapper.PROTO_UDP);
+
+            SyslogTrapper syslog = new SyslogTrapper(server, hostname, syslogFacility, true, protocol);
             syslog.disableTrapCounter();
             syslog.start();
 
@@ -19,6 +19,7 @@ package com.jitlogic.zorka.core;
 import com.jitlogic.zorka.common.ZorkaService;
 import com.jitlogic.zorka.common.stats.AgentDiagnostics;
 import com.jitlogic.zorka.common.stats.MethodCallStatistics;
+import com.jitlogic.zorka.common.stats.StatsSweeper;
 import com.jitlogic.zorka.common.stats.ValGetter;
 import com.jitlogic.zorka.common.util.ZorkaLog;
 import com.jitlogic.zorka.common.util.ZorkaLogger;
@@ -30,12 +31,18 @@ import com.jitlogic.zorka.core.integ.zabbix.ZabbixQueryTranslator;
 import com.jitlogic.zorka.core.mbeans.AttrGetter;
 import com.jitlogic.zorka.common.tracedata.MetricsRegistry;
 import com.jitlogic.zorka.core.perfmon.PerfMonLib;
+import com.jitlogic.zorka.core.perfmon.SamplingProfiler;
+import com.jitlogic.zorka.common.http.HttpUtil;
+import com.jitlogic.zorka.common.http.PooledHttpClient;
 import com.jitlogic.zorka.core.spy.*;
 import com.jitlogic.zorka.common.tracedata.SymbolRegistry;
+import com.jitlogic.zorka.common.tracedata.StackTraceCache;
+import com.jitlogic.zorka.common.tracedata.SymbolicException;
 import com.jitlogic.zorka.core.integ.*;
 import com.jitlogic.zorka.core.mbeans.MBeanServerRegistry;
 import com.jitlogic.zorka.core.normproc.NormLib;
 import com.jitlogic.zorka.core.util.DaemonThreadFactory;
+import com.jitlogic.zorka.core.util.TaskScheduler;
 
 import java.util.Properties;
 import java.util.Set;
@@ -176,13 +183,78 @@ public class AgentInstance implements ZorkaService {
 
         config.initLoggers();
 
+        initClock();
+
+        initHttpClient();
+
         initBshLibs();
 
         zorkaAgent.initialize();
 
+        if (config.boolCfg("tracer.tuner", false)) {
+            Tracer.setTuner(getTracerTuner());
+        }
+
+        if (config.boolCfg("profiler", false)) {
+            getSamplingProfiler().start();
+        }
+
+        if (config.boolCfg("zorka.overhead", false)) {
+            Tracer.setGovernor(getOverheadGovernor());
+        }
+
         if (config.boolCfg("zorka.diagnostics", true)) {
             createZorkaDiagMBean();
         }
+
+        long sweepInterval = config.longCfg("zorka.stats.sweep.interval", 60L) * 1000L;
+        long statsTtl = config.longCfg("zorka.stats.ttl", 86400L) * 1000L;
+
+        if (sweepInterval > 0 && statsTtl > 0) {
+            StatsSweeper.instance().setTtl(Math.max(1, statsTtl / sweepInterval));
+            TaskScheduler.instance().schedule(StatsSweeper.instance(), sweepInterval, sweepInterval);
+        }
+    }
+
+
+    /**
+     * Selects time source for tracer and spy time probes. This has to be done before
+     * any class is instrumented, as time probes check clock mode at instrumentation time.
+     */
+    private void initClock() {
+
+        if (config.boolCfg("tracer.clock.benchmark", true)) {
+            log.info(ZorkaLogger.ZAG_CONFIG, SpyClock.recommend(
+                    SpyClock.benchmark(config.intCfg("tracer.clock.benchmark.calls", 5000))));
+        }
+
+        String clock = config.stringCfg("tracer.clock", "nano").trim();
+
+        if ("coarse".equalsIgnoreCase(clock)) {
+            SpyClock.startCoarse(config.longCfg("tracer.clock.resolution", 100L) * 1000L);
+        } else if (!"nano".equalsIgnoreCase(clock)) {
+            log.error(ZorkaLogger.ZAG_ERRORS, "Invalid tracer.clock setting: '" + clock + "' (using nano)");
+        }
+    }
+
+
+    /**
+     * Selects HTTP client used by agent components sending data over HTTP (eg. influx outputs).
+     */
+    private void initHttpClient() {
+
+        String client = config.stringCfg("http.client", "jdk").trim();
+
+        if ("pooled".equalsIgnoreCase(client)) {
+            HttpUtil.setClient(new PooledHttpClient(
+                    config.intCfg("http.pool.max.connections", PooledHttpClient.DEFAULT_MAX_CONNECTIONS),
+                    config.intCfg("http.pool.max.idle", 4),
+                    config.longCfg("http.pool.idle.timeout", 30000L),
+                    config.intCfg("http.timeout", 30000)));
+            log.info(ZorkaLogger.ZAG_CONFIG, "Using pooled HTTP client.");
+        } else if (!"jdk".equalsIgnoreCase(client)) {
+            log.error(ZorkaLogger.ZAG_ERRORS, "Invalid http.client setting: '" + client + "' (using jdk)");
+        }
     }
 
 
@@ -258,6 +330,43 @@ public class AgentInstance implements ZorkaService {
                 new AttrGetter(getSymbolRegistry(), "size()"));
 
         registry.getOrRegister("java", mbeanName, "stats", stats);
+
+        if (overheadGovernor != null) {
+            registry.getOrRegister("java", mbeanName, "OverheadLevel",
+                    new AttrGetter(overheadGovernor, "getLevelName()"));
+            registry.getOrRegister("java", mbeanName, "OverheadPercent",
+                    new AttrGetter(overheadGovernor, "getOverhead()"));
+            registry.getOrRegister("java", mbeanName, "OverheadBySpy",
+                    new ValGetter() {
+                        @Override
+                        public Object get() {
+                            return overheadGovernor.listSpyTimes();
+                        }
+                    });
+        }
+
+        if (retransformer instanceof RealSpyRetransformer) {
+            registry.getOrRegister("java", mbeanName, "RetransformLastClasses",
+                    new AttrGetter(retransformer, "getLastClasses()"));
+            registry.getOrRegister("java", mbeanName, "RetransformLastBatches",
+                    new AttrGetter(retransformer, "getLastBatches()"));
+            registry.getOrRegister("java", mbeanName, "RetransformLastMatchTime",
+                    new AttrGetter(retransformer, "getLastMatchTime()"));
+            registry.getOrRegister("java", mbeanName, "RetransformLastTotalTime",
+                    new AttrGetter(retransformer, "getLastTotalTime()"));
+            registry.getOrRegister("java", mbeanName, "RetransformLastMaxBatchTime",
+                    new AttrGetter(retransformer, "getLastMaxBatchTime()"));
+        }
+
+        if (tracerTuner != null) {
+            registry.getOrRegister("java", mbeanName, "TracerAutoExcluded",
+                    new ValGetter() {
+                        @Override
+                        public Object get() {
+                            return tracerTuner.listExclusions();
+                        }
+                    });
+        }
     }
 
 
@@ -335,6 +444,9 @@ public class AgentInstance implements ZorkaService {
 
     public synchronized Tracer getTracer() {
         if (tracer == null) {
+            SymbolicException.setStackCache(new StackTraceCache(
+                    config.intCfg("tracer.exception.cache.size", 1024),
+                    config.intCfg("tracer.exception.max.depth", 0)));
             tracer = new Tracer(getTracerMatcherSet(), getSymbolRegistry());
             MainSubmitter.setTracer(getTracer());
         }
@@ -347,6 +459,57 @@ public class AgentInstance implements ZorkaService {
     }
 
 
+    private TracerTuner tracerTuner;
+
+    public synchronized TracerTuner getTracerTuner() {
+        if (tracerTuner == null) {
+            long interval = config.longCfg("tracer.tuner.interval", 30000L);
+            tracerTuner = new TracerTuner(getTracer(), getSymbolRegistry(), getRetransformer(),
+                    config.longCfg("tracer.tuner.min.calls", 100000L),
+                    config.doubleCfg("tracer.tuner.max.ratio", 0.001),
+                    config.intCfg("tracer.tuner.max.excludes", 1024),
+                    config.intCfg("tracer.tuner.flush.calls", 4096));
+            TaskScheduler.instance().schedule(tracerTuner, interval, interval);
+        }
+        return tracerTuner;
+    }
+
+
+    private OverheadGovernor overheadGovernor;
+
+    public synchronized OverheadGovernor getOverheadGovernor() {
+        if (overheadGovernor == null) {
+            long interval = config.longCfg("zorka.overhead.interval", 10000L);
+            overheadGovernor = new OverheadGovernor(getClassTransformer(),
+                    config.intCfg("zorka.overhead.sample", 64),
+                    config.doubleCfg("zorka.overhead.max", 5.0),
+                    config.doubleCfg("zorka.overhead.recover", 2.0));
+            TaskScheduler.instance().schedule(overheadGovernor, interval, interval);
+        }
+        return overheadGovernor;
+    }
+
+
+    private SamplingProfiler samplingProfiler;
+
+    public synchronized SamplingProfiler getSamplingProfiler() {
+        if (samplingProfiler == null) {
+            samplingProfiler = new SamplingProfiler(config.stringCfg("profiler.name", "PROFILE"),
+                    getSymbolRegistry(), getTracer(),
+                    config.longCfg("profiler.interval", 20L),
+                    config.longCfg("profiler.submit.interval", 60000L),
+                    config.intCfg("profiler.max.depth", 128),
+                    config.intCfg("profiler.max.threads", 64),
+                    config.intCfg("profiler.max.nodes", 65536),
+                    config.doubleCfg("profiler.max.overhead", 0.02),
+                    config.listCfg("profiler.include"),
+                    config.listCfg("profiler.exclude", "ZORKA-.*"));
+            samplingProfiler.setCollapsedPath(config.stringCfg("profiler.collapsed.path", null));
+        }
+        return samplingProfiler;
+    }
+
+
     public synchronized SpyClassTransformer getClassTransformer() {
         if (classTransformer == null) {
             classTransformer = new SpyClassTransformer(getSymbolRegistry(), getTracer(),
@@ -511,6 +674,12 @@ public class AgentInstance implements ZorkaService {
 
         if (perfMonLib == null) {
             perfMonLib = new PerfMonLib(getSymbolRegistry(), getMetricsRegistry(), getTracer(), getMBeanServerRegistry());
+            int scanThreads = config.intCfg("perfmon.scan.threads", 0);
+            if (scanThreads > 0) {
+                perfMonLib.setScanExecutor(Executors.newFixedThreadPool(scanThreads,
+                        new DaemonThreadFactory("ZORKA-perfmon-scan")));
+            }
+            perfMonLib.setColumnar(config.boolCfg("perfmon.columnar", false));
         }
 
         return perfMonLib;
@@ -567,6 +736,10 @@ public class AgentInstance implements ZorkaService {
         if (nagiosAgent != null) {
             nagiosAgent.shutdown();
         }
+
+        if (retransformer instanceof ZorkaService) {
+            ((ZorkaService) retransformer).shutdown();
+        }
     }
 
 
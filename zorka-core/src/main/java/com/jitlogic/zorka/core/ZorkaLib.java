@@ -67,7 +67,7 @@ public class ZorkaLib implements ZorkaService {
 
     private String hostname;
 
-    private AvgRateCounter rateCounter = new AvgRateCounter(this);
+    private volatile RateSampler rateSampler;
     private Map<String, FileTrapper> fileTrappers = new ConcurrentHashMap<String, FileTrapper>();
 
     private TaskScheduler scheduler = TaskScheduler.instance();
@@ -381,9 +381,8 @@ public class ZorkaLib implements ZorkaService {
 
     /**
      * Calculates windowed rate of two associated parameters (eg. execution time and number of calls).
-     * This is useful for statistics that only provide total values (and no averages). It requires
-     * caller to periodically call this function in order to maintain collected deltas, so this method
-     * will be deprecated as soon as viable alternative appears.
+     * This is useful for statistics that only provide total values (and no averages). Parameters are
+     * sampled in background (see zorka.rate.tick) since first call, so calls themselves are cheap.
      *
      * @param args first two arguments are mbean server name and object name, last three arguments are
      *             nominator field, divider field and time horizon, all remaining middle arguemnts are
@@ -404,7 +403,7 @@ public class ZorkaLib implements ZorkaService {
         if (oh instanceof String && ((String) oh).matches("^AVG[0-9]+$")) {
             horizon = Long.parseLong(oh.toString().substring(3)) * MINUTE;
         } else {
-            horizon = rateCounter.coerce(args[args.length - 1]) * SECOND;
+            horizon = RateSampler.coerce(args[args.length - 1]) * SECOND;
         }
 
         if (horizon == 0) {
@@ -415,7 +414,28 @@ public class ZorkaLib implements ZorkaService {
         String div = (String) args[args.length - 2];
         String nom = (String) args[args.length - 3];
 
-        return rateCounter.get(Arrays.asList(ZorkaUtil.clipArray(args, args.length - 3)), nom, div, horizon);
+        return rateSampler().get(ZorkaUtil.clipArray(args, args.length - 3), nom, div, horizon);
+    }
+
+
+    /**
+     * Returns rate sampler used by rate() function. Creates and schedules a new one if none has been created (yet).
+     *
+     * @return rate sampler object
+     */
+    public RateSampler rateSampler() {
+        RateSampler sampler = rateSampler;
+        if (sampler == null) {
+            synchronized (this) {
+                if (rateSampler == null) {
+                    long tick = config.longCfg("zorka.rate.tick", 5000L);
+                    rateSampler = new RateSampler(this, tick, config.longCfg("zorka.rate.horizon", 900L) * SECOND);
+                    scheduler.schedule(rateSampler, tick, tick);
+                }
+                sampler = rateSampler;
+            }
+        }
+        return sampler;
     }
 
 
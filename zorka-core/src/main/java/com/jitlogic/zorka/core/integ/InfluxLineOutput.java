@@ -0,0 +1,511 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.integ;
+
+import com.jitlogic.zorka.common.http.HttpBodyWriter;
+import com.jitlogic.zorka.common.http.HttpClient;
+import com.jitlogic.zorka.common.http.HttpRequest;
+import com.jitlogic.zorka.common.http.HttpResponse;
+import com.jitlogic.zorka.common.tracedata.Metric;
+import com.jitlogic.zorka.common.tracedata.MetricsRegistry;
+import com.jitlogic.zorka.common.tracedata.ColumnarPerfRecord;
+import com.jitlogic.zorka.common.tracedata.PerfRecord;
+import com.jitlogic.zorka.common.tracedata.PerfSample;
+import com.jitlogic.zorka.common.tracedata.SymbolicRecord;
+import com.jitlogic.zorka.common.util.ZorkaAsyncThread;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends performance data to InfluxDB using line protocol. Lines are encoded directly into
+ * reusable byte buffer which is sent when it exceeds configured size or when the oldest line
+ * in buffer is older than configured flush time. Request body is (optionally) gzipped and
+ * sent using shared HTTP client (so connections are reused as configured for the agent).
+ * Metrics of samples are looked up in metrics registry, so scanners do not have to
+ * attach metric objects to emitted samples.
+ *
+ * Tags are sorted by key (as recommended for InfluxDB) and measurement name, tag keys and
+ * constant tag values are escaped only once per metric.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class InfluxLineOutput extends ZorkaAsyncThread<SymbolicRecord> {
+
+    private static final byte[] VALUE = bytes(" value=");
+
+    /**
+     * Precomputed line prefix for a metric.
+     */
+    private static class LineTemplate {
+
+        /**
+         * Escaped measurement name
+         */
+        private byte[] measurement;
+
+        /**
+         * Escaped ",key=" prefixes of tags (sorted by key)
+         */
+        private byte[][] keys;
+
+        /**
+         * Escaped tag values (null for dynamic tags)
+         */
+        private byte[][] values;
+
+        /**
+         * Attribute IDs of dynamic tags (-1 if metric does not have such attribute)
+         */
+        private int[] attrIds;
+    }
+
+    private MetricsRegistry metrics;
+
+    private HttpClient client;
+
+    private String url;
+
+    private SortedMap<String, String> constTags;
+
+    private SortedMap<String, String> dynamicTags;
+
+    private int maxBytes;
+
+    private long flushTime;
+
+    private int timeout;
+
+    private boolean gzip;
+
+    private Map<Integer, LineTemplate> templates = new HashMap<Integer, LineTemplate>();
+
+    private byte[] buf = new byte[65536];
+
+    private int pos, lines;
+
+    private long firstTstamp;
+
+    private volatile long linesSent, bytesSent, requests, errors, sendTime;
+
+
+    /**
+     * Output stream counting bytes written to underlying stream. Closing it does not close underlying stream.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private OutputStream os;
+
+        private long count;
+
+        private CountingOutputStream(OutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            os.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            os.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            os.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            os.flush();
+        }
+    }
+
+
+    /**
+     * Creates influx output.
+     *
+     * @param metrics     metrics registry (used to look up metrics of submitted samples)
+     * @param client      HTTP client used to send data
+     * @param url         write URL (eg. http://localhost:8086/write?db=zorka&precision=ms)
+     * @param constTags   constant tags (tag name -> value)
+     * @param dynamicTags tags taken from metric attributes (tag name -> attribute name)
+     * @param maxBytes    maximum (uncompressed) request size
+     * @param flushTime   maximum time data waits in buffer (milliseconds)
+     * @param gzip        if true, request bodies will be compressed
+     * @param timeout     connect and read timeout (milliseconds)
+     */
+    public InfluxLineOutput(MetricsRegistry metrics, HttpClient client, String url,
+                            Map<String, String> constTags, Map<String, String> dynamicTags,
+                            int maxBytes, long flushTime, boolean gzip, int timeout) throws MalformedURLException {
+        super("influx-output", 1024, 256);
+        new URL(url);
+        this.metrics = metrics;
+        this.client = client;
+        this.url = url;
+        this.constTags = new TreeMap<String, String>(constTags);
+        this.dynamicTags = new TreeMap<String, String>(dynamicTags);
+        this.maxBytes = maxBytes;
+        this.flushTime = flushTime;
+        this.timeout = timeout;
+        this.gzip = gzip;
+    }
+
+
+    @Override
+    public void runCycle() {
+        try {
+            long wait = pos > 0 ? Math.max(1, firstTstamp + flushTime - System.currentTimeMillis()) : flushTime;
+            SymbolicRecord obj = submitQueue.poll(wait, TimeUnit.MILLISECONDS);
+            if (obj != null) {
+                List<SymbolicRecord> lst = new ArrayList<SymbolicRecord>(256);
+                lst.add(obj);
+                submitQueue.drainTo(lst, 255);
+                process(lst);
+            }
+            if (pos > 0 && System.currentTimeMillis() - firstTstamp >= flushTime) {
+                send();
+            }
+        } catch (InterruptedException e) {
+            log.error(ZorkaLogger.ZPM_ERRORS, "Cannot perform run cycle", e);
+        }
+    }
+
+
+    @Override
+    protected void process(List<SymbolicRecord> records) {
+        for (SymbolicRecord sr : records) {
+            if (sr instanceof ColumnarPerfRecord) {
+                sr = ((ColumnarPerfRecord) sr).toPerfRecord(metrics);
+            }
+            if (sr instanceof PerfRecord) {
+                if (pos == 0) {
+                    firstTstamp = System.currentTimeMillis();
+                }
+                encode((PerfRecord) sr);
+                if (pos >= maxBytes) {
+                    send();
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void close() {
+        if (pos > 0) {
+            send();
+        }
+    }
+
+
+    /**
+     * Encodes performance record as a series of lines (one per sample).
+     */
+    public void encode(PerfRecord pr) {
+        for (PerfSample ps : pr.getSamples()) {
+            Metric m = ps.getMetric() != null ? ps.getMetric() : metrics.getMetric(ps.getMetricId());
+            if (m == null || ps.getValue() == null) {
+                continue;
+            }
+
+            LineTemplate t = template(m);
+            int start = pos;
+
+            write(t.measurement);
+
+            Map<Integer, String> attrs = ps.getAttrs();
+
+            for (int i = 0; i < t.keys.length; i++) {
+                if (t.values[i] != null) {
+                    write(t.keys[i]);
+                    write(t.values[i]);
+                } else {
+                    String v = attrs != null && t.attrIds[i] >= 0 ? attrs.get(t.attrIds[i]) : null;
+                    if (v != null && v.length() > 0) {
+                        write(t.keys[i]);
+                        writeEscaped(v, true);
+                    }
+                }
+            }
+
+            write(VALUE);
+
+            if (!writeNumber(ps.getValue())) {
+                pos = start;    // InfluxDB does not accept NaN and infinite values
+                continue;
+            }
+
+            writeByte(' ');
+            writeLong(pr.getClock());
+            writeByte('\n');
+            lines++;
+        }
+    }
+
+
+    private LineTemplate template(Metric m) {
+        LineTemplate t = templates.get(m.getId());
+
+        if (t == null) {
+            t = new LineTemplate();
+            t.measurement = escape(m.getName(), false);
+
+            SortedMap<String, Object> tags = new TreeMap<String, Object>();
+            tags.putAll(constTags);
+            for (Map.Entry<String, String> e : dynamicTags.entrySet()) {
+                Integer id = m.getDynamicAttrs() != null ? m.getDynamicAttrs().get(e.getValue()) : null;
+                tags.put(e.getKey(), id != null ? id : -1);
+            }
+
+            int n = tags.size(), i = 0;
+            t.keys = new byte[n][];
+            t.values = new byte[n][];
+            t.attrIds = new int[n];
+
+            for (Map.Entry<String, Object> e : tags.entrySet()) {
+                byte[] k = escape(e.getKey(), true);
+                t.keys[i] = new byte[k.length + 2];
+                t.keys[i][0] = ',';
+                System.arraycopy(k, 0, t.keys[i], 1, k.length);
+                t.keys[i][k.length + 1] = '=';
+                if (e.getValue() instanceof String) {
+                    t.values[i] = escape((String) e.getValue(), true);
+                    t.attrIds[i] = -1;
+                } else {
+                    t.attrIds[i] = (Integer) e.getValue();
+                }
+                i++;
+            }
+
+            templates.put(m.getId(), t);
+        }
+
+        return t;
+    }
+
+
+    /**
+     * Sends buffered data. Data is dropped if request fails.
+     */
+    private void send() {
+        long t1 = System.nanoTime();
+        final int len = pos;
+        final CountingOutputStream[] cos = new CountingOutputStream[1];
+
+        try {
+            HttpRequest req = new HttpRequest(client, url).method("POST").timeout(timeout)
+                    .headers("Content-Type", "text/plain; charset=utf-8")
+                    .body(new HttpBodyWriter() {
+                        @Override
+                        public void write(OutputStream os) throws IOException {
+                            cos[0] = new CountingOutputStream(os);
+                            OutputStream out = gzip ? new GZIPOutputStream(cos[0], 8192) : cos[0];
+                            out.write(buf, 0, len);
+                            out.close();
+                        }
+                    });
+
+            if (gzip) {
+                req.headers("Content-Encoding", "gzip");
+            }
+
+            HttpResponse resp = req.go();
+
+            if (resp.getResponseCode() >= 300) {
+                errors++;
+                log.error(ZorkaLogger.ZPM_ERRORS, "Error sending performance data to " + url + ": "
+                        + resp.getResponseCode() + " " + resp.getResponseMessage());
+            } else {
+                linesSent += lines;
+                bytesSent += cos[0] != null ? cos[0].count : 0;
+            }
+        } catch (IOException e) {
+            errors++;
+            log.error(ZorkaLogger.ZPM_ERRORS, "Error sending performance data to " + url, e);
+        } finally {
+            requests++;
+            sendTime += System.nanoTime() - t1;
+            pos = 0;
+            lines = 0;
+        }
+    }
+
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+
+    private void write(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, pos, b.length);
+        pos += b.length;
+    }
+
+
+    private void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+
+    private void writeLong(long v) {
+        ensure(20);
+        if (v < 0) {
+            buf[pos++] = '-';
+            if (v == Long.MIN_VALUE) {
+                write(bytes("9223372036854775808"));
+                return;
+            }
+            v = -v;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte b = buf[i];
+            buf[i] = buf[j];
+            buf[j] = b;
+        }
+    }
+
+
+    private boolean writeNumber(Number v) {
+        if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            writeLong(v.longValue());
+        } else {
+            double d = v.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return false;
+            }
+            String s = v.toString();
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                buf[pos++] = (byte) s.charAt(i);
+            }
+        }
+        return true;
+    }
+
+
+    private void writeEscaped(String s, boolean tag) {
+        ensure(s.length() * 2);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // Slow path for non-ASCII strings
+                write(escape(s, tag));
+                return;
+            }
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == ' ' || (tag && c == '=')) {
+                buf[pos++] = '\\';
+            } else if (c == '\n' || c == '\r') {
+                buf[pos++] = '\\';
+                c = ' ';
+            }
+            buf[pos++] = (byte) c;
+        }
+    }
+
+
+    /**
+     * Escapes measurement name (tag=false) or tag key/value (tag=true) according to line protocol rules.
+     */
+    private static byte[] escape(String s, boolean tag) {
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == ' ' || (tag && c == '=')) {
+                sb.append('\\');
+            } else if (c == '\n' || c == '\r') {
+                sb.append('\\');
+                c = ' ';
+            }
+            sb.append(c);
+        }
+        return bytes(sb.toString());
+    }
+
+
+    private static byte[] bytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Returns current buffer contents (for diagnostic and testing purposes).
+     */
+    public String buffered() {
+        try {
+            return new String(buf, 0, pos, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+
+    public long getLinesSent() {
+        return linesSent;
+    }
+
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+
+    public long getRequests() {
+        return requests;
+    }
+
+
+    public long getErrors() {
+        return errors;
+    }
+
+
+    /**
+     * Returns total time spent on sending requests (nanoseconds).
+     */
+    public long getSendTime() {
+        return sendTime;
+    }
+}
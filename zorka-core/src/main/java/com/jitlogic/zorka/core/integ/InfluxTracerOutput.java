@@ -17,6 +17,8 @@
 package com.jitlogic.zorka.core.integ;
 
 import com.jitlogic.zorka.common.ZorkaSubmitter;
+import com.jitlogic.zorka.common.tracedata.ColumnarPerfRecord;
+import com.jitlogic.zorka.common.tracedata.MetricsRegistry;
 import com.jitlogic.zorka.common.tracedata.PerfRecord;
 import com.jitlogic.zorka.common.tracedata.PerfSample;
 import com.jitlogic.zorka.common.tracedata.SymbolicRecord;
@@ -31,7 +33,16 @@ public class InfluxTracerOutput implements ZorkaSubmitter<SymbolicRecord> {
 
     private ZorkaSubmitter<String> output;
 
+    /** Used to resolve metrics of columnar performance records (can be null). */
+    private MetricsRegistry metrics;
+
     public InfluxTracerOutput(Map<String,String> constTags, Map<String,String> dynamicTags, ZorkaSubmitter<String> output) {
+        this(null, constTags, dynamicTags, output);
+    }
+
+    public InfluxTracerOutput(MetricsRegistry metrics, Map<String,String> constTags, Map<String,String> dynamicTags,
+                              ZorkaSubmitter<String> output) {
+        this.metrics = metrics;
         this.constTags = constTags;
         this.dynamicTags = dynamicTags;
         this.output = output;
@@ -46,9 +57,15 @@ public class InfluxTracerOutput implements ZorkaSubmitter<SymbolicRecord> {
 
     @Override
     public boolean submit(SymbolicRecord sr) {
+        if (sr instanceof ColumnarPerfRecord) {
+            sr = ((ColumnarPerfRecord)sr).toPerfRecord(metrics);
+        }
         if (sr instanceof PerfRecord) {
             PerfRecord pr = (PerfRecord)sr;
             for (PerfSample ps : pr.getSamples()) {
+                if (ps.getMetric() == null) {
+                    continue;
+                }
                 StringBuilder sb = new StringBuilder(256);
                 sb.append(ps.getMetric().getName());
                 for (Map.Entry<String,String> e : constTags.entrySet()) {
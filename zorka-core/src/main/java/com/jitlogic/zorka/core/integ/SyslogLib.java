@@ -248,9 +248,25 @@ public class SyslogLib implements ZorkaService {
      * @return trapper object
      */
     public SyslogTrapper trapper(String id, String syslogServer, String defaultHost, int defaultFacility) {
+        return trapper(id, syslogServer, defaultHost, defaultFacility, SyslogTrapper.PROTO_UDP);
+    }
+
+
+    /**
+     * Returns syslog trapper if already registered of created and registers a new one.
+     *
+     * @param id              trapper unique ID (name)
+     * @param syslogServer    address and optional port of a syslog server (in address:port notation)
+     * @param defaultHost     default host name for logged messages
+     * @param defaultFacility default facility ID for logged messages
+     * @param protocol        transport protocol: udp or tcp (with octet counting framing)
+     * @return trapper object
+     */
+    public SyslogTrapper trapper(String id, String syslogServer, String defaultHost, int defaultFacility, String protocol) {
         SyslogTrapper trapper = trappers.get(id);
         if (trapper == null) {
-            trapper = new SyslogTrapper(config.formatCfg(syslogServer), config.formatCfg(defaultHost), defaultFacility);
+            trapper = new SyslogTrapper(config.formatCfg(syslogServer), config.formatCfg(defaultHost), defaultFacility,
+                    false, protocol);
             trappers.put(id, trapper);
             trapper.start();
         }
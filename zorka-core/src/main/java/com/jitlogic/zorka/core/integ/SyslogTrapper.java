@@ -19,17 +19,18 @@ import com.jitlogic.zorka.common.util.*;
 import com.jitlogic.zorka.common.stats.AgentDiagnostics;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.io.OutputStream;
+import java.net.*;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
 
 /**
- * Minimal syslog sender implementation.
+ * Minimal syslog sender implementation. Messages can be sent via UDP (one datagram per message)
+ * or TCP (RFC 6587 octet counting framing, all messages fetched from queue in a single cycle
+ * are coalesced into a single write).
  *
  * @author rafal.lewczuk@jitlogic.com
  */
@@ -40,16 +41,30 @@ public class SyslogTrapper extends ZorkaAsyncThread<String> implements ZorkaTrap
      */
     public final static int DEFAULT_PORT = 514;
 
+    public final static String PROTO_UDP = "udp";
+
+    public final static String PROTO_TCP = "tcp";
+
+    /**
+     * Maximum number of bytes buffered before writing to TCP socket.
+     */
+    private final static int MAX_WRITE = 65536;
+
     /**
      * Syslog server IP address
      */
     private InetAddress syslogAddress;
 
     /**
-     * Syslog server UDP port
+     * Syslog server port
      */
     private int syslogPort = DEFAULT_PORT;
 
+    /**
+     * True if messages are sent via TCP, false for UDP.
+     */
+    private boolean tcp;
+
     /**
      * Default hostname
      */
@@ -65,6 +80,48 @@ public class SyslogTrapper extends ZorkaAsyncThread<String> implements ZorkaTrap
      */
     private DatagramSocket socket;
 
+    /**
+     * TCP connection to syslog server (if TCP transport is used)
+     */
+    private Socket tcpSocket;
+
+    private OutputStream tcpOut;
+
+    /**
+     * True if previous TCP connection failed (next connect counts as reconnect)
+     */
+    private boolean tcpFailed;
+
+    /**
+     * Message buffer (reused between cycles)
+     */
+    private byte[] buf = new byte[4096];
+
+    /**
+     * Cached message prefix. Formatting timestamp is expensive, so it is done at most once per second
+     * (for a given priority and host name).
+     */
+    private volatile Prefix prefix;
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd HH:mm:ss");
+
+
+    private static class Prefix {
+        private final long second;
+        private final int priority;
+        private final String hostname;
+        private final String date;
+        private final String text;
+
+        private Prefix(long second, int priority, String hostname, String date) {
+            this.second = second;
+            this.priority = priority;
+            this.hostname = hostname;
+            this.date = date;
+            this.text = "<" + priority + ">" + date + " " + hostname + " ";
+        }
+    }
+
 
     /**
      * Creates new syslog trapper.
@@ -88,8 +145,23 @@ public class SyslogTrapper extends ZorkaAsyncThread<String> implements ZorkaTrap
      *                        TODO get rid of this 'quiet' feature after refactoring
      */
     public SyslogTrapper(String syslogServer, String defaultHost, int defaultFacility, boolean quiet) {
-        super("syslog-trapper");
+        this(syslogServer, defaultHost, defaultFacility, quiet, PROTO_UDP);
+    }
+
+
+    /**
+     * Creates new syslog trapper.
+     *
+     * @param syslogServer    syslog server IP address
+     * @param defaultHost     default host name
+     * @param defaultFacility default facility code
+     * @param quiet           if true, trapper will not its own errors to zorka logger
+     * @param protocol        transport protocol: udp or tcp
+     */
+    public SyslogTrapper(String syslogServer, String defaultHost, int defaultFacility, boolean quiet, String protocol) {
+        super("syslog-trapper", 1024, 256);
         this.defaultFacility = defaultFacility;
+        this.tcp = PROTO_TCP.equalsIgnoreCase(protocol);
         try {
             if (syslogServer.contains(":")) {
                 String[] parts = syslogServer.split(":");
@@ -132,7 +204,7 @@ public class SyslogTrapper extends ZorkaAsyncThread<String> implements ZorkaTrap
      * @param message  log message
      */
     public void log(int severity, int facility, String hostname, String tag, String message) {
-        String s = format(severity, facility, new Date(), hostname, tag, message);
+        String s = format(severity, facility, System.currentTimeMillis(), hostname, tag, message);
         AgentDiagnostics.inc(countTraps, AgentDiagnostics.TRAPS_SUBMITTED);
         if (!submit(s)) {
             AgentDiagnostics.inc(countTraps, AgentDiagnostics.TRAPS_DROPPED);
@@ -152,37 +224,95 @@ public class SyslogTrapper extends ZorkaAsyncThread<String> implements ZorkaTrap
      * @return proper syslog message
      */
     public String format(int severity, int facility, Date date, String hostname, String tag, String message) {
-        return "<" + (severity + facility * 8) + ">" + new SimpleDateFormat("MMM dd HH:mm:ss").format(date) + " "
-                + hostname + " " + tag + " " + ZorkaUtil.printableASCII7(message);
+        return format(severity, facility, date.getTime(), hostname, tag, message);
+    }
+
+
+    private String format(int severity, int facility, long tstamp, String hostname, String tag, String message) {
+        long second = tstamp / 1000;
+        int priority = severity + facility * 8;
+
+        Prefix p = prefix;
+
+        if (p == null || p.second != second || p.priority != priority || !p.hostname.equals(hostname)) {
+            String date;
+            if (p != null && p.second == second) {
+                date = p.date;
+            } else {
+                synchronized (dateFormat) {
+                    date = dateFormat.format(new Date(second * 1000));
+                }
+            }
+            p = new Prefix(second, priority, hostname, date);
+            prefix = p;
+        }
+
+        return p.text + tag + " " + ZorkaUtil.printableASCII7(message);
     }
 
 
     @Override
     public void open() {
-        try {
-            socket = new DatagramSocket();
-        } catch (SocketException e) {
-            handleError("Cannot open UDP socket", e);
+        if (!tcp) {
+            try {
+                socket = new DatagramSocket();
+            } catch (SocketException e) {
+                handleError("Cannot open UDP socket", e);
+            }
         }
-
     }
 
 
     @Override
     public void close() {
-        socket.close();
-        socket = null;
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+        closeTcp();
+    }
+
+
+    private void closeTcp() {
+        if (tcpSocket != null) {
+            try {
+                tcpSocket.close();
+            } catch (IOException e) {
+                // Nothing interesting here
+            }
+            tcpSocket = null;
+            tcpOut = null;
+        }
     }
 
 
     @Override
     protected void process(List<String> msgs) {
+        if (tcp) {
+            processTcp(msgs);
+        } else {
+            processUdp(msgs);
+        }
+    }
+
+
+    private void processUdp(List<String> msgs) {
+        if (socket == null) {
+            AgentDiagnostics.inc(countTraps, AgentDiagnostics.TRAPS_DROPPED, msgs.size());
+            return;
+        }
+
+        DatagramPacket packet = new DatagramPacket(buf, 0, syslogAddress, syslogPort);
+
         for (String msg : msgs) {
-            byte[] buf = msg.getBytes();
+            int len = put(msg, 0);
+            packet.setData(buf, 0, len);
             try {
-                socket.send(new DatagramPacket(buf, 0, buf.length, syslogAddress, syslogPort));
+                socket.send(packet);
                 AgentDiagnostics.inc(countTraps, AgentDiagnostics.TRAPS_SENT);
+                AgentDiagnostics.inc(AgentDiagnostics.SYSLOG_WRITES);
             } catch (IOException e) {
+                AgentDiagnostics.inc(countTraps, AgentDiagnostics.TRAPS_DROPPED);
                 if (log != null) {
                     handleError("Cannot send syslog packet: " + msg, e);
                 }
@@ -191,6 +321,82 @@ public class SyslogTrapper extends ZorkaAsyncThread<String> implements ZorkaTrap
     }
 
 
+    private void processTcp(List<String> msgs) {
+        int pos = 0, n = 0, sent = 0;
+
+        try {
+            if (tcpSocket == null) {
+                tcpSocket = new Socket();
+                tcpSocket.setTcpNoDelay(true);
+                tcpSocket.connect(new InetSocketAddress(syslogAddress, syslogPort), 10000);
+                tcpOut = tcpSocket.getOutputStream();
+                if (tcpFailed) {
+                    AgentDiagnostics.inc(AgentDiagnostics.SYSLOG_RECONNECTS);
+                    tcpFailed = false;
+                }
+            }
+
+            for (String msg : msgs) {
+                pos = put(Integer.toString(msg.length()), pos);
+                pos = put(" ", pos);
+                pos = put(msg, pos);
+                n++;
+                if (pos >= MAX_WRITE) {
+                    write(pos, n);
+                    sent += n;
+                    pos = 0;
+                    n = 0;
+                }
+            }
+
+            if (pos > 0) {
+                write(pos, n);
+            }
+        } catch (IOException e) {
+            AgentDiagnostics.inc(countTraps, AgentDiagnostics.TRAPS_DROPPED, msgs.size() - sent);
+            closeTcp();
+            tcpFailed = true;
+            if (log != null) {
+                handleError("Cannot send syslog messages to " + syslogAddress + ":" + syslogPort, e);
+            }
+        }
+    }
+
+
+    private void write(int len, int n) throws IOException {
+        tcpOut.write(buf, 0, len);
+        AgentDiagnostics.inc(countTraps, AgentDiagnostics.TRAPS_SENT, n);
+        AgentDiagnostics.inc(AgentDiagnostics.SYSLOG_WRITES);
+    }
+
+
+    /**
+     * Copies ASCII string into message buffer.
+     *
+     * @param s   string (all characters must be ASCII)
+     * @param pos position in buffer
+     * @return position after copied string
+     */
+    private int put(String s, int pos) {
+        int len = s.length();
+
+        if (pos + len > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + len));
+        }
+
+        for (int i = 0; i < len; i++) {
+            buf[pos + i] = (byte) s.charAt(i);
+        }
+
+        return pos + len;
+    }
+
+
+    public boolean isTcp() {
+        return tcp;
+    }
+
+
     @Override
     public void trap(ZorkaLogLevel logLevel, String tag, String msg, Throwable e, Object... args) {
         if (e == null) {
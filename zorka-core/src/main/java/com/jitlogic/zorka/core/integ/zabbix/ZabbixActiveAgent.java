@@ -24,10 +24,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -76,6 +73,10 @@ public class ZabbixActiveAgent implements Runnable, ZorkaService {
 	private int maxBatchSize;
 
 
+	/** Maximum size of a single agent data message sent to zabbix (bytes) */
+	private int maxBatchBytes;
+
+
 	private int maxCacheSize;
 
 
@@ -89,7 +90,7 @@ public class ZabbixActiveAgent implements Runnable, ZorkaService {
 
 	/* Scheduler Management */
 	private ScheduledExecutorService scheduler;
-	private HashMap<ActiveCheckQueryItem, ScheduledFuture<?>> runningTasks;
+	private ZabbixActiveScheduler checkScheduler;
 	private ConcurrentLinkedQueue<ActiveCheckResult> resultsQueue;
 	private ScheduledFuture<?> senderTask;
 
@@ -148,14 +149,15 @@ public class ZabbixActiveAgent implements Runnable, ZorkaService {
 
 		senderInterval = config.intCfg(prefix + ".sender.interval", 60);
 		maxBatchSize = config.intCfg(prefix + ".batch.size", 10);
+		maxBatchBytes = config.kiloCfg(prefix + ".batch.bytes", 65536L).intValue();
 		maxCacheSize = config.intCfg(prefix + ".cache.size", 150);
 		log.info(ZorkaLogger.ZAG_INFO, "ZabbixActive Agent (" + agentHost + ") will send up to " + maxBatchSize + " metrics every " + 
 				senderInterval + " seconds. Agent will persist up to " + maxCacheSize + " metrics per " + (senderInterval*2) + 
 				" seconds, exceeding records will be discarded.");
 
 		/* scheduler's infra */
-		runningTasks = new HashMap<ActiveCheckQueryItem, ScheduledFuture<?>>();
 		resultsQueue = new ConcurrentLinkedQueue<ActiveCheckResult>();
+		checkScheduler = new ZabbixActiveScheduler(agentHost, agent, translator, resultsQueue, scheduler);
 	}
 
 
@@ -201,10 +203,7 @@ public class ZabbixActiveAgent implements Runnable, ZorkaService {
 				senderTask.cancel(true);
 				
 				log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActive cancelling all ZorkaBsh tasks...");
-                for (Map.Entry<ActiveCheckQueryItem,ScheduledFuture<?>> e : runningTasks.entrySet()) {
-                    e.getValue().cancel(true);
-                }
-                runningTasks.clear();
+				checkScheduler.cancel();
 
 				log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActive clearing dataQueue...");
 				resultsQueue.clear();
@@ -307,38 +306,12 @@ public class ZabbixActiveAgent implements Runnable, ZorkaService {
 	}
 
 	private void scheduleTasks(ActiveCheckResponse checkData) {
-		Set<ActiveCheckQueryItem> newTasks = new HashSet<ActiveCheckQueryItem>(checkData.getData());
-		Set<ActiveCheckQueryItem> tasksToInsert = new HashSet<ActiveCheckQueryItem>(checkData.getData());
-		Set<ActiveCheckQueryItem> tasksToDelete = new HashSet<ActiveCheckQueryItem>(runningTasks.keySet());
-
 		log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActive - schedule Tasks: " + checkData.toString());
-
-		// Configuring: Insert = New - Running(=tasksToDelete antes da alteração)
-		tasksToInsert.removeAll(tasksToDelete);
-		
-		// Configuring: Delete = Running - New; 
-		tasksToDelete.removeAll(newTasks);
-		
-		// Delete Tasks
-		for (ActiveCheckQueryItem task : tasksToDelete) {
-			ScheduledFuture<?> taskHandler = runningTasks.get(task);
-			taskHandler.cancel(false);
-		}
-
-		// Insert Tasks
-		for (ActiveCheckQueryItem task : tasksToInsert) {
-			ZabbixActiveTask zabbixActiveTask = new ZabbixActiveTask(agentHost, task, agent, translator, resultsQueue);
-			ScheduledFuture<?> taskHandler = scheduler.scheduleAtFixedRate(zabbixActiveTask, 5, task.getDelay(), TimeUnit.SECONDS);
-			log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActive - task: " + task.toString());
-			runningTasks.put(task, taskHandler);
-		}
-		log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActive - new scheduled tasks: " + tasksToInsert.size());
-		log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActive - deleted old tasks: " + tasksToDelete.size());
-		
+		checkScheduler.schedule(new HashSet<ActiveCheckQueryItem>(checkData.getData()));
 	}
 
 	private void scheduleTasks() {
-		ZabbixActiveSenderTask sender = new ZabbixActiveSenderTask(activeAddr, activePort, resultsQueue, maxBatchSize, config);
+		ZabbixActiveSenderTask sender = new ZabbixActiveSenderTask(activeAddr, activePort, resultsQueue, maxBatchSize, maxBatchBytes, config);
 		senderTask = scheduler.scheduleAtFixedRate(sender, senderInterval, senderInterval, TimeUnit.SECONDS);
 		
 		ZabbixActiveCleanerTask cleaner = new ZabbixActiveCleanerTask(resultsQueue, maxCacheSize);
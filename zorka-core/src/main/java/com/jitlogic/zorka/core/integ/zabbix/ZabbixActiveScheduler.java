@@ -0,0 +1,182 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.integ.zabbix;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+import com.jitlogic.zorka.core.ZorkaBshAgent;
+import com.jitlogic.zorka.core.integ.QueryTranslator;
+
+/**
+ * Schedules active check items received from zabbix server. Items with the same
+ * interval are grouped together and evaluated in a single pass of a single scheduled
+ * task, so number of timers depends on number of distinct intervals, not on number
+ * of items.
+ */
+public class ZabbixActiveScheduler {
+
+	/* Logger */
+	private static final ZorkaLog log = ZorkaLogger.getLog(ZabbixActiveScheduler.class);
+
+	/** Delay before first evaluation of newly scheduled group (seconds). */
+	private static final int INITIAL_DELAY = 5;
+
+	private String agentHost;
+	private ZorkaBshAgent agent;
+	private QueryTranslator translator;
+	private ConcurrentLinkedQueue<ActiveCheckResult> resultsQueue;
+	private ScheduledExecutorService scheduler;
+
+	/** Item groups (interval -> group) */
+	private Map<Integer, Group> groups = new HashMap<Integer, Group>();
+
+
+	/**
+	 * Group of items evaluated with the same interval.
+	 */
+	private class Group implements Runnable {
+
+		private int delay;
+
+		/** Items along with tasks evaluating them (tasks are reused between passes). */
+		private volatile Map<ActiveCheckQueryItem, ZabbixActiveTask> tasks = new HashMap<ActiveCheckQueryItem, ZabbixActiveTask>();
+
+		private ScheduledFuture<?> future;
+
+		private Group(int delay) {
+			this.delay = delay;
+		}
+
+		@Override
+		public void run() {
+			for (ZabbixActiveTask task : tasks.values()) {
+				task.run();
+			}
+		}
+	}
+
+
+	public ZabbixActiveScheduler(String agentHost, ZorkaBshAgent agent, QueryTranslator translator,
+			ConcurrentLinkedQueue<ActiveCheckResult> resultsQueue, ScheduledExecutorService scheduler) {
+		this.agentHost = agentHost;
+		this.agent = agent;
+		this.translator = translator;
+		this.resultsQueue = resultsQueue;
+		this.scheduler = scheduler;
+	}
+
+
+	/**
+	 * Replaces currently scheduled items with new ones. Groups that did not change keep their
+	 * schedule, groups with no items are cancelled.
+	 *
+	 * @param items items received from zabbix server
+	 */
+	public synchronized void schedule(Collection<ActiveCheckQueryItem> items) {
+		Map<Integer, List<ActiveCheckQueryItem>> byDelay = new HashMap<Integer, List<ActiveCheckQueryItem>>();
+
+		for (ActiveCheckQueryItem item : items) {
+			int delay = Math.max(1, item.getDelay());
+			List<ActiveCheckQueryItem> lst = byDelay.get(delay);
+			if (lst == null) {
+				lst = new ArrayList<ActiveCheckQueryItem>();
+				byDelay.put(delay, lst);
+			}
+			lst.add(item);
+		}
+
+		for (Iterator<Map.Entry<Integer, Group>> it = groups.entrySet().iterator(); it.hasNext(); ) {
+			Group g = it.next().getValue();
+			if (!byDelay.containsKey(g.delay)) {
+				g.future.cancel(false);
+				it.remove();
+			}
+		}
+
+		int inserted = 0;
+
+		for (Map.Entry<Integer, List<ActiveCheckQueryItem>> e : byDelay.entrySet()) {
+			Group g = groups.get(e.getKey());
+			Map<ActiveCheckQueryItem, ZabbixActiveTask> old = g != null ? g.tasks : null;
+			Map<ActiveCheckQueryItem, ZabbixActiveTask> tasks = new HashMap<ActiveCheckQueryItem, ZabbixActiveTask>();
+
+			for (ActiveCheckQueryItem item : e.getValue()) {
+				ZabbixActiveTask task = old != null ? old.get(item) : null;
+				if (task == null) {
+					task = new ZabbixActiveTask(agentHost, item, agent, translator, resultsQueue);
+					inserted++;
+				}
+				tasks.put(item, task);
+			}
+
+			if (g == null) {
+				g = new Group(e.getKey());
+				g.tasks = tasks;
+				g.future = scheduler.scheduleAtFixedRate(g, INITIAL_DELAY, g.delay, TimeUnit.SECONDS);
+				groups.put(g.delay, g);
+			} else {
+				g.tasks = tasks;
+			}
+		}
+
+		log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActive - scheduled " + items.size() + " items (" + inserted
+				+ " new) in " + groups.size() + " groups");
+	}
+
+
+	/**
+	 * Cancels all scheduled groups.
+	 */
+	public synchronized void cancel() {
+		for (Group g : groups.values()) {
+			g.future.cancel(true);
+		}
+		groups.clear();
+	}
+
+
+	/**
+	 * Returns number of scheduled groups (distinct intervals).
+	 */
+	public synchronized int getGroupCount() {
+		return groups.size();
+	}
+
+
+	/**
+	 * Returns number of scheduled items.
+	 */
+	public synchronized int getItemCount() {
+		int n = 0;
+		for (Group g : groups.values()) {
+			n += g.tasks.size();
+		}
+		return n;
+	}
+}
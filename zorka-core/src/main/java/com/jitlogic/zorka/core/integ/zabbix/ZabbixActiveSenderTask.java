@@ -21,80 +21,87 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.common.util.JSONReader;
+import com.jitlogic.zorka.common.util.JSONWriter;
 import com.jitlogic.zorka.common.util.ZorkaConfig;
 import com.jitlogic.zorka.common.util.ZorkaLog;
 import com.jitlogic.zorka.common.util.ZorkaLogger;
 
+/**
+ * Sends collected results to zabbix server. Results are drained from queue into batches
+ * bounded by number of items and by message size. Each cycle sends batches until results
+ * queued at start of cycle are sent. Batch that failed to be sent is kept and retried
+ * in next cycle.
+ */
 public class ZabbixActiveSenderTask implements Runnable {
 	/**
 	 * Logger
 	 */
 	private static final ZorkaLog log = ZorkaLogger.getLog(ZabbixActiveSenderTask.class);
 
+	/**
+	 * Extracts counters from server response info, eg. "processed: 3; failed: 1; total: 4; seconds spent: 0.000055"
+	 */
+	private static final Pattern RE_INFO = Pattern.compile("processed:?\\s*(\\d+);\\s*failed:?\\s*(\\d+)");
+
 	private InetAddress serverAddr;
 	private int serverPort;
 
 	private ConcurrentLinkedQueue<ActiveCheckResult> responseQueue;
 
-	private long clock;
-
 	private int maxBatchSize;
 
+	private int maxBatchBytes;
+
 	private final String _SUCCESS = "success";
 
 	private ZorkaConfig config;
 
+	/** Encoded results of current batch */
+	private List<String> batch = new ArrayList<String>();
+
+	/** Size of encoded results in current batch */
+	private int batchBytes;
+
+	/** Result taken from queue that did not fit into previous batch */
+	private String next;
+
 	public ZabbixActiveSenderTask(InetAddress serverAddr, int serverPort, ConcurrentLinkedQueue<ActiveCheckResult> responseQueue, int maxBatchSize, ZorkaConfig config){
+		this(serverAddr, serverPort, responseQueue, maxBatchSize, Integer.MAX_VALUE, config);
+	}
+
+	public ZabbixActiveSenderTask(InetAddress serverAddr, int serverPort, ConcurrentLinkedQueue<ActiveCheckResult> responseQueue,
+			int maxBatchSize, int maxBatchBytes, ZorkaConfig config){
 		this.serverAddr = serverAddr;
 		this.serverPort = serverPort;
 		this.responseQueue = responseQueue;
 		this.maxBatchSize = maxBatchSize;
+		this.maxBatchBytes = maxBatchBytes;
 		this.config = config;
 	}
 
 	@Override
-	public void run() {
+	public synchronized void run() {
 		log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActiveSender run...");
-		Socket socket = null;
 		try {
-			clock = (new Date()).getTime() / 1000L;
+			int limit = responseQueue.size() + batch.size() + (next != null ? 1 : 0), sent = 0;
 
-			socket = new Socket(serverAddr, serverPort);
-			ZabbixActiveRequest request = new ZabbixActiveRequest(socket, config);
-
-			/* copy cache */
-			int endIndex = responseQueue.size();
-			endIndex = (endIndex > maxBatchSize)? maxBatchSize : endIndex; 
-
-			ArrayList<ActiveCheckResult> results = new ArrayList<ActiveCheckResult>();
-			Iterator<ActiveCheckResult> iterator = responseQueue.iterator();
-			for (int i = 0; i < endIndex; i++) {
-				results.add(iterator.next());
-			}
-
-			log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActiveSender " + endIndex + " items cached");
-
-			if (results.size() > 0) {
-				/* send message */
-				String message = ZabbixUtils.createAgentData(results, clock);
-
-				request.send(message);
-				log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActiveSender message sent: " + message);
-
-				/* verify OK */
-				String response = request.getReq();
-				if (response.contains(_SUCCESS)) {
-					/* remove AgentData from cache */
-					for (int count = 0; count < endIndex; count++) {
-						responseQueue.poll();
-					}
-					log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActiveSender " + endIndex + " items removed from cache");
+			while (sent < limit && fill() > 0) {
+				int n = batch.size();
+				if (!send()) {
+					break;
 				}
+				sent += n;
 			}
+
+			log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActiveSender " + sent + " items sent");
 		} catch (IOException e) {
 			if (ZorkaLogger.isLogMask(ZorkaLogger.ZAG_DEBUG)) {
 				log.debug(ZorkaLogger.ZAG_DEBUG, "Failed to run ZabbixActiveSenderTask, IO Exception " + e.getMessage(), e);
@@ -106,16 +113,109 @@ public class ZabbixActiveSenderTask implements Runnable {
 			log.error(ZorkaLogger.ZAG_ERRORS, "Failed to run ZabbixActiveSenderTask", e);
 		} finally {
 			log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActiveSender finished");
-			if (socket != null) {
-				try {
-					socket.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				} finally {
-					socket = null;
+		}
+	}
+
+	/**
+	 * Moves results from queue to current batch (until batch is full or queue is empty).
+	 *
+	 * @return number of results in batch
+	 */
+	private int fill() {
+		while (batch.size() < maxBatchSize) {
+			String s = next;
+			next = null;
+
+			if (s == null) {
+				ActiveCheckResult r = responseQueue.poll();
+				if (r == null) {
+					break;
+				}
+				s = new JSONWriter(false).write(r);
+			}
+
+			if (!batch.isEmpty() && batchBytes + s.length() + 1 > maxBatchBytes) {
+				next = s;
+				break;
+			}
+
+			batch.add(s);
+			batchBytes += s.length() + 1;
+		}
+
+		return batch.size();
+	}
+
+	/**
+	 * Sends current batch. Batch is discarded if server accepted it (even if some items
+	 * were reported as failed) and kept for retry otherwise.
+	 *
+	 * @return true if batch has been accepted by server
+	 */
+	private boolean send() throws IOException {
+		Socket socket = new Socket(serverAddr, serverPort);
+
+		try {
+			ZabbixActiveRequest request = new ZabbixActiveRequest(socket, config);
+
+			long clock = System.currentTimeMillis() / 1000L;
+			String message = ZabbixUtils.createAgentData(batch, clock);
+
+			request.send(message);
+			log.debug(ZorkaLogger.ZAG_DEBUG, "ZabbixActiveSender message sent: " + message);
+
+			String response = request.getReq();
+
+			if (!handleResponse(response)) {
+				log.warn(ZorkaLogger.ZAG_WARNINGS, "Zabbix server did not accept active check data: " + response);
+				return false;
+			}
+
+			batch.clear();
+			batchBytes = 0;
+
+			return true;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Checks server response. If server reports that some items failed, they are logged and counted
+	 * but not resent (zabbix server would reject them again).
+	 *
+	 * @return true if server accepted data
+	 */
+	private boolean handleResponse(String response) {
+		if (response == null || !response.contains(_SUCCESS)) {
+			return false;
+		}
+
+		int processed = batch.size(), failed = 0;
+
+		try {
+			Object obj = new JSONReader().read(response);
+			Object info = obj instanceof Map ? ((Map) obj).get("info") : null;
+			if (info != null) {
+				Matcher m = RE_INFO.matcher(info.toString());
+				if (m.find()) {
+					processed = Integer.parseInt(m.group(1));
+					failed = Integer.parseInt(m.group(2));
 				}
 			}
+		} catch (Exception e) {
+			log.debug(ZorkaLogger.ZAG_DEBUG, "Cannot parse zabbix server response: " + response);
 		}
+
+		AgentDiagnostics.inc(AgentDiagnostics.ZABBIX_ACTIVE_SENT, processed);
+
+		if (failed > 0) {
+			AgentDiagnostics.inc(AgentDiagnostics.ZABBIX_ACTIVE_FAILED, failed);
+			log.warn(ZorkaLogger.ZAG_WARNINGS, "Zabbix server rejected " + failed + " of " + batch.size()
+					+ " active check results: " + response);
+		}
+
+		return true;
 	}
 
 }
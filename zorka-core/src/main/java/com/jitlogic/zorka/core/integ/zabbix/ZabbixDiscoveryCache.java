@@ -0,0 +1,219 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.integ.zabbix;
+
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.core.mbeans.MBeanQueryCache;
+import com.jitlogic.zorka.core.mbeans.MBeanServerRegistry;
+
+import javax.management.ObjectName;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Caches serialized results of zabbix discovery queries. Cached results expire after configured
+ * time (attribute values can change without notice) and are invalidated immediately when
+ * an mbean matching one of discovery queries is registered or unregistered (as reported by
+ * query caches of mbean server registry). Concurrent requests for the same discovery are
+ * coalesced, so discovery is computed only once.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class ZabbixDiscoveryCache {
+
+    private MBeanServerRegistry registry;
+
+    /**
+     * Time to live of cached results (milliseconds). Zero disables cache.
+     */
+    private long ttl;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * MBean servers this cache listens on (mbs name -> listener).
+     */
+    private final Map<String, MbsListener> listening = new HashMap<String, MbsListener>();
+
+
+    private static class Entry {
+
+        private final Set<String> mbsNames;
+
+        private final List<ObjectName> patterns;
+
+        private final FutureTask<String> task;
+
+        private volatile long tstamp = Long.MAX_VALUE;
+
+        private Entry(Set<String> mbsNames, List<ObjectName> patterns, FutureTask<String> task) {
+            this.mbsNames = mbsNames;
+            this.patterns = patterns;
+            this.task = task;
+        }
+
+        private boolean matches(String mbs, ObjectName on) {
+            if (mbsNames.contains(mbs)) {
+                for (ObjectName p : patterns) {
+                    if (p.apply(on)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * Invalidates entries affected by MBean registration changes on a single mbean server.
+     */
+    private class MbsListener implements MBeanQueryCache.Listener {
+
+        private final String mbsName;
+
+        private final MBeanQueryCache cache;
+
+        private MbsListener(String mbsName, MBeanQueryCache cache) {
+            this.mbsName = mbsName;
+            this.cache = cache;
+        }
+
+        @Override
+        public void mbeanChanged(ObjectName on) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (e.getValue().matches(mbsName, on)) {
+                    entries.remove(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Creates discovery cache.
+     *
+     * @param registry mbean server registry
+     * @param ttl      time to live of cached results (milliseconds), zero disables cache
+     */
+    public ZabbixDiscoveryCache(MBeanServerRegistry registry, long ttl) {
+        this.registry = registry;
+        this.ttl = ttl;
+    }
+
+
+    /**
+     * Returns cached discovery result or computes it.
+     *
+     * @param key      unique key describing discovery query
+     * @param mbsNames names of mbean servers used in discovery
+     * @param patterns object name patterns used in discovery
+     * @param compute  computes serialized discovery result
+     * @return serialized discovery result
+     */
+    public String get(String key, Set<String> mbsNames, List<ObjectName> patterns, Callable<String> compute) throws Exception {
+        if (ttl <= 0) {
+            return compute.call();
+        }
+
+        Entry e = entries.get(key);
+
+        if (e != null && e.tstamp != Long.MAX_VALUE && System.currentTimeMillis() - e.tstamp > ttl) {
+            entries.remove(key, e);
+            e = null;
+        }
+
+        if (e == null) {
+            for (String mbsName : mbsNames) {
+                listen(mbsName);
+            }
+            Entry ne = new Entry(mbsNames, patterns, new FutureTask<String>(compute));
+            e = entries.putIfAbsent(key, ne);
+            if (e == null) {
+                e = ne;
+                AgentDiagnostics.inc(AgentDiagnostics.ZABBIX_DISCOVERY_MISSES);
+                e.task.run();
+                e.tstamp = System.currentTimeMillis();
+            }
+        } else {
+            AgentDiagnostics.inc(AgentDiagnostics.ZABBIX_DISCOVERY_HITS);
+        }
+
+        try {
+            return e.task.get();
+        } catch (ExecutionException ex) {
+            entries.remove(key, e);
+            Throwable cause = ex.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        }
+    }
+
+
+    /**
+     * Subscribes for registration changes from query cache of mbean server (if not subscribed already).
+     * Query cache is looked up each time, as it is replaced when mbean server is re-registered.
+     */
+    private synchronized void listen(String mbsName) {
+        MBeanQueryCache cache = registry.getQueryCache(mbsName);
+        MbsListener l = listening.get(mbsName);
+
+        if (cache != null && (l == null || l.cache != cache)) {
+            if (l != null) {
+                l.cache.removeListener(l);
+            }
+            l = new MbsListener(mbsName, cache);
+            cache.addListener(l);
+            listening.put(mbsName, l);
+        }
+    }
+
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Detaches cache from mbean servers.
+     */
+    public synchronized void close() {
+        for (MbsListener l : listening.values()) {
+            l.cache.removeListener(l);
+        }
+        listening.clear();
+        entries.clear();
+    }
+}
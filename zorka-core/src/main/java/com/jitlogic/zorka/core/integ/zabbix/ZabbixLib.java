@@ -19,16 +19,22 @@ package com.jitlogic.zorka.core.integ.zabbix;
 
 import com.jitlogic.zorka.common.ZorkaService;
 import com.jitlogic.zorka.common.util.ZorkaConfig;
+import com.jitlogic.zorka.common.util.ZorkaRuntimeException;
 import com.jitlogic.zorka.core.mbeans.MBeanServerRegistry;
 import com.jitlogic.zorka.core.perfmon.QueryDef;
 import com.jitlogic.zorka.core.perfmon.QueryLister;
 import com.jitlogic.zorka.core.perfmon.QueryResult;
 import com.jitlogic.zorka.common.util.JSONWriter;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -38,15 +44,18 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ZabbixLib implements ZorkaService {
 
-
     private Map<String, ZabbixTrapper> trappers = new ConcurrentHashMap<String, ZabbixTrapper>();
 
     private MBeanServerRegistry mbsRegistry;
     private ZorkaConfig config;
 
+    private ZabbixDiscoveryCache discoveryCache;
+
     public ZabbixLib(MBeanServerRegistry mbsRegistry, ZorkaConfig config) {
         this.mbsRegistry = mbsRegistry;
         this.config = config;
+        this.discoveryCache = new ZabbixDiscoveryCache(mbsRegistry,
+                config.longCfg("zabbix.discovery.cache.ttl", 60L) * 1000L);
     }
 
 
@@ -91,8 +100,41 @@ public class ZabbixLib implements ZorkaService {
     }
 
 
-    public String discovery(int flags, QueryDef... qdefs) {
-        return new JSONWriter().write(_discovery(flags, qdefs));
+    /**
+     * Zabbix discovery function using JMX query framework. Results are cached
+     * (see zabbix.discovery.cache.ttl setting).
+     *
+     * @param qdefs queries
+     * @return JSON string describing discovered objects
+     */
+    public String discovery(final int flags, final QueryDef... qdefs) {
+        StringBuilder key = new StringBuilder();
+        Set<String> mbsNames = new HashSet<String>();
+        List<ObjectName> patterns = new ArrayList<ObjectName>(qdefs.length);
+
+        key.append(flags);
+        for (QueryDef qdef : qdefs) {
+            key.append(';').append(qdef);
+            mbsNames.add(qdef.getMbsName());
+            try {
+                patterns.add(new ObjectName(qdef.getQuery()));
+            } catch (MalformedObjectNameException e) {
+                // Discovery will return empty result anyway
+            }
+        }
+
+        try {
+            return discoveryCache.get(key.toString(), mbsNames, patterns, new Callable<String>() {
+                @Override
+                public String call() {
+                    return new JSONWriter().write(_discovery(flags, qdefs));
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ZorkaRuntimeException("Error performing discovery " + key, e);
+        }
     }
 
 
@@ -105,7 +147,7 @@ public class ZabbixLib implements ZorkaService {
      * @return JSON string describing discovered objects.
      */
     public String discovery(String mbs, String filter, String... attrs) {
-        return new JSONWriter().write(_discovery(mbs, filter, attrs));
+        return discovery(QueryDef.NO_NULL_ATTRS, new QueryDef(mbs, filter, attrs));
     }
 
 
@@ -160,10 +202,15 @@ public class ZabbixLib implements ZorkaService {
         }
     }
 
+    public ZabbixDiscoveryCache getDiscoveryCache() {
+        return discoveryCache;
+    }
+
     @Override
     public void shutdown() {
         for (ZabbixTrapper trapper : trappers.values()) {
             trapper.shutdown();
         }
+        discoveryCache.close();
     }
 }
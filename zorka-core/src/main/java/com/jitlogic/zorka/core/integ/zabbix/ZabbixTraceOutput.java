@@ -243,6 +243,8 @@ public class ZabbixTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implemen
 			// TODO Auto-generated method stub
 		} else if (rec instanceof PerfRecord) {
 			list = perfRecordToData(rec);
+		} else if (rec instanceof ColumnarPerfRecord) {
+			list = perfRecordToData(((ColumnarPerfRecord) rec).toPerfRecord(metricsRegistry));
 		} else if (rec instanceof SymbolicException) {
 			// TODO Auto-generated method stub
 		} else if (rec instanceof SymbolicStackElement) {
@@ -279,6 +281,9 @@ public class ZabbixTraceOutput extends ZorkaAsyncThread<SymbolicRecord> implemen
 		long clock = perfRecord.getClock();
 
 		for (PerfSample sample : perfRecord.getSamples()) {
+			if (sample.getMetric() == null) {
+				continue;
+			}
 			result = new ActiveCheckResult();
 
 			result.setHost(hostname);
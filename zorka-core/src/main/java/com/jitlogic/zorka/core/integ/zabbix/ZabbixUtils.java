@@ -126,6 +126,31 @@ public final class ZabbixUtils {
 	}
 	
 
+	/**
+	 * Creates an Agent Data String Message from already encoded results
+	 * @param results results encoded as JSON objects
+	 * @param clock
+	 */
+	public static String createAgentData(List<String> results, long clock) {
+		int len = 64;
+		for (String r : results) {
+			len += r.length() + 1;
+		}
+
+		StringBuilder sb = new StringBuilder(len);
+		sb.append("{\"clock\":").append(clock).append(",\"data\":[");
+		for (int i = 0; i < results.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(results.get(i));
+		}
+		sb.append("],\"request\":\"agent data\"}");
+
+		return sb.toString();
+	}
+
+
 	/**
 	 * Receives and decodes zabbix request
 	 *
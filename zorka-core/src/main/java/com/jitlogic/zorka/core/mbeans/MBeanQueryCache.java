@@ -0,0 +1,212 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.core.mbeans;
+
+import com.jitlogic.zorka.common.util.ObjectInspector;
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+
+import javax.management.*;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches results of JMX name queries and MBean info objects for a single MBean server.
+ * Cache is kept valid by listening for MBean registration and unregistration notifications
+ * emitted by MBean server delegate. If notification listener cannot be registered (eg. for
+ * some remote connections), cache is disabled and all calls are passed to MBean server.
+ * Notifications bump generation counter, so results of lookups that overlapped with
+ * a notification are not cached (they might already be stale). Other caches depending on
+ * MBean registrations can subscribe as listeners instead of listening on MBean server themselves.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class MBeanQueryCache implements NotificationListener {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(MBeanQueryCache.class);
+
+    private final MBeanServerConnection conn;
+
+    private final ConcurrentMap<ObjectName, Set<ObjectName>> names = new ConcurrentHashMap<ObjectName, Set<ObjectName>>();
+
+    private final ConcurrentMap<ObjectName, MBeanInfo> infos = new ConcurrentHashMap<ObjectName, MBeanInfo>();
+
+    /**
+     * Incremented on each registration/unregistration notification.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private volatile boolean enabled;
+
+
+    /**
+     * Receives names of registered and unregistered MBeans.
+     */
+    public interface Listener {
+
+        /**
+         * Called after MBean has been registered or unregistered.
+         *
+         * @param on object name of MBean
+         */
+        void mbeanChanged(ObjectName on);
+    }
+
+
+    public MBeanQueryCache(MBeanServerConnection conn) {
+        this.conn = conn;
+        try {
+            conn.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, null, null);
+            enabled = true;
+        } catch (Exception e) {
+            log.warn(ZorkaLogger.ZAG_WARNINGS, "Cannot listen for MBean registrations (" + e
+                    + "). MBean query cache will be disabled.");
+        }
+    }
+
+
+    /**
+     * Returns names of MBeans matching given query.
+     *
+     * @param query object name pattern
+     * @return set of object names (do not modify)
+     */
+    public Set<ObjectName> queryNames(String query) {
+        ObjectName on;
+
+        try {
+            on = new ObjectName(query);
+        } catch (MalformedObjectNameException e) {
+            log.error(ZorkaLogger.ZAG_ERRORS, "Error performing '" + query + "' JMX query", e);
+            return new HashSet<ObjectName>();
+        }
+
+        Set<ObjectName> rslt = names.get(on);
+
+        if (rslt == null) {
+            long gen = generation.get();
+            rslt = ObjectInspector.queryNames(conn, query);
+            if (enabled && gen == generation.get()) {
+                Set<ObjectName> cached = Collections.unmodifiableSet(rslt);
+                names.put(on, cached);
+                if (gen != generation.get()) {
+                    // Notification arrived while storing result - it might have missed our entry
+                    names.remove(on, cached);
+                }
+            }
+        }
+
+        return rslt;
+    }
+
+
+    /**
+     * Returns MBean info of given MBean.
+     *
+     * @param on object name
+     * @return mbean info object
+     */
+    public MBeanInfo getMBeanInfo(ObjectName on) throws Exception {
+        MBeanInfo info = infos.get(on);
+
+        if (info == null) {
+            long gen = generation.get();
+            info = conn.getMBeanInfo(on);
+            if (enabled && gen == generation.get()) {
+                infos.put(on, info);
+                if (gen != generation.get()) {
+                    infos.remove(on, info);
+                }
+            }
+        }
+
+        return info;
+    }
+
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (notification instanceof MBeanServerNotification) {
+            ObjectName on = ((MBeanServerNotification) notification).getMBeanName();
+
+            generation.incrementAndGet();
+
+            if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+                infos.remove(on);
+            }
+
+            Iterator<ObjectName> iter = names.keySet().iterator();
+            while (iter.hasNext()) {
+                if (iter.next().apply(on)) {
+                    iter.remove();
+                }
+            }
+
+            for (Listener listener : listeners) {
+                listener.mbeanChanged(on);
+            }
+        }
+    }
+
+
+    /**
+     * Subscribes for MBean registration changes. Listeners are never called if cache is disabled.
+     *
+     * @param listener listener object
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Detaches cache from MBean server.
+     */
+    public void close() {
+        if (enabled) {
+            enabled = false;
+            try {
+                conn.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this);
+            } catch (Exception e) {
+                log.warn(ZorkaLogger.ZAG_WARNINGS, "Cannot remove MBean registration listener: " + e);
+            }
+        }
+        names.clear();
+        infos.clear();
+        listeners.clear();
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
@@ -18,6 +18,7 @@
 package com.jitlogic.zorka.core.mbeans;
 
 import com.jitlogic.zorka.common.util.ZorkaLogger;
+import com.jitlogic.zorka.common.stats.MethodCallStatistic;
 import com.jitlogic.zorka.common.util.ZorkaLog;
 import com.jitlogic.zorka.core.ZorkaControl;
 import com.jitlogic.zorka.core.ZorkaControlMBean;
@@ -94,6 +95,11 @@ public class MBeanServerRegistry {
      */
     private Map<String, ClassLoader> classLoaders = new ConcurrentHashMap<String, ClassLoader>();
 
+    /**
+     * Query caches for mbean servers (created on demand)
+     */
+    private Map<String, MBeanQueryCache> queryCaches = new ConcurrentHashMap<String, MBeanQueryCache>();
+
     /**
      * Deferred registrations queue
      */
@@ -123,6 +129,30 @@ public class MBeanServerRegistry {
     }
 
 
+    /**
+     * Returns query cache for given mbean server (creating it if necessary).
+     *
+     * @param name mbean server name
+     * @return query cache or null if no such mbean server has been registered
+     */
+    public MBeanQueryCache getQueryCache(String name) {
+        MBeanQueryCache cache = queryCaches.get(name);
+
+        if (cache == null) {
+            synchronized (this) {
+                cache = queryCaches.get(name);
+                MBeanServerConnection conn = conns.get(name);
+                if (cache == null && conn != null) {
+                    cache = new MBeanQueryCache(conn);
+                    queryCaches.put(name, cache);
+                }
+            }
+        }
+
+        return cache;
+    }
+
+
     /**
      * Registers mbean server. Any deferred registrations to this mbean server will be performed.
      *
@@ -154,6 +184,11 @@ public class MBeanServerRegistry {
 
         classLoaders.remove(name);
 
+        MBeanQueryCache cache = queryCaches.remove(name);
+        if (cache != null) {
+            cache.close();
+        }
+
         if (conns.remove(name) == null) {
             log.error(ZorkaLogger.ZAG_ERRORS, "Trying to unregister non-existent MBean server '" + name + "'");
         }
@@ -190,6 +225,11 @@ public class MBeanServerRegistry {
     public <T> T getOrRegister(String mbsName, String beanName, String attrName, T obj, String desc) {
         MBeanServerConnection mbs = lookup(mbsName);
 
+        if (obj instanceof MethodCallStatistic) {
+            // Statistics exposed directly as mbean attributes must not be removed by stats sweeper
+            ((MethodCallStatistic) obj).pin();
+        }
+
         // TODO switch class loader if needed
 
         if (mbs != null) {
@@ -29,7 +29,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Some old stuff to calculate average rates. To be removed soon.
+ * Some old stuff to calculate average rates. To be removed soon, use RateSampler instead.
  */
 public class AvgRateCounter {
 
@@ -89,18 +89,7 @@ public class AvgRateCounter {
      * Coerces values
      */
     public long coerce(Object val) {
-        if (val instanceof Long) {
-            return (Long) val;
-        } else if (val instanceof Integer) {
-            return (long) (Integer) val;
-        } else if (val instanceof Short) {
-            return (long) (Short) val;
-        } else if (val instanceof Byte) {
-            return (long) (Byte) val;
-        } else {
-            AgentDiagnostics.inc(AgentDiagnostics.AVG_CNT_ERRORS);
-            return 0;
-        }
+        return RateSampler.coerce(val);
     }
 
     /**
@@ -27,6 +27,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Created by rlewczuk on 03.05.14.
@@ -51,6 +54,11 @@ public class JmxScanner {
      */
     protected List<QueryLister> listers = new ArrayList<QueryLister>();
 
+    /**
+     * If set, queries will be executed in parallel using this executor.
+     */
+    protected ExecutorService executor;
+
 
     public JmxScanner(MBeanServerRegistry mBeanServerRegistry, MetricsRegistry metricRegistry,
                       SymbolRegistry symbols, List<QueryLister> listers) {
@@ -133,7 +141,18 @@ public class JmxScanner {
 
     public List<PerfSample> getPerfSamples(long clock, QueryLister lister) {
         List<PerfSample> smpl = new ArrayList<PerfSample>();
-        for (QueryResult result : lister.list()) {
+        collect(clock, lister, lister.list(), smpl, null);
+        return smpl;
+    }
+
+
+    /**
+     * Converts query results into samples. Samples are added either to sample list or to
+     * columnar record builder (whichever is not null).
+     */
+    private void collect(long clock, QueryLister lister, List<QueryResult> results,
+                         List<PerfSample> smpl, ColumnarPerfRecord.Builder cols) {
+        for (QueryResult result : results) {
             Metric metric = getMetric(lister.getMetricTemplate(), result);
             Number val = metric.getValue(clock, result.getValue());
 
@@ -143,6 +162,16 @@ public class JmxScanner {
                 continue;
             }
 
+            if (cols != null) {
+                cols.add(metric.getId(), val);
+                if (metric.getDynamicAttrs() != null) {
+                    for (Map.Entry<String, Integer> e : metric.getDynamicAttrs().entrySet()) {
+                        cols.addAttr(e.getValue(), result.getAttr(e.getKey()).toString());
+                    }
+                }
+                continue;
+            }
+
             if (val instanceof Double || val instanceof Float) {
                 val = val.doubleValue();
             } else {
@@ -168,12 +197,36 @@ public class JmxScanner {
             log.trace(ZorkaLogger.ZPM_RUN_TRACE, "Submitting sample: %s", sample);
             smpl.add(sample);
         }
-        return smpl;
     }
 
 
     public List<PerfSample> getPerfSamples(long clock) {
         List<PerfSample> samples = new ArrayList<PerfSample>();
+        scan(clock, samples, null);
+        return samples;
+    }
+
+
+    /**
+     * Scans all queries and produces columnar performance data record.
+     *
+     * @param clock     current time (milliseconds since Epoch)
+     * @param scannerId scanner ID (symbol)
+     * @return columnar perf record (possibly empty)
+     */
+    public ColumnarPerfRecord getColumnarRecord(long clock, int scannerId) {
+        ColumnarPerfRecord.Builder cols = new ColumnarPerfRecord.Builder();
+        scan(clock, null, cols);
+        return cols.build(clock, scannerId);
+    }
+
+
+    private void scan(long clock, List<PerfSample> samples, ColumnarPerfRecord.Builder cols) {
+
+        if (executor != null && listers.size() > 1) {
+            scanParallel(clock, samples, cols);
+            return;
+        }
 
         for (QueryLister lister : listers) {
             MetricTemplate template = lister.getMetricTemplate();
@@ -182,12 +235,52 @@ public class JmxScanner {
                 log.debug(ZorkaLogger.ZPM_RUN_DEBUG, "Scanning query: %s", lister);
                 AgentDiagnostics.inc(AgentDiagnostics.PMON_QUERIES);
 
-                samples.addAll(getPerfSamples(clock, lister));
+                collect(clock, lister, lister.list(), samples, cols);
+            }
+        }
+    }
+
+
+    /**
+     * Executes queries in parallel. Only JMX queries are executed concurrently, obtained results
+     * are converted to samples sequentially (in order of listers).
+     */
+    private void scanParallel(long clock, List<PerfSample> samples, ColumnarPerfRecord.Builder cols) {
+        List<Future<List<QueryResult>>> futures = new ArrayList<Future<List<QueryResult>>>(listers.size());
+
+        for (final QueryLister lister : listers) {
+            if (lister.getMetricTemplate() != null) {
+                AgentDiagnostics.inc(AgentDiagnostics.PMON_QUERIES);
+                futures.add(executor.submit(new Callable<List<QueryResult>>() {
+                    @Override
+                    public List<QueryResult> call() throws Exception {
+                        log.debug(ZorkaLogger.ZPM_RUN_DEBUG, "Scanning query: %s", lister);
+                        return lister.list();
+                    }
+                }));
+            } else {
+                futures.add(null);
+            }
+        }
+
+        for (int i = 0; i < listers.size(); i++) {
+            if (futures.get(i) != null) {
+                try {
+                    collect(clock, listers.get(i), futures.get(i).get(), samples, cols);
+                } catch (Exception e) {
+                    log.error(ZorkaLogger.ZPM_ERRORS, "Error executing query " + listers.get(i), e);
+                    AgentDiagnostics.inc(AgentDiagnostics.PMON_ERRORS);
+                }
             }
         }
-        return samples;
     }
 
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+
     public void setAttachResults(boolean attachResults) {
         this.attachResults = attachResults;
     }
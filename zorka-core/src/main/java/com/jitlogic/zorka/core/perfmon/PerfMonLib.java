@@ -16,6 +16,8 @@
 
 package com.jitlogic.zorka.core.perfmon;
 
+import com.jitlogic.zorka.common.http.HttpUtil;
+import com.jitlogic.zorka.core.integ.InfluxLineOutput;
 import com.jitlogic.zorka.core.mbeans.MBeanServerRegistry;
 import com.jitlogic.zorka.common.stats.MethodCallStatistic;
 import com.jitlogic.zorka.core.spy.Tracer;
@@ -23,6 +25,10 @@ import com.jitlogic.zorka.common.tracedata.MetricTemplate;
 import com.jitlogic.zorka.common.tracedata.MetricsRegistry;
 import com.jitlogic.zorka.common.tracedata.SymbolRegistry;
 
+import java.net.MalformedURLException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
 public class PerfMonLib {
 
     /** Reference to symbol registry */
@@ -35,6 +41,12 @@ public class PerfMonLib {
 
     private MBeanServerRegistry mbsRegistry;
 
+    /** Executor used by scanners to run queries in parallel (or null if queries are run sequentially). */
+    private ExecutorService scanExecutor;
+
+    /** If true, scanners will emit columnar performance records. */
+    private boolean columnar;
+
     public PerfMonLib(SymbolRegistry symbolRegistry, MetricsRegistry metricsRegistry, Tracer tracer, MBeanServerRegistry mbsRegistry) {
         this.tracer = tracer;
         this.mbsRegistry = mbsRegistry;
@@ -77,7 +89,56 @@ public class PerfMonLib {
      * @return scanner object
      */
     public TraceOutputJmxScanner scanner(String name, QueryDef... qdefs) {
-        return new TraceOutputJmxScanner(symbolRegistry, metricsRegistry, name, mbsRegistry, tracer, qdefs);
+        TraceOutputJmxScanner scanner = new TraceOutputJmxScanner(symbolRegistry, metricsRegistry, name, mbsRegistry, tracer, qdefs);
+        scanner.setExecutor(scanExecutor);
+        scanner.setColumnar(columnar);
+        return scanner;
+    }
+
+
+    public void setScanExecutor(ExecutorService scanExecutor) {
+        this.scanExecutor = scanExecutor;
+    }
+
+
+    public void setColumnar(boolean columnar) {
+        this.columnar = columnar;
+    }
+
+
+    /**
+     * Creates InfluxDB output (with default settings). Register it as tracer output in order
+     * to send performance data from scanners to InfluxDB.
+     *
+     * @param url         write URL (eg. http://localhost:8086/write?db=zorka&precision=ms)
+     * @param constTags   constant tags (tag name -> value)
+     * @param dynamicTags tags taken from metric attributes (tag name -> attribute name)
+     * @return influx output (already started)
+     */
+    public InfluxLineOutput toInflux(String url, Map<String, String> constTags, Map<String, String> dynamicTags)
+            throws MalformedURLException {
+        return toInflux(url, constTags, dynamicTags, 256 * 1024, 5000, true, 30000);
+    }
+
+
+    /**
+     * Creates InfluxDB output.
+     *
+     * @param url         write URL (eg. http://localhost:8086/write?db=zorka&precision=ms)
+     * @param constTags   constant tags (tag name -> value)
+     * @param dynamicTags tags taken from metric attributes (tag name -> attribute name)
+     * @param maxBytes    maximum (uncompressed) request size
+     * @param flushTime   maximum time data waits in buffer (milliseconds)
+     * @param gzip        if true, requests will be compressed
+     * @param timeout     connect and read timeout (milliseconds)
+     * @return influx output (already started)
+     */
+    public InfluxLineOutput toInflux(String url, Map<String, String> constTags, Map<String, String> dynamicTags,
+                                     int maxBytes, long flushTime, boolean gzip, int timeout)
+            throws MalformedURLException {
+        InfluxLineOutput output = new InfluxLineOutput(metricsRegistry, HttpUtil.getClient(), url, constTags, dynamicTags, maxBytes, flushTime, gzip, timeout);
+        output.start();
+        return output;
     }
 
 
@@ -46,6 +46,9 @@ public class QueryDef {
 
     public static final int NO_NULL_ATTRS = 0x02;
 
+    /** Caches object names and MBean info between scans and reads all attributes of an MBean at once. */
+    public static final int CACHED_SCAN = 0x04;
+
     /** Flags altering query execution. */
     private int flags;
 
@@ -248,4 +251,10 @@ public class QueryDef {
     public MetricTemplate getMetricTemplate() {
         return metricTemplate;
     }
+
+
+    @Override
+    public String toString() {
+        return "QueryDef(" + mbsName + ", " + query + ", " + attributes + ", " + segments + ", " + flags + ")";
+    }
 }
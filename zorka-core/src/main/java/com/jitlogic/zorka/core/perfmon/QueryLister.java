@@ -20,6 +20,7 @@ import com.jitlogic.zorka.common.util.JmxObject;
 import com.jitlogic.zorka.common.util.ObjectInspector;
 import com.jitlogic.zorka.common.util.ZorkaLog;
 import com.jitlogic.zorka.common.util.ZorkaLogger;
+import com.jitlogic.zorka.core.mbeans.MBeanQueryCache;
 import com.jitlogic.zorka.core.mbeans.MBeanServerRegistry;
 import com.jitlogic.zorka.common.tracedata.MetricTemplate;
 
@@ -95,7 +96,10 @@ public class QueryLister {
 
 
     private List<QueryResult> getResults(MBeanServerConnection conn) {
-        Set<ObjectName> objNames = ObjectInspector.queryNames(conn, query.getQuery());
+        MBeanQueryCache cache = query.hasFlags(QueryDef.CACHED_SCAN) ? registry.getQueryCache(query.getMbsName()) : null;
+        Set<ObjectName> objNames = cache != null
+                ? cache.queryNames(query.getQuery())
+                : ObjectInspector.queryNames(conn, query.getQuery());
         QuerySegment seg = query.getSegments().size() > 0 ? query.getSegments().get(0) : null;
 
         List<QueryResult> results = new ArrayList(objNames.size() + 1);
@@ -107,7 +111,9 @@ public class QueryLister {
             }
 
             try {
-                if (seg != null && seg.getAttr() instanceof Pattern) {
+                if (seg != null && seg.getAttr() instanceof Pattern && cache != null) {
+                    getBatchResult(conn, cache, seg, results, on);
+                } else if (seg != null && seg.getAttr() instanceof Pattern) {
                     getMultiResult(conn, seg, results, on);
                 } else {
                     getSingleResult(conn, seg, results, on);
@@ -136,6 +142,41 @@ public class QueryLister {
     }
 
 
+    /**
+     * Fetches all matching attributes of an MBean using single getAttributes() call. Attributes that
+     * cannot be read are silently omitted by MBean server, so they are re-read one by one in order
+     * to log errors (the same way as getMultiResult() does).
+     */
+    private void getBatchResult(MBeanServerConnection conn, MBeanQueryCache cache, QuerySegment seg,
+                                List<QueryResult> results, ObjectName on) {
+        Pattern pattern = (Pattern) seg.getAttr();
+        try {
+            List<String> names = new ArrayList<String>();
+            for (MBeanAttributeInfo attr : cache.getMBeanInfo(on).getAttributes()) {
+                if (pattern.matcher(attr.getName()).matches()) {
+                    names.add(attr.getName());
+                }
+            }
+            if (!names.isEmpty()) {
+                for (Object obj : conn.getAttributes(on, names.toArray(new String[names.size()]))) {
+                    Attribute attr = (Attribute) obj;
+                    names.remove(attr.getName());
+                    makeResult(seg, results, on, attr.getValue(), attr.getName());
+                }
+            }
+            for (String name : names) {
+                try {
+                    makeResult(seg, results, on, conn.getAttribute(on, name), name);
+                } catch (Exception e) {
+                    log.error(ZorkaLogger.ZAG_ERRORS, "Error listing attributes of: " + on, e);
+                }
+            }
+        } catch (Exception e) {
+            log.error(ZorkaLogger.ZAG_ERRORS, "Error listing attributes of: " + on, e);
+        }
+    }
+
+
     private void getSingleResult(MBeanServerConnection conn, QuerySegment seg, List<QueryResult> results, ObjectName on) {
         try {
             makeResult(seg, results, on, seg != null
@@ -49,4 +49,10 @@ public class QuerySegment {
                 ? ((Pattern)attr).matcher(v.toString()).matches()
                 : attr.equals(v);
     }
+
+
+    @Override
+    public String toString() {
+        return (attr instanceof Pattern ? "~" : "") + attr + (name != null ? " as " + name : "");
+    }
 }
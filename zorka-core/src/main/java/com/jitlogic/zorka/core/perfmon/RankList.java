@@ -15,10 +15,8 @@
  */
 package com.jitlogic.zorka.core.perfmon;
 
-import com.jitlogic.zorka.common.util.ZorkaUtil;
-
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -29,6 +27,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * @param <T> rankable item type
  */
+@SuppressWarnings("unchecked")
 public class RankList<T extends Rankable<?>> implements RankLister<T> {
 
     /**
@@ -143,7 +142,8 @@ public class RankList<T extends Rankable<?>> implements RankLister<T> {
 
 
     /**
-     * Recalculates ranking (this is done periodically).
+     * Recalculates ranking (this is done periodically). Averages are computed once per item
+     * and top items are selected using bounded heap, so there is no need to sort whole list.
      *
      * @param tstamp current time
      */
@@ -155,20 +155,104 @@ public class RankList<T extends Rankable<?>> implements RankLister<T> {
             lst = lister.list();
         }
 
-        Collections.sort(lst, new Comparator<T>() {
-            public int compare(T o1, T o2) {
-                double dd = o2.getAverage(tstamp, metric, average) - o1.getAverage(tstamp, metric, average);
-                return dd == 0.0 ? 0 : dd > 0 ? 1 : -1;
-            }
-        });
+        Object[] items = lst.toArray();
+        double[] values = new double[items.length];
 
-        rankList = Collections.unmodifiableList(ZorkaUtil.clip(lst, maxSize));
+        for (int i = 0; i < items.length; i++) {
+            double v = ((T) items[i]).getAverage(tstamp, metric, average);
+            values[i] = Double.isNaN(v) ? Double.NEGATIVE_INFINITY : v;
+        }
+
+        int[] top = top(values, maxSize);
+        List<T> rslt = new ArrayList<T>(top.length);
+
+        for (int idx : top) {
+            rslt.add((T) items[idx]);
+        }
+
+        rankList = Collections.unmodifiableList(rslt);
 
         lastTime = tstamp;
         numReranks.incrementAndGet();
     }
 
 
+    /**
+     * Selects indexes of k highest values (in descending order). Equal values are ordered by index.
+     * Runs in O(n log k) time using a bounded min-heap.
+     *
+     * @param values item values
+     * @param k      maximum number of selected items
+     * @return indexes of selected items
+     */
+    public static int[] top(double[] values, int k) {
+        k = Math.max(0, Math.min(k, values.length));
+
+        int[] heap = new int[k];
+        int size = 0;
+
+        for (int i = 0; i < values.length; i++) {
+            if (size < k) {
+                heap[size] = i;
+                siftUp(values, heap, size++);
+            } else if (k > 0 && better(values, i, heap[0])) {
+                heap[0] = i;
+                siftDown(values, heap, 0, size);
+            }
+        }
+
+        // Heap root holds the worst selected item, so extract items from the last position.
+        int[] rslt = new int[size];
+
+        for (int n = size; n > 0; n--) {
+            rslt[n - 1] = heap[0];
+            heap[0] = heap[n - 1];
+            siftDown(values, heap, 0, n - 1);
+        }
+
+        return rslt;
+    }
+
+
+    private static boolean better(double[] values, int i1, int i2) {
+        return values[i1] > values[i2] || (values[i1] == values[i2] && i1 < i2);
+    }
+
+
+    private static void siftUp(double[] values, int[] heap, int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!better(values, heap[parent], heap[pos])) {
+                break;
+            }
+            int t = heap[parent];
+            heap[parent] = heap[pos];
+            heap[pos] = t;
+            pos = parent;
+        }
+    }
+
+
+    private static void siftDown(double[] values, int[] heap, int pos, int size) {
+        for (;;) {
+            int c = 2 * pos + 1;
+            if (c >= size) {
+                break;
+            }
+            if (c + 1 < size && better(values, heap[c], heap[c + 1])) {
+                c++;
+            }
+            if (!better(values, heap[pos], heap[c])) {
+                break;
+            }
+            int t = heap[pos];
+            heap[pos] = heap[c];
+            heap[c] = t;
+            pos = c;
+        }
+    }
+
+
     /**
      * Returns number of reranks performed since rank list started.
      *
@@ -0,0 +1,283 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.perfmon;
+
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.common.util.ObjectInspector;
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+import com.jitlogic.zorka.common.util.ZorkaUtil;
+import com.jitlogic.zorka.core.ZorkaLib;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calculates windowed rates of (nominator, divider) attribute pairs. Each registered source is
+ * sampled once per tick (from background scheduler) into a circular buffer of samples. All time
+ * horizons are served from the same buffer by indexing back from its most recent sample, so
+ * queries neither read JMX attributes nor maintain separate aggregates for each horizon.
+ *
+ * Sources are registered on first query and dropped when not queried for twice the maximum horizon.
+ */
+public class RateSampler implements Runnable {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(RateSampler.class);
+
+    private ZorkaLib zorkaLib;
+
+    /** Sampling interval (milliseconds) */
+    private final long tick;
+
+    /** Longest supported horizon (milliseconds), longer horizons are clipped. */
+    private final long maxHorizon;
+
+    /** Number of samples in circular buffer of each source. */
+    private final int capacity;
+
+    /** Sources not queried for this long (milliseconds) will be dropped. */
+    private final long expiry;
+
+    private final ConcurrentMap<Key, Source> sources = new ConcurrentHashMap<Key, Source>();
+
+    private ZorkaUtil util = ZorkaUtil.getInstance();
+
+
+    /**
+     * Creates rate sampler. Sampler has to be scheduled by caller (at fixed rate, every tick milliseconds).
+     *
+     * @param zorkaLib   zorka library (used to read JMX attributes)
+     * @param tick       sampling interval (milliseconds)
+     * @param maxHorizon longest supported horizon (milliseconds)
+     */
+    public RateSampler(ZorkaLib zorkaLib, long tick, long maxHorizon) {
+        this.zorkaLib = zorkaLib;
+        this.tick = Math.max(1, tick);
+        this.maxHorizon = Math.max(this.tick, maxHorizon);
+        this.capacity = (int) (this.maxHorizon / this.tick) + 2;
+        this.expiry = 2 * this.maxHorizon;
+    }
+
+
+    /**
+     * Returns rate of given source over given time horizon. Source is registered if queried for
+     * the first time. Until source collects two samples, it is also sampled synchronously.
+     *
+     * @param path    mbean server name, object name and (optional) attribute chain
+     * @param nomAttr nominator attribute
+     * @param divAttr divider attribute (or null if plain rate of nominator is to be calculated)
+     * @param horizon time horizon (milliseconds)
+     * @return calculated rate
+     */
+    public double get(Object[] path, String nomAttr, String divAttr, long horizon) {
+        Key key = new Key(path, nomAttr, divAttr);
+
+        Source src = sources.get(key);
+
+        if (src == null) {
+            src = new Source(key);
+            Source s = sources.putIfAbsent(key, src);
+            if (s != null) {
+                src = s;
+            } else {
+                AgentDiagnostics.inc(AgentDiagnostics.AVG_CNT_CREATED);
+            }
+        }
+
+        long t = util.currentTimeMillis();
+        src.lastQuery = t;
+
+        if (src.size() < 2) {
+            sample(src, t);
+        }
+
+        return src.rate(Math.min(horizon, maxHorizon));
+    }
+
+
+    @Override
+    public void run() {
+        try {
+            runCycle(util.currentTimeMillis());
+        } catch (Throwable e) {
+            log.error(ZorkaLogger.ZAG_ERRORS, "Error running rate sampler cycle", e);
+        }
+    }
+
+
+    /**
+     * Samples all registered sources and drops ones that have not been queried recently.
+     *
+     * @param t current time (milliseconds)
+     */
+    public void runCycle(long t) {
+        Iterator<Map.Entry<Key, Source>> iter = sources.entrySet().iterator();
+        while (iter.hasNext()) {
+            Source src = iter.next().getValue();
+            if (t - src.lastQuery > expiry) {
+                iter.remove();
+            } else {
+                sample(src, t);
+            }
+        }
+    }
+
+
+    private void sample(Source src, long t) {
+        try {
+            Object obj = zorkaLib.jmx(src.key.path);
+            Object nom = ObjectInspector.get(obj, src.key.nomAttr);
+            Object div = src.key.divAttr != null ? ObjectInspector.get(obj, src.key.divAttr) : 0;
+            src.add(coerce(nom), coerce(div), t);
+        } catch (Exception e) {
+            AgentDiagnostics.inc(AgentDiagnostics.AVG_CNT_ERRORS);
+            log.error(ZorkaLogger.ZAG_ERRORS, "Error sampling rate source " + src.key, e);
+        }
+    }
+
+
+    /**
+     * Coerces integer values to long, all other values are counted as errors and coerced to zero.
+     */
+    public static long coerce(Object val) {
+        if (val instanceof Long || val instanceof Integer || val instanceof Short || val instanceof Byte) {
+            return ((Number) val).longValue();
+        } else {
+            AgentDiagnostics.inc(AgentDiagnostics.AVG_CNT_ERRORS);
+            return 0;
+        }
+    }
+
+
+    public int size() {
+        return sources.size();
+    }
+
+
+    public long getTick() {
+        return tick;
+    }
+
+
+    public long getMaxHorizon() {
+        return maxHorizon;
+    }
+
+
+    /**
+     * Identifies sampled source. Hash code is computed once, so lookups do not build any intermediate strings.
+     */
+    private static class Key {
+
+        private final Object[] path;
+        private final String nomAttr, divAttr;
+        private final int hash;
+
+        private Key(Object[] path, String nomAttr, String divAttr) {
+            this.path = path;
+            this.nomAttr = nomAttr;
+            this.divAttr = divAttr;
+            this.hash = 31 * (31 * Arrays.hashCode(path) + (nomAttr != null ? nomAttr.hashCode() : 0))
+                    + (divAttr != null ? divAttr.hashCode() : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return hash == k.hash && Arrays.equals(path, k.path)
+                    && ZorkaUtil.objEquals(nomAttr, k.nomAttr)
+                    && ZorkaUtil.objEquals(divAttr, k.divAttr);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(path) + ":" + nomAttr + "/" + divAttr;
+        }
+    }
+
+
+    /**
+     * Circular buffer of samples of a single source.
+     */
+    private class Source {
+
+        private final Key key;
+
+        private final long[] noms = new long[capacity], divs = new long[capacity], times = new long[capacity];
+
+        /** Index of most recent sample */
+        private int head = -1;
+
+        /** Number of samples in buffer */
+        private int count;
+
+        private volatile long lastQuery;
+
+        private Source(Key key) {
+            this.key = key;
+        }
+
+        private synchronized int size() {
+            return count;
+        }
+
+        private synchronized void add(long nom, long div, long t) {
+            head = head + 1 < capacity ? head + 1 : 0;
+            noms[head] = nom;
+            divs[head] = div;
+            times[head] = t;
+            if (count < capacity) {
+                count++;
+            }
+        }
+
+        private synchronized double rate(long horizon) {
+            if (count == 0) {
+                return 0.0;
+            }
+
+            // Samples are (roughly) one tick apart, so oldest sample within horizon is found in a few steps at most.
+            int k = (int) Math.min(count - 1, horizon / tick + 1);
+            long tmin = times[head] - horizon;
+            while (k > 0 && times[idx(k)] < tmin) {
+                k--;
+            }
+
+            int i = idx(k);
+            long nom = noms[head] - noms[i], div = divs[head] - divs[i];
+
+            return div != 0 ? 1.0 * nom / div : nom;
+        }
+
+        private int idx(int k) {
+            int i = head - k;
+            return i >= 0 ? i : i + capacity;
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.core.perfmon;
+
+import com.jitlogic.zorka.common.ZorkaSubmitter;
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.common.tracedata.ProfileRecord;
+import com.jitlogic.zorka.common.tracedata.SymbolRegistry;
+import com.jitlogic.zorka.common.tracedata.SymbolicRecord;
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+import com.jitlogic.zorka.common.util.ZorkaUtil;
+import com.jitlogic.zorka.core.spy.OverheadGovernor;
+import com.jitlogic.zorka.core.spy.Tracer;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Sampling CPU profiler. Periodically captures stacks of RUNNABLE threads (with names matching
+ * configured patterns) and aggregates them into calling-context tree of symbol IDs. Once per
+ * submit interval the tree is converted into ProfileRecord and submitted to tracer outputs.
+ *
+ * Sampling overhead is limited in two ways: number of sampled threads and stack depth are capped
+ * and if single sampling cycle takes more than allowed fraction of sampling interval, subsequent
+ * cycles are skipped accordingly.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class SamplingProfiler implements Runnable {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(SamplingProfiler.class);
+
+    public static final long MS = 1000000L;
+
+    private final SymbolRegistry symbols;
+
+    private final ZorkaSubmitter<SymbolicRecord> output;
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Profile name (symbol ID).
+     */
+    private final int profileId;
+
+    /**
+     * Sampling interval and submit interval (milliseconds).
+     */
+    private final long interval, submitInterval;
+
+    /**
+     * Maximum stack depth, maximum number of threads sampled in single cycle, maximum number of tree nodes.
+     */
+    private final int maxDepth, maxThreads, maxNodes;
+
+    /**
+     * Maximum fraction of sampling interval that can be spent on sampling.
+     */
+    private final double maxOverhead;
+
+    private final List<Pattern> includes = new ArrayList<Pattern>(), excludes = new ArrayList<Pattern>();
+
+    /**
+     * Cached results of thread name matching.
+     */
+    private final Map<String, Boolean> nameMatches = new HashMap<String, Boolean>();
+
+    private ProfileTree tree;
+
+    private volatile ProfileRecord lastRecord;
+
+    /**
+     * If set, collapsed stacks of every submitted profile will be written to this file.
+     */
+    private String collapsedPath;
+
+    private long lastSubmit;
+
+    private int skip;
+
+    private volatile boolean running;
+
+    private volatile Thread thread;
+
+
+    /**
+     * Creates new sampling profiler.
+     *
+     * @param name           profile name
+     * @param symbols        symbol registry
+     * @param output         profile records will be submitted here (typically tracer)
+     * @param interval       sampling interval (milliseconds)
+     * @param submitInterval profile submission interval (milliseconds)
+     * @param maxDepth       maximum stack depth
+     * @param maxThreads     maximum number of threads sampled in single cycle
+     * @param maxNodes       maximum number of nodes in calling-context tree
+     * @param maxOverhead    maximum fraction of sampling interval that can be spent on sampling (eg. 0.01)
+     * @param includes       thread name patterns to be sampled (all threads if empty)
+     * @param excludes       thread name patterns not to be sampled
+     */
+    public SamplingProfiler(String name, SymbolRegistry symbols, ZorkaSubmitter<SymbolicRecord> output,
+                            long interval, long submitInterval, int maxDepth, int maxThreads, int maxNodes,
+                            double maxOverhead, List<String> includes, List<String> excludes) {
+        this.symbols = symbols;
+        this.output = output;
+        this.profileId = symbols.symbolId(name);
+        this.interval = interval;
+        this.submitInterval = submitInterval;
+        this.maxDepth = maxDepth;
+        this.maxThreads = maxThreads;
+        this.maxNodes = maxNodes;
+        this.maxOverhead = maxOverhead;
+
+        for (String p : includes) {
+            this.includes.add(Pattern.compile(p));
+        }
+
+        for (String p : excludes) {
+            this.excludes.add(Pattern.compile(p));
+        }
+
+        this.tree = new ProfileTree(maxNodes);
+    }
+
+
+    private boolean matches(String name) {
+        Boolean m = nameMatches.get(name);
+
+        if (m == null) {
+            m = includes.isEmpty();
+            for (Pattern p : includes) {
+                if (p.matcher(name).matches()) {
+                    m = true;
+                    break;
+                }
+            }
+            for (Pattern p : excludes) {
+                if (p.matcher(name).matches()) {
+                    m = false;
+                    break;
+                }
+            }
+            if (nameMatches.size() > 4096) {
+                nameMatches.clear();
+            }
+            nameMatches.put(name, m);
+        }
+
+        return m;
+    }
+
+
+    /**
+     * Performs single sampling cycle: collects stacks of matching threads and merges them into profile tree.
+     */
+    public void sample() {
+        long self = Thread.currentThread().getId();
+        ThreadInfo[] infos = threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0);
+
+        long[] ids = new long[Math.min(infos.length, maxThreads)];
+        int n = 0;
+
+        for (ThreadInfo ti : infos) {
+            if (n >= ids.length) {
+                break;
+            }
+            if (ti != null && ti.getThreadId() != self && ti.getThreadState() == Thread.State.RUNNABLE
+                    && matches(ti.getThreadName())) {
+                ids[n++] = ti.getThreadId();
+            }
+        }
+
+        if (n == 0) {
+            return;
+        }
+
+        for (ThreadInfo ti : threadMXBean.getThreadInfo(ZorkaUtil.clipArray(ids, n), maxDepth)) {
+            if (ti != null && ti.getThreadState() == Thread.State.RUNNABLE) {
+                add(ti.getStackTrace());
+            }
+        }
+    }
+
+
+    /**
+     * Merges single stack trace into profile tree.
+     *
+     * @param stack stack trace (innermost frame first)
+     */
+    public void add(StackTraceElement[] stack) {
+        if (stack.length == 0) {
+            return;
+        }
+
+        int node = 0;
+
+        for (int i = stack.length - 1; i >= 0; i--) {
+            StackTraceElement se = stack[i];
+            int child = tree.child(node, symbols.symbolId(se.getClassName()), symbols.symbolId(se.getMethodName()));
+            if (child < 0) {
+                break;  // Tree is full, attribute sample to deepest existing node
+            }
+            node = child;
+        }
+
+        tree.hit(node);
+        AgentDiagnostics.inc(AgentDiagnostics.PROFILER_SAMPLES);
+    }
+
+
+    /**
+     * Submits collected profile (if not empty) and starts new one.
+     *
+     * @return submitted profile record or null if nothing has been collected
+     */
+    public ProfileRecord submit() {
+        ProfileRecord rec = null;
+
+        if (tree.samples > 0) {
+            rec = tree.toRecord(System.currentTimeMillis(), profileId);
+            lastRecord = rec;
+            output.submit(rec);
+            if (collapsedPath != null) {
+                dumpCollapsedStacks(collapsedPath);
+            }
+        }
+
+        tree = new ProfileTree(maxNodes);
+
+        return rec;
+    }
+
+
+    public void cycle(long t) {
+
+        OverheadGovernor governor = Tracer.getGovernor();
+
+        if (skip > 0) {
+            skip--;
+            AgentDiagnostics.inc(AgentDiagnostics.PROFILER_SKIPPED);
+        } else if (governor != null && governor.getLevel() >= OverheadGovernor.LEVEL_NO_SAMPLING) {
+            AgentDiagnostics.inc(AgentDiagnostics.PROFILER_SKIPPED);
+        } else {
+            sample();
+            long dt = System.nanoTime() - t;
+            AgentDiagnostics.inc(AgentDiagnostics.PROFILER_TIME, dt);
+
+            long budget = (long) (interval * MS * maxOverhead);
+            if (budget > 0 && dt > budget) {
+                skip = (int) Math.min(dt / budget, 1000);
+            }
+        }
+
+        if (t - lastSubmit >= submitInterval * MS) {
+            if (lastSubmit != 0) {
+                submit();
+            }
+            lastSubmit = t;
+        }
+    }
+
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                cycle(System.nanoTime());
+            } catch (Throwable e) {
+                log.error(ZorkaLogger.ZAG_ERRORS, "Error in sampling profiler cycle", e);
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                log.warn(ZorkaLogger.ZAG_WARNINGS, "Sampling profiler thread encountered interruption.");
+            }
+        }
+    }
+
+
+    public synchronized void start() {
+        if (!running) {
+            thread = new Thread(this);
+            thread.setDaemon(true);
+            thread.setName("ZORKA-profiler");
+            running = true;
+            thread.start();
+        }
+    }
+
+
+    public synchronized void stop() {
+        running = false;
+    }
+
+
+    /**
+     * Returns last submitted profile as collapsed stacks (suitable for flame graph tools).
+     *
+     * @return collapsed stacks text (empty string if nothing has been submitted yet)
+     */
+    public String collapsedStacks() {
+        ProfileRecord rec = lastRecord;
+        return rec != null ? rec.toCollapsedStacks(symbols) : "";
+    }
+
+
+    /**
+     * Writes last submitted profile as collapsed stacks to a file.
+     *
+     * @param path output file path
+     */
+    public void dumpCollapsedStacks(String path) {
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(path);
+            os.write(collapsedStacks().getBytes("UTF-8"));
+        } catch (IOException e) {
+            log.error(ZorkaLogger.ZAG_ERRORS, "Cannot write collapsed stacks to " + path, e);
+        } finally {
+            if (os != null) {
+                try { os.close(); } catch (IOException e) { }
+            }
+        }
+    }
+
+
+    public void setCollapsedPath(String collapsedPath) {
+        this.collapsedPath = collapsedPath;
+    }
+
+
+    public ProfileRecord getLastRecord() {
+        return lastRecord;
+    }
+
+
+    /**
+     * Calling-context tree stored in primitive arrays. Child lookups use open addressing hash table
+     * keyed by (parent node, class ID, method ID).
+     */
+    private static class ProfileTree {
+
+        private int size = 1, samples;
+
+        private final int maxNodes;
+
+        private int[] classIds = new int[64], methodIds = new int[64], parents = new int[64],
+                counts = new int[64], selfCounts = new int[64];
+
+        /**
+         * Hash table slots: node index + 1 (0 means empty slot).
+         */
+        private int[] slots = new int[128];
+
+
+        private ProfileTree(int maxNodes) {
+            this.maxNodes = maxNodes;
+            parents[0] = -1;
+        }
+
+
+        private static int hash(int parent, int classId, int methodId) {
+            int h = parent * 0x9E3779B1 + classId * 0x85EBCA6B + methodId * 0xC2B2AE35;
+            return h ^ (h >>> 16);
+        }
+
+
+        /**
+         * Finds or creates child node.
+         *
+         * @return node index or -1 if tree is full
+         */
+        private int child(int parent, int classId, int methodId) {
+            int mask = slots.length - 1;
+
+            for (int i = hash(parent, classId, methodId) & mask; ; i = (i + 1) & mask) {
+                int n = slots[i] - 1;
+                if (n < 0) {
+                    if (size >= maxNodes) {
+                        return -1;
+                    }
+                    n = size++;
+                    ensureCapacity();
+                    classIds[n] = classId;
+                    methodIds[n] = methodId;
+                    parents[n] = parent;
+                    slots[i] = n + 1;
+                    if (size * 2 > slots.length) {
+                        rehash();
+                    }
+                    return n;
+                }
+                if (parents[n] == parent && classIds[n] == classId && methodIds[n] == methodId) {
+                    return n;
+                }
+            }
+        }
+
+
+        private void hit(int node) {
+            samples++;
+            selfCounts[node]++;
+            for (int n = node; n >= 0; n = parents[n]) {
+                counts[n]++;
+            }
+        }
+
+
+        private void ensureCapacity() {
+            if (size > classIds.length) {
+                int len = classIds.length * 2;
+                classIds = ZorkaUtil.clipArray(classIds, len);
+                methodIds = ZorkaUtil.clipArray(methodIds, len);
+                parents = ZorkaUtil.clipArray(parents, len);
+                counts = ZorkaUtil.clipArray(counts, len);
+                selfCounts = ZorkaUtil.clipArray(selfCounts, len);
+            }
+        }
+
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int n = 1; n < size; n++) {
+                int i = hash(parents[n], classIds[n], methodIds[n]) & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = n + 1;
+            }
+        }
+
+
+        private ProfileRecord toRecord(long clock, int profileId) {
+            return new ProfileRecord(clock, profileId, samples,
+                    ZorkaUtil.clipArray(classIds, size), ZorkaUtil.clipArray(methodIds, size),
+                    ZorkaUtil.clipArray(parents, size), ZorkaUtil.clipArray(counts, size),
+                    ZorkaUtil.clipArray(selfCounts, size));
+        }
+    }
+}
@@ -47,6 +47,11 @@ public class ThreadRankItem implements Rankable<ThreadRankInfo> {
      */
     private BucketAggregate byBlockedTime;
 
+    /**
+     * Last thread rank lister cycle this thread has been seen in
+     */
+    long cycle;
+
     /**
      * Creates new thread rank item
      *
@@ -15,6 +15,8 @@
  */
 package com.jitlogic.zorka.core.perfmon;
 
+import com.jitlogic.zorka.common.util.LongMap;
+import com.jitlogic.zorka.common.util.ZorkaUtil;
 import com.jitlogic.zorka.core.mbeans.MBeanServerRegistry;
 
 import java.lang.management.ManagementFactory;
@@ -35,9 +37,14 @@ public class ThreadRankLister implements Runnable, RankLister<ThreadRankItem> {
     /** Thread MX bean implements methods useful for obtaining information about running threads. */
     private ThreadMXBean threadMXBean;
 
-    /** Map of tracked threads. */
-    // TODO use AtomicReference for all such volatile fields
-    private volatile Map<Long,ThreadRankItem> threads = new HashMap<Long, ThreadRankItem>();
+    /** Map of tracked threads (reused between cycles). */
+    private final LongMap<ThreadRankItem> threads = new LongMap<ThreadRankItem>(256);
+
+    /** Current cycle number, tracked items not seen in current cycle are removed. */
+    private long cycle;
+
+    /** IDs of threads to be removed (reused between cycles). */
+    private long[] stale = new long[16];
 
     /**
      * Creates thread rank lister
@@ -48,11 +55,14 @@ public class ThreadRankLister implements Runnable, RankLister<ThreadRankItem> {
 
 
     @Override
-    public List<ThreadRankItem> list() {
-        List<ThreadRankItem> lst = new ArrayList<ThreadRankItem>(threads.size()+2)     ;
+    public synchronized List<ThreadRankItem> list() {
+        List<ThreadRankItem> lst = new ArrayList<ThreadRankItem>(threads.size() + 2);
 
-        for (Map.Entry<Long,ThreadRankItem> e : threads.entrySet()) {
-            lst.add(e.getValue());
+        for (int i = 0; i < threads.slots(); i++) {
+            ThreadRankItem item = threads.valueAt(i);
+            if (item != null) {
+                lst.add(item);
+            }
         }
 
         return Collections.unmodifiableList(lst);
@@ -94,10 +104,10 @@ public class ThreadRankLister implements Runnable, RankLister<ThreadRankItem> {
      */
     public void runCycle(long tstamp) {
         List<ThreadRankInfo> raw = rawList();
-        int sz = Math.max(raw.size(), raw.size());
-        Map<Long,ThreadRankItem> newThreads = new HashMap<Long, ThreadRankItem>(sz*2+10, 0.5f);
 
         synchronized (this) {
+            cycle++;
+
             for (ThreadRankInfo threadInfo : raw) {
                 if (threadInfo == null) {
                     continue;
@@ -105,16 +115,39 @@ public class ThreadRankLister implements Runnable, RankLister<ThreadRankItem> {
 
                 long tid = threadInfo.getId();
 
-                ThreadRankItem threadItem = threads.get(threadInfo.getId());
+                ThreadRankItem threadItem = threads.get(tid);
                 if (threadItem == null) {
                     threadItem = new ThreadRankItem(threadInfo);
+                    threads.put(tid, threadItem);
                 }
 
                 threadItem.feed(tstamp, threadInfo);
-                newThreads.put(threadInfo.getId(), threadItem);
+                threadItem.cycle = cycle;
+            }
+
+            removeStale();
+        }
+    }
+
+
+    /**
+     * Removes threads not seen in current cycle.
+     */
+    private void removeStale() {
+        int n = 0;
+
+        for (int i = 0; i < threads.slots(); i++) {
+            ThreadRankItem item = threads.valueAt(i);
+            if (item != null && item.cycle != cycle) {
+                if (n == stale.length) {
+                    stale = ZorkaUtil.clipArray(stale, n * 2);
+                }
+                stale[n++] = threads.keyAt(i);
             }
+        }
 
-            threads = newThreads;
+        for (int i = 0; i < n; i++) {
+            threads.remove(stale[i]);
         }
     }
 
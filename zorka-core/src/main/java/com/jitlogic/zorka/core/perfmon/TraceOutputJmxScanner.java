@@ -52,6 +52,12 @@ public class TraceOutputJmxScanner extends JmxScanner implements Runnable {
     protected int id;
 
 
+    /**
+     * If true, scanner will emit ColumnarPerfRecord instead of PerfRecord.
+     */
+    protected boolean columnar;
+
+
     /**
      * Creates new JMX attribute scanner object.
      *
@@ -95,21 +101,37 @@ public class TraceOutputJmxScanner extends JmxScanner implements Runnable {
 
         long t1 = System.nanoTime();
 
-        List<PerfSample> samples = getPerfSamples(clock);
+        SymbolicRecord rec;
+        int size;
+
+        if (columnar) {
+            ColumnarPerfRecord cpr = getColumnarRecord(clock, id);
+            rec = cpr;
+            size = cpr.size();
+        } else {
+            List<PerfSample> samples = getPerfSamples(clock);
+            rec = new PerfRecord(clock, id, samples);
+            size = samples.size();
+        }
 
         long t2 = System.nanoTime();
 
         log.info(ZorkaLogger.ZPM_RUNS, "Scanner %s execution took " + (t2 - t1) / 1000000L
-            + " milliseconds to execute. Collected samples: " + samples.size());
+            + " milliseconds to execute. Collected samples: " + size);
 
         AgentDiagnostics.inc(AgentDiagnostics.PMON_TIME, t2 - t1);
         AgentDiagnostics.inc(AgentDiagnostics.PMON_PACKETS_SENT);
-        AgentDiagnostics.inc(AgentDiagnostics.PMON_SAMPLES_SENT, samples.size());
+        AgentDiagnostics.inc(AgentDiagnostics.PMON_SAMPLES_SENT, size);
 
-        if (!samples.isEmpty()) {
-            output.submit(new PerfRecord(clock, id, samples));
+        if (size > 0) {
+            output.submit(rec);
         }
     }
 
 
+    public void setColumnar(boolean columnar) {
+        this.columnar = columnar;
+    }
+
+
 }
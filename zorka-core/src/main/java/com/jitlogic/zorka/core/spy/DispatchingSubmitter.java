@@ -86,7 +86,11 @@ public class DispatchingSubmitter implements SpySubmitter {
 
         SpyDefinition sdef = ctx.getSpyDefinition();
 
-        if (null == (record = process(stage, sdef, record))) {
+        // When degraded by overhead governor, argument processing chains are skipped, collectors still run
+        OverheadGovernor governor = Tracer.getGovernor();
+
+        if ((governor == null || governor.getLevel() < OverheadGovernor.LEVEL_NO_ARGS)
+                && null == (record = process(stage, sdef, record))) {
             return;
         }
 
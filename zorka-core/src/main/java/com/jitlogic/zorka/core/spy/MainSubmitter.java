@@ -43,13 +43,34 @@ public class MainSubmitter {
      */
     private static Tracer tracer;
 
+    /**
+     * Maximum number of values passed to arity-specialized submit methods (submit0 .. submit4).
+     */
+    public static final int MAX_SUBMIT_ARITY = 4;
+
+    /**
+     * Per-thread submission state: reentrance flag and value arrays reused by arity-specialized
+     * submit methods, so probes fetching up to MAX_SUBMIT_ARITY values do not allocate arrays.
+     */
+    private static class SubmitState {
+        private boolean inSubmit;
+        private int governorTick;
+        private final Object[][] vals = new Object[MAX_SUBMIT_ARITY + 1][];
+
+        private SubmitState() {
+            for (int i = 1; i <= MAX_SUBMIT_ARITY; i++) {
+                vals[i] = new Object[i];
+            }
+        }
+    }
+
     /**
      * Thread local
      */
-    private static ThreadLocal<Boolean> inSubmit = new ThreadLocal<Boolean>() {
+    private static ThreadLocal<SubmitState> submitState = new ThreadLocal<SubmitState>() {
         @Override
-        public Boolean initialValue() {
-            return false;
+        public SubmitState initialValue() {
+            return new SubmitState();
         }
     };
 
@@ -58,7 +79,7 @@ public class MainSubmitter {
     }
 
     /**
-     * This method is called by spy probes.
+     * This method is called by spy probes fetching more than MAX_SUBMIT_ARITY values.
      *
      * @param stage       entry, return point or error handling point of spy probe
      * @param id          spy context ID
@@ -66,15 +87,99 @@ public class MainSubmitter {
      * @param vals        values fetched by probe
      */
     public static void submit(int stage, int id, int submitFlags, Object[] vals) {
+        SubmitState st = submitState.get();
+        if (!st.inSubmit) {
+            dispatch(st, stage, id, submitFlags, vals);
+        }
+    }
+
+
+    /**
+     * This method is called by spy probes that fetch no values.
+     */
+    public static void submit0(int stage, int id, int submitFlags) {
+        SubmitState st = submitState.get();
+        if (!st.inSubmit) {
+            dispatch(st, stage, id, submitFlags, null);
+        }
+    }
+
+
+    /**
+     * This method is called by spy probes that fetch exactly one value.
+     */
+    public static void submit1(int stage, int id, int submitFlags, Object v0) {
+        SubmitState st = submitState.get();
+        if (!st.inSubmit) {
+            Object[] vals = st.vals[1];
+            vals[0] = v0;
+            dispatch(st, stage, id, submitFlags, vals);
+            vals[0] = null;
+        }
+    }
+
+
+    /**
+     * This method is called by spy probes that fetch exactly two values.
+     */
+    public static void submit2(int stage, int id, int submitFlags, Object v0, Object v1) {
+        SubmitState st = submitState.get();
+        if (!st.inSubmit) {
+            Object[] vals = st.vals[2];
+            vals[0] = v0;
+            vals[1] = v1;
+            dispatch(st, stage, id, submitFlags, vals);
+            vals[0] = vals[1] = null;
+        }
+    }
+
 
-        if (inSubmit.get()) {
-            return;
+    /**
+     * This method is called by spy probes that fetch exactly three values.
+     */
+    public static void submit3(int stage, int id, int submitFlags, Object v0, Object v1, Object v2) {
+        SubmitState st = submitState.get();
+        if (!st.inSubmit) {
+            Object[] vals = st.vals[3];
+            vals[0] = v0;
+            vals[1] = v1;
+            vals[2] = v2;
+            dispatch(st, stage, id, submitFlags, vals);
+            vals[0] = vals[1] = vals[2] = null;
         }
+    }
+
+
+    /**
+     * This method is called by spy probes that fetch exactly four values.
+     */
+    public static void submit4(int stage, int id, int submitFlags, Object v0, Object v1, Object v2, Object v3) {
+        SubmitState st = submitState.get();
+        if (!st.inSubmit) {
+            Object[] vals = st.vals[4];
+            vals[0] = v0;
+            vals[1] = v1;
+            vals[2] = v2;
+            vals[3] = v3;
+            dispatch(st, stage, id, submitFlags, vals);
+            vals[0] = vals[1] = vals[2] = vals[3] = null;
+        }
+    }
+
+
+    /**
+     * Forwards submission to configured submitter. Note that value arrays passed by arity-specialized
+     * methods are reused, so submitters must not keep references to them after returning.
+     */
+    private static void dispatch(SubmitState st, int stage, int id, int submitFlags, Object[] vals) {
+
+        OverheadGovernor governor = Tracer.getGovernor();
+        long t0 = governor != null && governor.sample(++st.governorTick) ? System.nanoTime() : 0L;
 
         try {
             tracer.getHandler().disable();
             if (submitter != null) {
-                inSubmit.set(true);
+                st.inSubmit = true;
                 submitter.submit(stage, id, submitFlags, vals);
             }
         } catch (EvalError e) {
@@ -85,8 +190,11 @@ public class MainSubmitter {
             log.debug(ZorkaLogger.ZSP_ERRORS, "Error submitting value from instrumented code: ", e);
             AgentDiagnostics.inc(AgentDiagnostics.SPY_ERRORS);
         } finally {
-            inSubmit.set(false);
+            st.inSubmit = false;
             tracer.getHandler().enable();
+            if (t0 != 0L) {
+                governor.logSpyTime(id, System.nanoTime() - t0);
+            }
         }
     }
 
@@ -101,7 +209,15 @@ public class MainSubmitter {
 
         if (tracer != null) {
             try {
-                tracer.getHandler().traceEnter(classId, methodId, signatureId, System.nanoTime());
+                OverheadGovernor governor = Tracer.getGovernor();
+                TraceBuilder handler = tracer.getHandler();
+                if (governor != null && governor.sample(handler.nextGovernorTick())) {
+                    long t0 = System.nanoTime();
+                    handler.traceEnter(classId, methodId, signatureId, SpyClock.nanoTime());
+                    governor.logTracerTime(System.nanoTime() - t0);
+                } else {
+                    handler.traceEnter(classId, methodId, signatureId, SpyClock.nanoTime());
+                }
             } catch (Throwable e) {
                 // This is special case. We must catch everything going out of agent, even OOM errors.
                 log.debug(ZorkaLogger.ZTR_TRACE_ERRORS, "Error executing traceEnter", e);
@@ -121,7 +237,15 @@ public class MainSubmitter {
 
         if (tracer != null) {
             try {
-                tracer.getHandler().traceReturn(System.nanoTime());
+                OverheadGovernor governor = Tracer.getGovernor();
+                TraceBuilder handler = tracer.getHandler();
+                if (governor != null && governor.sample(handler.nextGovernorTick())) {
+                    long t0 = System.nanoTime();
+                    handler.traceReturn(SpyClock.nanoTime());
+                    governor.logTracerTime(System.nanoTime() - t0);
+                } else {
+                    handler.traceReturn(SpyClock.nanoTime());
+                }
             } catch (Throwable e) {
                 // This is special case. We must catch everything going out of agent, even OOM errors.
                 log.debug(ZorkaLogger.ZTR_TRACE_ERRORS, "Error executing traceReturn", e);
@@ -143,7 +267,7 @@ public class MainSubmitter {
 
         if (tracer != null) {
             try {
-                tracer.getHandler().traceError(exception, System.nanoTime());
+                tracer.getHandler().traceError(exception, SpyClock.nanoTime());
             } catch (Throwable e) {
                 // This is special case. We must catch everything going out of agent, even OOM errors.
                 log.debug(ZorkaLogger.ZTR_TRACE_ERRORS, "Error executing traceError", e);
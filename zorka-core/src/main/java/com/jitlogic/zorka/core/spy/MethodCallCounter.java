@@ -70,6 +70,13 @@ public class MethodCallCounter {
     }
 
 
+    public long getCalls(int classId, int methodId, int signatureId) {
+        long key = classId | (((long) methodId) << 21) | (((long) signatureId) << 42);
+        int idx = index(key);
+        return keys[idx] == key ? vals[idx] : 0L;
+    }
+
+
     public List<MethodCallCounterRecord> getRecords() {
         List<MethodCallCounterRecord> ret = new ArrayList<MethodCallCounterRecord>();
 
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.spy;
+
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts time agent spends on application threads and degrades agent functionality when
+ * this time exceeds configured percentage of request time.
+ *
+ * Every n-th call of spy submitter and tracer probes is timed, so measured times are estimates
+ * (sampled time multiplied by sampling rate). Spy times are aggregated per spy definition. Request
+ * time is sum of durations of top-level traces; if no traces were finished in a cycle, total thread
+ * time available to application (cycle time multiplied by number of processors) is used instead.
+ *
+ * Governor steps down one level per cycle when overhead exceeds maximum and steps back up one level
+ * per cycle when it drops below recovery threshold:
+ * 0 - all functionality enabled,
+ * 1 - argument processing chains (entry, return, error) are skipped, collectors still receive records,
+ * 2 - sampling profiler is paused,
+ * 3 - tracer stops recording (new calls outside of traces are neither recorded nor timed).
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class OverheadGovernor implements Runnable {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(OverheadGovernor.class);
+
+    public static final int LEVEL_FULL = 0;
+    public static final int LEVEL_NO_ARGS = 1;
+    public static final int LEVEL_NO_SAMPLING = 2;
+    public static final int LEVEL_NO_TRACER = 3;
+
+    private static final String[] LEVEL_NAMES = {"FULL", "NO_ARGS", "NO_SAMPLING", "NO_TRACER"};
+
+    private SpyClassTransformer transformer;
+
+    /**
+     * Calls are sampled when (tick & sampleMask) == 0, where tick is a per-thread call counter.
+     */
+    private final int sampleMask;
+
+    /**
+     * Maximum overhead (as fraction of request time) and overhead below which functionality is restored.
+     */
+    private final double maxOverhead, minOverhead;
+
+    /**
+     * Current degradation level. Checked on application threads.
+     */
+    private volatile int level;
+
+    /**
+     * Estimated times (in nanoseconds).
+     */
+    private final AtomicLong tracerTime = new AtomicLong(0), spyTime = new AtomicLong(0),
+            requestTime = new AtomicLong(0);
+
+    /**
+     * Estimated spy times per spy context ID.
+     */
+    private final ConcurrentMap<Integer, AtomicLong> contextTimes = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    private long lastCycle, lastAgentTime, lastRequestTime;
+
+    private boolean started;
+
+    private volatile double overhead;
+
+
+    /**
+     * Creates overhead governor.
+     *
+     * @param transformer class transformer (used for looking up spy definitions)
+     * @param sampleRate  every sampleRate-th call will be timed (rounded up to power of 2)
+     * @param maxOverhead maximum overhead (percent of request time)
+     * @param minOverhead overhead below which degraded functionality is restored (percent of request time)
+     */
+    public OverheadGovernor(SpyClassTransformer transformer, int sampleRate, double maxOverhead, double minOverhead) {
+        this.transformer = transformer;
+
+        int n = 1;
+        while (n < sampleRate) {
+            n <<= 1;
+        }
+
+        this.sampleMask = n - 1;
+        this.maxOverhead = maxOverhead / 100.0;
+        this.minOverhead = minOverhead / 100.0;
+    }
+
+
+    /**
+     * Decides if current call should be timed. Called from application threads. Callers pass
+     * their own thread-local call counters, so no shared state is written on application threads.
+     *
+     * @param tick per-thread call counter (incremented on each call)
+     */
+    public boolean sample(int tick) {
+        return (tick & sampleMask) == 0;
+    }
+
+
+    /**
+     * Logs sampled time of spy submission.
+     *
+     * @param id spy context ID
+     * @param t  time (nanoseconds)
+     */
+    public void logSpyTime(int id, long t) {
+        t *= sampleMask + 1;
+        spyTime.addAndGet(t);
+        AgentDiagnostics.inc(AgentDiagnostics.SPY_TIME, t);
+
+        AtomicLong ct = contextTimes.get(id);
+        if (ct == null) {
+            ct = new AtomicLong(0);
+            AtomicLong c = contextTimes.putIfAbsent(id, ct);
+            if (c != null) {
+                ct = c;
+            }
+        }
+        ct.addAndGet(t);
+    }
+
+
+    /**
+     * Logs sampled time of tracer probe.
+     *
+     * @param t time (nanoseconds)
+     */
+    public void logTracerTime(long t) {
+        t *= sampleMask + 1;
+        tracerTime.addAndGet(t);
+        AgentDiagnostics.inc(AgentDiagnostics.TRACER_TIME, t);
+    }
+
+
+    /**
+     * Logs duration of finished top-level trace (all traces are logged, not sampled).
+     *
+     * @param t time (nanoseconds)
+     */
+    public void logRequestTime(long t) {
+        requestTime.addAndGet(t);
+    }
+
+
+    @Override
+    public void run() {
+        try {
+            runCycle(System.nanoTime());
+        } catch (Throwable e) {
+            log.error(ZorkaLogger.ZAG_ERRORS, "Error running overhead governor cycle", e);
+        }
+    }
+
+
+    public void runCycle(long t) {
+        long agentTime = tracerTime.get() + spyTime.get(), reqTime = requestTime.get();
+
+        if (started) {
+            long dAgent = agentTime - lastAgentTime, dReq = reqTime - lastRequestTime;
+
+            if (dReq <= 0) {
+                dReq = (t - lastCycle) * Runtime.getRuntime().availableProcessors();
+            }
+
+            overhead = dReq > 0 ? (double) dAgent / dReq : 0.0;
+
+            if (overhead > maxOverhead && level < LEVEL_NO_TRACER) {
+                level++;
+                AgentDiagnostics.inc(AgentDiagnostics.OVERHEAD_DEGRADES);
+                log.warn(ZorkaLogger.ZAG_WARNINGS, "Agent overhead " + String.format("%.2f", overhead * 100.0)
+                        + "% exceeds limit. Degrading to level " + getLevelName());
+            } else if (overhead < minOverhead && level > LEVEL_FULL) {
+                level--;
+                log.info(ZorkaLogger.ZAG_CONFIG, "Agent overhead " + String.format("%.2f", overhead * 100.0)
+                        + "% below recovery threshold. Restoring to level " + getLevelName());
+            }
+        }
+
+        started = true;
+        lastCycle = t;
+        lastAgentTime = agentTime;
+        lastRequestTime = reqTime;
+    }
+
+
+    public int getLevel() {
+        return level;
+    }
+
+
+    public void setLevel(int level) {
+        this.level = Math.max(LEVEL_FULL, Math.min(LEVEL_NO_TRACER, level));
+    }
+
+
+    public String getLevelName() {
+        return LEVEL_NAMES[level];
+    }
+
+
+    /**
+     * Returns overhead measured in last cycle (percent of request time).
+     */
+    public double getOverhead() {
+        return overhead * 100.0;
+    }
+
+
+    public long getTracerTime() {
+        return tracerTime.get();
+    }
+
+
+    public long getSpyTime() {
+        return spyTime.get();
+    }
+
+
+    public long getRequestTime() {
+        return requestTime.get();
+    }
+
+
+    /**
+     * Returns estimated spy times aggregated by spy definition name.
+     *
+     * @return map of spy definition names to times (nanoseconds)
+     */
+    public Map<String, Long> getSpyTimes() {
+        Map<String, Long> times = new HashMap<String, Long>();
+
+        for (Map.Entry<Integer, AtomicLong> e : contextTimes.entrySet()) {
+            SpyContext ctx = transformer.getContext(e.getKey());
+            String name = ctx != null ? ctx.getSpyDefinition().getName() : "<unknown>";
+            Long t = times.get(name);
+            times.put(name, (t != null ? t : 0L) + e.getValue().get());
+        }
+
+        return times;
+    }
+
+
+    /**
+     * Lists estimated spy times (most expensive spy definitions first).
+     *
+     * @return spy definition times (milliseconds), one per line
+     */
+    public String listSpyTimes() {
+        List<Map.Entry<String, Long>> lst = new ArrayList<Map.Entry<String, Long>>(getSpyTimes().entrySet());
+
+        Collections.sort(lst, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+                return e2.getValue().compareTo(e1.getValue());
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : lst) {
+            sb.append(e.getKey());
+            sb.append(": ");
+            sb.append(e.getValue() / 1000000L);
+            sb.append("ms\n");
+        }
+        return sb.toString();
+    }
+}
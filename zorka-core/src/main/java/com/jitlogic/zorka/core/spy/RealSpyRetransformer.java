@@ -16,16 +16,30 @@
 package com.jitlogic.zorka.core.spy;
 
 
+import com.jitlogic.zorka.common.ZorkaService;
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
 import com.jitlogic.zorka.common.util.ZorkaLog;
 import com.jitlogic.zorka.common.util.ZorkaLogger;
+import com.jitlogic.zorka.common.util.ZorkaUtil;
 import com.jitlogic.zorka.core.AgentConfig;
+import com.jitlogic.zorka.core.util.DaemonThreadFactory;
 
 import java.lang.instrument.Instrumentation;
-import java.lang.instrument.UnmodifiableClassException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public class RealSpyRetransformer implements SpyRetransformer {
+/**
+ * Retransforms already loaded classes after configuration changes. Loaded classes are matched
+ * in parallel (using compiled spy matchers) and then retransformed in batches of configurable
+ * size with pauses between batches, so application threads are not stalled for long periods
+ * when thousands of classes have to be retransformed. If a batch fails, its classes are retransformed
+ * one by one, so a single broken class does not prevent retransforming the rest of the batch.
+ */
+public class RealSpyRetransformer implements SpyRetransformer, ZorkaService {
 
     private static final ZorkaLog log = ZorkaLogger.getLog(RealSpyRetransformer.class);
 
@@ -33,9 +47,37 @@ public class RealSpyRetransformer implements SpyRetransformer {
 
     private boolean matchMethods;
 
+    /**
+     * Number of threads used for matching classes (1 means matching in calling thread).
+     */
+    private int matchThreads;
+
+    /**
+     * Maximum number of classes retransformed at once (0 means all classes at once).
+     */
+    private int batchSize;
+
+    /**
+     * Pause between subsequent batches (milliseconds).
+     */
+    private long batchPause;
+
+    private ExecutorService executor;
+
+    /**
+     * Statistics of last retransform: matching time, total time, longest batch time (nanoseconds)
+     */
+    private volatile long lastMatchTime, lastTotalTime, lastMaxBatchTime;
+
+    private volatile int lastClasses, lastBatches;
+
+
     public RealSpyRetransformer(Instrumentation instrumentation, AgentConfig config) {
         this.instrumentation = instrumentation;
         matchMethods = config.boolCfg("zorka.retransform.match.methods", false);
+        matchThreads = config.intCfg("zorka.retransform.threads", 2);
+        batchSize = config.intCfg("zorka.retransform.batch.size", 256);
+        batchPause = config.longCfg("zorka.retransform.batch.pause", 10L);
         log.info(ZorkaLogger.ZSP_CONFIG, "Enabling spy retransformer. Full online reconfiguration should be possible.");
     }
 
@@ -47,9 +89,138 @@ public class RealSpyRetransformer implements SpyRetransformer {
             return false;
         }
 
+        if (!isSdef && oldSet != null && oldSet.sameMatchers(newSet)) {
+            lastMatchTime = 0;
+            lastTotalTime = 0;
+            lastMaxBatchTime = 0;
+            lastClasses = 0;
+            lastBatches = 0;
+            log.info(ZorkaLogger.ZSP_CONFIG, "Matchers didn't change. Retransform not needed.");
+            return false;
+        }
+
+        long t0 = System.nanoTime();
+
+        List<Class<?>> classes = matchClasses(instrumentation.getAllLoadedClasses(), oldSet, newSet, isSdef);
+
+        long t1 = System.nanoTime();
+        lastMatchTime = t1 - t0;
+
+        if (classes.size() > 0) {
+
+            log.info(ZorkaLogger.ZSP_CONFIG, "Retransforming " + classes.size() + " classes.");
+
+            int bsz = batchSize > 0 ? batchSize : classes.size();
+            long maxBatchTime = 0;
+            int batches = 0;
+
+            for (int i = 0; i < classes.size(); i += bsz) {
+                if (i > 0 && batchPause > 0) {
+                    ZorkaUtil.sleep(batchPause);
+                }
+
+                List<Class<?>> batch = classes.subList(i, Math.min(i + bsz, classes.size()));
+                long tb = System.nanoTime();
+
+                try {
+                    instrumentation.retransformClasses(batch.toArray(new Class[0]));
+                } catch (Throwable e) {
+                    if (batch.size() > 1) {
+                        log.warn(ZorkaLogger.ZSP_CONFIG, "Error when trying to retransform batch of classes."
+                                + " Retrying class by class: " + e);
+                        retransformEach(batch);
+                    } else {
+                        log.error(ZorkaLogger.ZSP_CONFIG, "Error when trying to retransform class "
+                                + batch.get(0).getName(), e);
+                    }
+                }
+
+                tb = System.nanoTime() - tb;
+                maxBatchTime = Math.max(maxBatchTime, tb);
+                batches++;
+
+                log.debug(ZorkaLogger.ZSP_CONFIG, "Retransformed batch of " + batch.size() + " classes in "
+                        + (tb / 1000000L) + "ms.");
+            }
+
+            lastTotalTime = System.nanoTime() - t0;
+            lastMaxBatchTime = maxBatchTime;
+            lastClasses = classes.size();
+            lastBatches = batches;
+
+            AgentDiagnostics.inc(AgentDiagnostics.RETRANSFORMED_CLASSES, classes.size());
+            AgentDiagnostics.inc(AgentDiagnostics.RETRANSFORM_TIME, lastTotalTime);
+
+            log.info(ZorkaLogger.ZSP_CONFIG, "Retransformed " + classes.size() + " classes in " + batches
+                    + " batches: match=" + (lastMatchTime / 1000000L) + "ms, total=" + (lastTotalTime / 1000000L)
+                    + "ms, longest batch=" + (maxBatchTime / 1000000L) + "ms");
+
+            return true;
+        } else {
+            lastTotalTime = lastMatchTime;
+            lastMaxBatchTime = 0;
+            lastClasses = 0;
+            lastBatches = 0;
+            log.info(ZorkaLogger.ZSP_CONFIG, "No classes need to be retransformed.");
+        }
+
+
+        return false;
+    }
+
+
+    private void retransformEach(List<Class<?>> batch) {
+        for (Class<?> clazz : batch) {
+            try {
+                instrumentation.retransformClasses(clazz);
+            } catch (Throwable e) {
+                log.error(ZorkaLogger.ZSP_CONFIG, "Error when trying to retransform class " + clazz.getName(), e);
+            }
+        }
+    }
+
+
+    private List<Class<?>> matchClasses(final Class<?>[] all, final SpyMatcherSet oldSet,
+                                        final SpyMatcherSet newSet, final boolean isSdef) {
+
+        if (matchThreads <= 1 || all.length < matchThreads * 64) {
+            return matchClasses(all, 0, all.length, oldSet, newSet, isSdef);
+        }
+
+        List<Future<List<Class<?>>>> futures = new ArrayList<Future<List<Class<?>>>>(matchThreads);
+        int chunk = (all.length + matchThreads - 1) / matchThreads;
+
+        for (int i = 0; i < all.length; i += chunk) {
+            final int from = i, to = Math.min(i + chunk, all.length);
+            futures.add(getExecutor().submit(new Callable<List<Class<?>>>() {
+                @Override
+                public List<Class<?>> call() throws Exception {
+                    return matchClasses(all, from, to, oldSet, newSet, isSdef);
+                }
+            }));
+        }
+
         List<Class<?>> classes = new ArrayList<Class<?>>();
 
-        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                classes.addAll(futures.get(i).get());
+            } catch (Exception e) {
+                log.error(ZorkaLogger.ZSP_CONFIG, "Error matching classes for retransform. Matching serially.", e);
+                classes.addAll(matchClasses(all, i * chunk, Math.min((i + 1) * chunk, all.length), oldSet, newSet, isSdef));
+            }
+        }
+
+        return classes;
+    }
+
+
+    private List<Class<?>> matchClasses(Class<?>[] all, int from, int to,
+                                        SpyMatcherSet oldSet, SpyMatcherSet newSet, boolean isSdef) {
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+
+        for (int i = from; i < to; i++) {
+            Class<?> clazz = all[i];
 
             if (clazz.isInterface() || clazz.isAnnotation()) {
                 continue;
@@ -64,23 +235,27 @@ public class RealSpyRetransformer implements SpyRetransformer {
             }
         }
 
-        if (classes.size() > 0) {
-
-            log.info(ZorkaLogger.ZSP_CONFIG, "Retransforming " + classes.size() + " classes.");
+        return classes;
+    }
 
-            try {
-                instrumentation.retransformClasses(classes.toArray(new Class[0]));
-            } catch (UnmodifiableClassException e) {
-                log.error(ZorkaLogger.ZSP_CONFIG, "Error when trying to retransform classes", e);
-            }
 
-            return true;
-        } else {
-            log.info(ZorkaLogger.ZSP_CONFIG, "No classes need to be retransformed.");
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(matchThreads, new DaemonThreadFactory("ZORKA-retransform"));
         }
+        return executor;
+    }
 
 
-        return false;
+    /**
+     * Stops matching threads (they will be started again if needed).
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
     }
 
 
@@ -89,4 +264,38 @@ public class RealSpyRetransformer implements SpyRetransformer {
         return instrumentation != null && instrumentation.isRetransformClassesSupported();
     }
 
+
+    /**
+     * Returns class matching time of last retransform (in milliseconds).
+     */
+    public long getLastMatchTime() {
+        return lastMatchTime / 1000000L;
+    }
+
+
+    /**
+     * Returns total time of last retransform (in milliseconds).
+     */
+    public long getLastTotalTime() {
+        return lastTotalTime / 1000000L;
+    }
+
+
+    /**
+     * Returns longest batch retransform time (application pause) of last retransform (in milliseconds).
+     */
+    public long getLastMaxBatchTime() {
+        return lastMaxBatchTime / 1000000L;
+    }
+
+
+    public int getLastClasses() {
+        return lastClasses;
+    }
+
+
+    public int getLastBatches() {
+        return lastBatches;
+    }
+
 }
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.spy;
+
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time source used by tracer and spy time probes. By default it simply calls System.nanoTime(),
+ * but it can be switched to coarse mode, where a background thread refreshes current time
+ * with configured resolution and instrumented code only reads a volatile field. Coarse mode
+ * is useful on hosts where System.nanoTime() is expensive (eg. virtual machines falling back
+ * to slow clock sources), at the cost of timing precision.
+ *
+ * Note that spy time probes check clock mode at instrumentation time, so switching mode
+ * affects only classes instrumented (or retransformed) afterwards.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class SpyClock implements Runnable {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(SpyClock.class);
+
+    public static final String CLOCK_CLASS = "com/jitlogic/zorka/core/spy/SpyClock";
+
+    /**
+     * If System.nanoTime() costs more than this (in nanoseconds), coarse clock is recommended.
+     */
+    public static final long SLOW_CLOCK_COST = 100;
+
+    private static volatile boolean coarse;
+
+    private static volatile long time = System.nanoTime();
+
+    private static volatile Long boxed = time;
+
+    private static SpyClock instance;
+
+    /**
+     * Clock resolution (nanoseconds).
+     */
+    private final long resolution;
+
+    private volatile boolean running = true;
+
+    private Thread thread;
+
+
+    private SpyClock(long resolution) {
+        this.resolution = resolution;
+    }
+
+
+    /**
+     * Returns current time (nanoseconds) from selected time source.
+     */
+    public static long nanoTime() {
+        return coarse ? time : System.nanoTime();
+    }
+
+
+    /**
+     * Returns current time (nanoseconds) as boxed value. In coarse mode the same object is
+     * returned for all calls within one clock tick, so no allocation occurs.
+     */
+    public static Long boxedTime() {
+        return coarse ? boxed : Long.valueOf(System.nanoTime());
+    }
+
+
+    public static boolean isCoarse() {
+        return coarse;
+    }
+
+
+    public static synchronized long getResolution() {
+        return instance != null ? instance.resolution : 0L;
+    }
+
+
+    /**
+     * Switches clock to coarse mode. Time will be refreshed by background thread.
+     *
+     * @param resolution clock resolution (nanoseconds)
+     */
+    public static synchronized void startCoarse(long resolution) {
+        if (instance != null) {
+            if (instance.resolution == resolution) {
+                return;
+            }
+            instance.shutdown();
+        }
+
+        instance = new SpyClock(Math.max(resolution, 1000L));
+        instance.tick();
+        instance.thread = new Thread(instance);
+        instance.thread.setName("ZORKA-clock");
+        instance.thread.setDaemon(true);
+        instance.thread.start();
+        coarse = true;
+        log.info(ZorkaLogger.ZAG_CONFIG, "Using coarse clock with resolution " + instance.resolution + "ns");
+    }
+
+
+    /**
+     * Switches clock to coarse mode without background thread. Time is frozen and advances
+     * only when advance() is called (useful for tests).
+     */
+    public static synchronized void startManual() {
+        stop();
+        set(System.nanoTime());
+        coarse = true;
+    }
+
+
+    /**
+     * Advances manually driven clock.
+     *
+     * @param nanos time increment (nanoseconds)
+     */
+    public static synchronized void advance(long nanos) {
+        set(time + nanos);
+    }
+
+
+    /**
+     * Switches clock back to System.nanoTime() and stops background thread (if running).
+     */
+    public static synchronized void stop() {
+        coarse = false;
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+
+    private void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+
+    private void tick() {
+        set(System.nanoTime());
+    }
+
+
+    private static void set(long t) {
+        boxed = t;
+        time = t;
+    }
+
+
+    @Override
+    public void run() {
+        while (running) {
+            tick();
+            LockSupport.parkNanos(resolution);
+        }
+    }
+
+
+    /**
+     * Measures average cost of System.nanoTime() call on current host.
+     *
+     * @param calls number of calls to measure (after warm-up)
+     *
+     * @return average call cost (nanoseconds)
+     */
+    public static long benchmark(int calls) {
+        long sink = 0;
+
+        for (int i = 0; i < calls; i++) {
+            sink += System.nanoTime();
+        }
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            sink += System.nanoTime();
+        }
+        long t1 = System.nanoTime();
+
+        return sink != 0 ? (t1 - t0) / Math.max(calls, 1) : 0;
+    }
+
+
+    /**
+     * Returns human readable clock recommendation based on measured clock cost.
+     *
+     * @param cost average System.nanoTime() call cost (nanoseconds)
+     */
+    public static String recommend(long cost) {
+        if (cost > SLOW_CLOCK_COST) {
+            return "System.nanoTime() costs " + cost + "ns per call on this host; consider setting tracer.clock = coarse";
+        } else {
+            return "System.nanoTime() costs " + cost + "ns per call on this host; tracer.clock = nano is fine";
+        }
+    }
+}
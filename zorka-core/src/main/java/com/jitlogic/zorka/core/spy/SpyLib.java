@@ -592,6 +592,24 @@ public class SpyLib {
     }
 
 
+    /**
+     * Creates method call statistics collector object that keeps at most limit statistics in each statistics
+     * object. Only the most frequently hit keys have their own statistics, remaining ones are aggregated
+     * as OTHER. Use it for keys with potentially unbounded cardinality (eg. SQL queries or URIs).
+     *
+     * @param mbsName  mbean server name
+     * @param beanName bean name
+     * @param attrName attribute name
+     * @param keyExpr  key expression
+     * @param limit    maximum number of statistics (0 - no limit)
+     * @return collector object
+     */
+    public SpyProcessor zorkaTopStats(String mbsName, String beanName, String attrName, String keyExpr, int limit) {
+        return new ZorkaStatsCollector(mbsRegistry, mbsName, beanName, attrName, keyExpr, "T",
+                null, ZorkaStatsCollector.ACTION_STATS, limit);
+    }
+
+
     /**
      * Creates getter collector object. It will present collected records as attributes via mbeans.
      *
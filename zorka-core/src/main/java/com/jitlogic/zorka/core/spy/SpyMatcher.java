@@ -412,6 +412,33 @@ public class SpyMatcher {
     }
 
 
+    /**
+     * Checks if other matcher matches exactly the same things as this one.
+     *
+     * @param m other matcher
+     * @return true if both matchers have the same flags, priority and patterns
+     */
+    public boolean sameAs(SpyMatcher m) {
+        return flags == m.flags && access == m.access && priority == m.priority
+                && classPattern.pattern().equals(m.classPattern.pattern())
+                && methodPattern.pattern().equals(m.methodPattern.pattern())
+                && signaturePattern.pattern().equals(m.signaturePattern.pattern());
+    }
+
+
+    /**
+     * Restricts matcher to methods with exactly given descriptor.
+     *
+     * @param descriptor method descriptor (JVM form, eg. '(I)V')
+     * @return altered spy matcher
+     */
+    public SpyMatcher signature(String descriptor) {
+        SpyMatcher m = withFlags(BY_METHOD_SIGNATURE);
+        m.signaturePattern = Pattern.compile("^" + Pattern.quote(descriptor) + "$");
+        return m;
+    }
+
+
     /**
      * Alters matcher priority
      *
@@ -335,6 +335,31 @@ public class SpyMatcherSet {
         return matchers;
     }
 
+
+    /**
+     * Checks if other matcher set consists of the same matchers (in the same order).
+     *
+     * @param sms other matcher set
+     * @return true if both sets will match exactly the same classes and methods
+     */
+    public boolean sameMatchers(SpyMatcherSet sms) {
+        if (sms == this) {
+            return true;
+        }
+
+        if (matchers.size() != sms.matchers.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < matchers.size(); i++) {
+            if (!matchers.get(i).sameAs(sms.matchers.get(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     public void clear() {
         matchers.clear();
     }
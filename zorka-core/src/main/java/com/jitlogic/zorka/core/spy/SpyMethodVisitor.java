@@ -52,6 +52,18 @@ public class SpyMethodVisitor extends MethodVisitor {
      */
     private final static String SUBMIT_METHOD = "submit";
     private final static String SUBMIT_SIGNATURE = "(III[Ljava/lang/Object;)V";
+
+    /**
+     * Arity-specialized submit methods (used when probes fetch up to MainSubmitter.MAX_SUBMIT_ARITY values)
+     */
+    private final static String[] SUBMIT_SIGNATURES = {
+            "(III)V",
+            "(IIILjava/lang/Object;)V",
+            "(IIILjava/lang/Object;Ljava/lang/Object;)V",
+            "(IIILjava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)V",
+            "(IIILjava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)V"
+    };
+
     private static final String ENTER_METHOD = "traceEnter";
     private static final String ENTER_SIGNATURE = "(III)V";
     private static final String RETURN_METHOD = "traceReturn";
@@ -448,20 +460,25 @@ public class SpyMethodVisitor extends MethodVisitor {
 
         int sd = 3;
 
-        // Create an array with fetched data (or push null)
-        if (probeElements.size() > 0) {
-            emitLoadInt(probeElements.size());
-            mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        // Short probe lists are passed directly as arguments of specialized submit methods
+        if (probeElements.size() <= MainSubmitter.MAX_SUBMIT_ARITY) {
             for (int i = 0; i < probeElements.size(); i++) {
-                SpyProbe element = probeElements.get(i);
-                mv.visitInsn(DUP);
-                emitLoadInt(i);
-                sd = max(sd, probeElements.get(i).emit(this, stage, 0) + 6);
-                mv.visitInsn(AASTORE);
+                sd = max(sd, probeElements.get(i).emit(this, stage, 0) + 3 + i);
             }
-        } else {
-            mv.visitInsn(ACONST_NULL);
-            sd++;
+            mv.visitMethodInsn(INVOKESTATIC, SUBMIT_CLASS, SUBMIT_METHOD + probeElements.size(),
+                    SUBMIT_SIGNATURES[probeElements.size()]);
+            spyProbesEmitted++;
+            return sd;
+        }
+
+        // Create an array with fetched data
+        emitLoadInt(probeElements.size());
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        for (int i = 0; i < probeElements.size(); i++) {
+            mv.visitInsn(DUP);
+            emitLoadInt(i);
+            sd = max(sd, probeElements.get(i).emit(this, stage, 0) + 6);
+            mv.visitInsn(AASTORE);
         }
 
         // Call MainSubmitter.submit()
@@ -32,7 +32,8 @@ public interface SpySubmitter {
      *
      * @param submitFlags submission flags
      *
-     * @param vals fetched values (or null if no values are fetched)
+     * @param vals fetched values (or null if no values are fetched); array can be reused by caller
+     *             after this method returns, so implementations must not keep references to it
      */
     void submit(int stage, int id, int submitFlags, Object[] vals);
 
@@ -20,7 +20,8 @@ import com.jitlogic.zorka.common.util.ZorkaUtil;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 
 /**
- * Fetches current time by calling System.nanoTime() method.
+ * Fetches current time by calling System.nanoTime() method. If coarse clock is enabled
+ * at instrumentation time, (cached, already boxed) time is fetched from SpyClock instead.
  *
  * @author rafal.lewczuk@jitlogic.com
  */
@@ -37,6 +38,10 @@ public class SpyTimeProbe extends SpyProbe {
 
     @Override
     public int emit(SpyMethodVisitor mv, int stage, int opcode) {
+        if (SpyClock.isCoarse()) {
+            mv.visitMethodInsn(INVOKESTATIC, SpyClock.CLOCK_CLASS, "boxedTime", "()Ljava/lang/Long;");
+            return 1;
+        }
         mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J");
         mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;");
         return 2;
@@ -56,6 +56,46 @@ public class TraceBuilder {
      */
     private int numRecords = 0;
 
+    /**
+     * Call depth inside non-sampled trace (0 if current trace is recorded normally).
+     */
+    private int skipDepth = 0;
+
+    /**
+     * Depth of calls not recorded because tracer has been degraded by overhead governor.
+     */
+    private int suspendDepth = 0;
+
+    /**
+     * Slow time threshold of currently skipped (non-sampled) trace.
+     */
+    private long skipSlowTime;
+
+    /**
+     * If true, currently skipped (non-sampled) trace will be submitted if it ends with error.
+     */
+    private boolean skipErrors;
+
+    /**
+     * Seed of (thread-local) random number generator used by trace samplers.
+     */
+    private long seed = System.nanoTime() | 1L;
+
+    /**
+     * Call counter used by overhead governor to decide which tracer calls should be timed.
+     */
+    private int governorTick;
+
+    /**
+     * Local method call counters for tracer tuner (if enabled).
+     */
+    private MethodCallCounter tunerCalls;
+
+    /**
+     * Number of calls logged in local counters since last submission to tracer tuner.
+     */
+    private int tunerNumCalls;
+
 
     /**
      * Creates new trace builder object.
@@ -70,6 +110,10 @@ public class TraceBuilder {
 
     public void traceBegin(int traceId, long clock, int flags) {
 
+        if (skipDepth > 0 || suspendDepth > 0) {
+            return;
+        }
+
         if (ttop == null) {
             log.error(ZorkaLogger.ZTR_TRACE_ERRORS, "Attempt to set trace marker on an non-traced method.");
             return;
@@ -92,6 +136,17 @@ public class TraceBuilder {
             return;
         }
 
+        if (suspendDepth > 0 || (skipDepth == 0 && !ttop.inTrace() && isSuspended())) {
+            suspendDepth++;
+            return;
+        }
+
+        if (skipDepth > 0) {
+            skipDepth++;
+            ttop.setCalls(ttop.getCalls() + 1);
+            return;
+        }
+
         if (ZorkaLogger.isLogMask(ZorkaLogger.ZTR_TRACER_DBG)) {
             if (ZorkaLogger.isLogMask(ZorkaLogger.ZTR_TRACE_CALLS) ||
                     (ttop.inTrace() && ttop.getMarker().hasFlag(TraceMarker.TRACE_CALLS))) {
@@ -131,6 +186,15 @@ public class TraceBuilder {
             return;
         }
 
+        if (suspendDepth > 0) {
+            suspendDepth--;
+            return;
+        }
+
+        if (skipDepth > 0 && --skipDepth > 0) {
+            return;
+        }
+
         if (ZorkaLogger.isLogMask(ZorkaLogger.ZTR_TRACER_DBG)) {
             if (ZorkaLogger.isLogMask(ZorkaLogger.ZTR_TRACE_CALLS) ||
                     (ttop.inTrace() && ttop.getMarker().hasFlag(TraceMarker.TRACE_CALLS))) {
@@ -159,6 +223,16 @@ public class TraceBuilder {
             return;
         }
 
+        if (suspendDepth > 0) {
+            suspendDepth--;
+            return;
+        }
+
+        if (skipDepth > 0 && --skipDepth > 0) {
+            ttop.setErrors(ttop.getErrors() + 1);
+            return;
+        }
+
         if (ZorkaLogger.isLogMask(ZorkaLogger.ZTR_TRACER_DBG)) {
             if (ZorkaLogger.isLogMask(ZorkaLogger.ZTR_TRACE_EXCEPTIONS) ||
                     (ttop.inTrace() && ttop.getMarker().hasFlag(TraceMarker.TRACE_CALLS))) {
@@ -242,6 +316,61 @@ public class TraceBuilder {
     }
 
 
+    /**
+     * Marks currently started trace as not sampled. Nested method calls will not be recorded
+     * (only counted) until the method that started the trace returns.
+     *
+     * @param traceId      trace ID (must match trace started on current frame)
+     * @param slowTime     trace will still be submitted if it takes longer than this (nanoseconds, 0 - disabled)
+     * @param sampleErrors if true, trace will still be submitted if it ends with error
+     */
+    public void sampleOut(int traceId, long slowTime, boolean sampleErrors) {
+        if (skipDepth > 0 || !ttop.hasFlag(TraceRecord.TRACE_BEGIN) || ttop.getMarker().getTraceId() != traceId) {
+            return;
+        }
+
+        ttop.getMarker().markFlags(TraceMarker.SAMPLED_OUT);
+        skipDepth = 1;
+        skipSlowTime = slowTime;
+        skipErrors = sampleErrors;
+
+        AgentDiagnostics.inc(AgentDiagnostics.TRACES_SAMPLED_OUT);
+    }
+
+
+    /**
+     * Returns pseudo-random number in [0.0, 1.0) range. As trace builders are thread-local,
+     * this is cheaper than shared random number generator.
+     *
+     * @return pseudo-random number
+     */
+    public double nextRandom() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (seed >>> 11) * 0x1.0p-53;
+    }
+
+
+    /**
+     * Advances thread-local call counter of overhead governor.
+     *
+     * @return next counter value
+     */
+    public int nextGovernorTick() {
+        return ++governorTick;
+    }
+
+
+    /**
+     * Tracer is suspended when overhead governor degrades it. Traces already started are completed.
+     */
+    private static boolean isSuspended() {
+        OverheadGovernor governor = Tracer.getGovernor();
+        return governor != null && governor.getLevel() >= OverheadGovernor.LEVEL_NO_TRACER;
+    }
+
+
     public void disable() {
         disabled = true;
     }
@@ -266,11 +395,23 @@ public class TraceBuilder {
 
         popException();
 
+        TracerTuner tuner = Tracer.getTuner();
+        if (tuner != null) {
+            logTunerCall(tuner);
+        }
+
 
         // Submit data if trace marker found
         if (ttop.hasFlag(TraceRecord.TRACE_BEGIN)) {
             int flags = ttop.getMarker().getFlags();
-            if ((ttop.getTime() >= ttop.getMarker().getMinimumTime() && 0 == (flags & TraceMarker.DROP_TRACE))
+
+            OverheadGovernor governor = Tracer.getGovernor();
+            if (governor != null && (parent == null || !parent.inTrace())) {
+                governor.logRequestTime(ttop.getTime());
+            }
+
+            if (0 != (flags & TraceMarker.SAMPLED_OUT) ? isSampledOutSubmitted(flags)
+                    : (ttop.getTime() >= ttop.getMarker().getMinimumTime() && 0 == (flags & TraceMarker.DROP_TRACE))
                     || 0 != (flags & TraceMarker.SUBMIT_TRACE)) {
                 submit(ttop);
                 AgentDiagnostics.inc(AgentDiagnostics.TRACES_SUBMITTED);
@@ -319,6 +460,41 @@ public class TraceBuilder {
     }
 
 
+    /**
+     * Non-sampled traces are submitted only when explicitly requested, when ended with error
+     * or when they took longer than slow time threshold of sampler.
+     */
+    private boolean isSampledOutSubmitted(int flags) {
+        if (0 != (flags & TraceMarker.SUBMIT_TRACE)) {
+            return true;
+        }
+
+        if (0 != (flags & TraceMarker.DROP_TRACE)) {
+            return false;
+        }
+
+        return (skipErrors && (ttop.getException() != null || 0 != (flags & TraceMarker.ERROR_MARK)))
+                || (skipSlowTime > 0 && ttop.getTime() >= skipSlowTime);
+    }
+
+
+    private void logTunerCall(TracerTuner tuner) {
+        if (tunerCalls == null) {
+            tunerCalls = new MethodCallCounter();
+        }
+
+        tunerCalls.logCalls(ttop.getClassId(), ttop.getMethodId(), ttop.getSignatureId(), 0L,
+                ttop.getTime() > Tracer.getMinMethodTime() || ttop.getErrors() > 0
+                        ? TracerTuner.SURVIVED_CALL : TracerTuner.DROPPED_CALL);
+
+        if (++tunerNumCalls >= tuner.getFlushCalls()) {
+            tuner.submit(tunerCalls);
+            tunerCalls.clear();
+            tunerNumCalls = 0;
+        }
+    }
+
+
     private void popException() {
         // Get rid of redundant exception object
         if (ttop.getException() != null && ttop.numChildren() > 0) {
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.core.spy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides whether a newly started trace should be recorded. Sampling is done
+ * with fixed probability and (optionally) limited by per-trace-name token bucket.
+ * Traces that are not sampled are not recorded at all (nested method calls
+ * are only counted), but can still be submitted (as a single record) if they
+ * end with an error or take longer than configured slow time.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class TraceSampler {
+
+    /**
+     * Probability of recording a trace (0.0 .. 1.0).
+     */
+    private final double probability;
+
+    /**
+     * Maximum number of recorded traces per second (per trace name). Zero or less means no limit.
+     */
+    private final double rate;
+
+    /**
+     * Maximum number of tokens that can accumulate in a single bucket.
+     */
+    private final double burst;
+
+    /**
+     * Non-sampled traces taking longer than this will still be submitted (nanoseconds, 0 - disabled).
+     */
+    private final long slowTime;
+
+    /**
+     * If true, non-sampled traces ending with errors will still be submitted.
+     */
+    private final boolean sampleErrors;
+
+    private final ConcurrentMap<Integer, TokenBucket> buckets = new ConcurrentHashMap<Integer, TokenBucket>();
+
+
+    /**
+     * Creates new trace sampler.
+     *
+     * @param probability  probability of recording a trace (0.0 .. 1.0)
+     * @param rate         maximum number of traces per second (per trace name), zero or less means no limit
+     * @param slowTime     non-sampled traces slower than this will still be submitted (nanoseconds, 0 - disabled)
+     * @param sampleErrors if true, non-sampled traces ending with errors will still be submitted
+     */
+    public TraceSampler(double probability, double rate, long slowTime, boolean sampleErrors) {
+        this.probability = probability;
+        this.rate = rate;
+        this.burst = Math.max(1.0, rate);
+        this.slowTime = slowTime;
+        this.sampleErrors = sampleErrors;
+    }
+
+
+    /**
+     * Decides if trace should be recorded.
+     *
+     * @param builder trace builder of current thread (used as source of random numbers)
+     * @param traceId trace ID (symbol)
+     * @param tstamp  current time (nanoseconds)
+     * @return true if trace should be recorded
+     */
+    public boolean sample(TraceBuilder builder, int traceId, long tstamp) {
+
+        if (probability < 1.0 && builder.nextRandom() >= probability) {
+            return false;
+        }
+
+        if (rate > 0.0) {
+            TokenBucket bucket = buckets.get(traceId);
+            if (bucket == null) {
+                bucket = new TokenBucket(burst, tstamp);
+                TokenBucket b = buckets.putIfAbsent(traceId, bucket);
+                if (b != null) {
+                    bucket = b;
+                }
+            }
+            return bucket.take(tstamp);
+        }
+
+        return true;
+    }
+
+
+    public double getProbability() {
+        return probability;
+    }
+
+
+    public double getRate() {
+        return rate;
+    }
+
+
+    public long getSlowTime() {
+        return slowTime;
+    }
+
+
+    public boolean isSampleErrors() {
+        return sampleErrors;
+    }
+
+
+    private class TokenBucket {
+
+        private double tokens;
+
+        private long tstamp;
+
+        private TokenBucket(double tokens, long tstamp) {
+            this.tokens = tokens;
+            this.tstamp = tstamp;
+        }
+
+        private synchronized boolean take(long t) {
+            if (t > tstamp) {
+                tokens = Math.min(burst, tokens + rate * (t - tstamp) / 1000000000.0);
+                tstamp = t;
+            }
+
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "TraceSampler(p=" + probability + ", rate=" + rate + ", slow=" + slowTime + ", errors=" + sampleErrors + ")";
+    }
+}
@@ -44,6 +44,16 @@ public class Tracer implements ZorkaSubmitter<SymbolicRecord>, ZorkaService {
      */
     private static int maxTraceRecords = 4096;
 
+    /**
+     * Adaptive tracer tuner (or null if tuning is disabled).
+     */
+    private static volatile TracerTuner tuner;
+
+    /**
+     * Agent overhead governor (or null if overhead accounting is disabled).
+     */
+    private static volatile OverheadGovernor governor;
+
 
     private AtomicReference<List<ZorkaSubmitter<SymbolicRecord>>> outputs
             = new AtomicReference<List<ZorkaSubmitter<SymbolicRecord>>>(new ArrayList<ZorkaSubmitter<SymbolicRecord>>());
@@ -85,6 +95,26 @@ public class Tracer implements ZorkaSubmitter<SymbolicRecord>, ZorkaService {
     }
 
 
+    public static TracerTuner getTuner() {
+        return tuner;
+    }
+
+
+    public static void setTuner(TracerTuner tracerTuner) {
+        tuner = tracerTuner;
+    }
+
+
+    public static OverheadGovernor getGovernor() {
+        return governor;
+    }
+
+
+    public static void setGovernor(OverheadGovernor overheadGovernor) {
+        governor = overheadGovernor;
+    }
+
+
     public boolean isTraceSpyMethods() {
         return traceSpyMethods;
     }
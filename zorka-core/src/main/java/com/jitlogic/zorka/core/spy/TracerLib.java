@@ -27,6 +27,7 @@ import com.jitlogic.zorka.common.util.ZorkaConfig;
 import com.jitlogic.zorka.common.util.ZorkaLog;
 import com.jitlogic.zorka.common.util.ZorkaLogger;
 import com.jitlogic.zorka.core.integ.zabbix.ZabbixTraceOutput;
+import com.jitlogic.zorka.common.zico.ZicoSpillQueue;
 import com.jitlogic.zorka.common.zico.ZicoTraceOutput;
 import com.jitlogic.zorka.core.spy.plugins.*;
 import com.jitlogic.zorka.core.util.OverlayClassLoader;
@@ -135,6 +136,16 @@ public class TracerLib {
         return sb.toString();
     }
 
+    /**
+     * Lists methods automatically excluded from tracer by tracer tuner.
+     *
+     * @return excluded methods (along with exclusion reasons)
+     */
+    public String listAutoExcludes() {
+        TracerTuner tuner = Tracer.getTuner();
+        return tuner != null ? tuner.listExclusions() : "";
+    }
+
     /**
      * Starts a new (named) trace.
      *
@@ -171,6 +182,48 @@ public class TracerLib {
     }
 
 
+    /**
+     * Starts new trace (with sampling). Traces not chosen by sampler will not be recorded.
+     *
+     * @param name             trace name
+     * @param minimumTraceTime minimum trace time
+     * @param flags            initial flags
+     * @param sampler          trace sampler (created using tracer.sampler() function)
+     * @return spy processor object marking new trace
+     */
+    public SpyProcessor begin(String name, long minimumTraceTime, int flags, TraceSampler sampler) {
+        return new TraceBeginProcessor(tracer, name, minimumTraceTime * 1000000L, flags, sampler, symbolRegistry);
+    }
+
+
+    /**
+     * Creates trace sampler recording traces with given probability.
+     *
+     * @param probability probability of recording a trace (0.0 .. 1.0)
+     * @return trace sampler
+     */
+    public TraceSampler sampler(double probability) {
+        return sampler(probability, 0, 0, true);
+    }
+
+
+    /**
+     * Creates trace sampler.
+     *
+     * @param probability  probability of recording a trace (0.0 .. 1.0)
+     * @param rate         maximum number of recorded traces per second (per trace name), 0 means no limit
+     * @param slowTime     non-sampled traces taking longer than this will still be submitted
+     *                     (in milliseconds, 0 - disabled)
+     * @param sampleErrors if true, non-sampled traces ending with errors will still be submitted
+     * @return trace sampler
+     */
+    public TraceSampler sampler(double probability, double rate, long slowTime, boolean sampleErrors) {
+        log.info(ZorkaLogger.ZAG_CONFIG, "Tracer sampler: p=" + probability + ", rate=" + rate
+                + ", slowTime=" + slowTime + ", errors=" + sampleErrors);
+        return new TraceSampler(probability, rate, slowTime * 1000000L, sampleErrors);
+    }
+
+
     public void traceBegin(String name) {
         traceBegin(name, 0);
     }
@@ -412,16 +465,34 @@ public class TracerLib {
      * @param maxFiles maximum number of archived files
      * @param maxSize  maximum file size
      * @param compress output file will be compressed if true
+     * @param format   trace data format: "fressian" (default) or "binary" (compact, see BinaryTraceFormat)
      * @return trace file writer
      */
-    public ZorkaAsyncThread<SymbolicRecord> toFile(String path, int maxFiles, long maxSize, boolean compress) {
-        TraceWriter writer = new FressianTraceWriter(symbolRegistry, metricsRegistry);
-        FileTraceOutput output = new FileTraceOutput(writer, new File(config.formatCfg(path)), maxFiles, maxSize, compress);
+    public ZorkaAsyncThread<SymbolicRecord> toFile(String path, int maxFiles, long maxSize, boolean compress, String format) {
+        TraceWriter writer;
+        if ("binary".equalsIgnoreCase(format)) {
+            writer = new BinaryTraceWriter(symbolRegistry, metricsRegistry);
+        } else {
+            writer = new FressianTraceWriter(symbolRegistry, metricsRegistry,
+                    config.boolCfg("tracer.perf.compress", false), config.boolCfg("tracer.exception.stack.refs", false));
+        }
+        int blockCodec = FileTraceOutput.NO_BLOCKS;
+        if (config.boolCfg("tracer.file.blocks", false)) {
+            blockCodec = compress ? BlockTraceOutputStream.codec(config.stringCfg("tracer.file.codec", "lz4"))
+                    : BlockTraceOutputStream.CODEC_NONE;
+        }
+        FileTraceOutput output = new FileTraceOutput(writer, new File(config.formatCfg(path)), maxFiles, maxSize, compress,
+                blockCodec, config.kiloCfg("tracer.file.block.size", 64 * 1024L).intValue());
         output.start();
         return output;
     }
 
 
+    public ZorkaAsyncThread<SymbolicRecord> toFile(String path, int maxFiles, long maxSize, boolean compress) {
+        return toFile(path, maxFiles, maxSize, compress, config.stringCfg("tracer.file.format", "fressian"));
+    }
+
+
     public ZorkaAsyncThread<SymbolicRecord> toFile(String path, int maxFiles, long maxSize) {
         return toFile(path, maxFiles, maxSize, false);
     }
@@ -444,9 +515,21 @@ public class TracerLib {
     public ZorkaAsyncThread<SymbolicRecord> toZico(String addr, int port, String hostname, String auth,
                                                    int qlen, long packetSize, int retries, long retryTime, long retryTimeExp,
                                                    int timeout) throws IOException {
-        TraceWriter writer = new FressianTraceWriter(symbolRegistry, metricsRegistry);
+        TraceWriter writer = new FressianTraceWriter(symbolRegistry, metricsRegistry,
+                config.boolCfg("tracer.perf.compress", false), config.boolCfg("tracer.exception.stack.refs", false));
+        ZicoSpillQueue spill = null;
+        if (config.boolCfg("tracer.net.spill", false)) {
+            spill = new ZicoSpillQueue(
+                    new File(config.formatCfg(config.stringCfg("tracer.net.spill.path", "${zorka.log.dir}/spill"))),
+                    config.kiloCfg("tracer.net.spill.segment", 16 * 1024 * 1024L).intValue(),
+                    config.kiloCfg("tracer.net.spill.size", 256 * 1024 * 1024L));
+        }
         ZicoTraceOutput output = new ZicoTraceOutput(writer, addr, port, hostname, auth, qlen, packetSize,
-                retries, retryTime, retryTimeExp, timeout);
+                retries, retryTime, retryTimeExp, timeout, spill);
+        String codecs = config.stringCfg("tracer.net.compress", "none");
+        if (!"none".equalsIgnoreCase(codecs) && !"no".equalsIgnoreCase(codecs) && codecs.length() > 0) {
+            output.setCompression(codecs);
+        }
         output.start();
         return output;
     }
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.core.spy;
+
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.common.tracedata.MethodCallCounterRecord;
+import com.jitlogic.zorka.common.tracedata.SymbolRegistry;
+import com.jitlogic.zorka.common.util.ZorkaLog;
+import com.jitlogic.zorka.common.util.ZorkaLogger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Adaptive tracer tuner. Trace builders count calls of traced methods and calls that
+ * survived (were long enough or threw errors) to be attached to traces. Methods that are
+ * called very often but practically never survive are excluded from tracer and their
+ * classes are retransformed, so they no longer pay for traceEnter/traceReturn calls.
+ *
+ * Trace builders pack both counters into single long value in their local MethodCallCounter:
+ * number of calls in lower 32 bits and number of surviving calls in upper 32 bits. Local
+ * counters are flushed every few calls, so they cannot overflow. Aggregated counters are
+ * kept separately as full 64-bit values.
+ *
+ * @author rafal.lewczuk@jitlogic.com
+ */
+public class TracerTuner implements Runnable {
+
+    private static final ZorkaLog log = ZorkaLogger.getLog(TracerTuner.class);
+
+    /**
+     * Value logged in method call counter when method call survived.
+     */
+    public static final long SURVIVED_CALL = (1L << 32) | 1L;
+
+    /**
+     * Value logged in method call counter when method call has been dropped.
+     */
+    public static final long DROPPED_CALL = 1L;
+
+    /**
+     * Priority of auto-generated exclusion matchers (they must be checked before regular includes).
+     */
+    public static final int EXCLUDE_PRIORITY = 10;
+
+    private Tracer tracer;
+
+    private SymbolRegistry symbols;
+
+    private SpyRetransformer retransformer;
+
+    /**
+     * Minimum number of calls (in single tuning interval) for method to be considered for exclusion.
+     */
+    private long minCalls;
+
+    /**
+     * Maximum ratio of surviving calls for method to be considered for exclusion.
+     */
+    private double maxRatio;
+
+    /**
+     * Maximum number of auto-excluded methods.
+     */
+    private int maxExcludes;
+
+    /**
+     * Number of calls after which trace builders will submit their local counters.
+     */
+    private int flushCalls;
+
+    /**
+     * Aggregated calls counter (for current tuning interval).
+     */
+    private MethodCallCounter calls = new MethodCallCounter();
+
+    /**
+     * Aggregated surviving calls counter (for current tuning interval).
+     */
+    private MethodCallCounter survived = new MethodCallCounter();
+
+    /**
+     * Excluded methods (class.method signature -> reason).
+     */
+    private final Map<String, String> exclusions = new LinkedHashMap<String, String>();
+
+    /**
+     * Exclusion matchers created so far.
+     */
+    private final List<SpyMatcher> matchers = new ArrayList<SpyMatcher>();
+
+
+    public TracerTuner(Tracer tracer, SymbolRegistry symbols, SpyRetransformer retransformer,
+                       long minCalls, double maxRatio, int maxExcludes, int flushCalls) {
+        this.tracer = tracer;
+        this.symbols = symbols;
+        this.retransformer = retransformer;
+        this.minCalls = minCalls;
+        this.maxRatio = maxRatio;
+        this.maxExcludes = maxExcludes;
+        this.flushCalls = flushCalls;
+    }
+
+
+    /**
+     * Receives local call counters from trace builders. Called from application threads.
+     *
+     * @param local local counter of trace builder (will not be modified)
+     */
+    public synchronized void submit(MethodCallCounter local) {
+        for (MethodCallCounterRecord rec : local.getRecords()) {
+            long n = rec.getnCalls();
+            calls.logCalls(rec.getClassId(), rec.getMethodId(), rec.getSignatureId(), 0L, n & 0xffffffffL);
+            if (n >>> 32 != 0) {
+                survived.logCalls(rec.getClassId(), rec.getMethodId(), rec.getSignatureId(), 0L, n >>> 32);
+            }
+        }
+    }
+
+
+    public int getFlushCalls() {
+        return flushCalls;
+    }
+
+
+    @Override
+    public void run() {
+        try {
+            runCycle();
+        } catch (Throwable e) {
+            log.error(ZorkaLogger.ZTR_ERRORS, "Error running tracer tuner cycle", e);
+        }
+    }
+
+
+    public void runCycle() {
+        MethodCallCounter c, s;
+
+        synchronized (this) {
+            c = calls;
+            s = survived;
+            calls = new MethodCallCounter();
+            survived = new MethodCallCounter();
+        }
+
+        synchronized (exclusions) {
+            for (MethodCallCounterRecord rec : c.getRecords()) {
+                long nc = rec.getnCalls();
+                long ns = s.getCalls(rec.getClassId(), rec.getMethodId(), rec.getSignatureId());
+                if (nc >= minCalls && ns <= nc * maxRatio && exclusions.size() < maxExcludes) {
+                    exclude(symbols.symbolName(rec.getClassId()), symbols.symbolName(rec.getMethodId()),
+                            symbols.symbolName(rec.getSignatureId()), "calls=" + nc + ", survived=" + ns);
+                }
+            }
+
+            apply();
+        }
+    }
+
+
+    /**
+     * Excludes method from tracer. Exclusion will be applied in next tuning cycle.
+     *
+     * @param className  class name
+     * @param methodName method name
+     * @param signature  method signature (descriptor)
+     * @param reason     human readable reason (as presented via JMX)
+     */
+    private void exclude(String className, String methodName, String signature, String reason) {
+        String key = className + "." + methodName + " " + signature;
+
+        if (!exclusions.containsKey(key)) {
+            log.info(ZorkaLogger.ZTR_CONFIG, "Auto-excluding method from tracer: " + key + " (" + reason + ")");
+            exclusions.put(key, reason);
+            matchers.add(new SpyMatcher(SpyMatcher.BY_CLASS_NAME | SpyMatcher.BY_METHOD_NAME, 0,
+                    "~" + Pattern.quote(className), "~" + Pattern.quote(methodName), null)
+                    .signature(signature).exclude().priority(EXCLUDE_PRIORITY));
+            AgentDiagnostics.inc(AgentDiagnostics.TRACER_AUTO_EXCLUDES);
+        }
+    }
+
+
+    /**
+     * Adds exclusion matchers missing from tracer configuration (new ones or removed by configuration
+     * reload) and retransforms affected classes.
+     */
+    private void apply() {
+        List<SpyMatcher> current = tracer.getMatcherSet().getMatchers();
+        List<SpyMatcher> missing = new ArrayList<SpyMatcher>();
+
+        for (SpyMatcher m : matchers) {
+            if (!current.contains(m)) {
+                missing.add(m);
+            }
+        }
+
+        if (missing.size() > 0) {
+            SpyMatcherSet classes = new SpyMatcherSet();
+            for (SpyMatcher m : missing) {
+                tracer.include(m);
+                classes = classes.include(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0,
+                        "~" + m.getClassPattern().pattern(), null, null));
+            }
+            if (retransformer != null && retransformer.isEnabled()) {
+                retransformer.retransform(null, classes, true);
+            }
+        }
+    }
+
+
+    /**
+     * Returns list of excluded methods (along with reason of exclusion).
+     *
+     * @return excluded methods, one per line
+     */
+    public String listExclusions() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (exclusions) {
+            for (Map.Entry<String, String> e : exclusions.entrySet()) {
+                sb.append(e.getKey());
+                sb.append(": ");
+                sb.append(e.getValue());
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+
+    public int size() {
+        synchronized (exclusions) {
+            return exclusions.size();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.jitlogic.zorka.common.tracedata.SymbolRegistry;
 import com.jitlogic.zorka.common.util.ObjectInspector;
 import com.jitlogic.zorka.core.spy.SpyProcessor;
 import com.jitlogic.zorka.core.spy.TraceBuilder;
+import com.jitlogic.zorka.core.spy.TraceSampler;
 import com.jitlogic.zorka.core.spy.Tracer;
 
 import java.util.Map;
@@ -57,6 +58,12 @@ public class TraceBeginProcessor implements SpyProcessor {
     private int flags;
 
 
+    /**
+     * Trace sampler (or null if all traces should be recorded).
+     */
+    private TraceSampler sampler;
+
+
     /**
      * Creates new trace begin marking processsor.
      *
@@ -65,11 +72,27 @@ public class TraceBeginProcessor implements SpyProcessor {
      * @param minimumTraceTime minimum trace execution time
      */
     public TraceBeginProcessor(Tracer tracer, String traceName, long minimumTraceTime, int flags, SymbolRegistry symbolRegistry) {
+        this(tracer, traceName, minimumTraceTime, flags, null, symbolRegistry);
+    }
+
+
+    /**
+     * Creates new trace begin marking processor with sampling.
+     *
+     * @param tracer           tracer object
+     * @param traceName        trace name (or format string)
+     * @param minimumTraceTime minimum trace execution time
+     * @param flags            initial trace flags
+     * @param sampler          trace sampler (or null if all traces should be recorded)
+     */
+    public TraceBeginProcessor(Tracer tracer, String traceName, long minimumTraceTime, int flags,
+                               TraceSampler sampler, SymbolRegistry symbolRegistry) {
         this.tracer = tracer;
         this.traceName = traceName;
         this.symbolRegistry = symbolRegistry;
         this.minimumTraceTime = minimumTraceTime;
         this.flags = flags;
+        this.sampler = sampler;
     }
 
     @Override
@@ -82,6 +105,10 @@ public class TraceBeginProcessor implements SpyProcessor {
             traceBuilder.setMinimumTraceTime(minimumTraceTime);
         }
 
+        if (sampler != null && !sampler.sample(traceBuilder, traceId, System.nanoTime())) {
+            traceBuilder.sampleOut(traceId, sampler.getSlowTime(), sampler.isSampleErrors());
+        }
+
         return record;
     }
 }
@@ -20,6 +20,8 @@ package com.jitlogic.zorka.core.spy.plugins;
 import com.jitlogic.zorka.core.mbeans.MBeanServerRegistry;
 import com.jitlogic.zorka.common.stats.MethodCallStatistic;
 import com.jitlogic.zorka.common.stats.MethodCallStatistics;
+import com.jitlogic.zorka.common.stats.StatsSweeper;
+import com.jitlogic.zorka.common.stats.TopMethodCallStatistics;
 import com.jitlogic.zorka.common.util.ObjectInspector;
 import com.jitlogic.zorka.common.util.ZorkaLogger;
 import com.jitlogic.zorka.common.util.ZorkaLog;
@@ -37,7 +39,7 @@ import static com.jitlogic.zorka.core.spy.SpyLib.*;
  *
  * @author rafal.lewczuk@jitlogic.com
  */
-public class ZorkaStatsCollector implements SpyProcessor {
+public class ZorkaStatsCollector implements SpyProcessor, StatsSweeper.Sweepable {
 
     public static final int ACTION_STATS = 0x01;
     public static final int ACTION_ENTER = 0x02;
@@ -123,8 +125,8 @@ public class ZorkaStatsCollector implements SpyProcessor {
     /**
      * Cache mapping spy contexts to statistics
      */
-    private ConcurrentHashMap<SpyContext, MethodCallStatistics> statsCache
-            = new ConcurrentHashMap<SpyContext, MethodCallStatistics>();
+    private ConcurrentHashMap<SpyContext, CachedStatistics> statsCache
+            = new ConcurrentHashMap<SpyContext, CachedStatistics>();
 
     /**
      * This flag determines whether statsCache is actually usable for us
@@ -140,6 +142,11 @@ public class ZorkaStatsCollector implements SpyProcessor {
      */
     private MBeanServerRegistry registry;
 
+    /**
+     * Maximum number of statistics kept in each registered statistics object (0 - no limit).
+     */
+    private int limit;
+
 
     /**
      * Creates new method call statistics collector.
@@ -153,6 +160,24 @@ public class ZorkaStatsCollector implements SpyProcessor {
     public ZorkaStatsCollector(MBeanServerRegistry mbsRegistry, String mbsName, String mbeanTemplate,
                                String attrTemplate, String statTemplate, String timeField, String throughputField,
                                int actions) {
+        this(mbsRegistry, mbsName, mbeanTemplate, attrTemplate, statTemplate, timeField, throughputField, actions, 0);
+    }
+
+
+    /**
+     * Creates new method call statistics collector that keeps bounded number of statistics. Only the most
+     * frequently hit keys are tracked, remaining ones are aggregated as OTHER (see TopMethodCallStatistics).
+     *
+     * @param mbsName       mbean server name
+     * @param mbeanTemplate mbean name template (object name)
+     * @param attrTemplate  attribute name template
+     * @param statTemplate  statistic name template
+     * @param timeField     execution time field name
+     * @param limit         maximum number of statistics kept in each statistics object (0 - no limit)
+     */
+    public ZorkaStatsCollector(MBeanServerRegistry mbsRegistry, String mbsName, String mbeanTemplate,
+                               String attrTemplate, String statTemplate, String timeField, String throughputField,
+                               int actions, int limit) {
 
         // Some strings are intern()ed immediately, so
 
@@ -165,6 +190,7 @@ public class ZorkaStatsCollector implements SpyProcessor {
         this.timeField = timeField;
         this.throughputField = throughputField;
         this.actions = actions;
+        this.limit = limit;
 
         this.mbeanFlags = templateFlags(mbeanTemplate);
         this.attrFlags = templateFlags(attrTemplate);
@@ -190,14 +216,23 @@ public class ZorkaStatsCollector implements SpyProcessor {
 
         if (mbeanFlags == 0 && attrFlags == 0) {
             // Object name and attribute name are constant ...
-            cachedStatistics = registry.getOrRegister(mbsName, mbeanTemplate, attrTemplate,
-                    new MethodCallStatistics(), "Call stats");
+            MethodCallStatistics fresh = newStatistics();
+            cachedStatistics = registry.getOrRegister(mbsName, mbeanTemplate, attrTemplate, fresh, "Call stats");
+
+            if (cachedStatistics == fresh) {
+                StatsSweeper.instance().register(cachedStatistics);
+            }
 
             if (statFlags == 0) {
                 cachedStatistic = cachedStatistics.getMethodCallStatistic(statTemplate);
+                cachedStatistic.pin();
             }
         }
 
+        if (statsCacheEnabled && cachedStatistics == null) {
+            StatsSweeper.instance().register(this);
+        }
+
     }
 
 
@@ -218,15 +253,21 @@ public class ZorkaStatsCollector implements SpyProcessor {
             if (statistics == null) {
                 prefetch(record, ctx);
 
-                statistics = statsCacheEnabled ? statsCache.get(ctx) : null;
+                CachedStatistics cs = statsCacheEnabled ? statsCache.get(ctx) : null;
 
-                if (statistics == null) {
+                if (cs != null) {
+                    statistics = cs.touch();
+                } else {
                     String mbeanName = subst(mbeanTemplate, record, ctx, mbeanFlags);
                     String attrName = subst(attrTemplate, record, ctx, attrFlags);
-                    statistics = registry.getOrRegister(mbsName, mbeanName, attrName,
-                            new MethodCallStatistics(), "Call stats");
+                    MethodCallStatistics fresh = newStatistics();
+                    statistics = registry.getOrRegister(mbsName, mbeanName, attrName, fresh, "Call stats");
+                    if (statistics == fresh) {
+                        // Register only newly created containers, so sweeper lock is not taken on every call
+                        StatsSweeper.instance().register(statistics);
+                    }
                     if (statsCacheEnabled) {
-                        statsCache.putIfAbsent(ctx, statistics);
+                        statsCache.putIfAbsent(ctx, new CachedStatistics(statistics));
                     }
                 }
             }
@@ -252,6 +293,33 @@ public class ZorkaStatsCollector implements SpyProcessor {
     }
 
 
+    /**
+     * Removes spy contexts not seen since given tick from statistics cache (eg. contexts of undeployed classes).
+     */
+    @Override
+    public int sweep(long minTick) {
+        int n = 0;
+
+        for (Map.Entry<SpyContext, CachedStatistics> e : statsCache.entrySet()) {
+            if (e.getValue().tick < minTick && statsCache.remove(e.getKey(), e.getValue())) {
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+
+    public int getCacheSize() {
+        return statsCache.size();
+    }
+
+
+    private MethodCallStatistics newStatistics() {
+        return limit > 0 ? new TopMethodCallStatistics(limit) : new MethodCallStatistics();
+    }
+
+
     /**
      * Returns true if given context attribute is needed to format at least one string.
      * Strings that consist solely of context attribute macro are not counted.
@@ -418,4 +486,27 @@ public class ZorkaStatsCollector implements SpyProcessor {
             }
         }
     }
+
+
+    /**
+     * Statistics cache entry along with stats sweeper tick of its last use.
+     */
+    private static class CachedStatistics {
+
+        private final MethodCallStatistics statistics;
+
+        private volatile long tick = StatsSweeper.tick();
+
+        private CachedStatistics(MethodCallStatistics statistics) {
+            this.statistics = statistics;
+        }
+
+        private MethodCallStatistics touch() {
+            long t = StatsSweeper.tick();
+            if (tick != t) {
+                tick = t;
+            }
+            return statistics;
+        }
+    }
 }
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.integ;
+
+import com.jitlogic.zorka.common.http.JdkHttpClient;
+import com.jitlogic.zorka.common.tracedata.Metric;
+import com.jitlogic.zorka.common.tracedata.PerfRecord;
+import com.jitlogic.zorka.common.tracedata.PerfSample;
+import com.jitlogic.zorka.common.tracedata.RawDataMetric;
+import com.jitlogic.zorka.common.util.ZorkaUtil;
+import com.jitlogic.zorka.core.integ.InfluxLineOutput;
+import com.jitlogic.zorka.core.perfmon.QueryDef;
+import com.jitlogic.zorka.core.perfmon.TraceOutputJmxScanner;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class InfluxLineOutputUnitTest extends ZorkaFixture {
+
+    private HttpServer server;
+    private String url;
+
+    private List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private List<Integer> ports = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/write", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                InputStream is = ex.getRequestBody();
+                if ("gzip".equals(ex.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    is = new GZIPInputStream(is);
+                }
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                byte[] b = new byte[4096];
+                for (int n = is.read(b); n >= 0; n = is.read(b)) {
+                    os.write(b, 0, n);
+                }
+                bodies.add(os.toString("UTF-8"));
+                ports.add(ex.getRemoteAddress().getPort());
+                ex.sendResponseHeaders(204, -1);
+                ex.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/write?db=test&precision=ms";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+
+    private static Map<String, String> tags(String... kv) {
+        Map<String, String> m = new HashMap<String, String>();
+        for (int i = 0; i < kv.length; i += 2) {
+            m.put(kv[i], kv[i + 1]);
+        }
+        return m;
+    }
+
+
+    private Metric metric(String name, String... dynAttrs) {
+        Metric m = new RawDataMetric(0, name, name, ZorkaUtil.<String, Object>map());
+        HashMap<String, Integer> da = new HashMap<String, Integer>();
+        for (int i = 0; i < dynAttrs.length; i++) {
+            da.put(dynAttrs[i], 100 + i);
+        }
+        m.setDynamicAttrs(da);
+        return agentInstance.getMetricsRegistry().getMetric(m);
+    }
+
+
+    private static PerfRecord rec(long clock, Metric m, Number value, String... attrs) {
+        Map<Integer, String> am = new HashMap<Integer, String>();
+        for (int i = 0; i < attrs.length; i++) {
+            am.put(100 + i, attrs[i]);
+        }
+        PerfSample ps = new PerfSample(m.getId(), value, am);
+        List<PerfSample> samples = new ArrayList<PerfSample>();
+        samples.add(ps);
+        return new PerfRecord(clock, 0, samples);
+    }
+
+
+    private InfluxLineOutput output(int maxBytes, long flushTime, boolean gzip) throws Exception {
+        return new InfluxLineOutput(agentInstance.getMetricsRegistry(), new JdkHttpClient(), url, tags("host", "my host", "app", "a,b"), tags("name", "name"),
+                maxBytes, flushTime, gzip, 5000);
+    }
+
+
+    @Test
+    public void testEncodeLinesWithSortedAndEscapedTags() throws Exception {
+        InfluxLineOutput output = output(65536, 1000, false);
+        Metric m = metric("jvm heap", "name");
+
+        output.encode(rec(100L, m, 42L, "Eden=Space"));
+        output.encode(rec(200L, m, 1.5, ""));
+
+        assertThat(output.buffered()).isEqualTo(
+                "jvm\\ heap,app=a\\,b,host=my\\ host,name=Eden\\=Space value=42 100\n" +
+                "jvm\\ heap,app=a\\,b,host=my\\ host value=1.5 200\n");
+    }
+
+
+    @Test
+    public void testSkipNonFiniteValues() throws Exception {
+        InfluxLineOutput output = output(65536, 1000, false);
+        Metric m = metric("m", "name");
+
+        output.encode(rec(100L, m, Double.NaN, "x"));
+        output.encode(rec(200L, m, Double.POSITIVE_INFINITY, "x"));
+        output.encode(rec(300L, m, -7L, "x"));
+
+        assertThat(output.buffered()).isEqualTo("m,app=a\\,b,host=my\\ host,name=x value=-7 300\n");
+    }
+
+
+    @Test
+    public void testSendWhenByteBudgetExceededAndReuseConnection() throws Exception {
+        InfluxLineOutput output = output(100, 60000, false);
+        Metric m = metric("m", "name");
+
+        for (int i = 0; i < 10; i++) {
+            output.submit(rec(i, m, i, "x"));
+        }
+        output.runCycle();
+
+        assertThat(output.getErrors()).isEqualTo(0);
+        assertThat(output.getRequests()).isEqualTo(3);
+        assertThat(bodies.get(0)).isEqualTo("m,app=a\\,b,host=my\\ host,name=x value=0 0\n"
+                + "m,app=a\\,b,host=my\\ host,name=x value=1 1\n"
+                + "m,app=a\\,b,host=my\\ host,name=x value=2 2\n");
+
+        output.close();
+        assertThat(bodies.size()).isEqualTo(4);
+        assertThat(output.getLinesSent()).isEqualTo(10);
+        assertThat(new HashSet<Integer>(ports).size()).isEqualTo(1);
+    }
+
+
+    @Test
+    public void testSendPartialBufferAfterFlushTime() throws Exception {
+        InfluxLineOutput output = output(65536, 50, false);
+        Metric m = metric("m", "name");
+
+        output.submit(rec(1, m, 1L, "x"));
+        output.runCycle();
+        assertThat(bodies.size()).isEqualTo(0);
+
+        output.runCycle();
+        assertThat(bodies.size()).isEqualTo(1);
+        assertThat(output.buffered()).isEqualTo("");
+    }
+
+
+    @Test
+    public void testSendCompressedBody() throws Exception {
+        InfluxLineOutput output = output(65536, 60000, true);
+        Metric m = metric("m", "name");
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            output.submit(rec(i, m, i, "x"));
+            sb.append("m,app=a\\,b,host=my\\ host,name=x value=" + i + " " + i + "\n");
+        }
+        output.runCycle();
+        output.close();
+
+        assertThat(bodies.size()).isEqualTo(1);
+        assertThat(bodies.get(0)).isEqualTo(sb.toString());
+        assertThat(output.getBytesSent()).isLessThan(sb.length() / 4);
+    }
+
+
+    @Test
+    public void testDropBatchWhenServerUnavailable() throws Exception {
+        InfluxLineOutput output = output(65536, 60000, false);
+        server.stop(0);
+
+        output.encode(rec(1, metric("m"), 1L));
+        output.close();
+
+        assertThat(output.getErrors()).isEqualTo(1);
+        assertThat(output.buffered()).isEqualTo("");
+    }
+
+
+    @Test
+    public void testSendDataCollectedByJmxScanner() throws Exception {
+        makeTestJmx("test:name=bean1,type=TestJmx", 10, 20);
+        makeTestJmx("test:name=bean2,type=TestJmx", 30, 40);
+
+        InfluxLineOutput output = output(65536, 60000, false);
+        TraceOutputJmxScanner scanner = new TraceOutputJmxScanner(symbols, agentInstance.getMetricsRegistry(),
+                "TEST", mBeanServerRegistry, output,
+                new QueryDef("test", "test:type=TestJmx,*", "name").getAs("Nom", "ATTR")
+                        .metric(perfmon.metric("nom", "Nom", "calls").dynamicAttrs("name")));
+
+        scanner.runCycle(1000L);
+        output.runCycle();
+        output.close();
+
+        assertThat(bodies.size()).isEqualTo(1);
+        assertThat(bodies.get(0)).contains("nom,app=a\\,b,host=my\\ host,name=bean1 value=10 1000\n");
+        assertThat(bodies.get(0)).contains("nom,app=a\\,b,host=my\\ host,name=bean2 value=30 1000\n");
+        assertThat(output.getLinesSent()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void testSendColumnarDataCollectedByJmxScanner() throws Exception {
+        makeTestJmx("test:name=bean1,type=TestJmx", 10, 20);
+        makeTestJmx("test:name=bean2,type=TestJmx", 30, 40);
+
+        InfluxLineOutput output = output(65536, 60000, false);
+        TraceOutputJmxScanner scanner = new TraceOutputJmxScanner(symbols, agentInstance.getMetricsRegistry(),
+                "TEST", mBeanServerRegistry, output,
+                new QueryDef("test", "test:type=TestJmx,*", "name").getAs("Nom", "ATTR")
+                        .metric(perfmon.metric("nom", "Nom", "calls").dynamicAttrs("name")));
+        scanner.setColumnar(true);
+
+        scanner.runCycle(1000L);
+        output.runCycle();
+        output.close();
+
+        assertThat(bodies.size()).isEqualTo(1);
+        assertThat(bodies.get(0)).contains("nom,app=a\\,b,host=my\\ host,name=bean1 value=10 1000\n");
+        assertThat(bodies.get(0)).contains("nom,app=a\\,b,host=my\\ host,name=bean2 value=30 1000\n");
+        assertThat(output.getLinesSent()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.integ;
+
+import com.jitlogic.zorka.common.http.JdkHttpClient;
+import com.jitlogic.zorka.common.tracedata.Metric;
+import com.jitlogic.zorka.common.tracedata.MetricsRegistry;
+import com.jitlogic.zorka.common.tracedata.PerfRecord;
+import com.jitlogic.zorka.common.tracedata.PerfSample;
+import com.jitlogic.zorka.common.tracedata.RawDataMetric;
+import com.jitlogic.zorka.common.util.ZorkaUtil;
+import com.jitlogic.zorka.core.integ.InfluxLineOutput;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures throughput and request latency of influx output against local stand-in HTTP server.
+ */
+public class InfluxOutputManualTest {
+
+    private static final int RECORDS = 200000;
+
+
+    private static void run(String url, boolean gzip) throws Exception {
+        Map<String, String> constTags = new HashMap<String, String>();
+        constTags.put("host", "test-host");
+        constTags.put("app", "test-app");
+        Map<String, String> dynamicTags = new HashMap<String, String>();
+        dynamicTags.put("name", "name");
+
+        MetricsRegistry registry = new MetricsRegistry();
+        InfluxLineOutput output = new InfluxLineOutput(registry, new JdkHttpClient(), url,
+                constTags, dynamicTags, 256 * 1024, 5000, gzip, 30000);
+
+        List<Metric> metrics = new ArrayList<Metric>();
+        for (int i = 0; i < 20; i++) {
+            Metric m = new RawDataMetric(0, "jvm.metric" + i, "Test", ZorkaUtil.<String, Object>map());
+            HashMap<String, Integer> da = new HashMap<String, Integer>();
+            da.put("name", 1);
+            m.setDynamicAttrs(da);
+            metrics.add(registry.getMetric(m));
+        }
+
+        long t1 = System.nanoTime();
+
+        for (int i = 0; i < RECORDS; i++) {
+            Metric m = metrics.get(i % metrics.size());
+            Map<Integer, String> attrs = new HashMap<Integer, String>();
+            attrs.put(1, "pool" + (i % 7));
+            PerfSample ps = new PerfSample(m.getId(), i % 3 == 0 ? (Number) (i * 1.5) : (Number) (long) i, attrs);
+            List<PerfSample> samples = new ArrayList<PerfSample>(1);
+            samples.add(ps);
+            output.submit(new PerfRecord(1400000000000L + i, 0, samples));
+            if (i % 256 == 255) {
+                output.runCycle();
+            }
+        }
+        output.close();
+
+        long t = System.nanoTime() - t1;
+
+        System.out.println("gzip=" + gzip + ": " + (RECORDS * 1000000000L / t) + " lines/s, "
+                + output.getRequests() + " requests, " + output.getBytesSent() + " bytes sent, "
+                + (output.getSendTime() / Math.max(1, output.getRequests()) / 1000) + " us/request, errors="
+                + output.getErrors());
+    }
+
+
+    @Test
+    public void testInfluxOutputThroughput() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/write", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                InputStream is = ex.getRequestBody();
+                byte[] b = new byte[65536];
+                while (is.read(b) >= 0) {
+                    // discard
+                }
+                ex.sendResponseHeaders(204, -1);
+                ex.close();
+            }
+        });
+        server.start();
+
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/write?db=test&precision=ms";
+            for (int i = 0; i < 3; i++) {
+                run(url, false);
+                run(url, true);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.integ;
+
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.core.integ.SyslogLib;
+import com.jitlogic.zorka.core.integ.SyslogTrapper;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SyslogTrapperUnitTest extends ZorkaFixture {
+
+    private SyslogTrapper trapper;
+
+    @After
+    public void closeTrapper() {
+        if (trapper != null) {
+            trapper.close();
+        }
+    }
+
+
+    private static String readFrame(DataInputStream is) throws Exception {
+        int len = 0;
+        for (int c = is.read(); c != ' '; c = is.read()) {
+            len = len * 10 + (c - '0');
+        }
+        byte[] b = new byte[len];
+        is.readFully(b);
+        return new String(b, "US-ASCII");
+    }
+
+
+    @Test
+    public void testFormatMessageWithCachedPrefix() {
+        trapper = new SyslogTrapper("127.0.0.1", "myhost", SyslogLib.F_LOCAL0);
+        Date d = new Date(1400000000000L);
+        String date = new SimpleDateFormat("MMM dd HH:mm:ss").format(d);
+
+        assertThat(trapper.format(SyslogLib.S_ERROR, SyslogLib.F_LOCAL5, d, "myhost", "test", "msg1"))
+                .isEqualTo("<171>" + date + " myhost test msg1");
+        assertThat(trapper.format(SyslogLib.S_INFO, SyslogLib.F_LOCAL5, d, "other", "test", "msg2"))
+                .isEqualTo("<174>" + date + " other test msg2");
+
+        Date d2 = new Date(1400000001000L);
+        String date2 = new SimpleDateFormat("MMM dd HH:mm:ss").format(d2);
+        assertThat(trapper.format(SyslogLib.S_INFO, SyslogLib.F_LOCAL5, d2, "other", "test", "msg3"))
+                .isEqualTo("<174>" + date2 + " other test msg3");
+    }
+
+
+    @Test
+    public void testSendMessagesViaUdp() throws Exception {
+        DatagramSocket server = new DatagramSocket(0);
+        server.setSoTimeout(5000);
+
+        try {
+            trapper = new SyslogTrapper("127.0.0.1:" + server.getLocalPort(), "myhost", SyslogLib.F_LOCAL0);
+            trapper.open();
+            trapper.log(SyslogLib.S_ERROR, SyslogLib.F_LOCAL0, "test", "Some message.");
+            trapper.runCycle();
+
+            DatagramPacket p = new DatagramPacket(new byte[1024], 1024);
+            server.receive(p);
+            assertThat(new String(p.getData(), 0, p.getLength(), "US-ASCII")).endsWith(" myhost test Some message.");
+        } finally {
+            server.close();
+        }
+    }
+
+
+    @Test
+    public void testSendBatchViaTcpWithOctetCounting() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+
+        try {
+            trapper = new SyslogTrapper("127.0.0.1:" + server.getLocalPort(), "myhost", SyslogLib.F_LOCAL0,
+                    false, SyslogTrapper.PROTO_TCP);
+            trapper.open();
+
+            for (int i = 0; i < 100; i++) {
+                trapper.log(SyslogLib.S_INFO, SyslogLib.F_LOCAL0, "test", "Message " + i);
+            }
+
+            long writes = AgentDiagnostics.get(AgentDiagnostics.SYSLOG_WRITES);
+            trapper.runCycle();
+            assertThat(AgentDiagnostics.get(AgentDiagnostics.SYSLOG_WRITES) - writes).isEqualTo(1);
+
+            Socket conn = server.accept();
+            conn.setSoTimeout(5000);
+            DataInputStream is = new DataInputStream(conn.getInputStream());
+
+            List<String> msgs = new ArrayList<String>();
+            for (int i = 0; i < 100; i++) {
+                msgs.add(readFrame(is));
+            }
+
+            assertThat(msgs.get(0)).startsWith("<134>").endsWith(" myhost test Message 0");
+            assertThat(msgs.get(99)).endsWith(" myhost test Message 99");
+            conn.close();
+        } finally {
+            server.close();
+        }
+    }
+
+
+    @Test
+    public void testCountDroppedMessagesAndReconnectViaTcp() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        int port = server.getLocalPort();
+        server.close();
+
+        trapper = new SyslogTrapper("127.0.0.1:" + port, "myhost", SyslogLib.F_LOCAL0,
+                false, SyslogTrapper.PROTO_TCP);
+        trapper.open();
+
+        long dropped = AgentDiagnostics.get(AgentDiagnostics.TRAPS_DROPPED);
+        trapper.log(SyslogLib.S_INFO, SyslogLib.F_LOCAL0, "test", "Lost message");
+        trapper.runCycle();
+        assertThat(AgentDiagnostics.get(AgentDiagnostics.TRAPS_DROPPED) - dropped).isEqualTo(1);
+
+        server = new ServerSocket(port);
+
+        try {
+            long reconnects = AgentDiagnostics.get(AgentDiagnostics.SYSLOG_RECONNECTS);
+            trapper.log(SyslogLib.S_INFO, SyslogLib.F_LOCAL0, "test", "Delivered message");
+            trapper.runCycle();
+            assertThat(AgentDiagnostics.get(AgentDiagnostics.SYSLOG_RECONNECTS) - reconnects).isEqualTo(1);
+
+            Socket conn = server.accept();
+            conn.setSoTimeout(5000);
+            assertThat(readFrame(new DataInputStream(conn.getInputStream()))).endsWith("Delivered message");
+            conn.close();
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.integ;
+
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
+import com.jitlogic.zorka.common.util.JSONReader;
+import com.jitlogic.zorka.core.integ.zabbix.ActiveCheckQueryItem;
+import com.jitlogic.zorka.core.integ.zabbix.ActiveCheckResult;
+import com.jitlogic.zorka.core.integ.zabbix.ZabbixActiveScheduler;
+import com.jitlogic.zorka.core.integ.zabbix.ZabbixActiveSenderTask;
+import com.jitlogic.zorka.core.integ.zabbix.ZabbixUtils;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ZabbixActiveSenderUnitTest extends ZorkaFixture {
+
+    private ServerSocket server;
+    private Thread serverThread;
+
+    private ConcurrentLinkedQueue<ActiveCheckResult> queue = new ConcurrentLinkedQueue<ActiveCheckResult>();
+
+    /** Messages received by fake zabbix server */
+    private List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+    /** Responses returned by fake zabbix server (null - generate success response) */
+    private List<String> responses = Collections.synchronizedList(new ArrayList<String>());
+
+
+    @Before
+    public void startServer() throws Exception {
+        server = new ServerSocket(0);
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket s = server.accept();
+                        String msg = ZabbixUtils.decode(s.getInputStream());
+                        messages.add(msg);
+                        String resp = responses.isEmpty() ? null : responses.remove(0);
+                        if (resp == null) {
+                            int n = data(msg).size();
+                            resp = "{\"response\":\"success\",\"info\":\"processed: " + n + "; failed: 0; total: "
+                                    + n + "; seconds spent: 0.000100\"}";
+                        }
+                        s.getOutputStream().write(ZabbixUtils.zbx_format(resp));
+                        s.close();
+                    }
+                } catch (Exception e) {
+                    // Server closed
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+
+    @After
+    public void stopServer() throws Exception {
+        server.close();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> data(String msg) {
+        return (List<Map<String, Object>>) ((Map<String, Object>) new JSONReader().read(msg)).get("data");
+    }
+
+
+    private void submit(int n) {
+        for (int i = 0; i < n; i++) {
+            ActiveCheckResult r = new ActiveCheckResult();
+            r.setHost("test");
+            r.setKey("item[" + i + "]");
+            r.setValue("" + i);
+            r.setClock(1400000000L);
+            queue.offer(r);
+        }
+    }
+
+
+    private ZabbixActiveSenderTask sender(int maxBatchSize, int maxBatchBytes) throws Exception {
+        return new ZabbixActiveSenderTask(InetAddress.getByName("127.0.0.1"), server.getLocalPort(), queue,
+                maxBatchSize, maxBatchBytes, config);
+    }
+
+
+    @Test
+    public void testSendResultsInByteBoundedBatches() throws Exception {
+        submit(20);
+        sender(100, 400).run();
+
+        assertThat(queue.size()).isEqualTo(0);
+        assertThat(messages.size()).isGreaterThan(1);
+
+        List<String> keys = new ArrayList<String>();
+        for (String msg : messages) {
+            assertThat(msg.length()).isLessThan(400 + 64);
+            assertThat(msg).contains("\"request\":\"agent data\"");
+            for (Map<String, Object> m : data(msg)) {
+                keys.add((String) m.get("key"));
+            }
+        }
+
+        assertThat(keys.size()).isEqualTo(20);
+        assertThat(keys.get(0)).isEqualTo("item[0]");
+        assertThat(keys.get(19)).isEqualTo("item[19]");
+    }
+
+
+    @Test
+    public void testSendResultsInCountBoundedBatches() throws Exception {
+        submit(25);
+        sender(10, 65536).run();
+
+        assertThat(messages.size()).isEqualTo(3);
+        assertThat(data(messages.get(2)).size()).isEqualTo(5);
+    }
+
+
+    @Test
+    public void testRetryBatchNotAcceptedByServer() throws Exception {
+        submit(5);
+        responses.add("{\"response\":\"failed\"}");
+        ZabbixActiveSenderTask sender = sender(10, 65536);
+
+        sender.run();
+        assertThat(messages.size()).isEqualTo(1);
+        assertThat(queue.size()).isEqualTo(0);
+
+        sender.run();
+        assertThat(messages.size()).isEqualTo(2);
+        assertThat(data(messages.get(1))).isEqualTo(data(messages.get(0)));
+        assertThat(data(messages.get(1)).size()).isEqualTo(5);
+
+        sender.run();
+        assertThat(messages.size()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void testCountResultsRejectedByServer() throws Exception {
+        submit(5);
+        responses.add("{\"response\":\"success\",\"info\":\"processed: 3; failed: 2; total: 5; seconds spent: 0.0001\"}");
+
+        long sent = AgentDiagnostics.get(AgentDiagnostics.ZABBIX_ACTIVE_SENT);
+        long failed = AgentDiagnostics.get(AgentDiagnostics.ZABBIX_ACTIVE_FAILED);
+
+        ZabbixActiveSenderTask sender = sender(10, 65536);
+        sender.run();
+        sender.run();
+
+        assertThat(messages.size()).isEqualTo(1);
+        assertThat(AgentDiagnostics.get(AgentDiagnostics.ZABBIX_ACTIVE_SENT) - sent).isEqualTo(3);
+        assertThat(AgentDiagnostics.get(AgentDiagnostics.ZABBIX_ACTIVE_FAILED) - failed).isEqualTo(2);
+    }
+
+
+    private static ActiveCheckQueryItem item(String key, int delay) {
+        ActiveCheckQueryItem item = new ActiveCheckQueryItem();
+        item.setKey(key);
+        item.setDelay(delay);
+        return item;
+    }
+
+
+    @Test
+    public void testGroupItemsByInterval() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        ZabbixActiveScheduler scheduler = new ZabbixActiveScheduler("test", zorkaAgent, translator, queue, executor);
+
+        try {
+            scheduler.schedule(Arrays.asList(item("a", 30), item("b", 30), item("c", 60), item("d", 30)));
+            assertThat(scheduler.getGroupCount()).isEqualTo(2);
+            assertThat(scheduler.getItemCount()).isEqualTo(4);
+            assertThat(executor.getQueue().size()).isEqualTo(2);
+
+            scheduler.schedule(Arrays.asList(item("a", 30), item("e", 30)));
+            assertThat(scheduler.getGroupCount()).isEqualTo(1);
+            assertThat(scheduler.getItemCount()).isEqualTo(2);
+
+            scheduler.cancel();
+            assertThat(scheduler.getGroupCount()).isEqualTo(0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -17,8 +17,10 @@
 
 package com.jitlogic.zorka.core.test.integ;
 
+import com.jitlogic.zorka.common.stats.AgentDiagnostics;
 import com.jitlogic.zorka.common.stats.MethodCallStatistics;
 import com.jitlogic.zorka.common.test.support.TestJmx;
+import com.jitlogic.zorka.core.integ.zabbix.ZabbixDiscoveryCache;
 import com.jitlogic.zorka.core.mbeans.ZorkaMappedMBean;
 import com.jitlogic.zorka.core.perfmon.QueryDef;
 import com.jitlogic.zorka.core.test.support.ZorkaFixture;
@@ -26,11 +28,18 @@ import org.junit.Test;
 
 import javax.management.ObjectName;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -106,4 +115,114 @@ public class ZabbixDiscoveryUnitTest extends ZorkaFixture {
         assertEquals("query with redundant attrs should return no data", 0, obj2.get("data").size());
     }
 
+
+    @Test
+    public void testDiscoveryResultIsCachedUntilMatchingMBeanIsRegistered() throws Exception {
+        makeTestJmx("test:name=bean1,type=TestJmx", 10, 10);
+        makeTestJmx("test:name=bean2,type=TestJmx", 10, 10);
+
+        String d1 = zabbixLib.discovery("test", "test:type=TestJmx,*", "name", "type");
+        long hits = AgentDiagnostics.get(AgentDiagnostics.ZABBIX_DISCOVERY_HITS);
+        assertThat(zabbixLib.discovery("test", "test:type=TestJmx,*", "name", "type")).isSameAs(d1);
+        assertEquals(1, AgentDiagnostics.get(AgentDiagnostics.ZABBIX_DISCOVERY_HITS) - hits);
+
+        makeTestJmx("test:name=other,type=OtherJmx", 10, 10);
+        assertThat(zabbixLib.discovery("test", "test:type=TestJmx,*", "name", "type")).isSameAs(d1);
+
+        makeTestJmx("test:name=bean3,type=TestJmx", 10, 10);
+        assertThat(zabbixLib.discovery("test", "test:type=TestJmx,*", "name", "type")).contains("bean3");
+
+        testMbs.unregisterMBean(new ObjectName("test:name=bean3,type=TestJmx"));
+        assertThat(zabbixLib.discovery("test", "test:type=TestJmx,*", "name", "type")).isEqualTo(d1);
+    }
+
+
+    private static Callable<String> counting(final AtomicInteger count, final CountDownLatch latch) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                count.incrementAndGet();
+                latch.await();
+                return "{\"data\":[]}";
+            }
+        };
+    }
+
+
+    @Test
+    public void testConcurrentDiscoveryRequestsAreCoalesced() throws Exception {
+        final ZabbixDiscoveryCache cache = new ZabbixDiscoveryCache(mBeanServerRegistry, 60000);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(cache.get("k", Collections.singleton("test"),
+                                Collections.<ObjectName>emptyList(), counting(count, latch)));
+                    } catch (Exception e) {
+                        results.add(null);
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        Thread.sleep(100);
+        latch.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1, count.get());
+        assertEquals(4, results.size());
+        assertEquals("{\"data\":[]}", results.get(3));
+    }
+
+
+    @Test
+    public void testDiscoveryResultExpiresAfterTtl() throws Exception {
+        ZabbixDiscoveryCache cache = new ZabbixDiscoveryCache(mBeanServerRegistry, 10);
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(0);
+        Set<String> mbs = Collections.singleton("test");
+        List<ObjectName> patterns = Collections.emptyList();
+
+        cache.get("k", mbs, patterns, counting(count, latch));
+        cache.get("k", mbs, patterns, counting(count, latch));
+        assertEquals(1, count.get());
+
+        Thread.sleep(20);
+        cache.get("k", mbs, patterns, counting(count, latch));
+        assertEquals(2, count.get());
+        cache.close();
+    }
+
+
+    @Test
+    public void testDiscoveryErrorIsPropagatedAndNotCached() throws Exception {
+        ZabbixDiscoveryCache cache = new ZabbixDiscoveryCache(mBeanServerRegistry, 60000);
+        Set<String> mbs = Collections.singleton("test");
+        List<ObjectName> patterns = Collections.emptyList();
+
+        try {
+            cache.get("k", mbs, patterns, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new IllegalStateException("broken");
+                }
+            });
+            fail("Discovery error should be propagated.");
+        } catch (IllegalStateException e) {
+            assertEquals("broken", e.getMessage());
+        }
+
+        assertEquals(0, cache.size());
+        cache.close();
+    }
 }
@@ -18,6 +18,7 @@ package com.jitlogic.zorka.core.test.perfmon;
 
 import com.jitlogic.zorka.common.ZorkaSubmitter;
 import com.jitlogic.zorka.common.test.support.TestJmx;
+import com.jitlogic.zorka.common.tracedata.ColumnarPerfRecord;
 import com.jitlogic.zorka.common.tracedata.Metric;
 import com.jitlogic.zorka.common.tracedata.PerfRecord;
 import com.jitlogic.zorka.common.tracedata.PerfSample;
@@ -33,6 +34,8 @@ import org.junit.Test;
 import javax.management.ObjectName;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class JmxAttrScanUnitTest extends ZorkaFixture {
 
@@ -138,6 +141,53 @@ public class JmxAttrScanUnitTest extends ZorkaFixture {
     }
 
 
+    @Test
+    public void testScanWithParallelQueries() throws Exception {
+        TraceOutputJmxScanner scanner = perfmon.scanner("TEST",
+                new QueryDef("test", "test:type=TestJmx,*", "name").getAs("Nom", "ATTR")
+                        .metric(perfmon.metric("nom", "test", "test").dynamicAttrs("ATTR")),
+                new QueryDef("test", "test:type=XXX,*", "name").get("Nom")
+                        .metric(perfmon.metric("test", "test", "test")),
+                new QueryDef("test", "test:type=TestJmx,*", "name").listAs("Nom|Div", "ATTR")
+                        .with(QueryDef.CACHED_SCAN).metric(perfmon.metric("all", "test", "test").dynamicAttrs("ATTR")));
+        ObjectInspector.setField(scanner, "output", out);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            scanner.setExecutor(executor);
+            scanner.runCycle(100);
+        } finally {
+            executor.shutdown();
+        }
+
+        List<PerfSample> samples = ((PerfRecord) results.get(0)).getSamples();
+        Assert.assertEquals(6, samples.size());
+    }
+
+
+    @Test
+    public void testColumnarScan() throws Exception {
+        TraceOutputJmxScanner scanner = perfmon.scanner("TEST",
+                new QueryDef("test", "test:type=TestJmx,*", "name").getAs("Nom", "ATTR")
+                        .metric(perfmon.metric("test", "test", "test").dynamicAttrs("name")));
+        ObjectInspector.setField(scanner, "output", out);
+        scanner.setColumnar(true);
+
+        scanner.runCycle(100);
+        ColumnarPerfRecord rec = (ColumnarPerfRecord) results.get(0);
+
+        Assert.assertEquals(2, rec.size());
+        Assert.assertEquals(0, rec.getDoubleIds().length);
+        Assert.assertEquals(10L, rec.getLongVals()[0]);
+        Assert.assertEquals(1, rec.getAttrKeys().length);
+        Assert.assertEquals(2, rec.getDict().size());
+
+        List<PerfSample> samples = rec.toPerfSamples();
+        Assert.assertEquals(1, samples.get(0).getAttrs().size());
+        Assert.assertFalse(samples.get(0).getAttrs().equals(samples.get(1).getAttrs()));
+    }
+
+
     private TestJmx makeTestJmx(String name, long nom, long div, String... md) throws Exception {
         TestJmx bean = new TestJmx();
 
@@ -17,6 +17,7 @@
 package com.jitlogic.zorka.core.test.perfmon;
 
 import com.jitlogic.zorka.common.test.support.TestJmx;
+import com.jitlogic.zorka.core.mbeans.MBeanQueryCache;
 import com.jitlogic.zorka.core.perfmon.QueryDef;
 import com.jitlogic.zorka.core.perfmon.QueryLister;
 import com.jitlogic.zorka.core.perfmon.QueryResult;
@@ -27,7 +28,11 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.List;
 import java.util.Set;
 
@@ -138,6 +143,66 @@ public class JmxQueryUnitTest extends ZorkaFixture {
     }
 
 
+    @Test
+    public void testCachedSearchAndGetMultipleAttrs() {
+        QueryLister lister = new QueryLister(mBeanServerRegistry,
+                new QueryDef("test", "test:type=TestJmx,*", "name").listAs("*", "Attr").with(QueryDef.CACHED_SCAN));
+
+        List<QueryResult> results = lister.list();
+
+        Assert.assertEquals(6, results.size());
+
+        Set<String> attrs = ZorkaUtil.set("Nom", "Div", "StrMap");
+
+        for (QueryResult result : results) {
+            Assert.assertTrue(attrs.contains(result.getAttr("Attr")));
+        }
+    }
+
+
+    @Test
+    public void testCachedSearchSeesRegisteredAndUnregisteredBeans() throws Exception {
+        QueryLister lister = new QueryLister(mBeanServerRegistry,
+                new QueryDef("test", "test:type=TestJmx,*", "name").get("Nom").with(QueryDef.CACHED_SCAN));
+
+        Assert.assertEquals(2, lister.list().size());
+        Assert.assertTrue(mBeanServerRegistry.getQueryCache("test").isEnabled());
+
+        makeTestJmx("test:name=bean3,type=TestJmx", 10, 10);
+        Assert.assertEquals(3, lister.list().size());
+
+        testMbs.unregisterMBean(new ObjectName("test:name=bean1,type=TestJmx"));
+        Assert.assertEquals(2, lister.list().size());
+    }
+
+
+    @Test
+    public void testDoNotCacheResultOfQueryOverlappingWithRegistration() throws Exception {
+        final boolean[] registered = {false};
+
+        MBeanServerConnection conn = (MBeanServerConnection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{MBeanServerConnection.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        Object rslt = method.invoke(testMbs, args);
+                        if ("queryNames".equals(method.getName()) && !registered[0]) {
+                            // New bean appears after query returned, but before result is cached
+                            registered[0] = true;
+                            makeTestJmx("test:name=bean3,type=TestJmx", 10, 10);
+                        }
+                        return rslt;
+                    }
+                });
+
+        MBeanQueryCache cache = new MBeanQueryCache(conn);
+
+        Assert.assertEquals(2, cache.queryNames("test:type=TestJmx,*").size());
+        Assert.assertEquals(3, cache.queryNames("test:type=TestJmx,*").size());
+
+        cache.close();
+    }
+
+
     private TestJmx makeTestJmx(String name, long nom, long div, String... md) throws Exception {
         TestJmx bean = new TestJmx();
 
@@ -25,7 +25,9 @@ import com.jitlogic.zorka.core.perfmon.RankLister;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 public class RankProcUnitTest extends ZorkaFixture {
 
@@ -48,4 +50,34 @@ public class RankProcUnitTest extends ZorkaFixture {
 
         assertEquals(5.0, items.get(0).getAverage(0L, 0, 0), 0.001);
     }
+
+    @Test
+    public void testSelectTopItemsWithTies() {
+        int[] top = RankList.top(new double[]{1.0, 3.0, 2.0, 3.0, Double.NEGATIVE_INFINITY, 2.0}, 4);
+        assertEquals("[1, 3, 2, 5]", Arrays.toString(top));
+
+        assertEquals(0, RankList.top(new double[]{1.0, 2.0}, 0).length);
+        assertEquals("[1, 0]", Arrays.toString(RankList.top(new double[]{1.0, 2.0}, 10)));
+    }
+
+
+    @Test
+    public void testSelectTopItemsMatchesFullSort() {
+        Random rand = new Random(7);
+        double[] values = new double[5000];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rand.nextInt(1000);
+        }
+
+        int[] top = RankList.top(values, 50);
+
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        assertEquals(50, top.length);
+        for (int i = 0; i < top.length; i++) {
+            assertEquals(sorted[sorted.length - 1 - i], values[top[i]], 0.001);
+        }
+    }
 }
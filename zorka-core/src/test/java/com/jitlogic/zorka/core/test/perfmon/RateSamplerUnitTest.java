@@ -0,0 +1,131 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.perfmon;
+
+import com.jitlogic.zorka.common.test.support.TestJmx;
+import com.jitlogic.zorka.core.perfmon.RateSampler;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import com.jitlogic.zorka.core.test.support.ZorkaTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateSamplerUnitTest extends ZorkaFixture {
+
+    private static final Object[] PATH = { "test", "test:name=bean1,type=TestJmx" };
+
+    private static final long T0 = 1000000L;
+
+    private RateSampler sampler;
+    private TestJmx tj;
+
+    @Before
+    public void setUp() throws Exception {
+        ZorkaTestUtil.setUp().mockCurrentTimeMillis(T0);
+        sampler = new RateSampler(zorka, 1000, 60000);
+        tj = makeTestJmx("test:name=bean1,type=TestJmx", 0, 0);
+    }
+
+
+    @After
+    public void tearDown() {
+        ZorkaTestUtil.tearDown();
+    }
+
+
+    private void tick(long t, long nom, long div) {
+        tj.setNom(nom);
+        tj.setDiv(div);
+        sampler.runCycle(t);
+    }
+
+
+    @Test
+    public void testRegisterSourceOnFirstQuery() {
+        assertEquals(0.0, sampler.get(PATH, "Nom", "Div", 60000), 0.01);
+        assertEquals(1, sampler.size());
+
+        tj.setNom(5);
+        tj.setDiv(10);
+        assertEquals(0.5, sampler.get(PATH, "Nom", "Div", 60000), 0.01);
+
+        // Same source queried with different horizon must not register another one.
+        sampler.get(new Object[] { "test", "test:name=bean1,type=TestJmx" }, "Nom", "Div", 30000);
+        assertEquals(1, sampler.size());
+    }
+
+
+    @Test
+    public void testQueriesDoNotSampleAfterWarmUp() {
+        sampler.get(PATH, "Nom", "Div", 60000);
+        sampler.get(PATH, "Nom", "Div", 60000);
+
+        tj.setNom(10);
+        tj.setDiv(10);
+        assertEquals(0.0, sampler.get(PATH, "Nom", "Div", 60000), 0.01);
+
+        sampler.runCycle(T0 + 1000);
+        assertEquals(1.0, sampler.get(PATH, "Nom", "Div", 60000), 0.01);
+    }
+
+
+    @Test
+    public void testMultipleHorizonsFromSingleBuffer() {
+        sampler.get(PATH, "Nom", null, 60000);
+
+        for (int i = 1; i <= 60; i++) {
+            // Nominator grows by 1/s for first 30 seconds, then by 3/s.
+            tick(T0 + i * 1000, i <= 30 ? i : 30 + 3 * (i - 30), 0);
+        }
+
+        assertEquals(30.0, sampler.get(PATH, "Nom", null, 10000), 0.01);
+        assertEquals(90.0, sampler.get(PATH, "Nom", null, 30000), 0.01);
+        assertEquals(120.0, sampler.get(PATH, "Nom", null, 60000), 0.01);
+
+        // Horizons longer than maximum are clipped.
+        assertEquals(120.0, sampler.get(PATH, "Nom", null, 3600000), 0.01);
+    }
+
+
+    @Test
+    public void testCircularBufferWrapAround() {
+        sampler.get(PATH, "Nom", "Div", 10000);
+
+        for (int i = 1; i <= 100; i++) {
+            tick(T0 + i * 1000, 2 * i, 4 * i);
+        }
+
+        assertEquals(0.5, sampler.get(PATH, "Nom", "Div", 10000), 0.01);
+        assertEquals(0.5, sampler.get(PATH, "Nom", "Div", 60000), 0.01);
+    }
+
+
+    @Test
+    public void testDropSourcesNotQueried() {
+        sampler.get(PATH, "Nom", "Div", 60000);
+        assertEquals(1, sampler.size());
+
+        sampler.runCycle(T0 + 60000);
+        assertEquals(1, sampler.size());
+
+        sampler.runCycle(T0 + 600000);
+        assertEquals(0, sampler.size());
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.core.test.perfmon;
+
+import com.jitlogic.zorka.common.ZorkaSubmitter;
+import com.jitlogic.zorka.common.tracedata.ProfileRecord;
+import com.jitlogic.zorka.common.tracedata.SymbolicRecord;
+import com.jitlogic.zorka.core.perfmon.SamplingProfiler;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SamplingProfilerUnitTest extends ZorkaFixture {
+
+    private List<SymbolicRecord> records = new ArrayList<SymbolicRecord>();
+
+    private ZorkaSubmitter<SymbolicRecord> output = new ZorkaSubmitter<SymbolicRecord>() {
+        @Override
+        public boolean submit(SymbolicRecord record) {
+            return records.add(record);
+        }
+    };
+
+
+    private SamplingProfiler profiler(int maxNodes) {
+        return new SamplingProfiler("PROFILE", symbols, output, 10, 1000, 64, 16, maxNodes, 0.5,
+                Collections.<String>emptyList(), Arrays.asList("ZORKA-.*"));
+    }
+
+
+    private static StackTraceElement[] stack(String... frames) {
+        StackTraceElement[] stack = new StackTraceElement[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            int ix = frames[i].lastIndexOf('.');
+            stack[frames.length - i - 1] = new StackTraceElement(frames[i].substring(0, ix),
+                    frames[i].substring(ix + 1), null, -1);
+        }
+        return stack;
+    }
+
+
+    @Test
+    public void testAggregateSamplesIntoCallTree() {
+        SamplingProfiler p = profiler(1024);
+
+        p.add(stack("a.A.run", "b.B.calc"));
+        p.add(stack("a.A.run", "b.B.calc"));
+        p.add(stack("a.A.run", "c.C.wait"));
+        p.add(stack("a.A.run"));
+
+        ProfileRecord rec = p.submit();
+
+        assertThat(records).containsOnly(rec);
+        assertThat(rec.getSamples()).isEqualTo(4);
+        assertThat(rec.size()).isEqualTo(4);
+        assertThat(rec.getCounts()).isEqualTo(new int[]{4, 4, 2, 1});
+        assertThat(rec.getSelfCounts()).isEqualTo(new int[]{0, 1, 2, 1});
+        assertThat(p.collapsedStacks()).isEqualTo("a.A.run 1\na.A.run;b.B.calc 2\na.A.run;c.C.wait 1\n");
+    }
+
+
+    @Test
+    public void testSubmitStartsNewProfile() {
+        SamplingProfiler p = profiler(1024);
+
+        p.add(stack("a.A.run", "b.B.calc"));
+        p.submit();
+        assertThat(p.submit()).isNull();
+
+        p.add(stack("a.A.run"));
+        assertThat(p.submit().getSamples()).isEqualTo(1);
+        assertThat(records.size()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void testTruncateSamplesWhenTreeIsFull() {
+        SamplingProfiler p = profiler(3);
+
+        p.add(stack("a.A.run", "b.B.calc", "c.C.deep"));
+        p.add(stack("a.A.run", "d.D.other"));
+
+        ProfileRecord rec = p.submit();
+        assertThat(rec.size()).isEqualTo(3);
+        assertThat(rec.getSelfCounts()).isEqualTo(new int[]{0, 1, 1});
+    }
+
+
+    @Test
+    public void testSampleLiveThreads() throws Exception {
+        SamplingProfiler p = profiler(65536);
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long l = 0;
+                while (!Thread.interrupted()) {
+                    l += System.nanoTime() % 7;
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                p.sample();
+                Thread.sleep(1);
+            }
+        } finally {
+            t.interrupt();
+        }
+
+        ProfileRecord rec = p.submit();
+        assertThat(rec).isNotNull();
+        assertThat(p.collapsedStacks()).contains("SamplingProfilerUnitTest$2.run");
+    }
+}
@@ -88,4 +88,32 @@ public class ThreadRankUnitTest extends ZorkaFixture {
         assertEquals(12.5, lister.list().get(0).getAverage(0L, 0,0), 0.001);
         assertEquals(2.5, lister.list().get(0).getAverage(0L, 0,1), 0.001);
     }
+
+
+    @Test
+    public void testTrackedItemsAreRetainedBetweenCycles() {
+        TestThreadRankLister lister = new TestThreadRankLister(mBeanServerRegistry);
+
+        for (int i = 0; i < 100; i++) {
+            lister.feed(i, "Thread-" + i, 100, 0);
+        }
+
+        lister.runCycle(1000);
+        ThreadRankItem item = null;
+        for (ThreadRankItem itm : lister.list()) {
+            if ("Thread-42".equals(itm.getName())) {
+                item = itm;
+            }
+        }
+
+        lister.clear();
+        for (int i = 40; i < 50; i++) {
+            lister.feed(i, "Thread-" + i, 200, 0);
+        }
+        lister.runCycle(2000);
+
+        List<ThreadRankItem> items = lister.list();
+        assertEquals(10, items.size());
+        assertTrue(items.contains(item));
+    }
 }
@@ -208,6 +208,24 @@ public class BytecodeInstrumentationUnitTest extends BytecodeInstrumentationFixt
     }
 
 
+    @Test
+    public void testFetchMoreArgumentsThanSpecializedSubmitsHandle() throws Exception {
+        engine.add(spy.instance("x")
+                .onEnter(spy.fetchArg("E0", 0), spy.fetchArg("E1", 1), spy.fetchArg("E2", 2),
+                        spy.fetchArg("E3", 3), spy.fetchArg("E4", 4))
+                .include(spy.byMethod(TCLASS1, "paramMethod1")));
+
+        Object obj = instantiate(engine, TCLASS1);
+        checkForError(invoke(obj, "paramMethod1", 10, 20L, (short) 30, (byte) 40));
+
+        assertEquals("should submit one record", 1, submitter.size());
+        assertEquals("should pass all values in array", 5, submitter.get(0).size());
+        assertSame(obj, submitter.get(0).get(0));
+        assertEquals(Long.valueOf(20), submitter.get(0).get(2));
+        assertEquals((byte) 40, submitter.get(0).get(4));
+    }
+
+
     @Test
     public void testFetchBooleanCharTypeArgument() throws Exception {
         engine.add(spy.instance("x").onEnter(spy.fetchArg("E0", 1), spy.fetchArg("E1", 2))
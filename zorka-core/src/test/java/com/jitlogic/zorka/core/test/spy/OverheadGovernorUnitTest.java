@@ -0,0 +1,188 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.spy;
+
+import com.jitlogic.zorka.common.ZorkaSubmitter;
+import com.jitlogic.zorka.common.tracedata.SymbolicRecord;
+import com.jitlogic.zorka.common.tracedata.TraceMarker;
+import com.jitlogic.zorka.common.tracedata.TraceRecord;
+import com.jitlogic.zorka.core.spy.*;
+import com.jitlogic.zorka.core.test.spy.support.TestCollector;
+import com.jitlogic.zorka.core.test.spy.support.TestSpyTransformer;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jitlogic.zorka.core.spy.SpyLib.*;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class OverheadGovernorUnitTest extends ZorkaFixture {
+
+    private static final long MS = 1000000L;
+
+    private List<TraceRecord> records = new ArrayList<TraceRecord>();
+
+
+    @After
+    public void resetGovernor() {
+        Tracer.setGovernor(null);
+    }
+
+
+    @Test
+    public void testStepDownAndRecover() {
+        OverheadGovernor g = new OverheadGovernor(spyTransformer, 1, 5.0, 2.0);
+
+        g.runCycle(0);
+
+        // 10% overhead
+        g.logRequestTime(100 * MS);
+        g.logTracerTime(10 * MS);
+        g.runCycle(1000 * MS);
+        assertThat(g.getLevel()).isEqualTo(OverheadGovernor.LEVEL_NO_ARGS);
+        assertThat(g.getOverhead()).isEqualTo(10.0);
+
+        for (int i = 2; i < 5; i++) {
+            g.logRequestTime(100 * MS);
+            g.logSpyTime(1, 10 * MS);
+            g.runCycle(i * 1000 * MS);
+        }
+        assertThat(g.getLevel()).isEqualTo(OverheadGovernor.LEVEL_NO_TRACER);
+
+        // 3% overhead - between thresholds, level stays
+        g.logRequestTime(100 * MS);
+        g.logTracerTime(3 * MS);
+        g.runCycle(5000 * MS);
+        assertThat(g.getLevel()).isEqualTo(OverheadGovernor.LEVEL_NO_TRACER);
+
+        g.logRequestTime(100 * MS);
+        g.logTracerTime(1 * MS);
+        g.runCycle(6000 * MS);
+        assertThat(g.getLevelName()).isEqualTo("NO_SAMPLING");
+    }
+
+
+    @Test
+    public void testSampledTimesAreScaledBySamplingRate() {
+        OverheadGovernor g = new OverheadGovernor(spyTransformer, 50, 5.0, 2.0);
+
+        int sampled = 0;
+        for (int i = 1; i <= 640; i++) {
+            if (g.sample(i)) {
+                sampled++;
+            }
+        }
+        assertThat(sampled).isEqualTo(10);
+
+        g.logTracerTime(1000);
+        assertThat(g.getTracerTime()).isEqualTo(64000L);
+    }
+
+
+    @Test
+    public void testSpyTimesAggregatedBySpyDefinition() {
+        TestSpyTransformer engine = new TestSpyTransformer(agentInstance.getSymbolRegistry(),
+                agentInstance.getTracer(), agentInstance.getRetransformer());
+        SpyDefinition sdef = engine.add(spy.instrument("sdef1"));
+        SpyContext c1 = engine.lookup(new SpyContext(sdef, "Class", "m1", "()V", 1));
+        SpyContext c2 = engine.lookup(new SpyContext(sdef, "Class", "m2", "()V", 1));
+
+        OverheadGovernor g = new OverheadGovernor(engine, 1, 5.0, 2.0);
+        g.logSpyTime(c1.getId(), 2 * MS);
+        g.logSpyTime(c2.getId(), 3 * MS);
+
+        assertThat(g.getSpyTimes().get("sdef1")).isEqualTo(5 * MS);
+        assertThat(g.listSpyTimes()).isEqualTo("sdef1: 5ms\n");
+    }
+
+
+    @Test
+    public void testArgProcessingSkippedAtFirstLevel() {
+        TestSpyTransformer engine = new TestSpyTransformer(agentInstance.getSymbolRegistry(),
+                agentInstance.getTracer(), agentInstance.getRetransformer());
+        TestCollector collector = new TestCollector();
+        DispatchingSubmitter submitter = new DispatchingSubmitter(engine);
+        SpyDefinition sdef = engine.add(spy.instrument("x")
+                .onEnter(spy.put("PROCESSED", true)).onSubmit(collector));
+        SpyContext ctx = engine.lookup(new SpyContext(sdef, "Class", "method", "()V", 1));
+
+        OverheadGovernor g = new OverheadGovernor(engine, 1, 5.0, 2.0);
+        Tracer.setGovernor(g);
+
+        g.setLevel(OverheadGovernor.LEVEL_NO_ARGS);
+        submitter.submit(ON_ENTER, ctx.getId(), SF_NONE, new Object[]{1L});
+        submitter.submit(ON_RETURN, ctx.getId(), SF_FLUSH, new Object[]{2L});
+
+        assertThat(collector.size()).isEqualTo(1);
+        assertThat(collector.get(0).get("PROCESSED")).isNull();
+
+        g.setLevel(OverheadGovernor.LEVEL_FULL);
+        submitter.submit(ON_ENTER, ctx.getId(), SF_NONE, new Object[]{1L});
+        submitter.submit(ON_RETURN, ctx.getId(), SF_FLUSH, new Object[]{2L});
+
+        assertThat(collector.size()).isEqualTo(2);
+        assertThat(collector.get(1).get("PROCESSED")).isEqualTo(true);
+    }
+
+
+    @Test
+    public void testTracerSuspendedAtLastLevel() {
+        int c1 = symbols.symbolId("some.Class"), m1 = symbols.symbolId("someMethod"),
+                s1 = symbols.symbolId("()V"), t1 = symbols.symbolId("TRACE1");
+
+        TraceBuilder b = new TraceBuilder(
+                new ZorkaSubmitter<SymbolicRecord>() {
+                    @Override
+                    public boolean submit(SymbolicRecord obj) {
+                        return records.add((TraceRecord) obj);
+                    }
+                }, symbols);
+
+        OverheadGovernor g = new OverheadGovernor(spyTransformer, 1, 5.0, 2.0);
+        Tracer.setGovernor(g);
+
+        // Trace started before degradation is completed
+        b.traceEnter(c1, m1, s1, 10 * MS);
+        b.traceBegin(t1, 100L, TraceMarker.DROP_INTERIM);
+        g.setLevel(OverheadGovernor.LEVEL_NO_TRACER);
+        b.traceEnter(c1, m1, s1, 20 * MS);
+        b.traceReturn(30 * MS);
+        b.traceReturn(100 * MS);
+        assertThat(records.size()).isEqualTo(1);
+        assertThat(records.get(0).numChildren()).isEqualTo(1);
+        assertThat(g.getRequestTime()).isEqualTo(90 * MS);
+
+        // New traces are not recorded
+        b.traceEnter(c1, m1, s1, 110 * MS);
+        b.traceBegin(t1, 100L, TraceMarker.DROP_INTERIM);
+        b.traceEnter(c1, m1, s1, 120 * MS);
+        g.setLevel(OverheadGovernor.LEVEL_FULL);
+        b.traceReturn(130 * MS);
+        b.traceError(new Exception(), 200 * MS);
+        assertThat(records.size()).isEqualTo(1);
+
+        // Tracer works again after recovery
+        b.traceEnter(c1, m1, s1, 210 * MS);
+        b.traceBegin(t1, 100L, TraceMarker.DROP_INTERIM);
+        b.traceReturn(300 * MS);
+        assertThat(records.size()).isEqualTo(2);
+    }
+}
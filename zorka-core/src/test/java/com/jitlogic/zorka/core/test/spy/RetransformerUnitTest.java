@@ -0,0 +1,216 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.jitlogic.zorka.core.test.spy;
+
+import com.jitlogic.zorka.core.spy.RealSpyRetransformer;
+import com.jitlogic.zorka.core.spy.SpyMatcher;
+import com.jitlogic.zorka.core.spy.SpyMatcherSet;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import org.junit.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class RetransformerUnitTest extends ZorkaFixture {
+
+    private static final Class<?>[] CLASSES = {
+            java.util.ArrayList.class, java.util.LinkedList.class, java.util.HashMap.class,
+            java.util.TreeMap.class, java.util.HashSet.class, java.util.TreeSet.class,
+            java.util.Vector.class, java.util.Hashtable.class, java.util.List.class,
+            java.lang.String.class, java.lang.Integer.class, java.lang.Long.class,
+    };
+
+    private List<Class<?>[]> batches = new ArrayList<Class<?>[]>();
+
+    private int scans;
+
+    private Class<?> failing;
+
+    private Instrumentation mockInstrumentation(final Class<?>[] classes) {
+        return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{Instrumentation.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("isRetransformClassesSupported".equals(name) || "isModifiableClass".equals(name)) {
+                            return true;
+                        } else if ("getAllLoadedClasses".equals(name)) {
+                            scans++;
+                            return classes;
+                        } else if ("retransformClasses".equals(name)) {
+                            if (Arrays.asList((Class<?>[]) args[0]).contains(failing)) {
+                                throw new UnmodifiableClassException(failing.getName());
+                            }
+                            synchronized (batches) {
+                                batches.add((Class<?>[]) args[0]);
+                            }
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+
+    private RealSpyRetransformer retransformer(int threads, int batchSize) {
+        configProperties.setProperty("zorka.retransform.threads", "" + threads);
+        configProperties.setProperty("zorka.retransform.batch.size", "" + batchSize);
+        configProperties.setProperty("zorka.retransform.batch.pause", "0");
+
+        Class<?>[] classes = new Class<?>[CLASSES.length * 100];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = CLASSES[i % CLASSES.length];
+        }
+
+        return new RealSpyRetransformer(mockInstrumentation(classes), config);
+    }
+
+
+    private Set<Class<?>> retransformed() {
+        Set<Class<?>> rslt = new HashSet<Class<?>>();
+        int n = 0;
+        for (Class<?>[] b : batches) {
+            for (Class<?> c : b) {
+                rslt.add(c);
+                n++;
+            }
+        }
+        assertThat(n).isEqualTo(100 * rslt.size());
+        return rslt;
+    }
+
+
+    @Test
+    public void testRetransformSeriallyInOneBatch() {
+        RealSpyRetransformer rt = retransformer(1, 0);
+
+        SpyMatcherSet sms = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*", null, null));
+
+        assertThat(rt.retransform(null, sms, true)).isTrue();
+        assertThat(batches.size()).isEqualTo(1);
+        assertThat(rt.getLastBatches()).isEqualTo(1);
+        assertThat(rt.getLastClasses()).isEqualTo(800);
+
+        Set<Class<?>> rslt = retransformed();
+        assertThat(rslt.size()).isEqualTo(8);
+        assertThat(rslt.contains(java.util.List.class)).isFalse();
+        assertThat(rslt.contains(java.lang.String.class)).isFalse();
+    }
+
+
+    @Test
+    public void testRetransformInParallelAndInBatches() {
+        RealSpyRetransformer rt = retransformer(4, 128);
+
+        SpyMatcherSet sms = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*", null, null));
+
+        assertThat(rt.retransform(null, sms, true)).isTrue();
+        assertThat(batches.size()).isEqualTo(7);
+        assertThat(rt.getLastBatches()).isEqualTo(7);
+        for (int i = 0; i < 6; i++) {
+            assertThat(batches.get(i).length).isEqualTo(128);
+        }
+        assertThat(batches.get(6).length).isEqualTo(32);
+        assertThat(retransformed().size()).isEqualTo(8);
+    }
+
+
+    @Test
+    public void testRetransformOnlyChangedClassesInParallel() {
+        RealSpyRetransformer rt = retransformer(4, 256);
+
+        SpyMatcherSet s1 = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*", null, null));
+        SpyMatcherSet s2 = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*Map", null, null));
+
+        assertThat(rt.retransform(s1, s2, false)).isTrue();
+
+        Set<Class<?>> rslt = retransformed();
+        assertThat(rslt.size()).isEqualTo(6);
+        assertThat(rslt.contains(java.util.HashMap.class)).isFalse();
+        assertThat(rslt.contains(java.util.ArrayList.class)).isTrue();
+    }
+
+
+    @Test
+    public void testRetransformNothing() {
+        RealSpyRetransformer rt = retransformer(4, 256);
+
+        SpyMatcherSet sms = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "com.nonexistent.*", null, null));
+
+        assertThat(rt.retransform(null, sms, true)).isFalse();
+        assertThat(batches.size()).isEqualTo(0);
+    }
+
+
+    @Test
+    public void testSkipScanWhenMatchersDidNotChange() {
+        RealSpyRetransformer rt = retransformer(4, 256);
+
+        SpyMatcherSet s1 = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*", null, null));
+        SpyMatcherSet s2 = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*", null, null));
+
+        assertThat(rt.retransform(s1, s2, false)).isFalse();
+        assertThat(scans).isEqualTo(0);
+        assertThat(batches.size()).isEqualTo(0);
+
+        SpyMatcherSet s3 = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*", null, null)
+                .priority(10));
+        assertThat(rt.retransform(s1, s3, false)).isFalse();
+        assertThat(scans).isEqualTo(1);
+    }
+
+
+    @Test
+    public void testRetryFailedBatchClassByClass() {
+        RealSpyRetransformer rt = retransformer(1, 128);
+        failing = java.util.TreeMap.class;
+
+        SpyMatcherSet sms = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*", null, null));
+
+        assertThat(rt.retransform(null, sms, true)).isTrue();
+
+        Set<Class<?>> rslt = retransformed();
+        assertThat(rslt.size()).isEqualTo(7);
+        assertThat(rslt.contains(java.util.TreeMap.class)).isFalse();
+        assertThat(rslt.contains(java.util.HashMap.class)).isTrue();
+    }
+
+
+    @Test
+    public void testRetransformAfterShutdown() {
+        RealSpyRetransformer rt = retransformer(4, 256);
+
+        SpyMatcherSet sms = new SpyMatcherSet(new SpyMatcher(SpyMatcher.BY_CLASS_NAME, 0, "java.util.*", null, null));
+
+        assertThat(rt.retransform(null, sms, true)).isTrue();
+        rt.shutdown();
+
+        batches.clear();
+        assertThat(rt.retransform(null, sms, true)).isTrue();
+        assertThat(retransformed().size()).isEqualTo(8);
+        rt.shutdown();
+    }
+}
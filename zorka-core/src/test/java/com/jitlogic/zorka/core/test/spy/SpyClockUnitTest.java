@@ -0,0 +1,110 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.spy;
+
+import com.jitlogic.zorka.core.spy.SpyClock;
+import com.jitlogic.zorka.core.test.support.BytecodeInstrumentationFixture;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import static com.jitlogic.zorka.core.test.support.TestUtil.*;
+
+public class SpyClockUnitTest extends BytecodeInstrumentationFixture {
+
+    @After
+    public void stopClock() {
+        SpyClock.stop();
+    }
+
+
+    @Test
+    public void testDefaultClockIsPrecise() {
+        assertFalse(SpyClock.isCoarse());
+        long t1 = SpyClock.nanoTime();
+        long t2 = SpyClock.nanoTime();
+        assertTrue(t2 >= t1);
+        assertNotSame(SpyClock.boxedTime(), SpyClock.boxedTime());
+    }
+
+
+    @Test
+    public void testCoarseClockAdvancesInBackground() throws Exception {
+        SpyClock.startCoarse(1000000L);
+        assertTrue(SpyClock.isCoarse());
+        assertEquals(1000000L, SpyClock.getResolution());
+
+        long t1 = SpyClock.nanoTime(), t2 = t1;
+        for (int i = 0; i < 1000 && t2 == t1; i++) {
+            Thread.sleep(5);
+            t2 = SpyClock.nanoTime();
+        }
+
+        assertTrue("coarse clock should advance", t2 > t1);
+        assertTrue("coarse clock should not run ahead of precise one", t2 <= System.nanoTime());
+    }
+
+
+    @Test
+    public void testCoarseClockReusesBoxedValue() {
+        SpyClock.startManual();
+        assertTrue(SpyClock.isCoarse());
+        Long b1 = SpyClock.boxedTime();
+        assertSame(b1, SpyClock.boxedTime());
+        assertEquals(SpyClock.nanoTime(), b1.longValue());
+
+        SpyClock.advance(1000L);
+        assertEquals(b1 + 1000L, SpyClock.nanoTime());
+        assertEquals(SpyClock.nanoTime(), SpyClock.boxedTime().longValue());
+    }
+
+
+    @Test
+    public void testStopRestoresPreciseClock() {
+        SpyClock.startCoarse(60000000000L);
+        SpyClock.stop();
+        assertFalse(SpyClock.isCoarse());
+        assertEquals(0L, SpyClock.getResolution());
+    }
+
+
+    @Test
+    public void testTimeProbeWithCoarseClock() throws Exception {
+        SpyClock.startManual();
+
+        engine.add(spy.instance("x").onEnter(spy.fetchTime("E0"))
+                .include(spy.byMethod(TCLASS1, "trivialMethod")));
+        Object obj = instantiate(engine, TCLASS1);
+
+        invoke(obj, "trivialMethod");
+
+        assertEquals(1, submitter.size());
+        assertSame("probe should fetch cached time", SpyClock.boxedTime(), submitter.get(0).get(0));
+    }
+
+
+    @Test
+    public void testBenchmarkAndRecommendation() {
+        long cost = SpyClock.benchmark(1000);
+        assertTrue(cost >= 0);
+        assertTrue(SpyClock.recommend(SpyClock.SLOW_CLOCK_COST + 1).contains("coarse"));
+        assertTrue(SpyClock.recommend(1).contains("nano"));
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.spy;
+
+import com.jitlogic.zorka.core.spy.MainSubmitter;
+import com.jitlogic.zorka.core.spy.SpySubmitter;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Compares heap allocations per spy submission of generic (array based) submit entry point
+ * and arity-specialized ones. Generic call site allocates value array on every call, so
+ * it mirrors code emitted for all probes before specialized entry points were introduced.
+ * Requires HotSpot (com.sun.management.ThreadMXBean) to measure allocated bytes.
+ */
+public class SpySubmitAllocManualTest extends ZorkaFixture {
+
+    private static final int CALLS = 1000000;
+
+    private static final Object V0 = "a", V1 = "b", V2 = "c", V3 = "d";
+
+    /**
+     * Values are published here, so JIT cannot eliminate array allocations (real submitters are too big
+     * to be inlined into instrumented code, so arrays always escape there).
+     */
+    private static volatile Object[] sink;
+
+
+    @After
+    public void resetSubmitter() {
+        MainSubmitter.setSubmitter(null);
+    }
+
+
+    private long allocatedBytes() throws Exception {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Method m = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+        return (Long) m.invoke(mx, Thread.currentThread().getId());
+    }
+
+
+    private void report(String label, long bytes) {
+        System.out.println(String.format("%-24s %8.2f bytes/call", label, 1.0 * bytes / CALLS));
+    }
+
+
+    @Test
+    public void compareAllocationsPerSubmission() throws Exception {
+        MainSubmitter.setSubmitter(new SpySubmitter() {
+            @Override
+            public void submit(int stage, int id, int submitFlags, Object[] vals) {
+                sink = vals;
+            }
+        });
+
+        for (int pass = 0; pass < 3; pass++) {
+            long t0 = allocatedBytes();
+            for (int i = 0; i < CALLS; i++) {
+                MainSubmitter.submit(0, 1, 0, new Object[]{V0, V1});
+            }
+            long t1 = allocatedBytes();
+            for (int i = 0; i < CALLS; i++) {
+                MainSubmitter.submit2(0, 1, 0, V0, V1);
+            }
+            long t2 = allocatedBytes();
+            for (int i = 0; i < CALLS; i++) {
+                MainSubmitter.submit(0, 1, 0, new Object[]{V0, V1, V2, V3});
+            }
+            long t3 = allocatedBytes();
+            for (int i = 0; i < CALLS; i++) {
+                MainSubmitter.submit4(0, 1, 0, V0, V1, V2, V3);
+            }
+            long t4 = allocatedBytes();
+
+            System.out.println("Pass " + pass + ":");
+            report("submit(Object[2])", t1 - t0);
+            report("submit2()", t2 - t1);
+            report("submit(Object[4])", t3 - t2);
+            report("submit4()", t4 - t3);
+        }
+    }
+}
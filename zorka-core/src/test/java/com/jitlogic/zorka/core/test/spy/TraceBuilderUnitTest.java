@@ -561,4 +561,124 @@ public class TraceBuilderUnitTest extends ZorkaFixture {
         assertThat(records.get(0).numAttrs()).isEqualTo(1);
     }
 
+
+
+    @Test
+    public void testSampledOutTraceSkipsNestedCalls() throws Exception {
+        b.traceEnter(c1, m1, s1, 100 * MS);
+        b.traceBegin(t1, 100L, TraceMarker.DROP_INTERIM);
+        b.sampleOut(t1, 0, true);
+        b.traceEnter(c1, m2, s1, 200 * MS);
+        b.traceEnter(c1, m3, s1, 200 * MS);
+        b.traceReturn(300 * MS);
+        b.traceReturn(300 * MS);
+        b.traceReturn(400 * MS);
+
+        checkRC(0);
+    }
+
+
+    @Test
+    public void testSampledOutTraceSubmittedOnError() throws Exception {
+        b.traceEnter(c1, m1, s1, 100 * MS);
+        b.traceBegin(t1, 100L, TraceMarker.DROP_INTERIM);
+        b.sampleOut(t1, 0, true);
+        b.traceEnter(c1, m2, s1, 200 * MS);
+        b.traceReturn(300 * MS);
+        b.traceError(new Exception("oja!"), 400 * MS);
+
+        checkRC(1, 0);
+        assertEquals(2, records.get(0).getCalls());
+        assertTrue(records.get(0).getMarker().hasFlag(TraceMarker.SAMPLED_OUT));
+    }
+
+
+    @Test
+    public void testSampledOutTraceSubmittedWhenSlow() throws Exception {
+        b.traceEnter(c1, m1, s1, 100 * MS);
+        b.traceBegin(t1, 100L, TraceMarker.DROP_INTERIM);
+        b.sampleOut(t1, 500 * MS, false);
+        b.traceReturn(400 * MS);
+
+        checkRC(0);
+
+        b.traceEnter(c1, m1, s1, 100 * MS);
+        b.traceBegin(t1, 100L, TraceMarker.DROP_INTERIM);
+        b.sampleOut(t1, 500 * MS, false);
+        b.traceReturn(700 * MS);
+
+        checkRC(1, 0);
+    }
+
+
+    @Test
+    public void testTraceSamplerRateLimit() throws Exception {
+        TraceSampler sampler = new TraceSampler(1.0, 2.0, 0, true);
+
+        assertTrue(sampler.sample(b, t1, 1000 * MS));
+        assertTrue(sampler.sample(b, t1, 1000 * MS));
+        assertFalse(sampler.sample(b, t1, 1000 * MS));
+        assertTrue(sampler.sample(b, t2, 1000 * MS));
+        assertTrue(sampler.sample(b, t1, 1500 * MS));
+        assertFalse(sampler.sample(b, t1, 1500 * MS));
+    }
+
+
+    @Test
+    public void testTraceSamplerProbability() throws Exception {
+        TraceSampler sampler = new TraceSampler(0.25, 0, 0, true);
+
+        int n = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (sampler.sample(b, t1, i)) {
+                n++;
+            }
+        }
+
+        assertThat(n).isGreaterThan(2000).isLessThan(3000);
+    }
+
+
+
+    @Test
+    public void testTracerTunerExcludesHotShortMethods() throws Exception {
+        Tracer t = agentInstance.getTracer();
+        TracerTuner tuner = new TracerTuner(t, symbols, null, 100, 0.01, 16, 10);
+        Tracer.setTuner(tuner);
+        t.include(SpyMatcher.fromString("some.Class/*"));
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                b.traceEnter(c1, m1, s1, 10 * MS);
+                b.traceReturn(10 * MS + 100);
+                b.traceEnter(c1, m2, s1, 10 * MS);
+                b.traceReturn(20 * MS);
+            }
+            tuner.runCycle();
+        } finally {
+            Tracer.setTuner(null);
+        }
+
+        assertThat(tuner.size()).isEqualTo(1);
+        assertThat(tuner.listExclusions()).startsWith("some.Class.someMethod ()V: calls=200, survived=0");
+        assertFalse(t.getMatcherSet().methodMatch("some.Class", null, null, 1, "someMethod", "()V", null));
+        assertTrue(t.getMatcherSet().methodMatch("some.Class", null, null, 1, "someMethod", "(I)V", null));
+        assertTrue(t.getMatcherSet().methodMatch("some.Class", null, null, 1, "otherMethod", "()V", null));
+    }
+
+
+    @Test
+    public void testTracerTunerCountersDoNotOverflow() throws Exception {
+        Tracer t = agentInstance.getTracer();
+        TracerTuner tuner = new TracerTuner(t, symbols, null, 100, 0.01, 16, 10);
+        MethodCallCounter local = new MethodCallCounter();
+        local.logCalls(c1, m1, s1, 0L, 0xffffffffL * TracerTuner.DROPPED_CALL);
+
+        tuner.submit(local);
+        tuner.submit(local);
+        tuner.runCycle();
+
+        assertThat(tuner.listExclusions()).startsWith("some.Class.someMethod ()V: calls=8589934590, survived=0");
+    }
+
 }
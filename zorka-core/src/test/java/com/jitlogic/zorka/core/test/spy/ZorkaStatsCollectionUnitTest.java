@@ -19,6 +19,8 @@ package com.jitlogic.zorka.core.test.spy;
 import com.jitlogic.zorka.common.stats.MethodCallStatistic;
 import com.jitlogic.zorka.core.test.support.ZorkaFixture;
 import com.jitlogic.zorka.common.stats.MethodCallStatistics;
+import com.jitlogic.zorka.common.stats.StatsSweeper;
+import com.jitlogic.zorka.common.stats.TopMethodCallStatistics;
 import com.jitlogic.zorka.core.spy.SpyContext;
 import com.jitlogic.zorka.core.spy.plugins.ZorkaStatsCollector;
 
@@ -182,4 +184,56 @@ public class ZorkaStatsCollectionUnitTest extends ZorkaFixture {
         assertEquals(0L, stat.getCurThreads());
     }
 
+
+    @Test
+    public void testCollectToBoundedStatsMbean() throws Exception {
+        ZorkaStatsCollector collector = new ZorkaStatsCollector(mBeanServerRegistry, "test", "test:name=Test", "stats",
+                "${methodName}", "T", null, ZorkaStatsCollector.ACTION_STATS, 2);
+
+        for (String m : new String[] { "a", "a", "b", "c" }) {
+            SpyContext ctx = new SpyContext(spy.instance("x"), "TClass", m, "()V", 1);
+            Map<String, Object> record = ZorkaUtil.map(".CTX", ctx, ".STAGE", ON_SUBMIT, ".STAGES", (1 << ON_RETURN), "T", 10L);
+            collector.process(record);
+        }
+
+        TopMethodCallStatistics stats = (TopMethodCallStatistics) getAttr(testMbs, "test:name=Test", "stats");
+
+        assertEquals(2L, ((MethodCallStatistic) stats.getStatistic("a")).getCalls());
+        assertNotNull(stats.getStatistic("c"));
+        assertNull(stats.getStatistic("b"));
+        assertEquals(1L, ((MethodCallStatistic) stats.getStatistic(TopMethodCallStatistics.OTHER)).getCalls());
+    }
+
+
+    @Test
+    public void testSweepIdleContextsFromStatsCache() throws Exception {
+        ZorkaStatsCollector collector = new ZorkaStatsCollector(mBeanServerRegistry, "test", "test:name=${shortClassName}",
+                "stats", "${methodName}", "T", null, ZorkaStatsCollector.ACTION_STATS);
+
+        SpyContext ctx = new SpyContext(spy.instance("x"), "some.TClass", "testMethod", "()V", 1);
+        Map<String, Object> record = ZorkaUtil.map(".CTX", ctx, ".STAGE", ON_SUBMIT, ".STAGES", (1 << ON_RETURN), "T", 10L);
+        collector.process(record);
+
+        assertEquals(1, collector.getCacheSize());
+        assertEquals(0, collector.sweep(StatsSweeper.tick()));
+        assertEquals(1, collector.sweep(StatsSweeper.tick() + 1));
+        assertEquals(0, collector.getCacheSize());
+
+        // Statistics themselves remain registered
+        MethodCallStatistics stats = (MethodCallStatistics) getAttr(testMbs, "test:name=TClass", "stats");
+        assertNotNull(stats.getStatistic("testMethod"));
+    }
+
+
+    @Test
+    public void testConstantKeyStatisticIsPinned() throws Exception {
+        ZorkaStatsCollector collector = new ZorkaStatsCollector(mBeanServerRegistry, "test", "test:name=Test", "stats",
+                "test", "T", null, ZorkaStatsCollector.ACTION_STATS);
+
+        MethodCallStatistics stats = (MethodCallStatistics) getAttr(testMbs, "test:name=Test", "stats");
+
+        assertEquals(0, stats.sweep(StatsSweeper.tick() + 1));
+        assertNotNull(stats.getStatistic("test"));
+    }
+
 }
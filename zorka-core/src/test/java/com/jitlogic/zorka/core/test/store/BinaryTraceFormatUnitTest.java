@@ -0,0 +1,243 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.store;
+
+import com.jitlogic.zorka.common.tracedata.*;
+import com.jitlogic.zorka.common.util.ZorkaUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BinaryTraceFormatUnitTest {
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private SymbolRegistry symbols = new SymbolRegistry();
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private BinaryTraceWriter writer;
+
+    private TraceStreamOutput mkf(final OutputStream output) {
+        return new TraceStreamOutput() {
+            @Override
+            public OutputStream getOutputStream() {
+                return output;
+            }
+        };
+    }
+
+    private int sid(String symbol) {
+        return symbols.symbolId(symbol);
+    }
+
+
+    private List<Object> readAll() throws Exception {
+        BinaryTraceReader reader = new BinaryTraceReader(new ByteArrayInputStream(output.toByteArray()));
+        List<Object> objs = new ArrayList<Object>();
+        for (Object obj = reader.readObject(); obj != null; obj = reader.readObject()) {
+            objs.add(obj);
+        }
+        return objs;
+    }
+
+
+    private TraceRecord lastRecord(List<Object> objs) {
+        for (Object obj : objs) {
+            if (obj instanceof Symbol) {
+                Symbol s = (Symbol) obj;
+                assertThat(s.getId()).isEqualTo(sid(s.getName()));
+            }
+        }
+        return (TraceRecord) objs.get(objs.size() - 1);
+    }
+
+
+    public TraceRecord tr(String className, String methodName, String methodSignature,
+                          long calls, long errors, int flags, long time,
+                          TraceRecord... children) {
+        TraceRecord tr = new TraceRecord(null);
+        tr.setClassId(sid(className));
+        tr.setMethodId(sid(methodName));
+        tr.setSignatureId(sid(methodSignature));
+        tr.setCalls(calls);
+        tr.setErrors(errors);
+        tr.setFlags(flags);
+        tr.setTime(time);
+
+        for (TraceRecord child : children) {
+            child.setParent(tr);
+            tr.addChild(child);
+        }
+
+        return tr;
+    }
+
+
+    @Before
+    public void setUp() {
+        writer = new BinaryTraceWriter(symbols, metrics);
+        writer.setOutput(mkf(output));
+    }
+
+
+    @Test
+    public void testReadWriteTraceRecordWithAttrsAndMarker() throws Exception {
+        TraceRecord tr = tr("some.Class", "someMethod", "()V", 1, 0, TraceRecord.TRACE_BEGIN, 100);
+        TraceMarker tm = new TraceMarker(tr, sid("TRACE"), 1400000000000L);
+        tm.setFlags(TraceMarker.OVERFLOW_FLAG);
+        tr.setMarker(tm);
+        tr.setAttr(sid("ATTR1"), 10);
+        tr.setAttr(sid("ATTR2"), "bork");
+        tr.setAttr(sid("ATTR3"), 1.23);
+        tr.setAttr(sid("ATTR4"), -5L);
+        tr.setAttr(sid("ATTR5"), true);
+        tr.setAttr(sid("ATTR6"), ZorkaUtil.<String, Object>map("a", 1L));
+
+        writer.write(tr);
+
+        TraceRecord tr2 = lastRecord(readAll());
+
+        assertThat(tr2.getClassId()).isEqualTo(sid("some.Class"));
+        assertThat(tr2.getMethodId()).isEqualTo(sid("someMethod"));
+        assertThat(tr2.getFlags()).isEqualTo(TraceRecord.TRACE_BEGIN);
+        assertThat(tr2.getTime()).isEqualTo(100L);
+        assertThat(tr2.getCalls()).isEqualTo(1L);
+
+        assertThat(tr2.getMarker().getTraceId()).isEqualTo(sid("TRACE"));
+        assertThat(tr2.getMarker().getClock()).isEqualTo(1400000000000L);
+        assertThat(tr2.getMarker().getFlags()).isEqualTo(TraceMarker.OVERFLOW_FLAG);
+
+        assertThat(tr2.getAttr(sid("ATTR1"))).isEqualTo(10L);
+        assertThat(tr2.getAttr(sid("ATTR2"))).isEqualTo("bork");
+        assertThat(tr2.getAttr(sid("ATTR3"))).isEqualTo(1.23);
+        assertThat(tr2.getAttr(sid("ATTR4"))).isEqualTo(-5L);
+        assertThat(tr2.getAttr(sid("ATTR5"))).isEqualTo(true);
+        assertThat(tr2.getAttr(sid("ATTR6"))).isEqualTo(ZorkaUtil.<String, Object>map("a", 1L));
+    }
+
+
+    @Test
+    public void testReadWriteRecursiveTraceWithRelativeTimes() throws Exception {
+        TraceRecord tr =
+                tr("some.Class", "someMethod", "()V", 4, 1, 0, 1000000,
+                        tr("other.Class", "otherMethod", "()V", 1, 0, 0, 999000),
+                        tr("other.Class", "thirdMethod", "()V", 2, 1, TraceRecord.EXCEPTION_PASS, 50,
+                                tr("other.Class", "fourthMethod", "()V", 1, 0, 0, 45)));
+
+        writer.write(tr);
+
+        TraceRecord tr2 = lastRecord(readAll());
+
+        assertThat(tr2.getTime()).isEqualTo(1000000L);
+        assertThat(tr2.getCalls()).isEqualTo(4L);
+        assertThat(tr2.getErrors()).isEqualTo(1L);
+        assertThat(tr2.numChildren()).isEqualTo(2);
+        assertThat(tr2.getChild(0).getTime()).isEqualTo(999000L);
+        assertThat(tr2.getChild(0).getParent()).isSameAs(tr2);
+        assertThat(tr2.getChild(1).getTime()).isEqualTo(50L);
+        assertThat(tr2.getChild(1).getFlags()).isEqualTo(TraceRecord.EXCEPTION_PASS);
+        assertThat(tr2.getChild(1).getChild(0).getTime()).isEqualTo(45L);
+        assertThat(tr2.getChild(1).getChild(0).getMethodId()).isEqualTo(sid("fourthMethod"));
+    }
+
+
+    @Test
+    public void testReadWriteTraceRecordWithException() throws Exception {
+        TraceRecord tr = tr("some.Class", "someMethod", "()V", 1, 1, TraceRecord.EXCEPTION_WRAP, 100);
+        Exception e = new RuntimeException("oja!", new IllegalArgumentException("bork"));
+        tr.setException(new SymbolicException(e, symbols, true));
+
+        writer.write(tr);
+
+        TraceRecord tr2 = lastRecord(readAll());
+        SymbolicException se = (SymbolicException) tr2.getException();
+
+        assertThat(se).isEqualTo(tr.getException());
+        assertThat(se.getMessage()).isEqualTo("oja!");
+        assertThat(se.getStackTrace().length).isEqualTo(e.getStackTrace().length);
+        assertThat(se.getCause().getMessage()).isEqualTo("bork");
+        assertThat(se.getCause().getClassId()).isEqualTo(sid(IllegalArgumentException.class.getName()));
+    }
+
+
+    @Test
+    public void testSymbolsAreSentOnlyOnceAndResentAfterReset() throws Exception {
+        writer.write(tr("some.Class", "someMethod", "()V", 1, 0, 0, 100));
+        writer.write(tr("some.Class", "someMethod", "()V", 1, 0, 0, 200));
+
+        List<Object> objs = readAll();
+        assertThat(objs.size()).isEqualTo(5);
+
+        output.reset();
+        writer.reset();
+        writer.write(tr("some.Class", "someMethod", "()V", 1, 0, 0, 300));
+
+        objs = readAll();
+        assertThat(objs.size()).isEqualTo(4);
+        assertThat(lastRecord(objs).getTime()).isEqualTo(300L);
+    }
+
+
+    @Test
+    public void testReadWriteMetricAndPerfRecordAsFressianBlobs() throws Exception {
+        MetricTemplate mt = metrics.getTemplate(
+                new MetricTemplate(0, MetricTemplate.RAW_DATA, "test", "Test Metric", "m/s", "nomNom", "divDiv"));
+        Metric m = metrics.getMetric(
+                new RawDataMetric(0, mt.getId(), "test", "Test", ZorkaUtil.<String, Object>map("a", 1)));
+        m.setTemplate(mt);
+        m.setTemplateId(mt.getId());
+
+        List<PerfSample> samples = new ArrayList<PerfSample>();
+        samples.add(new PerfSample(m.getId(), 42L));
+        writer.write(new PerfRecord(100L, sid("JMX"), samples));
+
+        List<Object> objs = readAll();
+
+        assertThat(objs.get(objs.size() - 3)).isInstanceOf(MetricTemplate.class);
+        assertThat(objs.get(objs.size() - 2)).isInstanceOf(RawDataMetric.class);
+        PerfRecord pr = (PerfRecord) objs.get(objs.size() - 1);
+        assertThat(pr.getClock()).isEqualTo(100L);
+        assertThat(pr.getSamples().get(0).getValue()).isEqualTo(42L);
+    }
+
+
+    @Test
+    public void testBinaryTraceIsSmallerThanFressian() throws Exception {
+        TraceRecord tr = tr("some.Class", "someMethod", "()V", 1, 0, 0, 10000000);
+        for (int i = 0; i < 100; i++) {
+            TraceRecord c = tr("other.Class", "method" + (i % 10), "()V", 1, 0, 0, 90000 + i);
+            c.setAttr(sid("SQL"), "select 1");
+            c.setParent(tr);
+            tr.addChild(c);
+        }
+
+        writer.write(tr);
+
+        ByteArrayOutputStream fos = new ByteArrayOutputStream();
+        FressianTraceWriter fw = new FressianTraceWriter(symbols, metrics);
+        fw.setOutput(mkf(fos));
+        fw.write(tr);
+
+        assertThat(output.size()).isLessThan(fos.size());
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.store;
+
+import com.jitlogic.zorka.common.tracedata.*;
+import com.jitlogic.zorka.common.util.LZ4Codec;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import org.fressian.FressianReader;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.jitlogic.zorka.common.tracedata.FressianTraceFormat.READ_LOOKUP;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class BlockTraceFileUnitTest extends ZorkaFixture {
+
+    private byte[] lz4RoundTrip(byte[] data) throws Exception {
+        byte[] c = new byte[LZ4Codec.maxCompressedLength(data.length)];
+        int clen = LZ4Codec.compress(data, 0, data.length, c, 0);
+        byte[] d = new byte[data.length];
+        assertThat(LZ4Codec.decompress(c, 0, clen, d, 0, d.length)).isEqualTo(data.length);
+        assertThat(Arrays.equals(data, d)).isTrue();
+        return Arrays.copyOf(c, clen);
+    }
+
+
+    @Test
+    public void testLz4RoundTripVariousInputs() throws Exception {
+        Random rand = new Random(42);
+
+        for (int len : new int[]{0, 1, 5, 12, 13, 64, 1000, 65536, 200000}) {
+            byte[] rnd = new byte[len], txt = new byte[len], zero = new byte[len];
+            rand.nextBytes(rnd);
+            for (int i = 0; i < len; i++) {
+                txt[i] = (byte) ("some.Class.someMethod()V ".charAt(i % 25) + (rand.nextInt(50) == 0 ? 1 : 0));
+            }
+            lz4RoundTrip(rnd);
+            lz4RoundTrip(txt);
+            lz4RoundTrip(zero);
+        }
+
+        byte[] zero = new byte[65536];
+        assertThat(lz4RoundTrip(zero).length).isLessThan(1024);
+    }
+
+
+    @Test(expected = IOException.class)
+    public void testLz4DetectsMalformedData() throws Exception {
+        byte[] c = {(byte) 0x1f, 'a', 10, 0, 0};
+        LZ4Codec.decompress(c, 0, c.length, new byte[64], 0, 64);
+    }
+
+
+    private File writeBlocks(int codec, int nblocks) throws Exception {
+        File f = new File(getTmpDir(), "blocks-" + codec + ".ztr");
+        BlockTraceOutputStream os = new BlockTraceOutputStream(new FileOutputStream(f), codec, 1024);
+        for (int b = 0; b < nblocks; b++) {
+            for (int i = 0; i < 100; i++) {
+                os.mark(1000L * b + i);
+                os.write(("block " + b + " record " + i + "\n").getBytes());
+            }
+            os.endBlock();
+        }
+        os.close();
+        return f;
+    }
+
+
+    @Test
+    public void testWriteAndReadBlocksWithAllCodecs() throws Exception {
+        for (int codec : new int[]{BlockTraceOutputStream.CODEC_NONE, BlockTraceOutputStream.CODEC_DEFLATE,
+                BlockTraceOutputStream.CODEC_LZ4}) {
+            BlockTraceFile bf = new BlockTraceFile(writeBlocks(codec, 5));
+
+            List<BlockTraceFile.Block> blocks = bf.getBlocks();
+            assertThat(blocks.size()).isEqualTo(5);
+            assertThat(blocks.get(2).getFirstClock()).isEqualTo(2000L);
+            assertThat(blocks.get(2).getLastClock()).isEqualTo(2099L);
+
+            String s = new String(bf.read(blocks.get(3)));
+            assertThat(s).startsWith("block 3 record 0\n").endsWith("block 3 record 99\n");
+
+            if (codec != BlockTraceOutputStream.CODEC_NONE) {
+                assertThat(blocks.get(3).getSize()).isLessThan(blocks.get(3).getRawSize());
+            }
+
+            bf.close();
+        }
+    }
+
+
+    @Test
+    public void testSeekByTimeAndParallelRead() throws Exception {
+        BlockTraceFile bf = new BlockTraceFile(writeBlocks(BlockTraceOutputStream.CODEC_LZ4, 10));
+
+        List<BlockTraceFile.Block> found = bf.find(3050, 5010);
+        assertThat(found.size()).isEqualTo(3);
+        assertThat(found.get(0).getFirstClock()).isEqualTo(3000L);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<byte[]> data = bf.read(bf.getBlocks(), executor);
+            assertThat(data.size()).isEqualTo(10);
+            for (int i = 0; i < 10; i++) {
+                assertThat(new String(data.get(i))).startsWith("block " + i + " record 0\n");
+            }
+        } finally {
+            executor.shutdown();
+            bf.close();
+        }
+    }
+
+
+    @Test
+    public void testDetectCorruptedBlockAndIgnoreTruncatedTail() throws Exception {
+        File f = writeBlocks(BlockTraceOutputStream.CODEC_NONE, 3);
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(4 + BlockTraceOutputStream.HEADER_SIZE + 10);
+        raf.write('X');
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        BlockTraceFile bf = new BlockTraceFile(f);
+        assertThat(bf.getBlocks().size()).isEqualTo(2);
+
+        try {
+            bf.read(bf.getBlocks().get(0));
+            fail("Corrupted block should be detected.");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("Checksum");
+        }
+
+        bf.close();
+    }
+
+
+    private TraceRecord trace(long clock, int i) {
+        TraceRecord tr = new TraceRecord(null);
+        tr.setClassId(symbols.symbolId("some.Class"));
+        tr.setMethodId(symbols.symbolId("method" + (i % 10)));
+        tr.setSignatureId(symbols.symbolId("()V"));
+        tr.setFlags(TraceRecord.TRACE_BEGIN);
+        tr.setTime(1000000L + i);
+        tr.setCalls(1);
+        tr.setMarker(new TraceMarker(tr, symbols.symbolId("TEST"), clock));
+        tr.setAttr(symbols.symbolId("DATA"), "some data to fill blocks: " + i);
+        return tr;
+    }
+
+
+    @Test
+    public void testFileTraceOutputWritesIndependentlyDecodableBlocks() throws Exception {
+        File f = new File(getTmpDir(), "trace.ztr");
+        FileTraceOutput output = new FileTraceOutput(new FressianTraceWriter(symbols, new MetricsRegistry()), f, 4, 16 * 1024 * 1024,
+                true, BlockTraceOutputStream.CODEC_LZ4, 4096);
+        output.open();
+
+        for (int i = 0; i < 1000; i++) {
+            output.submit(trace(1400000000000L + i, i));
+            output.runCycle();
+        }
+
+        output.close();
+
+        BlockTraceFile bf = new BlockTraceFile(f);
+        List<BlockTraceFile.Block> blocks = bf.getBlocks();
+        assertThat(blocks.size()).isGreaterThan(5);
+
+        List<TraceRecord> records = new ArrayList<TraceRecord>();
+
+        for (BlockTraceFile.Block b : blocks) {
+            FressianReader reader = new FressianReader(new ByteArrayInputStream(bf.read(b)), READ_LOOKUP);
+            List<Symbol> syms = new ArrayList<Symbol>();
+            List<TraceRecord> recs = new ArrayList<TraceRecord>();
+            try {
+                for (Object obj = reader.readObject(); obj != null; obj = reader.readObject()) {
+                    if (obj instanceof Symbol) {
+                        syms.add((Symbol) obj);
+                    } else {
+                        recs.add((TraceRecord) obj);
+                    }
+                }
+            } catch (EOFException e) {
+            }
+            assertThat(syms.size()).isGreaterThan(0);
+            assertThat(recs.get(0).getClock()).isEqualTo(b.getFirstClock());
+            assertThat(recs.get(recs.size() - 1).getClock()).isEqualTo(b.getLastClock());
+            records.addAll(recs);
+        }
+
+        bf.close();
+
+        assertThat(records.size()).isEqualTo(1000);
+    }
+
+
+    @Test
+    public void testFileTraceOutputWritesPartialBlockAfterEachBatch() throws Exception {
+        File f = new File(getTmpDir(), "trace.ztr");
+        FileTraceOutput output = new FileTraceOutput(new FressianTraceWriter(symbols, new MetricsRegistry()), f, 4, 16 * 1024 * 1024,
+                true, BlockTraceOutputStream.CODEC_LZ4, 65536);
+        output.open();
+
+        output.submit(trace(1400000000000L, 1));
+        output.runCycle();
+
+        BlockTraceFile bf = new BlockTraceFile(f);
+        List<BlockTraceFile.Block> blocks = bf.getBlocks();
+        assertThat(blocks.size()).isEqualTo(1);
+        assertThat(blocks.get(0).getFirstClock()).isEqualTo(1400000000000L);
+
+        FressianReader reader = new FressianReader(new ByteArrayInputStream(bf.read(blocks.get(0))), READ_LOOKUP);
+        List<TraceRecord> recs = new ArrayList<TraceRecord>();
+        try {
+            for (Object obj = reader.readObject(); obj != null; obj = reader.readObject()) {
+                if (obj instanceof TraceRecord) {
+                    recs.add((TraceRecord) obj);
+                }
+            }
+        } catch (EOFException e) {
+        }
+        bf.close();
+        output.close();
+
+        assertThat(recs.size()).isEqualTo(1);
+        assertThat(recs.get(0).getClock()).isEqualTo(1400000000000L);
+    }
+}
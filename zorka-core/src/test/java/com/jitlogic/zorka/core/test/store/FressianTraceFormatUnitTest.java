@@ -29,8 +29,10 @@ import static org.fest.assertions.Assertions.assertThat;
 import static com.jitlogic.zorka.common.tracedata.FressianTraceFormat.READ_LOOKUP;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class FressianTraceFormatUnitTest {
@@ -329,4 +331,200 @@ public class FressianTraceFormatUnitTest {
         assertThat(pr2.getSamples()).isEqualTo(Arrays.asList(ps(m, 100L, 100L), ps(m, 200L, 200L)));
     }
 
+
+
+    @Test
+    public void testReadWriteColumnarPerfRecord() throws Exception {
+        MetricTemplate mt = metrics.getTemplate(
+                new MetricTemplate(0, MetricTemplate.RAW_DATA, "test", "Test Metric", "m/s", "nomNom", "divDiv"));
+
+        Metric m = metrics.getMetric(
+                new RawDataMetric(0, mt.getId(), "test", "Test", ZorkaUtil.<String, Object>map("a", 1, "b", 2)));
+
+        m.setTemplate(mt);
+        m.setTemplateId(mt.getId());
+
+        ColumnarPerfRecord.Builder b = new ColumnarPerfRecord.Builder();
+        b.add(m.getId(), 1.5);
+        b.addAttr(sid("NAME"), "bean1");
+        b.add(m.getId(), 100L);
+        b.addAttr(sid("NAME"), "bean2");
+        b.addAttr(sid("TYPE"), "x");
+        b.add(m.getId(), 200);
+
+        writer.write(b.build(100L, sid("PERF")));
+
+        FressianReader reader = reader();
+        Object obj = reader.readObject();
+
+        while (obj != null && !(obj instanceof ColumnarPerfRecord)) {
+            obj = reader.readObject();
+        }
+
+        ColumnarPerfRecord pr = (ColumnarPerfRecord) obj;
+        assertThat(pr).isNotNull();
+        assertThat(pr.getClock()).isEqualTo(100L);
+        assertThat(pr.getScannerId()).isEqualTo(sid("PERF"));
+        assertThat(pr.getLongVals()).isEqualTo(new long[]{100L, 200L});
+        assertThat(pr.getDoubleVals()).isEqualTo(new double[]{1.5});
+        assertThat(pr.getDict()).isEqualTo(Arrays.asList("bean1", "bean2", "x"));
+
+        List<PerfSample> samples = pr.toPerfSamples();
+        assertThat(samples.size()).isEqualTo(3);
+        assertThat(samples.get(0).getAttrs()).isEqualTo(ZorkaUtil.<Integer, String>map(sid("NAME"), "bean2", sid("TYPE"), "x"));
+        assertThat(samples.get(1).getAttrs()).isNull();
+        assertThat(samples.get(2).getValue()).isEqualTo(1.5);
+        assertThat(samples.get(2).getAttrs()).isEqualTo(ZorkaUtil.<Integer, String>map(sid("NAME"), "bean1"));
+    }
+
+
+    private List<ColumnarPerfRecord> readCompressed(PerfDataCodec codec) throws Exception {
+        List<ColumnarPerfRecord> rslt = new ArrayList<ColumnarPerfRecord>();
+        FressianReader reader = reader();
+
+        try {
+            for (Object obj = reader.readObject(); ; obj = reader.readObject()) {
+                if (obj instanceof CompressedPerfRecord) {
+                    rslt.add(codec.decode((CompressedPerfRecord) obj));
+                }
+            }
+        } catch (EOFException e) {
+            return rslt;
+        }
+    }
+
+
+    @Test
+    public void testReadWriteCompressedPerfRecords() throws Exception {
+        MetricTemplate mt = metrics.getTemplate(
+                new MetricTemplate(0, MetricTemplate.RAW_DATA, "test", "Test Metric", "m/s", "nomNom", "divDiv"));
+
+        Metric m1 = metrics.getMetric(new RawDataMetric(0, mt.getId(), "m1", "Test", ZorkaUtil.<String, Object>map()));
+        Metric m2 = metrics.getMetric(new RawDataMetric(0, mt.getId(), "m2", "Test", ZorkaUtil.<String, Object>map()));
+        m1.setTemplate(mt); m1.setTemplateId(mt.getId());
+        m2.setTemplate(mt); m2.setTemplateId(mt.getId());
+
+        writer = new FressianTraceWriter(symbols, metrics, true);
+        writer.setOutput(mkf(output));
+
+        for (int i = 0; i < 10; i++) {
+            PerfSample ps1 = new PerfSample(m1.getId(), 1000L + i * 7);
+            PerfSample ps2 = new PerfSample(m2.getId(), 0.5 + i * 0.25,
+                    ZorkaUtil.<Integer, String>map(sid("NAME"), "bean" + (i % 2)));
+            writer.write(new PerfRecord(10000L + i * 10000L + (i % 3), sid("PERF"), Arrays.asList(ps1, ps2)));
+        }
+
+        List<ColumnarPerfRecord> recs = readCompressed(new PerfDataCodec());
+        assertThat(recs.size()).isEqualTo(10);
+
+        for (int i = 0; i < 10; i++) {
+            ColumnarPerfRecord r = recs.get(i);
+            assertThat(r.getClock()).isEqualTo(10000L + i * 10000L + (i % 3));
+            assertThat(r.getScannerId()).isEqualTo(sid("PERF"));
+            assertThat(r.getLongIds()).isEqualTo(new int[]{m1.getId()});
+            assertThat(r.getLongVals()).isEqualTo(new long[]{1000L + i * 7});
+            assertThat(r.getDoubleVals()).isEqualTo(new double[]{0.5 + i * 0.25});
+            assertThat(r.getAttrs(1)).isEqualTo(ZorkaUtil.<Integer, String>map(sid("NAME"), "bean" + (i % 2)));
+        }
+    }
+
+
+    @Test
+    public void testCompressedPerfRecordsAfterWriterReset() throws Exception {
+        MetricTemplate mt = metrics.getTemplate(
+                new MetricTemplate(0, MetricTemplate.RAW_DATA, "test", "Test Metric", "m/s", "nomNom", "divDiv"));
+        Metric m = metrics.getMetric(new RawDataMetric(0, mt.getId(), "m", "Test", ZorkaUtil.<String, Object>map()));
+        m.setTemplate(mt); m.setTemplateId(mt.getId());
+
+        writer = new FressianTraceWriter(symbols, metrics, true);
+        writer.setOutput(mkf(output));
+        PerfDataCodec codec = new PerfDataCodec();
+
+        ColumnarPerfRecord.Builder b = new ColumnarPerfRecord.Builder();
+        b.add(m.getId(), 100L);
+        b.add(m.getId(), Double.NaN);
+        writer.write(b.build(1000L, sid("PERF")));
+
+        assertThat(readCompressed(codec).get(0).getLongVals()).isEqualTo(new long[]{100L});
+
+        output.reset();
+        writer.reset();
+
+        b = new ColumnarPerfRecord.Builder();
+        b.add(m.getId(), -5L);
+        b.add(m.getId(), 1.0);
+        writer.write(b.build(2000L, sid("PERF")));
+
+        // Codec state left from previous stream must be discarded
+        ColumnarPerfRecord r = readCompressed(codec).get(0);
+        assertThat(r.getClock()).isEqualTo(2000L);
+        assertThat(r.getLongVals()).isEqualTo(new long[]{-5L});
+        assertThat(r.getDoubleVals()).isEqualTo(new double[]{1.0});
+    }
+
+
+    @Test
+    public void testDecodeCompressedPerfRecordsWithReaderLookup() throws Exception {
+        MetricTemplate mt = metrics.getTemplate(
+                new MetricTemplate(0, MetricTemplate.RAW_DATA, "test", "Test Metric", "m/s", "nomNom", "divDiv"));
+        Metric m = metrics.getMetric(new RawDataMetric(0, mt.getId(), "m", "Test", ZorkaUtil.<String, Object>map()));
+        m.setTemplate(mt); m.setTemplateId(mt.getId());
+
+        writer = new FressianTraceWriter(symbols, metrics, true);
+        writer.setOutput(mkf(output));
+
+        for (int i = 0; i < 5; i++) {
+            writer.write(new PerfRecord(1000L + i * 1000L, sid("PERF"),
+                    Arrays.asList(new PerfSample(m.getId(), 100L + i * i))));
+        }
+
+        FressianReader reader = new FressianReader(new ByteArrayInputStream(output.toByteArray()),
+                FressianTraceFormat.readLookup(new PerfDataCodec()));
+        List<ColumnarPerfRecord> recs = new ArrayList<ColumnarPerfRecord>();
+
+        try {
+            for (Object obj = reader.readObject(); ; obj = reader.readObject()) {
+                assertThat(obj instanceof CompressedPerfRecord).isFalse();
+                if (obj instanceof ColumnarPerfRecord) {
+                    recs.add((ColumnarPerfRecord) obj);
+                }
+            }
+        } catch (EOFException e) {
+        }
+
+        assertThat(recs.size()).isEqualTo(5);
+        for (int i = 0; i < 5; i++) {
+            assertThat(recs.get(i).getClock()).isEqualTo(1000L + i * 1000L);
+            assertThat(recs.get(i).getLongIds()).isEqualTo(new int[]{m.getId()});
+            assertThat(recs.get(i).getLongVals()).isEqualTo(new long[]{100L + i * i});
+        }
+    }
+
+
+    @Test
+    public void testReadWriteProfileRecord() throws Exception {
+        ProfileRecord pr = new ProfileRecord(100L, sid("PROFILE"), 3,
+                new int[]{0, sid("some.Class"), sid("other.Class")}, new int[]{0, sid("run"), sid("calc")},
+                new int[]{-1, 0, 1}, new int[]{3, 3, 2}, new int[]{0, 1, 2});
+
+        writer.write(pr);
+
+        FressianReader reader = reader();
+
+        Object obj = reader.readObject();
+
+        while (obj instanceof Symbol) {
+            obj = reader.readObject();
+        }
+
+        ProfileRecord pr2 = (ProfileRecord) obj;
+        assertThat(pr2.getClock()).isEqualTo(100L);
+        assertThat(pr2.getProfileId()).isEqualTo(sid("PROFILE"));
+        assertThat(pr2.getSamples()).isEqualTo(3);
+        assertThat(pr2.getMethodIds()).isEqualTo(pr.getMethodIds());
+        assertThat(pr2.getParents()).isEqualTo(new int[]{-1, 0, 1});
+        assertThat(pr2.getSelfCounts()).isEqualTo(new int[]{0, 1, 2});
+        assertThat(pr2.toCollapsedStacks(symbols)).isEqualTo("some.Class.run 1\nsome.Class.run;other.Class.calc 2\n");
+    }
+
 }
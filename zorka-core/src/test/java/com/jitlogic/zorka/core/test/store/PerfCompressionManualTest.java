@@ -0,0 +1,153 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jitlogic.zorka.core.test.store;
+
+import com.jitlogic.zorka.common.tracedata.*;
+import org.fressian.FressianReader;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static com.jitlogic.zorka.common.tracedata.FressianTraceFormat.READ_LOOKUP;
+
+/**
+ * Compares size and encoding throughput of plain, columnar and compressed performance data.
+ * Uses performance records from recorded trace file (-Dperf.file=/path/to/trace.ztr) or
+ * synthetic data resembling JMX scanner output (counters, gauges, utilization ratios).
+ */
+public class PerfCompressionManualTest {
+
+    private SymbolRegistry symbols = new SymbolRegistry();
+    private MetricsRegistry metrics = new MetricsRegistry();
+
+
+    private List<PerfRecord> syntheticData(int cycles, int nmetrics) {
+        Random rand = new Random(42);
+        List<PerfRecord> recs = new ArrayList<PerfRecord>(cycles);
+        long[] counters = new long[nmetrics];
+        int scannerId = symbols.symbolId("JMX");
+
+        for (int c = 0; c < cycles; c++) {
+            List<PerfSample> samples = new ArrayList<PerfSample>(nmetrics);
+            for (int m = 0; m < nmetrics; m++) {
+                switch (m % 4) {
+                    case 0:     // monotonic counters
+                        counters[m] += rand.nextInt(100);
+                        samples.add(new PerfSample(m + 1, counters[m]));
+                        break;
+                    case 1:     // mostly constant gauges
+                        samples.add(new PerfSample(m + 1, (long) (m * 10 + (rand.nextInt(20) == 0 ? 1 : 0))));
+                        break;
+                    case 2:     // utilization ratios
+                        samples.add(new PerfSample(m + 1, Math.round(rand.nextDouble() * 100.0) / 100.0));
+                        break;
+                    default:    // rarely changing doubles
+                        samples.add(new PerfSample(m + 1, 0.25 * m + (rand.nextInt(10) == 0 ? 0.5 : 0.0)));
+                }
+            }
+            recs.add(new PerfRecord(1400000000000L + c * 10000L + rand.nextInt(5), scannerId, samples));
+        }
+
+        return recs;
+    }
+
+
+    private List<SymbolicRecord> recordedData(String path) throws IOException {
+        List<SymbolicRecord> recs = new ArrayList<SymbolicRecord>();
+        InputStream is = new BufferedInputStream(new FileInputStream(path));
+        if (path.endsWith(".gz")) {
+            is = new GZIPInputStream(is);
+        }
+        PerfDataCodec codec = new PerfDataCodec();
+        FressianReader reader = new FressianReader(is, READ_LOOKUP);
+        try {
+            for (Object obj = reader.readObject(); ; obj = reader.readObject()) {
+                if (obj instanceof Symbol) {
+                    symbols.put(((Symbol) obj).getId(), ((Symbol) obj).getName());
+                } else if (obj instanceof PerfRecord || obj instanceof ColumnarPerfRecord) {
+                    recs.add((SymbolicRecord) obj);
+                } else if (obj instanceof CompressedPerfRecord) {
+                    recs.add(codec.decode((CompressedPerfRecord) obj));
+                }
+            }
+        } catch (EOFException e) {
+            is.close();
+        }
+        return recs;
+    }
+
+
+    private int samples(List<? extends SymbolicRecord> recs) {
+        int n = 0;
+        for (SymbolicRecord r : recs) {
+            n += r instanceof PerfRecord ? ((PerfRecord) r).getSamples().size() : ((ColumnarPerfRecord) r).size();
+        }
+        return n;
+    }
+
+
+    private long encode(List<? extends SymbolicRecord> recs, String mode, int nsamples) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        FressianTraceWriter writer = new FressianTraceWriter(symbols, metrics, "compressed".equals(mode)) {
+            @Override
+            public void checkMetric(int id) {
+                // Metric descriptors are not part of this benchmark
+            }
+        };
+        writer.setOutput(new TraceStreamOutput() {
+            @Override
+            public OutputStream getOutputStream() {
+                return os;
+            }
+        });
+
+        long t1 = System.nanoTime();
+        for (SymbolicRecord r : recs) {
+            if ("columnar".equals(mode) && r instanceof PerfRecord) {
+                r = PerfDataCodec.toColumnar((PerfRecord) r);
+            }
+            writer.write(r);
+        }
+        long t = System.nanoTime() - t1;
+
+        System.out.println(String.format("%-12s bytes=%-10d bytes/sample=%-8.2f encode=%.0f samples/s",
+                mode, os.size(), (double) os.size() / nsamples, 1e9 * nsamples / t));
+
+        return os.size();
+    }
+
+
+    @Test
+    public void testCompareEncodings() throws Exception {
+        String path = System.getProperty("perf.file");
+        List<? extends SymbolicRecord> recs = path != null ? recordedData(path) : syntheticData(1000, 5000);
+        int n = samples(recs);
+
+        System.out.println("Records: " + recs.size() + ", samples: " + n + (path != null ? " (" + path + ")" : " (synthetic)"));
+
+        for (int pass = 0; pass < 3; pass++) {
+            System.out.println("Pass " + pass + ":");
+            encode(recs, "plain", n);
+            encode(recs, "columnar", n);
+            encode(recs, "compressed", n);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.store;
+
+import com.jitlogic.zorka.common.tracedata.*;
+import org.fressian.FressianReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.jitlogic.zorka.common.tracedata.FressianTraceFormat.READ_LOOKUP;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class StackTraceCacheUnitTest {
+
+    private SymbolRegistry symbols = new SymbolRegistry();
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private StackTraceCache oldCache;
+
+
+    @Before
+    public void setUp() {
+        oldCache = SymbolicException.getStackCache();
+        SymbolicException.setStackCache(new StackTraceCache(64, 0));
+    }
+
+
+    @After
+    public void tearDown() {
+        SymbolicException.setStackCache(oldCache);
+    }
+
+
+    private Exception error(String msg) {
+        return new IllegalStateException(msg);
+    }
+
+
+    private List<Exception> errors(int n) {
+        List<Exception> lst = new ArrayList<Exception>();
+        for (int i = 0; i < n; i++) {
+            lst.add(error("error " + i));    // all of them thrown from the same place
+        }
+        return lst;
+    }
+
+
+    private TraceRecord tr(Exception e) {
+        TraceRecord tr = new TraceRecord(null);
+        tr.setClassId(symbols.symbolId("some.Class"));
+        tr.setMethodId(symbols.symbolId("someMethod"));
+        tr.setSignatureId(symbols.symbolId("()V"));
+        tr.setTime(100);
+        tr.setCalls(1);
+        tr.setErrors(1);
+        tr.setException(new SymbolicException(e, symbols, true));
+        return tr;
+    }
+
+
+    private TraceStreamOutput mkf(final OutputStream output) {
+        return new TraceStreamOutput() {
+            @Override
+            public OutputStream getOutputStream() {
+                return output;
+            }
+        };
+    }
+
+
+    @Test
+    public void testSameStackIsSymbolizedOnce() {
+        List<Exception> errs = errors(2);
+        SymbolicException e1 = new SymbolicException(errs.get(0), symbols, false);
+        SymbolicException e2 = new SymbolicException(errs.get(1), symbols, false);
+        SymbolicException e3 = new SymbolicException(error("other place"), symbols, false);
+
+        assertThat(e1.getStackId()).isNotEqualTo(0);
+        assertThat(e2.getStackId()).isEqualTo(e1.getStackId());
+        assertThat(e2.getStackTrace()).isSameAs(e1.getStackTrace());
+        assertThat(e2.getMessage()).isEqualTo("error 1");
+        assertThat(e3.getStackId()).isNotEqualTo(e1.getStackId());
+    }
+
+
+    @Test
+    public void testStacksAreNotSharedBetweenSymbolRegistries() {
+        List<Exception> errs = errors(2);
+        SymbolicException e1 = new SymbolicException(errs.get(0), symbols, false);
+        SymbolicException e2 = new SymbolicException(errs.get(1), new SymbolRegistry(), false);
+
+        assertThat(e2.getStackTrace()).isNotSameAs(e1.getStackTrace());
+    }
+
+
+    @Test
+    public void testMaxDepthAndDisabledCache() {
+        SymbolicException.setStackCache(new StackTraceCache(0, 3));
+        Exception e = error("oja!");
+
+        SymbolicException e1 = new SymbolicException(e, symbols, false);
+        SymbolicException e2 = new SymbolicException(e, symbols, false);
+
+        assertThat(e1.getStackTrace().length).isEqualTo(3);
+        assertThat(e1.getStackTrace()[0]).isEqualTo(new SymbolicStackElement(e.getStackTrace()[0], symbols));
+        assertThat(e1.getStackId()).isEqualTo(0);
+        assertThat(e2.getStackTrace()).isNotSameAs(e1.getStackTrace());
+    }
+
+
+    @Test
+    public void testFressianWriterSendsStackOnceAndReaderResolvesIt() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FressianTraceWriter writer = new FressianTraceWriter(symbols, metrics, false, true);
+        writer.setOutput(mkf(output));
+
+        List<TraceRecord> orig = new ArrayList<TraceRecord>();
+        for (Exception e : errors(3)) {
+            orig.add(tr(e));
+            writer.write(orig.get(orig.size() - 1));
+        }
+
+        FressianReader reader = new FressianReader(new ByteArrayInputStream(output.toByteArray()), READ_LOOKUP);
+        Map<Integer, SymbolicStackElement[]> stacks = new HashMap<Integer, SymbolicStackElement[]>();
+        List<TraceRecord> records = new ArrayList<TraceRecord>();
+
+        try {
+            for (Object obj = reader.readObject(); obj != null; obj = reader.readObject()) {
+                if (obj instanceof SymbolicStack) {
+                    stacks.put(((SymbolicStack) obj).getId(), ((SymbolicStack) obj).getElements());
+                } else if (obj instanceof TraceRecord) {
+                    records.add((TraceRecord) obj);
+                }
+            }
+        } catch (EOFException e) {
+        }
+
+        assertThat(stacks.size()).isEqualTo(1);
+        assertThat(records.size()).isEqualTo(3);
+
+        for (int i = 0; i < 3; i++) {
+            SymbolicException se = (SymbolicException) records.get(i).getException();
+            se.resolveStacks(stacks);
+            assertThat(se.getMessage()).isEqualTo("error " + i);
+            assertThat(se).isEqualTo(orig.get(i).getException());
+        }
+    }
+
+
+    @Test
+    public void testFressianWriterWithoutStackRefsWritesFullStacks() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FressianTraceWriter writer = new FressianTraceWriter(symbols, metrics);
+        writer.setOutput(mkf(output));
+
+        TraceRecord tr = tr(error("oja!"));
+        writer.write(tr);
+
+        FressianReader reader = new FressianReader(new ByteArrayInputStream(output.toByteArray()), READ_LOOKUP);
+        Object obj = reader.readObject();
+        while (obj instanceof Symbol) {
+            obj = reader.readObject();
+        }
+
+        assertThat(((TraceRecord) obj).getException()).isEqualTo(tr.getException());
+    }
+
+
+    @Test
+    public void testBinaryWriterSendsStackOnce() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryTraceWriter writer = new BinaryTraceWriter(symbols, metrics);
+        writer.setOutput(mkf(output));
+
+        List<TraceRecord> orig = new ArrayList<TraceRecord>();
+        for (Exception e : errors(3)) {
+            orig.add(tr(e));
+            writer.write(orig.get(orig.size() - 1));
+        }
+
+        BinaryTraceReader reader = new BinaryTraceReader(new ByteArrayInputStream(output.toByteArray()));
+        int nstacks = 0;
+        List<TraceRecord> records = new ArrayList<TraceRecord>();
+
+        for (Object obj = reader.readObject(); obj != null; obj = reader.readObject()) {
+            if (obj instanceof SymbolicStack) {
+                nstacks++;
+            } else if (obj instanceof TraceRecord) {
+                records.add((TraceRecord) obj);
+            }
+        }
+
+        assertThat(nstacks).isEqualTo(1);
+        for (int i = 0; i < 3; i++) {
+            assertThat(records.get(i).getException()).isEqualTo(orig.get(i).getException());
+        }
+    }
+}
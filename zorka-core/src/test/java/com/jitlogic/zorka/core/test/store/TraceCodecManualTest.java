@@ -0,0 +1,203 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.store;
+
+import com.jitlogic.zorka.common.tracedata.*;
+import org.fressian.FressianReader;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static com.jitlogic.zorka.common.tracedata.FressianTraceFormat.READ_LOOKUP;
+
+/**
+ * Compares size, encoding and decoding throughput of Fressian and binary trace formats.
+ * Uses traces from recorded trace file (-Dtrace.file=/path/to/trace.ztr) or synthetic
+ * trace trees resembling typical web application traces (deep call trees with SQL and URL
+ * attributes, some exceptions).
+ */
+public class TraceCodecManualTest {
+
+    private SymbolRegistry symbols = new SymbolRegistry();
+    private MetricsRegistry metrics = new MetricsRegistry();
+
+
+    private TraceRecord syntheticRecord(Random rand, int depth, long time) {
+        TraceRecord tr = new TraceRecord(null);
+        tr.setClassId(symbols.symbolId("com.example.app.layer" + depth + ".Class" + rand.nextInt(20)));
+        tr.setMethodId(symbols.symbolId("method" + rand.nextInt(50)));
+        tr.setSignatureId(symbols.symbolId("(Ljava/lang/String;)V"));
+        tr.setTime(time);
+        tr.setCalls(1);
+
+        if (depth == 5 && rand.nextInt(3) == 0) {
+            tr.setAttr(symbols.symbolId("SQL"), "select * from table" + rand.nextInt(30) + " where id = ?");
+            tr.setAttr(symbols.symbolId("DB"), "jdbc/main");
+        }
+
+        if (rand.nextInt(200) == 0) {
+            tr.setException(new SymbolicException(new IllegalStateException("Test error " + rand.nextInt(10)), symbols, false));
+            tr.setFlags(TraceRecord.EXCEPTION_PASS);
+            tr.setErrors(1);
+        }
+
+        if (depth < 6 && time > 1000) {
+            int n = 1 + rand.nextInt(depth < 2 ? 3 : 6);
+            long left = time - time / 10;
+            for (int i = 0; i < n && left > 0; i++) {
+                long t = i == n - 1 ? left : (long) (left * rand.nextDouble());
+                TraceRecord c = syntheticRecord(rand, depth + 1, t);
+                left -= t;
+                c.setParent(tr);
+                tr.addChild(c);
+                tr.setCalls(tr.getCalls() + c.getCalls());
+                tr.setErrors(tr.getErrors() + c.getErrors());
+            }
+        }
+
+        return tr;
+    }
+
+
+    private List<TraceRecord> syntheticData(int ntraces) {
+        Random rand = new Random(42);
+        List<TraceRecord> recs = new ArrayList<TraceRecord>(ntraces);
+
+        for (int i = 0; i < ntraces; i++) {
+            TraceRecord tr = syntheticRecord(rand, 0, 10000000L + rand.nextInt(500000000));
+            tr.setFlags(tr.getFlags() | TraceRecord.TRACE_BEGIN);
+            tr.setMarker(new TraceMarker(tr, symbols.symbolId("HTTP"), 1400000000000L + i * 100L));
+            tr.setAttr(symbols.symbolId("URI"), "/app/page" + rand.nextInt(100) + ".jsp");
+            tr.setAttr(symbols.symbolId("STATUS"), 200L);
+            recs.add(tr);
+        }
+
+        return recs;
+    }
+
+
+    private List<TraceRecord> recordedData(String path) throws IOException {
+        List<TraceRecord> recs = new ArrayList<TraceRecord>();
+        InputStream is = new FileInputStream(path);
+        byte[] hdr = new byte[4];
+        if (is.read(hdr) != 4 || hdr[0] != 'Z' || hdr[1] != 'T' || hdr[2] != 'R') {
+            throw new IOException("Not a trace file: " + path);
+        }
+        is = hdr[3] == 'Z' ? new InflaterInputStream(is, new Inflater(true), 65536) : is;
+        FressianReader reader = new FressianReader(new BufferedInputStream(is), READ_LOOKUP);
+        try {
+            for (Object obj = reader.readObject(); obj != null; obj = reader.readObject()) {
+                if (obj instanceof Symbol) {
+                    symbols.put(((Symbol) obj).getId(), ((Symbol) obj).getName());
+                } else if (obj instanceof TraceRecord) {
+                    recs.add((TraceRecord) obj);
+                }
+            }
+        } catch (EOFException e) {
+        } finally {
+            is.close();
+        }
+        return recs;
+    }
+
+
+    private int count(TraceRecord tr) {
+        int n = 1;
+        for (int i = 0; i < tr.numChildren(); i++) {
+            n += count(tr.getChild(i));
+        }
+        return n;
+    }
+
+
+    private TraceWriter writer(String format, final OutputStream os) {
+        TraceWriter writer = "binary".equals(format)
+                ? new BinaryTraceWriter(symbols, metrics) : new FressianTraceWriter(symbols, metrics);
+        writer.setOutput(new TraceStreamOutput() {
+            @Override
+            public OutputStream getOutputStream() {
+                return os;
+            }
+        });
+        return writer;
+    }
+
+
+    private int decode(String format, byte[] data) throws IOException {
+        InputStream is = new ByteArrayInputStream(data);
+        int n = 0;
+        if ("binary".equals(format)) {
+            BinaryTraceReader reader = new BinaryTraceReader(is);
+            for (Object obj = reader.readObject(); obj != null; obj = reader.readObject()) {
+                n++;
+            }
+        } else {
+            FressianReader reader = new FressianReader(is, READ_LOOKUP);
+            try {
+                for (Object obj = reader.readObject(); obj != null; obj = reader.readObject()) {
+                    n++;
+                }
+            } catch (EOFException e) {
+            }
+        }
+        return n;
+    }
+
+
+    private void run(List<TraceRecord> recs, String format, int nrecords) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TraceWriter writer = writer(format, os);
+
+        long t1 = System.nanoTime();
+        for (TraceRecord r : recs) {
+            writer.write(r);
+        }
+        long t2 = System.nanoTime();
+        decode(format, os.toByteArray());
+        long t3 = System.nanoTime();
+
+        System.out.println(String.format("%-10s bytes=%-10d bytes/record=%-7.2f encode=%.0f rec/s decode=%.0f rec/s",
+                format, os.size(), (double) os.size() / nrecords,
+                1e9 * nrecords / (t2 - t1), 1e9 * nrecords / (t3 - t2)));
+    }
+
+
+    @Test
+    public void testCompareTraceFormats() throws Exception {
+        String path = System.getProperty("trace.file");
+        List<TraceRecord> recs = path != null ? recordedData(path) : syntheticData(2000);
+
+        int n = 0;
+        for (TraceRecord r : recs) {
+            n += count(r);
+        }
+
+        System.out.println("Traces: " + recs.size() + ", records: " + n + (path != null ? " (" + path + ")" : " (synthetic)"));
+
+        for (int pass = 0; pass < 5; pass++) {
+            System.out.println("Pass " + pass + ":");
+            run(recs, "fressian", n);
+            run(recs, "binary", n);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2012-2015 Rafal Lewczuk <rafal.lewczuk@jitlogic.com>
+ * <p/>
+ * This is free software. You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jitlogic.zorka.core.test.store;
+
+import com.jitlogic.zorka.common.tracedata.SymbolicRecord;
+import com.jitlogic.zorka.common.tracedata.TraceRecord;
+import com.jitlogic.zorka.common.tracedata.TraceStreamOutput;
+import com.jitlogic.zorka.common.tracedata.TraceWriter;
+import com.jitlogic.zorka.common.zico.ZicoSpillQueue;
+import com.jitlogic.zorka.common.zico.ZicoTraceOutput;
+import com.jitlogic.zorka.core.test.support.ZorkaFixture;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ZicoSpillQueueUnitTest extends ZorkaFixture {
+
+    private static byte[] packet(int n, int len) {
+        byte[] data = new byte[len];
+        Arrays.fill(data, (byte) n);
+        return data;
+    }
+
+
+    private File spillDir() {
+        return new File(getTmpDir(), "spill");
+    }
+
+
+    private int segmentFiles() {
+        return spillDir().list().length;
+    }
+
+
+    @Test
+    public void testFifoOrderAcrossSegments() throws Exception {
+        ZicoSpillQueue q = new ZicoSpillQueue(spillDir(), 4096, 1024 * 1024);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(q.offer(packet(i, 1000))).isTrue();
+        }
+
+        assertThat(q.size()).isEqualTo(10);
+        assertThat(segmentFiles()).isEqualTo(3);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(Arrays.equals(packet(i, 1000), q.peek())).isTrue();
+            q.remove();
+        }
+
+        assertThat(q.isEmpty()).isTrue();
+        assertThat(q.peek()).isNull();
+        assertThat(q.getDiskSize()).isEqualTo(0L);
+        assertThat(segmentFiles()).isEqualTo(0);
+    }
+
+
+    @Test
+    public void testTotalSizeIsBounded() throws Exception {
+        ZicoSpillQueue q = new ZicoSpillQueue(spillDir(), 4096, 8192);
+
+        for (int i = 0; i < 8; i++) {
+            assertThat(q.offer(packet(i, 1000))).isTrue();
+        }
+
+        assertThat(q.offer(packet(8, 1000))).isFalse();
+        assertThat(q.size()).isEqualTo(8);
+
+        q.remove();
+        assertThat(q.offer(packet(8, 1000))).isFalse();
+
+        for (int i = 0; i < 3; i++) {
+            q.remove();
+        }
+        assertThat(q.offer(packet(8, 1000))).isTrue();
+    }
+
+
+    @Test
+    public void testRecoverPartiallyConsumedQueue() throws Exception {
+        ZicoSpillQueue q = new ZicoSpillQueue(spillDir(), 4096, 1024 * 1024);
+
+        for (int i = 0; i < 6; i++) {
+            q.offer(packet(i, 1000));
+        }
+        q.remove();
+        q.remove();
+        q.close();
+
+        q = new ZicoSpillQueue(spillDir(), 4096, 1024 * 1024);
+        assertThat(q.size()).isEqualTo(4);
+
+        q.offer(packet(6, 1000));
+
+        for (int i = 2; i < 7; i++) {
+            assertThat(Arrays.equals(packet(i, 1000), q.peek())).isTrue();
+            q.remove();
+        }
+
+        assertThat(q.isEmpty()).isTrue();
+    }
+
+
+    @Test
+    public void testRecoverTornRecord() throws Exception {
+        ZicoSpillQueue q = new ZicoSpillQueue(spillDir(), 4096, 1024 * 1024);
+
+        for (int i = 0; i < 3; i++) {
+            q.offer(packet(i, 1000));
+        }
+        q.close();
+
+        // Damage data of last record (as if process crashed while writing it)
+        RandomAccessFile f = new RandomAccessFile(new File(spillDir(), spillDir().list()[0]), "rw");
+        f.seek(16 + 2 * 1008 + 8 + 500);
+        f.write(42);
+        f.close();
+
+        q = new ZicoSpillQueue(spillDir(), 4096, 1024 * 1024);
+        assertThat(q.size()).isEqualTo(2);
+
+        q.offer(packet(3, 1000));
+        q.close();
+
+        q = new ZicoSpillQueue(spillDir(), 4096, 1024 * 1024);
+        assertThat(q.size()).isEqualTo(3);
+
+        for (int i : new int[]{0, 1, 3}) {
+            assertThat(Arrays.equals(packet(i, 1000), q.peek())).isTrue();
+            q.remove();
+        }
+    }
+
+
+    @Test
+    public void testDiscardInvalidSegment() throws Exception {
+        spillDir().mkdirs();
+        RandomAccessFile f = new RandomAccessFile(new File(spillDir(), "0000000000000007.spill"), "rw");
+        f.setLength(4096);
+        f.close();
+
+        ZicoSpillQueue q = new ZicoSpillQueue(spillDir(), 4096, 1024 * 1024);
+        assertThat(q.isEmpty()).isTrue();
+
+        q.offer(packet(1, 100));
+        assertThat(spillDir().list()).isEqualTo(new String[]{"0000000000000008.spill"});
+    }
+
+
+    @Test
+    public void testSpillPacketsWhenCollectorIsUnreachable() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        int port = ss.getLocalPort();
+        ss.close();
+
+        ZicoSpillQueue q = new ZicoSpillQueue(spillDir(), 4096, 1024 * 1024);
+        ZicoTraceOutput output = new ZicoTraceOutput(new TestWriter(), "127.0.0.1", port, "test", "test",
+                64, 1024, 1, 10, 2, 1000, q);
+
+        output.submit(new TraceRecord());
+        output.runCycle();
+
+        assertThat(q.size()).isEqualTo(1);
+        assertThat(output.getSpilledPackets()).isEqualTo(1L);
+
+        // Packets are spilled without reconnecting until retry time passes
+        output.submit(new TraceRecord());
+        output.submit(new TraceRecord());
+        output.runCycle();
+
+        assertThat(q.size()).isEqualTo(2);
+        assertThat(q.peek()).isEqualTo(new byte[]{'R', 'T'});
+        q.remove();
+        assertThat(q.peek()).isEqualTo(new byte[]{'R', 'T', 'T'});
+        assertThat(output.getReplayedPackets()).isEqualTo(0L);
+    }
+
+
+    /**
+     * Writes one byte per record, marks reset with 'R' (so self-contained packets can be recognized).
+     */
+    private static class TestWriter implements TraceWriter {
+
+        private TraceStreamOutput output;
+
+        @Override
+        public void write(SymbolicRecord record) throws IOException {
+            output.getOutputStream().write('T');
+        }
+
+        @Override
+        public void setOutput(TraceStreamOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void reset() {
+            try {
+                output.getOutputStream().write('R');
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void softReset() {
+        }
+    }
+}
@@ -16,22 +16,35 @@
 package com.jitlogic.zorka.viewer;
 
 
+import com.jitlogic.zorka.common.tracedata.BinaryTraceFormat;
+import com.jitlogic.zorka.common.tracedata.BinaryTraceReader;
+import com.jitlogic.zorka.common.tracedata.BlockTraceFile;
+import com.jitlogic.zorka.common.tracedata.BlockTraceOutputStream;
 import com.jitlogic.zorka.common.tracedata.TraceRecord;
 import com.jitlogic.zorka.common.tracedata.FressianTraceFormat;
 import com.jitlogic.zorka.common.tracedata.Symbol;
 import com.jitlogic.zorka.common.tracedata.SymbolRegistry;
+import com.jitlogic.zorka.common.tracedata.SymbolicException;
+import com.jitlogic.zorka.common.tracedata.SymbolicStack;
+import com.jitlogic.zorka.common.tracedata.SymbolicStackElement;
 import org.fressian.FressianReader;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.*;
 
 public class TraceDataSet {
 
     private SymbolRegistry symbols = new SymbolRegistry();
     private List<ViewerTraceRecord> traceRecords = new ArrayList<ViewerTraceRecord>();
+    private Map<Integer, SymbolicStackElement[]> stacks = new HashMap<Integer, SymbolicStackElement[]>();
 
 
 
@@ -62,22 +75,16 @@ public class TraceDataSet {
 
 
     private void load(File file) {
+        if (isBlockFile(file)) {
+            loadBlocks(file);
+            return;
+        }
+
         InputStream is = null;
 
         try {
             is = open(file);
-            FressianReader r = new FressianReader(is, FressianTraceFormat.READ_LOOKUP);
-            for (Object obj = r.readObject(); obj != null; obj = r.readObject()) {
-                if (obj instanceof Symbol) {
-                    Symbol sym = (Symbol) obj;
-                    symbols.put(sym.getId(), sym.getName());
-                } else if (obj instanceof ViewerTraceRecord) {
-                    ((ViewerTraceRecord) obj).fixup();
-                    traceRecords.add((ViewerTraceRecord) obj);
-                } else {
-                    System.err.println("Unknown object: " + obj);
-                }
-            }
+            read(is);
         } catch (EOFException e) {
 
         } catch (IOException e) {
@@ -94,6 +101,140 @@ public class TraceDataSet {
     }
 
 
+    /**
+     * Loads block structured trace file. Blocks are decompressed in parallel (in batches),
+     * then decoded sequentially as symbols must be registered in file order.
+     */
+    private void loadBlocks(File file) {
+        BlockTraceFile bf = null;
+        int nthreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+
+        try {
+            bf = new BlockTraceFile(file);
+            List<BlockTraceFile.Block> blocks = bf.getBlocks();
+            for (int i = 0; i < blocks.size(); i += nthreads * 4) {
+                List<BlockTraceFile.Block> batch = blocks.subList(i, Math.min(i + nthreads * 4, blocks.size()));
+                for (byte[] data : bf.read(batch, executor)) {
+                    try {
+                        read(new ByteArrayInputStream(data));
+                    } catch (EOFException e) {
+
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            executor.shutdown();
+            try {
+                if (bf != null) {
+                    bf.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    private void read(InputStream is) throws IOException {
+        ObjectSource r = isBinary(is) ? new BinarySource(new BinaryTraceReader(is))
+                : new FressianSource(new FressianReader(is, FressianTraceFormat.READ_LOOKUP));
+        for (Object obj = r.readObject(); obj != null; obj = r.readObject()) {
+            if (obj instanceof Symbol) {
+                Symbol sym = (Symbol) obj;
+                symbols.put(sym.getId(), sym.getName());
+            } else if (obj instanceof SymbolicStack) {
+                SymbolicStack stack = (SymbolicStack) obj;
+                stacks.put(stack.getId(), stack.getElements());
+            } else if (obj instanceof ViewerTraceRecord) {
+                resolveStacks((ViewerTraceRecord) obj);
+                ((ViewerTraceRecord) obj).fixup();
+                traceRecords.add((ViewerTraceRecord) obj);
+            } else {
+                System.err.println("Unknown object: " + obj);
+            }
+        }
+    }
+
+
+    /**
+     * Fills in exception stack traces written as references to previously sent stacks.
+     */
+    private void resolveStacks(TraceRecord tr) {
+        if (tr.getException() instanceof SymbolicException) {
+            ((SymbolicException) tr.getException()).resolveStacks(stacks);
+        }
+        for (int i = 0; i < tr.numChildren(); i++) {
+            resolveStacks(tr.getChild(i));
+        }
+    }
+
+
+    private boolean isBlockFile(File file) {
+        byte[] hdr = new byte[4];
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            return fis.read(hdr) == 4 && Arrays.equals(hdr, BlockTraceOutputStream.ZTRB_MAGIC);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Checks if trace data has been written in binary format (BinaryTraceWriter) rather than Fressian.
+     */
+    private boolean isBinary(InputStream is) throws IOException {
+        is.mark(4);
+        boolean binary = is.read() == BinaryTraceFormat.HEADER && is.read() == 'T' && is.read() == 'B';
+        is.reset();
+        return binary;
+    }
+
+
+    private interface ObjectSource {
+        Object readObject() throws IOException;
+    }
+
+
+    private static class FressianSource implements ObjectSource {
+        private FressianReader reader;
+
+        private FressianSource(FressianReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Object readObject() throws IOException {
+            return reader.readObject();
+        }
+    }
+
+
+    private static class BinarySource implements ObjectSource {
+        private BinaryTraceReader reader;
+
+        private BinarySource(BinaryTraceReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Object readObject() throws IOException {
+            return reader.readObject();
+        }
+    }
+
+
     private InputStream open(File file) throws IOException {
         FileInputStream fis = null;
         try {